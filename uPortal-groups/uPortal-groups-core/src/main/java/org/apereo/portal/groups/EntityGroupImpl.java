@@ -174,12 +174,62 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
             return true;
         }
 
-        boolean found = false;
-        Iterator<IEntityGroup> it = getMemberGroups();
-        while (it.hasNext() && !found) {
-            IEntityGroup group = (IEntityGroup) it.next();
-            if (group != null) {
-                found = group.deepContains(gm);
+        final Set<IEntityGroup> descendantGroups = getDescendantGroups();
+        if (gm.isGroup()) {
+            return descendantGroups.contains(gm);
+        }
+
+        // An entity is a deep member if one of the groups that directly contain it lies below us
+        for (IEntityGroup parent : gm.getParentGroups()) {
+            if (descendantGroups.contains(parent)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the <code>Set</code> of groups recursively contained by this group, computed once and
+     * cached until a membership between groups changes.
+     *
+     * @return Set
+     */
+    private Set<IEntityGroup> getDescendantGroups() throws GroupsException {
+
+        final Cache descendantGroupsCache = getDescendantGroupsCache();
+        final EntityIdentifier cacheKey = getUnderlyingEntityIdentifier();
+        Element element = descendantGroupsCache.get(cacheKey);
+
+        if (element == null) {
+            final Set<IEntityGroup> groups =
+                    Collections.unmodifiableSet(
+                            primGetDescendantGroups(this, new HashSet<IEntityGroup>()));
+            element = new Element(cacheKey, groups);
+            descendantGroupsCache.put(element);
+        }
+
+        @SuppressWarnings("unchecked")
+        final Set<IEntityGroup> rslt = (Set<IEntityGroup>) element.getObjectValue();
+        return rslt;
+    }
+
+    /**
+     * Adds the groups in the member <code>Collection</code> of <code>group</code> and, recursively,
+     * of its member groups to <code>rslt</code>.
+     *
+     * @param group IEntityGroup - The current group in the recursive execution.
+     * @param rslt Set - A Set that groups are added to.
+     * @return Set
+     */
+    private Set<IEntityGroup> primGetDescendantGroups(IEntityGroup group, Set<IEntityGroup> rslt)
+            throws GroupsException {
+        for (IGroupMember child : group.getChildren()) {
+            if (child != null) {
+                // avoid stack overflow in case of circular group dependencies
+                if (child.isGroup() && rslt.add((IEntityGroup) child)) {
+                    primGetDescendantGroups((IEntityGroup) child, rslt);
+                }
             } else {
                 // Something bad has happened:  we've abruptly lost a group node to
                 // which this group node refers.  This is an ERROR condition, but we
@@ -188,13 +238,12 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
                 // need, however, to send a strong message.
                 String msg =
                         "Groups Integrety Error:  Group '"
-                                + this.getName()
+                                + group.getName()
                                 + "' refers to a child group that is no longer available";
                 logger.error(msg);
             }
         }
-
-        return found;
+        return rslt;
     }
     /** Delegates to the factory. */
     @Override
@@ -268,24 +317,6 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
         return getCompositeEntityIdentifier().getLocalKey();
     }
 
-    /**
-     * Returns an <code>Iterator</code> over the groups in our member <code>Collection</code>.
-     * Reflects pending changes.
-     *
-     * @return Iterator
-     */
-    private Iterator<IEntityGroup> getMemberGroups() throws GroupsException {
-
-        Set<IEntityGroup> rslt = new HashSet<>();
-        for (IGroupMember child : getChildren()) {
-            if (child.isGroup()) {
-                rslt.add((IEntityGroup) child);
-            }
-        }
-
-        return rslt.iterator();
-    }
-
     /**
      * Returns an <code>Iterator</code> over the <code>GroupMembers</code> in our member <code>
      * Collection</code>. Reflects pending changes.
@@ -404,6 +435,11 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
         final Set<IGroupMember> children = new HashSet<>(set);
         children.add(gm);
         childrenCache.put(new Element(cacheKey, children));
+
+        // Pending changes are visible through getChildren(), so must be through deepContains()
+        if (gm.isGroup()) {
+            getDescendantGroupsCache().removeAll();
+        }
     }
 
     /**
@@ -442,6 +478,10 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
         final Set<IGroupMember> children = new HashSet<>(set);
         children.remove(gm);
         childrenCache.put(new Element(cacheKey, children));
+
+        if (gm.isGroup()) {
+            getDescendantGroupsCache().removeAll();
+        }
     }
 
     /** @param newName String */
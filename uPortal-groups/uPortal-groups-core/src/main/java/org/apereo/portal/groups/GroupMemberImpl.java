@@ -44,6 +44,14 @@ public abstract class GroupMemberImpl implements IGroupMember {
     private EntityIdentifier underlyingEntityIdentifier;
 
     private final Cache parentGroupsCache;
+
+    /*
+     * Transitive closures of the group graph:  every group above a member and
+     * every group below a group.  Both are derived from the parentGroups and
+     * children caches and are invalidated together with them.
+     */
+    private final Cache ancestorGroupsCache;
+    private final Cache descendantGroupsCache;
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     /** GroupMemberImpl constructor */
@@ -58,6 +66,10 @@ public abstract class GroupMemberImpl implements IGroupMember {
         CacheManager cacheManager = context.getBean("cacheManager", CacheManager.class);
         this.parentGroupsCache =
                 cacheManager.getCache("org.apereo.portal.groups.GroupMemberImpl.parentGroups");
+        this.ancestorGroupsCache =
+                cacheManager.getCache("org.apereo.portal.groups.GroupMemberImpl.ancestorGroups");
+        this.descendantGroupsCache =
+                cacheManager.getCache("org.apereo.portal.groups.EntityGroupImpl.descendantGroups");
     }
 
     /**
@@ -68,7 +80,21 @@ public abstract class GroupMemberImpl implements IGroupMember {
      */
     @Override
     public Set<IEntityGroup> getAncestorGroups() throws GroupsException {
-        return primGetAncestorGroups(this, new HashSet<IEntityGroup>());
+
+        final EntityIdentifier cacheKey = getUnderlyingEntityIdentifier();
+        Element element = ancestorGroupsCache.get(cacheKey);
+
+        if (element == null) {
+            final Set<IEntityGroup> groups =
+                    Collections.unmodifiableSet(
+                            primGetAncestorGroups(this, new HashSet<IEntityGroup>()));
+            element = new Element(cacheKey, groups);
+            ancestorGroupsCache.put(element);
+        }
+
+        @SuppressWarnings("unchecked")
+        final Set<IEntityGroup> rslt = (Set<IEntityGroup>) element.getObjectValue();
+        return rslt;
     }
 
     /**
@@ -212,9 +238,31 @@ public abstract class GroupMemberImpl implements IGroupMember {
         return true;
     }
 
+    /** @return the cache of groups recursively contained by each group */
+    protected Cache getDescendantGroupsCache() {
+        return descendantGroupsCache;
+    }
+
+    /**
+     * Drops every cached ancestor and descendant closure. Used when an edge between two groups
+     * changes, since that affects the closures of every member above and below it.
+     */
+    private void invalidateGroupClosures() {
+        ancestorGroupsCache.removeAll();
+        descendantGroupsCache.removeAll();
+    }
+
     protected void invalidateInParentGroupsCache(Set<IGroupMember> members) {
+        boolean groupsChanged = false;
         for (IGroupMember member : members) {
-            parentGroupsCache.remove(member.getEntityIdentifier());
+            //Entries are keyed like getParentGroups() and getAncestorGroups() key them
+            final EntityIdentifier cacheKey = member.getUnderlyingEntityIdentifier();
+            parentGroupsCache.remove(cacheKey);
+            ancestorGroupsCache.remove(cacheKey);
+            groupsChanged |= member.isGroup();
+        }
+        if (groupsChanged) {
+            invalidateGroupClosures();
         }
     }
 }
@@ -41,6 +41,8 @@ public class LocalGroupsCacheAuthenticationListener implements IAuthenticationLi
 
     private Cache childrenCache;
 
+    private Cache ancestorGroupsCache;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Autowired
@@ -55,6 +57,12 @@ public class LocalGroupsCacheAuthenticationListener implements IAuthenticationLi
         this.childrenCache = childrenCache;
     }
 
+    @Autowired
+    @Qualifier(value = "org.apereo.portal.groups.GroupMemberImpl.ancestorGroups")
+    public void setAncestorGroupsCache(Cache ancestorGroupsCache) {
+        this.ancestorGroupsCache = ancestorGroupsCache;
+    }
+
     @Override
     public void userAuthenticated(IPerson user) {
 
@@ -67,9 +75,11 @@ public class LocalGroupsCacheAuthenticationListener implements IAuthenticationLi
 
         /*
          * Group/member relationships are cached 2 ways:  child-to-parents and
-         * parent-to-children.  We need to flush both.
+         * parent-to-children.  We need to flush both, as well as the
+         * child-to-ancestors closure built from them.
          */
         final EntityIdentifier ei = user.getEntityIdentifier();
+        ancestorGroupsCache.remove(ei);
         final Element parentGroupsElement = parentGroupsCache.get(ei);
         if (parentGroupsElement != null) {
             // We have some flushing work to do...
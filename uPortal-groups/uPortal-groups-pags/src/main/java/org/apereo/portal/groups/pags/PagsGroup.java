@@ -16,6 +16,7 @@ package org.apereo.portal.groups.pags;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import org.apereo.portal.security.IPerson;
 
@@ -83,6 +84,23 @@ public class PagsGroup {
         return false;
     }
 
+    /**
+     * Same as {@link #contains(IPerson)}, but shares tester outcomes with the other groups
+     * evaluated for this person.
+     *
+     * @param results outcomes of the testers evaluated so far, by tester instance
+     */
+    public boolean contains(IPerson person, Map<IPersonTester, Boolean> results) {
+        if (testGroups.isEmpty()) return false;
+        for (Iterator<TestGroup> i = testGroups.iterator(); i.hasNext(); ) {
+            TestGroup testGroup = i.next();
+            if (testGroup.test(person, results)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String toString() {
         return "GroupDefinition " + key + " (" + name + ")";
     }
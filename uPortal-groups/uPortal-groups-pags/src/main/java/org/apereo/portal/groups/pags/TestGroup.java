@@ -16,6 +16,7 @@ package org.apereo.portal.groups.pags;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import org.apereo.portal.security.IPerson;
 
@@ -39,4 +40,28 @@ public class TestGroup {
         }
         return true;
     }
+
+    /**
+     * Same as {@link #test(IPerson)}, but reuses the outcome of testers already evaluated for this
+     * person and records the outcome of the ones it evaluates.
+     *
+     * @param results outcomes of the testers evaluated so far, by tester instance
+     */
+    public boolean test(IPerson person, Map<IPersonTester, Boolean> results) {
+        for (Iterator<IPersonTester> i = tests.iterator(); i.hasNext(); ) {
+            IPersonTester tester = i.next();
+            if (tester == null) {
+                return false;
+            }
+            Boolean result = results.get(tester);
+            if (result == null) {
+                result = tester.test(person);
+                results.put(tester, result);
+            }
+            if (!result) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -14,12 +14,16 @@
  */
 package org.apereo.portal.groups.pags.dao;
 
+import com.google.common.cache.CacheBuilder;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -74,6 +78,14 @@ public class EntityPersonAttributesGroupStore
      */
     private final Cache membershipCache;
 
+    /**
+     * Testers shared by every PAGS group that defines the same test, so that a test common to
+     * several groups is evaluated once per person. Keyed by tester class, attribute name and test
+     * value; held only as long as a cached PagsGroup references them.
+     */
+    private final com.google.common.cache.Cache<List<String>, IPersonTester> testers =
+            CacheBuilder.newBuilder().weakValues().build();
+
     public EntityPersonAttributesGroupStore() {
         super();
         ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
@@ -135,14 +147,9 @@ public class EntityPersonAttributesGroupStore
                 answer = groupDef.hasMember(key);
             } else {
                 try {
-                    final IPersonAttributeDao pa =
-                            PersonAttributeDaoLocator.getPersonAttributeDao();
-                    final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
-
-                    if (personAttributes != null) {
-                        final RestrictedPerson rp = PersonFactory.createRestrictedPerson();
-                        rp.setAttributes(personAttributes.getAttributes());
-                        answer = groupDef.contains(rp);
+                    final IPerson person = getPerson(member);
+                    if (person != null) {
+                        answer = groupDef.contains(person);
                     }
                 } catch (Exception ex) {
                     logger.error(
@@ -163,6 +170,18 @@ public class EntityPersonAttributesGroupStore
         return (Boolean) element.getObjectValue();
     }
 
+    /** @return the member as a person carrying its directory attributes, or null if unknown */
+    private IPerson getPerson(IGroupMember member) {
+        final IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+        final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+        if (personAttributes == null) {
+            return null;
+        }
+        final RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+        rp.setAttributes(personAttributes.getAttributes());
+        return rp;
+    }
+
     private PagsGroup convertEntityToGroupDef(IEntityGroup group) {
         IPersonAttributesGroupDefinition pagsGroup = getPagsGroupDefByName(group.getName());
         return initGroupDef(pagsGroup);
@@ -246,18 +265,77 @@ public class EntityPersonAttributesGroupStore
         return parents.iterator();
     }
 
+    /**
+     * Evaluates every PAGS group for the member in a single pass. Groups with a cached decision are
+     * answered from the membership cache; the rest are tested against one copy of the member's
+     * attributes, sharing the outcome of testers common to several groups.
+     */
     private Iterator<IEntityGroup> findParentGroupsForEntity(IEntity member)
             throws GroupsException {
 
         Set<IPersonAttributesGroupDefinition> pagsGroups =
                 personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
         List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+        List<IEntityGroup> untested = new ArrayList<IEntityGroup>();
         for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
             IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
-            if (contains(group, member)) {
+            final Element element =
+                    membershipCache.get(
+                            new MembershipCacheKey(
+                                    group.getEntityIdentifier(),
+                                    member.getUnderlyingEntityIdentifier()));
+            if (element == null) {
+                untested.add(group);
+            } else if ((Boolean) element.getObjectValue()) {
                 results.add(group);
             }
         }
+
+        if (!untested.isEmpty()) {
+            logger.debug("Testing {} PAGS groups for member {}", untested.size(), member.getKey());
+
+            final IPerson person;
+            try {
+                person = getPerson(member);
+            } catch (Exception ex) {
+                logger.error(
+                        "Exception acquiring attributes for member "
+                                + member
+                                + " while finding its containing groups.",
+                        ex);
+                return results.iterator();
+            }
+
+            final Map<IPersonTester, Boolean> testerResults = new IdentityHashMap<>();
+            for (IEntityGroup group : untested) {
+                boolean answer = false; // default
+                if (person != null) {
+                    try {
+                        final PagsGroup groupDef = convertEntityToGroupDef(group);
+                        answer = groupDef != null && groupDef.contains(person, testerResults);
+                    } catch (Exception ex) {
+                        logger.error(
+                                "Exception testing member "
+                                        + member
+                                        + " for membership in group "
+                                        + group
+                                        + " while finding its containing groups.",
+                                ex);
+                        continue;
+                    }
+                }
+                membershipCache.put(
+                        new Element(
+                                new MembershipCacheKey(
+                                        group.getEntityIdentifier(),
+                                        member.getUnderlyingEntityIdentifier()),
+                                answer));
+                if (answer) {
+                    results.add(group);
+                }
+            }
+        }
+
         return results.iterator();
     }
 
@@ -428,6 +506,20 @@ public class EntityPersonAttributesGroupStore
     }
 
     private IPersonTester initializeTester(IPersonAttributesGroupTestDefinition test) {
+        final List<String> testerKey =
+                Arrays.asList(
+                        test.getTesterClassName(), test.getAttributeName(), test.getTestValue());
+        IPersonTester tester = testers.getIfPresent(testerKey);
+        if (tester == null) {
+            tester = createTester(test);
+            if (tester != null) {
+                testers.put(testerKey, tester);
+            }
+        }
+        return tester;
+    }
+
+    private IPersonTester createTester(IPersonAttributesGroupTestDefinition test) {
         try {
             Class<?> testerClass = Class.forName(test.getTesterClassName());
             Constructor<?> c =
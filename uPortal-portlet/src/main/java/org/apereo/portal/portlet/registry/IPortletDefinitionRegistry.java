@@ -47,8 +47,20 @@ public interface IPortletDefinitionRegistry {
 
     IPortletDefinition getPortletDefinitionByName(String name);
 
+    /**
+     * @return Immutable list of all portlet definitions, shortcut for {@link
+     *     #getPortletDefinitionCatalog()}
+     */
     List<IPortletDefinition> getAllPortletDefinitions();
 
+    /** @return The current snapshot of all portlet definitions, never null */
+    PortletDefinitionCatalog getPortletDefinitionCatalog();
+
+    /** Register a listener that is notified each time a new catalog is built */
+    void addPortletDefinitionCatalogListener(IPortletDefinitionCatalogListener listener);
+
+    void removePortletDefinitionCatalogListener(IPortletDefinitionCatalogListener listener);
+
     /**
      * Persists changes to a IPortletDefinition.
      *
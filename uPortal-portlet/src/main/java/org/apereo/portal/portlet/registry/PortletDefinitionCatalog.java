@@ -0,0 +1,172 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.registry;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.apereo.portal.portlet.om.PortletLifecycleState;
+
+/**
+ * Immutable, indexed snapshot of all {@link IPortletDefinition}s. A new catalog with a higher
+ * version is built when portlet definitions are saved or deleted, callers can hold on to a catalog
+ * for as long as they need a consistent view.
+ *
+ * <p>The definitions in the catalog are shared between threads and must not be modified.
+ *
+ * @see IPortletDefinitionRegistry#getPortletDefinitionCatalog()
+ */
+public final class PortletDefinitionCatalog {
+    private final long version;
+    private final long timeCreated;
+    private final List<IPortletDefinition> portletDefinitions;
+    private final Map<String, IPortletDefinition> portletDefinitionsById;
+    private final Map<String, IPortletDefinition> portletDefinitionsByFname;
+    private final ImmutableListMultimap<String, IPortletDefinition> portletDefinitionsByType;
+    private final ImmutableListMultimap<PortletLifecycleState, IPortletDefinition>
+            portletDefinitionsByLifecycleState;
+    private final ImmutableSetMultimap<QName, IPortletDefinition> portletDefinitionsByEvent;
+
+    /**
+     * @param version Version of the catalog, higher versions are newer
+     * @param portletDefinitions All portlet definitions, duplicates are ignored
+     * @param supportedProcessingEvents Returns the fully qualified names of the events a portlet
+     *     definition supports processing, may return null
+     */
+    public PortletDefinitionCatalog(
+            long version,
+            Collection<? extends IPortletDefinition> portletDefinitions,
+            Function<? super IPortletDefinition, ? extends Collection<QName>>
+                    supportedProcessingEvents) {
+        this.version = version;
+        this.timeCreated = System.currentTimeMillis();
+
+        //Query results can contain the same definition multiple times due to fetch joins
+        final Map<String, IPortletDefinition> definitionsById =
+                new LinkedHashMap<String, IPortletDefinition>();
+        for (final IPortletDefinition portletDefinition : portletDefinitions) {
+            definitionsById.put(
+                    portletDefinition.getPortletDefinitionId().getStringId(), portletDefinition);
+        }
+
+        final Map<String, IPortletDefinition> definitionsByFname =
+                new LinkedHashMap<String, IPortletDefinition>();
+        final ImmutableListMultimap.Builder<String, IPortletDefinition> byTypeBuilder =
+                ImmutableListMultimap.builder();
+        final ImmutableListMultimap.Builder<PortletLifecycleState, IPortletDefinition>
+                byLifecycleStateBuilder = ImmutableListMultimap.builder();
+        final ImmutableSetMultimap.Builder<QName, IPortletDefinition> byEventBuilder =
+                ImmutableSetMultimap.builder();
+
+        for (final IPortletDefinition portletDefinition : definitionsById.values()) {
+            definitionsByFname.put(portletDefinition.getFName(), portletDefinition);
+
+            final IPortletType type = portletDefinition.getType();
+            if (type != null) {
+                byTypeBuilder.put(type.getName(), portletDefinition);
+            }
+
+            final PortletLifecycleState lifecycleState = portletDefinition.getLifecycleState();
+            if (lifecycleState != null) {
+                byLifecycleStateBuilder.put(lifecycleState, portletDefinition);
+            }
+
+            final Collection<QName> eventNames = supportedProcessingEvents.apply(portletDefinition);
+            if (eventNames != null) {
+                for (final QName eventName : eventNames) {
+                    byEventBuilder.put(eventName, portletDefinition);
+                }
+            }
+        }
+
+        this.portletDefinitions = ImmutableList.copyOf(definitionsById.values());
+        this.portletDefinitionsById = ImmutableMap.copyOf(definitionsById);
+        this.portletDefinitionsByFname = ImmutableMap.copyOf(definitionsByFname);
+        this.portletDefinitionsByType = byTypeBuilder.build();
+        this.portletDefinitionsByLifecycleState = byLifecycleStateBuilder.build();
+        this.portletDefinitionsByEvent = byEventBuilder.build();
+    }
+
+    /** @return Version of the catalog, higher versions are newer */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /** @return Time in milliseconds since the epoch that the catalog was built */
+    public long getTimeCreated() {
+        return this.timeCreated;
+    }
+
+    /** @return Immutable list of all portlet definitions */
+    public List<IPortletDefinition> getPortletDefinitions() {
+        return this.portletDefinitions;
+    }
+
+    /** @return The definition with the id, null if none exists */
+    public IPortletDefinition getPortletDefinition(String portletDefinitionId) {
+        return this.portletDefinitionsById.get(portletDefinitionId);
+    }
+
+    /** @return The definition with the fname, null if none exists */
+    public IPortletDefinition getPortletDefinitionByFname(String fname) {
+        return this.portletDefinitionsByFname.get(fname);
+    }
+
+    /** @return Immutable list of the definitions of the named portlet type */
+    public List<IPortletDefinition> getPortletDefinitionsByType(String typeName) {
+        return this.portletDefinitionsByType.get(typeName);
+    }
+
+    /** @return Immutable list of the definitions that were in the lifecycle state when built */
+    public List<IPortletDefinition> getPortletDefinitionsByLifecycleState(
+            PortletLifecycleState lifecycleState) {
+        return this.portletDefinitionsByLifecycleState.get(lifecycleState);
+    }
+
+    /**
+     * @param eventName Fully qualified event name
+     * @return Immutable set of the definitions that declare the event as a supported processing
+     *     event, aliases are not resolved
+     */
+    public Set<IPortletDefinition> getPortletDefinitionsBySupportedEvent(QName eventName) {
+        return this.portletDefinitionsByEvent.get(eventName);
+    }
+
+    /** @return Immutable set of all event names supported by at least one definition */
+    public Set<QName> getSupportedEvents() {
+        return this.portletDefinitionsByEvent.keySet();
+    }
+
+    @Override
+    public String toString() {
+        return "PortletDefinitionCatalog [version="
+                + this.version
+                + ", portletDefinitions="
+                + this.portletDefinitions.size()
+                + ", supportedEvents="
+                + this.portletDefinitionsByEvent.keySet().size()
+                + "]";
+    }
+}
@@ -38,8 +38,9 @@ import org.apereo.portal.utils.Populator;
  * A object designed for use as a cache key. It assumes that all key values are immutable and
  * pre-computes the hashCode. <br>
  * Tags can be added to a key which are used with the {@link TaggedCacheEntry} facilities. These
- * tags ARE NOT included in CacheKey comparison.
- *
+ * tags ARE NOT included in CacheKey comparison. <br>
+ * A compact {@link CacheKeyFingerprint} of the key can be used in place of the key for cache
+ * lookups of large, nested keys. It is computed on first use and memoized.
  */
 public final class CacheKey implements Serializable, TaggedCacheEntry {
     private static final long serialVersionUID = 1L;
@@ -205,6 +206,7 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
     private final Set<CacheEntryTag> tags;
     private final Serializable[] key;
     @JsonIgnore private final int hashCode;
+    @JsonIgnore private transient volatile CacheKeyFingerprint fingerprint;
 
     CacheKey(String source, Serializable[] key, Set<CacheEntryTag> tags) {
         this.source = source;
@@ -232,6 +234,28 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
         return this.tags;
     }
 
+    /**
+     * @return The 128-bit fingerprint of the source and key, tags are not included. null if the key
+     *     contains a component that cannot be fingerprinted.
+     */
+    @JsonIgnore
+    public CacheKeyFingerprint getFingerprint() {
+        CacheKeyFingerprint f = this.fingerprint;
+        if (f == null) {
+            //Computing the same fingerprint twice is harmless, no need for thread-sync
+            f = CacheKeyFingerprint.fingerprint(this.source, this.key);
+            this.fingerprint = f != null ? f : CacheKeyFingerprint.NONE;
+        }
+        return f != CacheKeyFingerprint.NONE ? f : null;
+    }
+
+    /** @return The fingerprint of the key if it has one, the key itself if it does not */
+    @JsonIgnore
+    public Serializable getLookupKey() {
+        final CacheKeyFingerprint f = this.getFingerprint();
+        return f != null ? f : this;
+    }
+
     private int internalHashCode() {
         final int prime = 31;
         int result = 1;
@@ -0,0 +1,197 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact 128-bit fingerprint of a {@link CacheKey}. Equal keys produce equal fingerprints, the
+ * fingerprint is computed from the source and key components of the {@link CacheKey} using murmur3.
+ * Nested {@link CacheKey}s contribute their own (memoized) fingerprint so a key built from other
+ * keys is hashed incrementally instead of walking the whole key tree again.
+ *
+ * <p>Only common value types, arrays and collections of them are hashed. Sets and maps are hashed
+ * independent of their iteration order to match their equality. Keys with any other component have
+ * no fingerprint and are used as-is, see {@link CacheKey#getLookupKey()}.
+ */
+public final class CacheKeyFingerprint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /** Memoized by {@link CacheKey} in place of null for keys without a fingerprint */
+    static final CacheKeyFingerprint NONE = new CacheKeyFingerprint(0, 0);
+
+    //Markers written before each component so different component types never hash the same
+    private static final byte NULL = 0;
+    private static final byte CACHE_KEY = 1;
+    private static final byte STRING = 2;
+    private static final byte ARRAY = 3;
+    private static final byte LIST = 4;
+    private static final byte INTEGER = 5;
+    private static final byte LONG = 6;
+    private static final byte BOOLEAN = 7;
+    private static final byte ENUM = 8;
+    private static final byte SET = 9;
+    private static final byte MAP = 10;
+    private static final byte LOCALE = 11;
+
+    /** @return The fingerprint of the key, null if any component cannot be fingerprinted */
+    static CacheKeyFingerprint fingerprint(String source, Serializable[] key) {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        if (!putComponent(hasher, source) || !putComponent(hasher, key)) {
+            return null;
+        }
+
+        final HashCode hashCode = hasher.hash();
+        final byte[] bytes = hashCode.asBytes();
+        return new CacheKeyFingerprint(
+                Longs.fromBytes(
+                        bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5], bytes[6],
+                        bytes[7]),
+                Longs.fromBytes(
+                        bytes[8], bytes[9], bytes[10], bytes[11], bytes[12], bytes[13], bytes[14],
+                        bytes[15]));
+    }
+
+    /**
+     * @return false if the component, or one nested inside of it, is not a type that can be hashed
+     *     structurally
+     */
+    private static boolean putComponent(Hasher hasher, Object component) {
+        if (component == null) {
+            hasher.putByte(NULL);
+        } else if (component instanceof CacheKey) {
+            final CacheKeyFingerprint fingerprint = ((CacheKey) component).getFingerprint();
+            if (fingerprint == null) {
+                return false;
+            }
+            hasher.putByte(CACHE_KEY)
+                    .putLong(fingerprint.mostSignificantBits)
+                    .putLong(fingerprint.leastSignificantBits);
+        } else if (component instanceof String) {
+            final String string = (String) component;
+            hasher.putByte(STRING).putInt(string.length()).putUnencodedChars(string);
+        } else if (component instanceof Object[]) {
+            final Object[] array = (Object[]) component;
+            hasher.putByte(ARRAY).putInt(array.length);
+            for (final Object element : array) {
+                if (!putComponent(hasher, element)) {
+                    return false;
+                }
+            }
+        } else if (component instanceof List) {
+            final List<?> list = (List<?>) component;
+            hasher.putByte(LIST).putInt(list.size());
+            for (final Object element : list) {
+                if (!putComponent(hasher, element)) {
+                    return false;
+                }
+            }
+        } else if (component instanceof Set) {
+            //Set equality ignores iteration order, combine the element hashes order independently
+            final Set<?> set = (Set<?>) component;
+            final List<HashCode> elementHashes = new ArrayList<HashCode>(set.size());
+            for (final Object element : set) {
+                final Hasher elementHasher = HASH_FUNCTION.newHasher();
+                if (!putComponent(elementHasher, element)) {
+                    return false;
+                }
+                elementHashes.add(elementHasher.hash());
+            }
+            hasher.putByte(SET);
+            putUnordered(hasher, elementHashes);
+        } else if (component instanceof Map) {
+            //Includes Properties, entries are combined order independently like Set elements
+            final Map<?, ?> map = (Map<?, ?>) component;
+            final List<HashCode> entryHashes = new ArrayList<HashCode>(map.size());
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                final Hasher entryHasher = HASH_FUNCTION.newHasher();
+                if (!putComponent(entryHasher, entry.getKey())
+                        || !putComponent(entryHasher, entry.getValue())) {
+                    return false;
+                }
+                entryHashes.add(entryHasher.hash());
+            }
+            hasher.putByte(MAP);
+            putUnordered(hasher, entryHashes);
+        } else if (component instanceof Integer) {
+            hasher.putByte(INTEGER).putInt((Integer) component);
+        } else if (component instanceof Long) {
+            hasher.putByte(LONG).putLong((Long) component);
+        } else if (component instanceof Boolean) {
+            hasher.putByte(BOOLEAN).putBoolean((Boolean) component);
+        } else if (component instanceof Enum) {
+            final Enum<?> e = (Enum<?>) component;
+            final String className = e.getDeclaringClass().getName();
+            hasher.putByte(ENUM)
+                    .putInt(className.length())
+                    .putUnencodedChars(className)
+                    .putInt(e.ordinal());
+        } else if (component instanceof Locale) {
+            final String locale = component.toString();
+            hasher.putByte(LOCALE).putInt(locale.length()).putUnencodedChars(locale);
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void putUnordered(Hasher hasher, List<HashCode> hashCodes) {
+        hasher.putInt(hashCodes.size());
+        if (!hashCodes.isEmpty()) {
+            hasher.putBytes(Hashing.combineUnordered(hashCodes).asBytes());
+        }
+    }
+
+    private final long mostSignificantBits;
+    private final long leastSignificantBits;
+
+    private CacheKeyFingerprint(long mostSignificantBits, long leastSignificantBits) {
+        this.mostSignificantBits = mostSignificantBits;
+        this.leastSignificantBits = leastSignificantBits;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.leastSignificantBits ^ (this.leastSignificantBits >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null) return false;
+        if (getClass() != obj.getClass()) return false;
+        final CacheKeyFingerprint other = (CacheKeyFingerprint) obj;
+        return this.mostSignificantBits == other.mostSignificantBits
+                && this.leastSignificantBits == other.leastSignificantBits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", this.mostSignificantBits, this.leastSignificantBits);
+    }
+}
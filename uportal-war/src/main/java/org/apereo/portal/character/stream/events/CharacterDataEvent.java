@@ -18,4 +18,10 @@ package org.apereo.portal.character.stream.events;
  */
 public interface CharacterDataEvent extends CharacterEvent {
     public String getData();
+
+    /**
+     * @return The character data encoded as UTF-8. The array may be shared between callers and must
+     *     not be modified.
+     */
+    public byte[] getUtf8Data();
 }
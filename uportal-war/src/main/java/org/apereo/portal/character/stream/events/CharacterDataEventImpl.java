@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.character.stream.events;
 
+import com.google.common.base.Charsets;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -61,6 +62,8 @@ public final class CharacterDataEventImpl implements CharacterDataEvent {
 
     private final String data;
     private int hash = 0;
+    //Encoded lazily, instances are shared so static markup is only encoded once
+    private transient byte[] utf8Data;
 
     private CharacterDataEventImpl(String data) {
         Assert.notNull(data);
@@ -75,6 +78,19 @@ public final class CharacterDataEventImpl implements CharacterDataEvent {
         return this.data;
     }
 
+    /* (non-Javadoc)
+     * @see org.apereo.portal.character.stream.events.CharacterDataEvent#getUtf8Data()
+     */
+    @Override
+    public byte[] getUtf8Data() {
+        byte[] d = this.utf8Data;
+        if (d == null) {
+            d = this.data.getBytes(Charsets.UTF_8);
+            this.utf8Data = d;
+        }
+        return d;
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.character.stream.events.CharacterEvent#getEventType()
      */
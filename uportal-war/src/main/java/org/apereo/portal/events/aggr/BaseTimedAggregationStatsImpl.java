@@ -19,22 +19,22 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Embedded;
+import javax.persistence.Lob;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
 import javax.persistence.Transient;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.apereo.portal.events.aggr.stat.JpaStatisticalSummary;
+import org.apereo.portal.events.aggr.stat.TimingHistogram;
 
-/**
- * Base for aggregate entities that track timed statistics
- *
- */
+/** Base for aggregate entities that track timed statistics */
 @Access(AccessType.FIELD)
 @MappedSuperclass
 public abstract class BaseTimedAggregationStatsImpl<
                 K extends BaseAggregationKey, D extends BaseGroupedAggregationDiscriminator>
-        extends BaseAggregationImpl<K, D> implements TimedAggregationStatistics, Serializable {
+        extends BaseAggregationImpl<K, D>
+        implements TimedAggregationStatistics, TimedAggregationPercentiles, Serializable {
     private static final long serialVersionUID = 1L;
 
     @Column(name = "TIME_COUNT", nullable = false)
@@ -75,6 +75,12 @@ public abstract class BaseTimedAggregationStatsImpl<
 
     @Embedded private JpaStatisticalSummary statisticalSummary;
 
+    @Lob
+    @Column(name = "TIME_HISTOGRAM")
+    private byte[] timingHistogramData;
+
+    @Transient private TimingHistogram timingHistogram;
+
     @Column(name = "STATS_COMPLETE", nullable = false)
     private boolean complete = false;
 
@@ -153,6 +159,34 @@ public abstract class BaseTimedAggregationStatsImpl<
         return this.secondMoment;
     }
 
+    @Override
+    public final double getPercentile(double percentile) {
+        final TimingHistogram histogram = this.getHistogram();
+        if (histogram == null) {
+            return Double.NaN;
+        }
+        return histogram.getPercentile(percentile);
+    }
+
+    @Override
+    public final TimingHistogram getTimingHistogram() {
+        final TimingHistogram histogram = this.getHistogram();
+        if (histogram == null) {
+            return new TimingHistogram();
+        }
+        return TimingHistogram.copyOf(histogram);
+    }
+
+    /** @return The histogram, null if no values were added (or added before it was tracked) */
+    private TimingHistogram getHistogram() {
+        TimingHistogram histogram = this.timingHistogram;
+        if (histogram == null && this.timingHistogramData != null) {
+            histogram = TimingHistogram.fromBytes(this.timingHistogramData);
+            this.timingHistogram = histogram;
+        }
+        return histogram;
+    }
+
     /** Check if the interval is complete, must be called by super classes if overridden */
     @Override
     protected boolean isComplete() {
@@ -187,12 +221,20 @@ public abstract class BaseTimedAggregationStatsImpl<
 
         this.statisticalSummary.addValue(v);
 
+        TimingHistogram histogram = this.getHistogram();
+        if (histogram == null) {
+            histogram = new TimingHistogram();
+            this.timingHistogram = histogram;
+        }
+        histogram.addValue((long) v);
+
         this.modified = true;
     }
 
     /**
-     * Update the individual statistic fields if the {@link JpaStatisticalSummary} has been
-     * modified, called automatically by the getter of each field
+     * Update the individual statistic fields and the serialized {@link TimingHistogram} if the
+     * {@link JpaStatisticalSummary} has been modified, called automatically by the getter of each
+     * field
      */
     @PrePersist
     @PreUpdate
@@ -201,6 +243,10 @@ public abstract class BaseTimedAggregationStatsImpl<
             return;
         }
 
+        if (this.timingHistogram != null) {
+            this.timingHistogramData = this.timingHistogram.toBytes();
+        }
+
         //Update statistic values
         this.count = (int) this.statisticalSummary.getN();
         this.sum = this.statisticalSummary.getSum();
@@ -0,0 +1,263 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog cardinality sketch used to estimate the number of unique strings seen by an
+ * aggregation without tracking the strings themselves. Every add is a single hash and register
+ * update, the sketch size is fixed by its precision (2^precision registers) and two sketches of the
+ * same precision can be merged to estimate the cardinality of the union of their inputs.
+ *
+ * <p>The standard error of the estimate is roughly {@code 1.04 / sqrt(2^precision)}, about 1.6% for
+ * the default precision of 12.
+ *
+ * <p>Instances are not thread safe.
+ */
+public final class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final byte VERSION = 1;
+    private static final byte FORMAT_DENSE = 0;
+    private static final byte FORMAT_SPARSE = 1;
+    private static final int HEADER_LENGTH = 3;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(
+                    "precision must be between "
+                            + MIN_PRECISION
+                            + " and "
+                            + MAX_PRECISION
+                            + ": "
+                            + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+    /** @return A copy of the specified sketch */
+    public static HyperLogLog copyOf(HyperLogLog sketch) {
+        return new HyperLogLog(sketch.precision, sketch.registers.clone());
+    }
+
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Add a value to the sketch
+     *
+     * @return true if the sketch changed as a result of the add, false means the value (or one
+     *     indistinguishable from it) has already been counted and the estimate is unchanged
+     */
+    public boolean add(String value) {
+        final long hash = HASH_FUNCTION.hashUnencodedChars(value).asLong();
+        final int index = (int) (hash >>> (Long.SIZE - this.precision));
+
+        //Set a guard bit so the rank can never exceed the number of hash bits left after the index
+        final long remaining = (hash << this.precision) | (1L << (this.precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+
+        if (rank > this.registers[index]) {
+            this.registers[index] = rank;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merge the specified sketch into this one, after the merge this sketch estimates the
+     * cardinality of the union of both inputs.
+     *
+     * @return true if this sketch changed as a result of the merge
+     * @throws IllegalArgumentException if the sketches do not have the same precision
+     */
+    public boolean merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException(
+                    "Cannot merge sketches with different precisions: "
+                            + this.precision
+                            + " and "
+                            + other.precision);
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < this.registers.length; i++) {
+            if (other.registers[i] > this.registers[i]) {
+                this.registers[i] = other.registers[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** @return The estimated number of unique values added to the sketch */
+    public long cardinality() {
+        final int m = this.registers.length;
+
+        double sum = 0;
+        int zeros = 0;
+        for (final byte register : this.registers) {
+            sum += 1d / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        final double estimate = getAlpha(m) * m * m / sum;
+
+        //Small range correction, fall back to linear counting while empty registers remain
+        if (estimate <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+
+        //64 bit hashes make the large range correction unnecessary
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return Compact serialized form of the sketch, sparse sketches (few non-empty registers) are
+     *     written as index/value pairs, full sketches as the raw register array.
+     */
+    public byte[] toBytes() {
+        int used = 0;
+        for (final byte register : this.registers) {
+            if (register != 0) {
+                used++;
+            }
+        }
+
+        //Each sparse entry is a 2 byte index plus a 1 byte value
+        final int sparseLength = 4 + used * 3;
+        if (sparseLength < this.registers.length) {
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + sparseLength);
+            buffer.put(VERSION).put((byte) this.precision).put(FORMAT_SPARSE);
+            buffer.putInt(used);
+            for (int i = 0; i < this.registers.length; i++) {
+                if (this.registers[i] != 0) {
+                    buffer.putShort((short) i);
+                    buffer.put(this.registers[i]);
+                }
+            }
+            return buffer.array();
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + this.registers.length);
+        buffer.put(VERSION).put((byte) this.precision).put(FORMAT_DENSE);
+        buffer.put(this.registers);
+        return buffer.array();
+    }
+
+    /**
+     * @param data Data created by {@link #toBytes()}
+     * @return The sketch represented by the data
+     * @throws IllegalArgumentException if the data is not a valid serialized sketch
+     */
+    public static HyperLogLog fromBytes(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Sketch data is too short");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported sketch version: " + version);
+        }
+
+        final HyperLogLog sketch = new HyperLogLog(buffer.get());
+        final byte format = buffer.get();
+        try {
+            switch (format) {
+                case FORMAT_DENSE:
+                    {
+                        buffer.get(sketch.registers);
+                        break;
+                    }
+                case FORMAT_SPARSE:
+                    {
+                        final int used = buffer.getInt();
+                        for (int i = 0; i < used; i++) {
+                            final int index = buffer.getShort() & 0xFFFF;
+                            sketch.registers[index] = buffer.get();
+                        }
+                        break;
+                    }
+                default:
+                    {
+                        throw new IllegalArgumentException("Unsupported sketch format: " + format);
+                    }
+            }
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException) {
+                throw e;
+            }
+            throw new IllegalArgumentException("Sketch data is corrupt", e);
+        }
+
+        return sketch;
+    }
+
+    private static double getAlpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.precision + Arrays.hashCode(this.registers);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof HyperLogLog)) return false;
+        final HyperLogLog other = (HyperLogLog) obj;
+        return this.precision == other.precision && Arrays.equals(this.registers, other.registers);
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + this.precision + ", cardinality=" + cardinality() + "]";
+    }
+}
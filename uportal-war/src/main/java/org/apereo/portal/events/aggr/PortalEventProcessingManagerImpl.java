@@ -30,6 +30,7 @@ import org.apereo.portal.concurrency.locking.IClusterLockService;
 import org.apereo.portal.concurrency.locking.IClusterLockService.LockStatus;
 import org.apereo.portal.concurrency.locking.IClusterLockService.TryLockFunctionResult;
 import org.apereo.portal.concurrency.locking.LockOptions;
+import org.apereo.portal.events.aggr.rollup.AggregationRollupStore;
 import org.apereo.portal.jpa.BaseAggrEventsJpaDao;
 import org.apereo.portal.jpa.BaseRawEventsJpaDao;
 import org.apereo.portal.version.dao.VersionDao;
@@ -51,6 +52,7 @@ public class PortalEventProcessingManagerImpl
     private PortalRawEventsAggregator portalEventAggregator;
     private PortalEventPurger portalEventPurger;
     private PortalEventSessionPurger portalEventSessionPurger;
+    private AggregationRollupStore aggregationRollupStore;
     private IClusterLockService clusterLockService;
     private Map<String, Version> requiredProductVersions = Collections.emptyMap();
     private VersionDao versionDao;
@@ -94,6 +96,11 @@ public class PortalEventProcessingManagerImpl
         this.portalEventSessionPurger = portalEventSessionPurger;
     }
 
+    @Autowired
+    public void setAggregationRollupStore(AggregationRollupStore aggregationRollupStore) {
+        this.aggregationRollupStore = aggregationRollupStore;
+    }
+
     @Value(
             "${org.apereo.portal.events.aggr.PortalEventProcessingManagerImpl.aggregateRawEventsPeriod}")
     public void setAggregateRawEventsPeriod(long aggregateRawEventsPeriod) {
@@ -268,6 +275,9 @@ public class PortalEventProcessingManagerImpl
                         } while (cleanAggrResult.getLockStatus() == LockStatus.EXECUTED
                                 && cleanResult != null
                                 && !cleanResult.isComplete());
+
+                        //Closed intervals are now committed, bring the roll-ups up to date
+                        aggregationRollupStore.aggregationsUpdated();
                     }
                 }
             } catch (InterruptedException e) {
@@ -0,0 +1,37 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import org.apereo.portal.events.aggr.stat.TimingHistogram;
+
+/** Distribution of the timing values of an aggregation. All values are returned in nanoseconds */
+public interface TimedAggregationPercentiles {
+    /**
+     * Returns the estimated value at the specified percentile, accurate to within ~3% of the actual
+     * value.
+     *
+     * <p>Double.NaN is returned if no values have been added.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The estimated value at the percentile
+     */
+    double getPercentile(double percentile);
+
+    /**
+     * @return Copy of the histogram backing {@link #getPercentile(double)}, histograms of different
+     *     intervals or discriminators can be merged to calculate percentiles across them.
+     */
+    TimingHistogram getTimingHistogram();
+}
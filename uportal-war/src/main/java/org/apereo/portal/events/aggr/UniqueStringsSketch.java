@@ -0,0 +1,120 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.Lob;
+import javax.persistence.Transient;
+
+/**
+ * Persistent {@link HyperLogLog} for aggregations that count unique strings. An alternative to
+ * {@link UniqueStrings} for large intervals, the sketch is a single fixed size column instead of a
+ * set of segments that grows with every new value, at the cost of an estimated rather than exact
+ * count.
+ *
+ * <p>Unlike {@link UniqueStrings} the sketch is kept when the aggregation interval completes so
+ * that completed aggregations can be merged, see {@link #getSketch()}. {@link #isOpen()} tracks
+ * whether the owning aggregation is still accepting values.
+ */
+@Embeddable
+public class UniqueStringsSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Lob
+    @Column(name = "UNIQUE_SKETCH")
+    private byte[] sketchData;
+
+    @Column(name = "UNIQUE_SKETCH_OPEN")
+    private Boolean open;
+
+    @Transient private HyperLogLog sketch;
+    @Transient private boolean modified;
+
+    @SuppressWarnings("unused")
+    private UniqueStringsSketch() {}
+
+    public UniqueStringsSketch(int precision) {
+        this.sketch = new HyperLogLog(precision);
+        this.sketchData = this.sketch.toBytes();
+        this.open = Boolean.TRUE;
+    }
+
+    /** @return true if the owning aggregation is still accepting values */
+    public boolean isOpen() {
+        return Boolean.TRUE.equals(this.open);
+    }
+
+    /** Marks the sketch as closed, the sketch data is retained for merging */
+    public void close() {
+        this.open = Boolean.FALSE;
+    }
+
+    /**
+     * Add a value to the sketch. Only the in-memory sketch is updated, the persistent sketch data
+     * is rewritten by {@link #updateSketchData()} when the owning entity is flushed.
+     *
+     * @return true if the sketch changed and {@link #cardinality()} may have changed
+     */
+    public boolean add(String value) {
+        if (this.getHyperLogLog().add(value)) {
+            this.modified = true;
+            return true;
+        }
+        return false;
+    }
+
+    /** @return true if the sketch changed since the persistent sketch data was last written */
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    /**
+     * Rewrite the persistent sketch data if the sketch has been modified, must be called from the
+     * {@link javax.persistence.PrePersist} and {@link javax.persistence.PreUpdate} callbacks of the
+     * owning entity.
+     */
+    public void updateSketchData() {
+        if (this.modified) {
+            this.sketchData = this.getHyperLogLog().toBytes();
+            this.modified = false;
+        }
+    }
+
+    /** @return The estimated number of unique values added, computed on every call */
+    public long cardinality() {
+        return this.getHyperLogLog().cardinality();
+    }
+
+    /** @return A copy of the sketch, safe to {@link HyperLogLog#merge(HyperLogLog)} into */
+    public HyperLogLog getSketch() {
+        return HyperLogLog.copyOf(this.getHyperLogLog());
+    }
+
+    private HyperLogLog getHyperLogLog() {
+        HyperLogLog sketch = this.sketch;
+        if (sketch == null) {
+            sketch = HyperLogLog.fromBytes(this.sketchData);
+            this.sketch = sketch;
+        }
+        return sketch;
+    }
+
+    @Override
+    public String toString() {
+        return "UniqueStringsSketch [open=" + this.open + ", sketch=" + this.getHyperLogLog() + "]";
+    }
+}
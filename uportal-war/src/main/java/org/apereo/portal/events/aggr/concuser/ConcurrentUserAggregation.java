@@ -16,6 +16,7 @@ package org.apereo.portal.events.aggr.concuser;
 
 import org.apereo.portal.events.PortalEvent;
 import org.apereo.portal.events.aggr.BaseAggregation;
+import org.apereo.portal.events.aggr.HyperLogLog;
 
 /**
  * Tracks the number of concurrent users. Measured by unique {@link PortalEvent#getEventSessionId()}
@@ -28,4 +29,11 @@ public interface ConcurrentUserAggregation
 
     /** @return Total number of users that were active for the duration of this aggregation. */
     int getConcurrentUsers();
+
+    /**
+     * @return Copy of the sketch used to estimate {@link #getConcurrentUsers()}, null if users were
+     *     counted exactly. Sketches from different intervals or groups can be merged to estimate
+     *     concurrent users across them.
+     */
+    HyperLogLog getConcurrentUsersSketch();
 }
@@ -18,6 +18,7 @@ import java.io.Serializable;
 import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -25,6 +26,8 @@ import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.TableGenerator;
@@ -32,8 +35,10 @@ import javax.persistence.Transient;
 import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.BaseAggregationImpl;
 import org.apereo.portal.events.aggr.DateDimension;
+import org.apereo.portal.events.aggr.HyperLogLog;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.UniqueStrings;
+import org.apereo.portal.events.aggr.UniqueStringsSketch;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -102,6 +107,8 @@ public final class ConcurrentUserAggregationImpl
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
 
+    @Embedded private UniqueStringsSketch uniqueStringsSketch;
+
     @Transient private ConcurrentUserAggregationKey aggregationKey;
     @Transient private ConcurrentUserAggregationDiscriminator aggregationDiscriminator;
 
@@ -127,9 +134,19 @@ public final class ConcurrentUserAggregationImpl
 
     @Override
     public int getConcurrentUsers() {
+        final UniqueStringsSketch sketch = this.uniqueStringsSketch;
+        if (sketch != null && sketch.isModified()) {
+            return (int) sketch.cardinality();
+        }
         return this.concurrentUsers;
     }
 
+    @Override
+    public HyperLogLog getConcurrentUsersSketch() {
+        final UniqueStringsSketch sketch = this.uniqueStringsSketch;
+        return sketch != null ? sketch.getSketch() : null;
+    }
+
     @Override
     public ConcurrentUserAggregationKey getAggregationKey() {
         ConcurrentUserAggregationKey key = this.aggregationKey;
@@ -152,15 +169,27 @@ public final class ConcurrentUserAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.concurrentUsers > 0 && this.uniqueStrings == null;
+        return this.concurrentUsers > 0
+                && this.uniqueStrings == null
+                && (this.uniqueStringsSketch == null || !this.uniqueStringsSketch.isOpen());
     }
 
     @Override
     protected void completeInterval() {
         this.uniqueStrings = null;
+        if (this.uniqueStringsSketch != null) {
+            this.uniqueStringsSketch.close();
+            this.updateSketch();
+        }
     }
 
-    void countSession(String eventSessionId) {
+    /**
+     * @param eventSessionId The session to count
+     * @param sketchPrecision If greater than 0 and this aggregation is not already counting exact
+     *     unique sessions a {@link HyperLogLog} of this precision is used to estimate concurrent
+     *     users
+     */
+    void countSession(String eventSessionId, int sketchPrecision) {
         if (isComplete()) {
             this.getLogger()
                     .warn(
@@ -171,6 +200,20 @@ public final class ConcurrentUserAggregationImpl
             return;
         }
 
+        if (this.uniqueStringsSketch != null
+                || (this.uniqueStrings == null && sketchPrecision > 0)) {
+            if (this.uniqueStringsSketch == null) {
+                this.uniqueStringsSketch = new UniqueStringsSketch(sketchPrecision);
+            }
+
+            if (this.uniqueStringsSketch.add(eventSessionId)) {
+                //Estimated by updateSketch, clearing the count marks the aggregation as dirty so the
+                //callback runs when it is flushed
+                this.concurrentUsers = -1;
+            }
+            return;
+        }
+
         if (this.uniqueStrings == null) {
             this.uniqueStrings = new UniqueStrings();
         }
@@ -180,6 +223,19 @@ public final class ConcurrentUserAggregationImpl
         }
     }
 
+    /**
+     * Write out the sketch and its estimated count if sessions were counted since the last flush
+     */
+    @PrePersist
+    @PreUpdate
+    void updateSketch() {
+        final UniqueStringsSketch sketch = this.uniqueStringsSketch;
+        if (sketch != null && sketch.isModified()) {
+            this.concurrentUsers = (int) sketch.cardinality();
+            sketch.updateSketchData();
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
@@ -202,7 +258,7 @@ public final class ConcurrentUserAggregationImpl
                 + ", duration="
                 + getDuration()
                 + ", concurrentUsers="
-                + concurrentUsers
+                + getConcurrentUsers()
                 + "]";
     }
 }
@@ -21,9 +21,11 @@ import org.apereo.portal.events.aggr.BaseAggregationPrivateDao;
 import org.apereo.portal.events.aggr.BaseIntervalAwarePortalEventAggregator;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
+import org.apereo.portal.events.aggr.HyperLogLog;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link ConcurrentUserAggregationPrivateDao} to aggregate concurrent
@@ -35,12 +37,36 @@ public class ConcurrentUserAggregator
                 PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
 
+    private int uniqueSketchPrecision = 0;
+
     @Autowired
     public void setConcurrentUserAggregationDao(
             ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao) {
         this.concurrentUserAggregationDao = concurrentUserAggregationDao;
     }
 
+    /**
+     * Precision of the {@link HyperLogLog} used to estimate unique counts for new aggregations,
+     * between {@link HyperLogLog#MIN_PRECISION} and {@link HyperLogLog#MAX_PRECISION}. 0 (the
+     * default) counts exactly using {@link org.apereo.portal.events.aggr.UniqueStrings}.
+     */
+    @Value(
+            "${org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregator.uniqueSketchPrecision:0}")
+    public void setUniqueSketchPrecision(int uniqueSketchPrecision) {
+        if (uniqueSketchPrecision != 0
+                && (uniqueSketchPrecision < HyperLogLog.MIN_PRECISION
+                        || uniqueSketchPrecision > HyperLogLog.MAX_PRECISION)) {
+            throw new IllegalArgumentException(
+                    "uniqueSketchPrecision must be 0 or between "
+                            + HyperLogLog.MIN_PRECISION
+                            + " and "
+                            + HyperLogLog.MAX_PRECISION
+                            + ": "
+                            + uniqueSketchPrecision);
+        }
+        this.uniqueSketchPrecision = uniqueSketchPrecision;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey>
             getAggregationDao() {
@@ -61,7 +87,7 @@ public class ConcurrentUserAggregator
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        aggregation.countSession(eventSessionId, this.uniqueSketchPrecision);
     }
 
     @Override
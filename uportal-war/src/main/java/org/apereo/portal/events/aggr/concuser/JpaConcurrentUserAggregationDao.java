@@ -23,6 +23,7 @@ import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.JpaBaseAggregationDao;
 import org.apereo.portal.events.aggr.TimeDimension;
+import org.apereo.portal.events.aggr.UniqueStringsSketch_;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.stereotype.Repository;
 
@@ -49,7 +50,12 @@ public class JpaConcurrentUserAggregationDao
             CriteriaBuilder cb,
             Root<ConcurrentUserAggregationImpl> root,
             List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueStrings)));
+        keyPredicates.add(
+                cb.or(
+                        cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueStrings)),
+                        cb.isTrue(
+                                root.get(ConcurrentUserAggregationImpl_.uniqueStringsSketch)
+                                        .get(UniqueStringsSketch_.open))));
     }
 
     @Override
@@ -23,6 +23,7 @@ import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.JpaBaseAggregationDao;
 import org.apereo.portal.events.aggr.TimeDimension;
+import org.apereo.portal.events.aggr.UniqueStringsSketch_;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.stereotype.Repository;
 
@@ -46,7 +47,12 @@ public class JpaLoginAggregationDao
     @Override
     protected void addUnclosedPredicate(
             CriteriaBuilder cb, Root<LoginAggregationImpl> root, List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(LoginAggregationImpl_.uniqueStrings)));
+        keyPredicates.add(
+                cb.or(
+                        cb.isNotNull(root.get(LoginAggregationImpl_.uniqueStrings)),
+                        cb.isTrue(
+                                root.get(LoginAggregationImpl_.uniqueStringsSketch)
+                                        .get(UniqueStringsSketch_.open))));
     }
 
     @Override
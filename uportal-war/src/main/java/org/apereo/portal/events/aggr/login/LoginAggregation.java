@@ -16,6 +16,7 @@ package org.apereo.portal.events.aggr.login;
 
 import org.apereo.portal.events.LoginEvent;
 import org.apereo.portal.events.aggr.BaseAggregation;
+import org.apereo.portal.events.aggr.HyperLogLog;
 
 /**
  */
@@ -29,4 +30,11 @@ public interface LoginAggregation
      *     determined by {@link LoginEvent#getUserName()}
      */
     int getUniqueLoginCount();
+
+    /**
+     * @return Copy of the sketch used to estimate {@link #getUniqueLoginCount()}, null if unique
+     *     logins were counted exactly. Sketches from different intervals or groups can be merged to
+     *     estimate unique logins across them.
+     */
+    HyperLogLog getUniqueLoginSketch();
 }
@@ -18,6 +18,7 @@ import java.io.Serializable;
 import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -25,6 +26,8 @@ import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.TableGenerator;
@@ -32,8 +35,10 @@ import javax.persistence.Transient;
 import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.BaseAggregationImpl;
 import org.apereo.portal.events.aggr.DateDimension;
+import org.apereo.portal.events.aggr.HyperLogLog;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.UniqueStrings;
+import org.apereo.portal.events.aggr.UniqueStringsSketch;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -101,6 +106,8 @@ public final class LoginAggregationImpl
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
 
+    @Embedded private UniqueStringsSketch uniqueStringsSketch;
+
     @Transient private LoginAggregationKeyImpl aggregationKey;
     @Transient private LoginAggregationDiscriminator aggregationDiscriminator;
 
@@ -130,9 +137,19 @@ public final class LoginAggregationImpl
 
     @Override
     public int getUniqueLoginCount() {
+        final UniqueStringsSketch sketch = this.uniqueStringsSketch;
+        if (sketch != null && sketch.isModified()) {
+            return (int) sketch.cardinality();
+        }
         return this.uniqueLoginCount;
     }
 
+    @Override
+    public HyperLogLog getUniqueLoginSketch() {
+        final UniqueStringsSketch sketch = this.uniqueStringsSketch;
+        return sketch != null ? sketch.getSketch() : null;
+    }
+
     @Override
     public LoginAggregationKey getAggregationKey() {
         LoginAggregationKeyImpl key = this.aggregationKey;
@@ -155,15 +172,26 @@ public final class LoginAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.loginCount > 0 && this.uniqueStrings == null;
+        return this.loginCount > 0
+                && this.uniqueStrings == null
+                && (this.uniqueStringsSketch == null || !this.uniqueStringsSketch.isOpen());
     }
 
     @Override
     protected void completeInterval() {
         this.uniqueStrings = null;
+        if (this.uniqueStringsSketch != null) {
+            this.uniqueStringsSketch.close();
+            this.updateSketch();
+        }
     }
 
-    void countUser(String userName) {
+    /**
+     * @param userName The user to count
+     * @param sketchPrecision If greater than 0 and this aggregation is not already counting exact
+     *     unique users a {@link HyperLogLog} of this precision is used to estimate unique logins
+     */
+    void countUser(String userName, int sketchPrecision) {
         if (isComplete()) {
             this.getLogger()
                     .warn(
@@ -174,16 +202,37 @@ public final class LoginAggregationImpl
             return;
         }
 
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
-        }
+        if (this.uniqueStringsSketch != null
+                || (this.uniqueStrings == null && sketchPrecision > 0)) {
+            if (this.uniqueStringsSketch == null) {
+                this.uniqueStringsSketch = new UniqueStringsSketch(sketchPrecision);
+            }
+
+            //Estimated by updateSketch, the login count change marks the aggregation as dirty
+            this.uniqueStringsSketch.add(userName);
+        } else {
+            if (this.uniqueStrings == null) {
+                this.uniqueStrings = new UniqueStrings();
+            }
 
-        if (this.uniqueStrings.add(userName)) {
-            this.uniqueLoginCount++;
+            if (this.uniqueStrings.add(userName)) {
+                this.uniqueLoginCount++;
+            }
         }
         this.loginCount++;
     }
 
+    /** Write out the sketch and its estimated count if users were counted since the last flush */
+    @PrePersist
+    @PreUpdate
+    void updateSketch() {
+        final UniqueStringsSketch sketch = this.uniqueStringsSketch;
+        if (sketch != null && sketch.isModified()) {
+            this.uniqueLoginCount = (int) sketch.cardinality();
+            sketch.updateSketchData();
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
@@ -208,7 +257,7 @@ public final class LoginAggregationImpl
                 + ", loginCount="
                 + loginCount
                 + ", uniqueLoginCount="
-                + uniqueLoginCount
+                + getUniqueLoginCount()
                 + "]";
     }
 }
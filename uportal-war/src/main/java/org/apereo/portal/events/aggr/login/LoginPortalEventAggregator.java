@@ -22,9 +22,11 @@ import org.apereo.portal.events.aggr.BaseAggregationPrivateDao;
 import org.apereo.portal.events.aggr.BaseIntervalAwarePortalEventAggregator;
 import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
+import org.apereo.portal.events.aggr.HyperLogLog;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events
@@ -35,11 +37,35 @@ public class LoginPortalEventAggregator
                 LoginEvent, LoginAggregationImpl, LoginAggregationKey> {
     private LoginAggregationPrivateDao loginAggregationDao;
 
+    private int uniqueSketchPrecision = 0;
+
     @Autowired
     public void setLoginAggregationDao(LoginAggregationPrivateDao loginAggregationDao) {
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    /**
+     * Precision of the {@link HyperLogLog} used to estimate unique counts for new aggregations,
+     * between {@link HyperLogLog#MIN_PRECISION} and {@link HyperLogLog#MAX_PRECISION}. 0 (the
+     * default) counts exactly using {@link org.apereo.portal.events.aggr.UniqueStrings}.
+     */
+    @Value(
+            "${org.apereo.portal.events.aggr.login.LoginPortalEventAggregator.uniqueSketchPrecision:0}")
+    public void setUniqueSketchPrecision(int uniqueSketchPrecision) {
+        if (uniqueSketchPrecision != 0
+                && (uniqueSketchPrecision < HyperLogLog.MIN_PRECISION
+                        || uniqueSketchPrecision > HyperLogLog.MAX_PRECISION)) {
+            throw new IllegalArgumentException(
+                    "uniqueSketchPrecision must be 0 or between "
+                            + HyperLogLog.MIN_PRECISION
+                            + " and "
+                            + HyperLogLog.MAX_PRECISION
+                            + ": "
+                            + uniqueSketchPrecision);
+        }
+        this.uniqueSketchPrecision = uniqueSketchPrecision;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey>
             getAggregationDao() {
@@ -73,6 +99,6 @@ public class LoginPortalEventAggregator
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        aggregation.countUser(userName, this.uniqueSketchPrecision);
     }
 }
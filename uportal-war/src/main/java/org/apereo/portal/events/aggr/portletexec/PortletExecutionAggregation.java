@@ -15,18 +15,17 @@
 package org.apereo.portal.events.aggr.portletexec;
 
 import org.apereo.portal.events.aggr.BaseAggregation;
+import org.apereo.portal.events.aggr.TimedAggregationPercentiles;
 import org.apereo.portal.events.aggr.TimedAggregationStatistics;
 import org.apereo.portal.events.aggr.portletexec.PortletExecutionAggregationKey.ExecutionType;
 import org.apereo.portal.events.aggr.portlets.AggregatedPortletMapping;
 
-/**
- * Tracks portlet execution stats
- *
- */
+/** Tracks portlet execution stats */
 public interface PortletExecutionAggregation
         extends BaseAggregation<
                         PortletExecutionAggregationKey, PortletExecutionAggregationDiscriminator>,
-                TimedAggregationStatistics {
+                TimedAggregationStatistics,
+                TimedAggregationPercentiles {
 
     /** @return The name of the tab */
     AggregatedPortletMapping getPortletMapping();
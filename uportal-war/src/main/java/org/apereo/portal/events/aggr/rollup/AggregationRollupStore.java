@@ -0,0 +1,52 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.rollup;
+
+import java.util.Map;
+import org.apereo.portal.events.aggr.AggregationInterval;
+import org.joda.time.DateTime;
+
+/**
+ * In memory roll-up of frequently queried aggregation values. For each {@link RollupMetric} and
+ * {@link AggregationInterval} that is queried the values of the closed intervals are kept as one
+ * {@link RollupSeries} per {@link RollupKey}, so queries cost one lookup per series instead of one
+ * row per series and interval. Intervals that are still being aggregated and ranges older than the
+ * retained intervals are read from the aggregation tables.
+ */
+public interface AggregationRollupStore {
+    /**
+     * @param start Start of the range, inclusive
+     * @param end End of the range, exclusive
+     * @return The sum of the metric over the intervals in the range for each series that has data
+     *     in the range
+     */
+    Map<RollupKey, Long> getTotals(
+            RollupMetric metric, AggregationInterval interval, DateTime start, DateTime end);
+
+    /**
+     * @param start Start of the range, inclusive
+     * @param end End of the range, exclusive
+     * @return The value of the metric for the most recent interval in the range for each series
+     *     that has data in the range
+     */
+    Map<RollupKey, Long> getLatestValues(
+            RollupMetric metric, AggregationInterval interval, DateTime start, DateTime end);
+
+    /**
+     * Called after raw events have been aggregated, the rolled up series are brought up to date on
+     * their next use.
+     */
+    void aggregationsUpdated();
+}
@@ -0,0 +1,490 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.rollup;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apereo.portal.events.aggr.AggregationInterval;
+import org.apereo.portal.events.aggr.IEventAggregatorStatus;
+import org.apereo.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregation;
+import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregationDao;
+import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregationKey;
+import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregationKeyImpl;
+import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.login.LoginAggregation;
+import org.apereo.portal.events.aggr.login.LoginAggregationDao;
+import org.apereo.portal.events.aggr.login.LoginAggregationKey;
+import org.apereo.portal.events.aggr.login.LoginAggregationKeyImpl;
+import org.apereo.portal.events.aggr.portletlayout.PortletLayoutAggregation;
+import org.apereo.portal.events.aggr.portletlayout.PortletLayoutAggregationDao;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the rolled up series for each metric and interval in a table that is loaded on first use. A
+ * table covers the last {@link #setRetainedIntervals(int)} intervals up to the start of the
+ * interval the most recently aggregated event falls in, all earlier intervals are closed and their
+ * values no longer change. Each refresh only reads the aggregations of the intervals closed since
+ * the previous refresh.
+ *
+ * <p>Tables are refreshed when the raw event aggregator reports new aggregations on this server and
+ * at least every {@link #setRefreshPeriod(long)} ms, which picks up aggregation done by other
+ * servers in the cluster. Intervals that use {@link AggregationInterval#isSupportsDetermination()}
+ * are rolled up, queries for other intervals go directly to the aggregation tables.
+ */
+@Service
+public class AggregationRollupStoreImpl implements AggregationRollupStore {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<RollupMetric, ConcurrentMap<AggregationInterval, RollupTable>> tables;
+
+    private LoginAggregationDao<LoginAggregation> loginAggregationDao;
+    private ConcurrentUserAggregationDao<ConcurrentUserAggregation> concurrentUserAggregationDao;
+    private PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutAggregationDao;
+    private IEventAggregationManagementDao eventAggregationManagementDao;
+    private int retainedIntervals = 100;
+    private long refreshPeriod = 60000;
+
+    public AggregationRollupStoreImpl() {
+        this.tables =
+                new EnumMap<RollupMetric, ConcurrentMap<AggregationInterval, RollupTable>>(
+                        RollupMetric.class);
+        for (final RollupMetric metric : RollupMetric.values()) {
+            this.tables.put(metric, new ConcurrentHashMap<AggregationInterval, RollupTable>());
+        }
+    }
+
+    @Autowired
+    public void setLoginAggregationDao(LoginAggregationDao<LoginAggregation> loginAggregationDao) {
+        this.loginAggregationDao = loginAggregationDao;
+    }
+
+    @Autowired
+    public void setConcurrentUserAggregationDao(
+            ConcurrentUserAggregationDao<ConcurrentUserAggregation> concurrentUserAggregationDao) {
+        this.concurrentUserAggregationDao = concurrentUserAggregationDao;
+    }
+
+    @Autowired
+    public void setPortletLayoutAggregationDao(
+            PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutAggregationDao) {
+        this.portletLayoutAggregationDao = portletLayoutAggregationDao;
+    }
+
+    @Autowired
+    public void setEventAggregationManagementDao(
+            IEventAggregationManagementDao eventAggregationManagementDao) {
+        this.eventAggregationManagementDao = eventAggregationManagementDao;
+    }
+
+    /**
+     * Number of closed intervals kept in memory for each series, older ranges are read from the
+     * aggregation tables. Defaults to 100.
+     */
+    @Value(
+            "${org.apereo.portal.events.aggr.rollup.AggregationRollupStoreImpl.retainedIntervals:100}")
+    public void setRetainedIntervals(int retainedIntervals) {
+        if (retainedIntervals < 1) {
+            throw new IllegalArgumentException(
+                    "retainedIntervals must be at least 1: " + retainedIntervals);
+        }
+        this.retainedIntervals = retainedIntervals;
+    }
+
+    /** Maximum time in ms between checks for newly closed intervals, defaults to 60000. */
+    @Value("${org.apereo.portal.events.aggr.rollup.AggregationRollupStoreImpl.refreshPeriod:60000}")
+    public void setRefreshPeriod(long refreshPeriod) {
+        this.refreshPeriod = refreshPeriod;
+    }
+
+    @Override
+    public Map<RollupKey, Long> getTotals(
+            RollupMetric metric, AggregationInterval interval, DateTime start, DateTime end) {
+        return this.query(metric, interval, start, end, Selection.TOTAL);
+    }
+
+    @Override
+    public Map<RollupKey, Long> getLatestValues(
+            RollupMetric metric, AggregationInterval interval, DateTime start, DateTime end) {
+        return this.query(metric, interval, start, end, Selection.LATEST);
+    }
+
+    @Override
+    public void aggregationsUpdated() {
+        for (final Map<AggregationInterval, RollupTable> metricTables : this.tables.values()) {
+            for (final RollupTable table : metricTables.values()) {
+                table.stale = true;
+            }
+        }
+    }
+
+    protected Map<RollupKey, Long> query(
+            RollupMetric metric,
+            AggregationInterval interval,
+            DateTime start,
+            DateTime end,
+            Selection selection) {
+        if (!start.isBefore(end)) {
+            return Collections.emptyMap();
+        }
+
+        final RollupTable table = this.getTable(metric, interval);
+        if (table == null) {
+            final ResultBuilder result = new ResultBuilder(selection);
+            this.loadAggregations(metric, interval, start, end, result);
+            return result.values;
+        }
+
+        //Read the rolled up part of the range while holding the table lock so a concurrent
+        //refresh can't move the covered range between reading the bounds and the series
+        final ResultBuilder rolledUp = new ResultBuilder(selection);
+        final DateTime coverageStart;
+        final DateTime splitPoint;
+        synchronized (table) {
+            table.refresh();
+
+            coverageStart = table.coverageStart;
+            splitPoint = table.splitPoint;
+            if (coverageStart != null) {
+                this.readSeries(table, start, end, rolledUp);
+            }
+        }
+
+        if (coverageStart == null) {
+            //Nothing has been aggregated yet
+            final ResultBuilder result = new ResultBuilder(selection);
+            this.loadAggregations(metric, interval, start, end, result);
+            return result.values;
+        }
+
+        final ResultBuilder result = new ResultBuilder(selection);
+        if (start.isBefore(coverageStart)) {
+            this.loadAggregations(metric, interval, start, min(end, coverageStart), result);
+        }
+        for (final Map.Entry<RollupKey, Long> rolledUpEntry : rolledUp.values.entrySet()) {
+            final RollupKey key = rolledUpEntry.getKey();
+            result.point(key, rolledUp.times.get(key), rolledUpEntry.getValue());
+        }
+        if (end.isAfter(splitPoint)) {
+            this.loadAggregations(metric, interval, max(start, splitPoint), end, result);
+        }
+        return result.values;
+    }
+
+    /** Add the rolled up values in the range to the result, must hold the table lock */
+    private void readSeries(RollupTable table, DateTime start, DateTime end, ResultBuilder result) {
+        final long from = Math.max(start.getMillis(), table.coverageStart.getMillis());
+        final long to = Math.min(end.getMillis(), table.splitPoint.getMillis());
+        if (from < to) {
+            //The rolled up range lies between the ranges read from the aggregation tables so its
+            //start orders every value from it correctly against theirs
+            for (final Map.Entry<RollupKey, RollupSeries> seriesEntry : table.series.entrySet()) {
+                final RollupSeries series = seriesEntry.getValue();
+                final Long value;
+                switch (result.selection) {
+                    case LATEST:
+                        value = series.last(from, to);
+                        break;
+                    default:
+                        value = series.count(from, to) > 0 ? series.sum(from, to) : null;
+                        break;
+                }
+                if (value != null) {
+                    result.point(seriesEntry.getKey(), from, value);
+                }
+            }
+        }
+    }
+
+    /** @return The table for the metric and interval, null if the interval can't be rolled up */
+    protected RollupTable getTable(RollupMetric metric, AggregationInterval interval) {
+        if (!interval.isSupportsDetermination()) {
+            return null;
+        }
+
+        final ConcurrentMap<AggregationInterval, RollupTable> metricTables =
+                this.tables.get(metric);
+        RollupTable table = metricTables.get(interval);
+        if (table == null) {
+            table = new RollupTable(metric, interval);
+            final RollupTable existing = metricTables.putIfAbsent(interval, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    /** Read the metric values from the aggregation tables for the range */
+    protected void loadAggregations(
+            RollupMetric metric,
+            AggregationInterval interval,
+            DateTime start,
+            DateTime end,
+            PointHandler handler) {
+        switch (metric) {
+            case LOGINS:
+            case UNIQUE_LOGINS:
+                {
+                    final Set<LoginAggregationKey> keys = new HashSet<LoginAggregationKey>();
+                    for (final AggregatedGroupMapping group :
+                            this.loginAggregationDao.getAggregatedGroupMappings()) {
+                        keys.add(new LoginAggregationKeyImpl(interval, group));
+                    }
+                    if (keys.isEmpty()) {
+                        return;
+                    }
+
+                    for (final LoginAggregation aggregation :
+                            this.loginAggregationDao.getAggregations(start, end, keys)) {
+                        handler.point(
+                                new RollupKey(aggregation.getAggregatedGroup(), null),
+                                aggregation.getDateTime().getMillis(),
+                                metric == RollupMetric.LOGINS
+                                        ? aggregation.getLoginCount()
+                                        : aggregation.getUniqueLoginCount());
+                    }
+                    return;
+                }
+            case CONCURRENT_USERS:
+                {
+                    final Set<ConcurrentUserAggregationKey> keys =
+                            new HashSet<ConcurrentUserAggregationKey>();
+                    for (final AggregatedGroupMapping group :
+                            this.concurrentUserAggregationDao.getAggregatedGroupMappings()) {
+                        keys.add(new ConcurrentUserAggregationKeyImpl(interval, group));
+                    }
+                    if (keys.isEmpty()) {
+                        return;
+                    }
+
+                    for (final ConcurrentUserAggregation aggregation :
+                            this.concurrentUserAggregationDao.getAggregations(start, end, keys)) {
+                        handler.point(
+                                new RollupKey(aggregation.getAggregatedGroup(), null),
+                                aggregation.getDateTime().getMillis(),
+                                aggregation.getConcurrentUsers());
+                    }
+                    return;
+                }
+            case PORTLET_ADDS:
+                {
+                    final Set<AggregatedGroupMapping> groups =
+                            this.portletLayoutAggregationDao.getAggregatedGroupMappings();
+                    if (groups.isEmpty()) {
+                        return;
+                    }
+
+                    final Iterator<AggregatedGroupMapping> groupsItr = groups.iterator();
+                    final AggregatedGroupMapping group = groupsItr.next();
+                    final Set<AggregatedGroupMapping> otherGroups =
+                            new HashSet<AggregatedGroupMapping>();
+                    while (groupsItr.hasNext()) {
+                        otherGroups.add(groupsItr.next());
+                    }
+
+                    for (final PortletLayoutAggregation aggregation :
+                            this.portletLayoutAggregationDao.getAggregationsForAllPortlets(
+                                    start,
+                                    end,
+                                    interval,
+                                    group,
+                                    otherGroups.toArray(
+                                            new AggregatedGroupMapping[otherGroups.size()]))) {
+                        handler.point(
+                                new RollupKey(
+                                        aggregation.getAggregatedGroup(),
+                                        aggregation.getPortletMapping().getFname()),
+                                aggregation.getDateTime().getMillis(),
+                                aggregation.getAddCount());
+                    }
+                    return;
+                }
+            default:
+                throw new IllegalArgumentException("Unsupported RollupMetric: " + metric);
+        }
+    }
+
+    /** @return The date of the most recently aggregated event, null if nothing is aggregated */
+    protected DateTime getLastAggregatedEventDate() {
+        final IEventAggregatorStatus eventAggregatorStatus =
+                this.eventAggregationManagementDao.getEventAggregatorStatus(
+                        ProcessingType.AGGREGATION, false);
+        return eventAggregatorStatus == null ? null : eventAggregatorStatus.getLastEventDate();
+    }
+
+    private static DateTime min(DateTime a, DateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static DateTime max(DateTime a, DateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    /** Receives the metric values read from the aggregation tables */
+    protected interface PointHandler {
+        void point(RollupKey key, long time, long value);
+    }
+
+    /** How the values of the intervals in a range are combined */
+    private enum Selection {
+        TOTAL,
+        LATEST;
+    }
+
+    /**
+     * Combines points into totals or latest values. Points may be passed in any order, the
+     * aggregation DAOs return the most recent intervals first.
+     */
+    private static final class ResultBuilder implements PointHandler {
+        private final Map<RollupKey, Long> values = new HashMap<RollupKey, Long>();
+        private final Map<RollupKey, Long> times = new HashMap<RollupKey, Long>();
+        private final Selection selection;
+
+        ResultBuilder(Selection selection) {
+            this.selection = selection;
+        }
+
+        @Override
+        public void point(RollupKey key, long time, long value) {
+            final Long current = this.values.get(key);
+            if (current == null) {
+                this.values.put(key, value);
+                this.times.put(key, time);
+                return;
+            }
+
+            final long currentTime = this.times.get(key);
+            switch (this.selection) {
+                case LATEST:
+                    if (time > currentTime) {
+                        this.values.put(key, value);
+                        this.times.put(key, time);
+                    }
+                    break;
+                default:
+                    this.values.put(key, current + value);
+                    break;
+            }
+        }
+    }
+
+    /** The rolled up series of one metric and interval */
+    protected final class RollupTable implements PointHandler {
+        private final RollupMetric metric;
+        private final AggregationInterval interval;
+        private final ConcurrentMap<RollupKey, RollupSeries> series =
+                new ConcurrentHashMap<RollupKey, RollupSeries>();
+
+        /** Start of the oldest interval in the series, null until the table is loaded */
+        private DateTime coverageStart;
+        /** Start of the interval still being aggregated, the series end before it */
+        private DateTime splitPoint;
+
+        private long nextRefresh = 0;
+        private volatile boolean stale = false;
+
+        RollupTable(RollupMetric metric, AggregationInterval interval) {
+            this.metric = metric;
+            this.interval = interval;
+        }
+
+        /** Must be called while holding the table lock */
+        void refresh() {
+            final long now = DateTimeUtils.currentTimeMillis();
+            if (this.coverageStart != null && !this.stale && now < this.nextRefresh) {
+                return;
+            }
+            this.stale = false;
+            this.nextRefresh = now + refreshPeriod;
+
+            final DateTime lastEventDate = getLastAggregatedEventDate();
+            if (lastEventDate == null) {
+                return;
+            }
+
+            DateTime newCoverageStart = this.interval.determineStart(new DateTime(now));
+            for (int i = 0; i < retainedIntervals; i++) {
+                newCoverageStart = this.interval.determineStart(newCoverageStart.minusMillis(1));
+            }
+            final DateTime newSplitPoint =
+                    max(newCoverageStart, this.interval.determineStart(lastEventDate));
+
+            if (this.coverageStart == null) {
+                if (newCoverageStart.isBefore(newSplitPoint)) {
+                    loadAggregations(
+                            this.metric, this.interval, newCoverageStart, newSplitPoint, this);
+                }
+                logger.debug(
+                        "Loaded {} {} series for {} to {}",
+                        this.series.size(),
+                        this.metric,
+                        newCoverageStart,
+                        newSplitPoint);
+            } else {
+                if (newCoverageStart.isAfter(this.coverageStart)) {
+                    for (final Iterator<RollupSeries> seriesItr = this.series.values().iterator();
+                            seriesItr.hasNext();
+                            ) {
+                        final RollupSeries rollupSeries = seriesItr.next();
+                        rollupSeries.trim(newCoverageStart.getMillis());
+                        if (rollupSeries.size() == 0) {
+                            seriesItr.remove();
+                        }
+                    }
+                }
+
+                final DateTime loadStart = max(newCoverageStart, this.splitPoint);
+                if (loadStart.isBefore(newSplitPoint)) {
+                    loadAggregations(this.metric, this.interval, loadStart, newSplitPoint, this);
+                    logger.debug(
+                            "Updated {} {} series for {} to {}",
+                            this.metric,
+                            this.interval,
+                            loadStart,
+                            newSplitPoint);
+                }
+            }
+
+            this.splitPoint =
+                    this.splitPoint == null ? newSplitPoint : max(newSplitPoint, this.splitPoint);
+            this.coverageStart = newCoverageStart;
+        }
+
+        @Override
+        public void point(RollupKey key, long time, long value) {
+            RollupSeries rollupSeries = this.series.get(key);
+            if (rollupSeries == null) {
+                rollupSeries = new RollupSeries();
+                this.series.put(key, rollupSeries);
+            }
+            rollupSeries.put(time, value);
+        }
+    }
+}
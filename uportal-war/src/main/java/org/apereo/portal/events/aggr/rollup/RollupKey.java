@@ -0,0 +1,76 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.rollup;
+
+import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+
+/**
+ * Identifies a single series of a {@link RollupMetric}, the group and for metrics that are tracked
+ * per portlet the portlet fname.
+ */
+public final class RollupKey {
+    private final AggregatedGroupMapping aggregatedGroup;
+    private final String fname;
+    private final int hashCode;
+
+    public RollupKey(AggregatedGroupMapping aggregatedGroup, String fname) {
+        this.aggregatedGroup = aggregatedGroup;
+        this.fname = fname;
+
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((aggregatedGroup == null) ? 0 : aggregatedGroup.hashCode());
+        result = prime * result + ((fname == null) ? 0 : fname.hashCode());
+        this.hashCode = result;
+    }
+
+    /** @return The group the series is for */
+    public AggregatedGroupMapping getAggregatedGroup() {
+        return this.aggregatedGroup;
+    }
+
+    /**
+     * @return The portlet fname the series is for, null if the metric is not tracked per portlet
+     */
+    public String getFname() {
+        return this.fname;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null) return false;
+        if (getClass() != obj.getClass()) return false;
+        RollupKey other = (RollupKey) obj;
+        if (this.hashCode != other.hashCode) return false;
+        if (aggregatedGroup == null) {
+            if (other.aggregatedGroup != null) return false;
+        } else if (!aggregatedGroup.equals(other.aggregatedGroup)) return false;
+        if (fname == null) {
+            if (other.fname != null) return false;
+        } else if (!fname.equals(other.fname)) return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "RollupKey [aggregatedGroup=" + aggregatedGroup + ", fname=" + fname + "]";
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.rollup;
+
+import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregation;
+import org.apereo.portal.events.aggr.login.LoginAggregation;
+import org.apereo.portal.events.aggr.portletlayout.PortletLayoutAggregation;
+
+/** Aggregation values that are kept rolled up by the {@link AggregationRollupStore} */
+public enum RollupMetric {
+    /** {@link LoginAggregation#getLoginCount()} per group */
+    LOGINS,
+    /** {@link LoginAggregation#getUniqueLoginCount()} per group */
+    UNIQUE_LOGINS,
+    /** {@link ConcurrentUserAggregation#getConcurrentUsers()} per group */
+    CONCURRENT_USERS,
+    /** {@link PortletLayoutAggregation#getAddCount()} per group and portlet */
+    PORTLET_ADDS;
+}
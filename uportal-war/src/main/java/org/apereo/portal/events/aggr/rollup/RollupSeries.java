@@ -0,0 +1,124 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.rollup;
+
+import java.util.Arrays;
+
+/**
+ * Time ordered series of interval values stored as parallel primitive arrays. Along with the value
+ * of each interval a running total is kept so the sum over any range of intervals is found with two
+ * binary searches, independent of the number of intervals in the range.
+ *
+ * <p>Points may be added in any order, appending in time order is cheapest. Adding a point for the
+ * time of an existing point replaces its value.
+ *
+ * <p>Instances are thread safe.
+ */
+public final class RollupSeries {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    /** totals[i] is the sum of values[0..i] */
+    private long[] totals = new long[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    /** Set the value for the interval starting at the specified time */
+    public synchronized void put(long time, long value) {
+        final int index = Arrays.binarySearch(this.times, 0, this.size, time);
+        if (index >= 0) {
+            this.values[index] = value;
+            updateTotals(index);
+            return;
+        }
+
+        final int insert = -(index + 1);
+        if (this.size == this.times.length) {
+            final int capacity = this.size * 2;
+            this.times = Arrays.copyOf(this.times, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+            this.totals = Arrays.copyOf(this.totals, capacity);
+        }
+        if (insert < this.size) {
+            System.arraycopy(this.times, insert, this.times, insert + 1, this.size - insert);
+            System.arraycopy(this.values, insert, this.values, insert + 1, this.size - insert);
+        }
+        this.times[insert] = time;
+        this.values[insert] = value;
+        this.size++;
+        updateTotals(insert);
+    }
+
+    /** Remove all points before the specified time */
+    public synchronized void trim(long before) {
+        final int count = indexOf(before);
+        if (count == 0) {
+            return;
+        }
+        this.size -= count;
+        System.arraycopy(this.times, count, this.times, 0, this.size);
+        System.arraycopy(this.values, count, this.values, 0, this.size);
+        updateTotals(0);
+    }
+
+    /** @return The number of points in the series */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /** @return The number of points with a time in [start, end) */
+    public synchronized int count(long start, long end) {
+        return Math.max(0, indexOf(end) - indexOf(start));
+    }
+
+    /** @return The sum of the values of the points with a time in [start, end) */
+    public synchronized long sum(long start, long end) {
+        final int from = indexOf(start);
+        final int to = indexOf(end);
+        if (to <= from) {
+            return 0;
+        }
+        return this.totals[to - 1] - (from == 0 ? 0 : this.totals[from - 1]);
+    }
+
+    /** @return The value of the latest point with a time in [start, end), null if there is none */
+    public synchronized Long last(long start, long end) {
+        final int to = indexOf(end);
+        if (to > 0 && this.times[to - 1] >= start) {
+            return this.values[to - 1];
+        }
+        return null;
+    }
+
+    /** @return Index of the first point with a time at or after the specified time */
+    private int indexOf(long time) {
+        final int index = Arrays.binarySearch(this.times, 0, this.size, time);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private void updateTotals(int from) {
+        long total = from == 0 ? 0 : this.totals[from - 1];
+        for (int i = from; i < this.size; i++) {
+            total += this.values[i];
+            this.totals[i] = total;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RollupSeries [size=" + this.size + "]";
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of timing values used to estimate percentiles. Each power of two range is
+ * split into {@link #SUB_BUCKET_COUNT} equal width buckets so every recorded value is tracked with
+ * a relative error of at most 1/{@link #SUB_BUCKET_COUNT} (~3%), independent of magnitude. The min
+ * and max values are tracked exactly.
+ *
+ * <p>Bucket boundaries are fixed so histograms can be merged by adding bucket counts, a merged
+ * histogram is identical to one built from the combined values. The serialized form only contains
+ * the non-empty buckets, typically a few hundred bytes for portlet or tab render timings.
+ *
+ * <p>Instances are not thread safe.
+ */
+public final class TimingHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int MAX_BUCKETS = getBucketIndex(Long.MAX_VALUE) + 1;
+
+    private static final byte VERSION = 1;
+
+    private long[] counts = new long[0];
+    private long totalCount = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public TimingHistogram() {}
+
+    /** @return A copy of the specified histogram */
+    public static TimingHistogram copyOf(TimingHistogram histogram) {
+        final TimingHistogram copy = new TimingHistogram();
+        copy.counts = histogram.counts.clone();
+        copy.totalCount = histogram.totalCount;
+        copy.min = histogram.min;
+        copy.max = histogram.max;
+        return copy;
+    }
+
+    /** Record a value, negative values are recorded as 0 */
+    public void addValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        final int index = getBucketIndex(value);
+        ensureCapacity(index + 1);
+        this.counts[index]++;
+
+        this.totalCount++;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+    }
+
+    /** Add all of the values recorded in the other histogram to this histogram */
+    public void merge(TimingHistogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+
+        ensureCapacity(other.counts.length);
+        for (int i = 0; i < other.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+
+        this.totalCount += other.totalCount;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /** @return Number of values recorded */
+    public long getN() {
+        return this.totalCount;
+    }
+
+    /** @return Smallest value recorded, {@link Double#NaN} if no values have been recorded */
+    public double getMin() {
+        return this.totalCount == 0 ? Double.NaN : this.min;
+    }
+
+    /** @return Largest value recorded, {@link Double#NaN} if no values have been recorded */
+    public double getMax() {
+        return this.totalCount == 0 ? Double.NaN : this.max;
+    }
+
+    /**
+     * @param percentile The percentile to estimate, between 0 and 100
+     * @return Estimated value at the percentile, {@link Double#NaN} if no values have been recorded
+     */
+    public double getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                    "percentile must be between 0 and 100: " + percentile);
+        }
+        if (this.totalCount == 0) {
+            return Double.NaN;
+        }
+
+        final long rank =
+                Math.max(
+                        1,
+                        Math.min(
+                                this.totalCount,
+                                (long) Math.ceil(percentile / 100 * this.totalCount)));
+
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                //Report the middle of the bucket, bounded by the exact extremes
+                final long lower = getBucketLowerBound(i);
+                final long upper = getBucketUpperBound(i);
+                final double value = lower + (upper - lower) / 2d;
+                return Math.max(this.min, Math.min(this.max, value));
+            }
+        }
+
+        return this.max;
+    }
+
+    /** @return Compact serialized form of the histogram */
+    public byte[] toBytes() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        out.write(SUB_BUCKET_BITS);
+        writeVarLong(out, this.totalCount);
+        if (this.totalCount > 0) {
+            writeVarLong(out, this.min);
+            writeVarLong(out, this.max);
+
+            //Non-empty buckets as (index delta, count) pairs
+            int lastIndex = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                if (this.counts[i] != 0) {
+                    writeVarLong(out, i - lastIndex);
+                    writeVarLong(out, this.counts[i]);
+                    lastIndex = i;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param data Data created by {@link #toBytes()}
+     * @return The histogram represented by the data
+     * @throws IllegalArgumentException if the data is not a valid serialized histogram
+     */
+    public static TimingHistogram fromBytes(byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            final byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported histogram version: " + version);
+            }
+            final byte subBucketBits = buffer.get();
+            if (subBucketBits != SUB_BUCKET_BITS) {
+                throw new IllegalArgumentException(
+                        "Unsupported histogram bucket resolution: " + subBucketBits);
+            }
+
+            final TimingHistogram histogram = new TimingHistogram();
+            final long totalCount = readVarLong(buffer);
+            if (totalCount == 0) {
+                return histogram;
+            }
+
+            histogram.min = readVarLong(buffer);
+            histogram.max = readVarLong(buffer);
+            histogram.ensureCapacity(getBucketIndex(histogram.max) + 1);
+
+            int index = 0;
+            long count = 0;
+            while (count < totalCount) {
+                index += (int) readVarLong(buffer);
+                final long bucketCount = readVarLong(buffer);
+                histogram.counts[index] = bucketCount;
+                count += bucketCount;
+            }
+            histogram.totalCount = count;
+
+            return histogram;
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Histogram data is corrupt", e);
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (this.counts.length < length) {
+            //Grow by at least one power of two range to avoid resizing on every new max
+            final int newLength =
+                    Math.min(MAX_BUCKETS, Math.max(length, this.counts.length + SUB_BUCKET_COUNT));
+            this.counts = Arrays.copyOf(this.counts, newLength);
+        }
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        //Values in [2^e, 2^(e+1)) are split into SUB_BUCKET_COUNT buckets of width 2^(e-SUB_BUCKET_BITS)
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) | (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long mantissa = (index & SUB_BUCKET_MASK) | SUB_BUCKET_COUNT;
+        return mantissa << shift;
+    }
+
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return getBucketLowerBound(index) + (1L << shift) - 1;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException(
+                "Histogram data is corrupt, malformed variable length value");
+    }
+
+    @Override
+    public String toString() {
+        return "TimingHistogram [n="
+                + this.totalCount
+                + ", min="
+                + getMin()
+                + ", p50="
+                + getPercentile(50)
+                + ", p95="
+                + getPercentile(95)
+                + ", p99="
+                + getPercentile(99)
+                + ", max="
+                + getMax()
+                + "]";
+    }
+}
@@ -15,16 +15,15 @@
 package org.apereo.portal.events.aggr.tabrender;
 
 import org.apereo.portal.events.aggr.BaseAggregation;
+import org.apereo.portal.events.aggr.TimedAggregationPercentiles;
 import org.apereo.portal.events.aggr.TimedAggregationStatistics;
 import org.apereo.portal.events.aggr.tabs.AggregatedTabMapping;
 
-/**
- * Tracks tab render stats, all times are in nanoseconds.
- *
- */
+/** Tracks tab render stats, all times are in nanoseconds. */
 public interface TabRenderAggregation
         extends BaseAggregation<TabRenderAggregationKey, TabRenderAggregationDiscriminator>,
-                TimedAggregationStatistics {
+                TimedAggregationStatistics,
+                TimedAggregationPercentiles {
 
     /** @return Number of times the tab was rendered */
     int getRenderCount();
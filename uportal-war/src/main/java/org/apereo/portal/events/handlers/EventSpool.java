@@ -0,0 +1,547 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, append-only spool of byte records backed by memory mapped segment files. Appending a
+ * record only copies it into the mapped segment so producers never wait on disk IO, the data
+ * survives a JVM crash and is replayed when the spool is re-opened.
+ *
+ * <p>Records are consumed by a single reader using {@link #read(int)} followed by {@link
+ * #advance(SpooledRecords)} once the records have been handled. Fully consumed segments are
+ * deleted. When the spool is full the {@link DropPolicy} decides whether new records or the oldest
+ * segment are dropped.
+ *
+ * <p>The lock on the spool is only held to update positions and to copy an appended record into its
+ * segment. The next segment file is created and mapped ahead of time outside of the lock and {@link
+ * #read(int)} copies records out after releasing it, written records are never modified.
+ *
+ * <p>Segment layout: an int magic number and an int read position followed by records of [int
+ * length][int crc32][payload]. A length of 0 marks the end of the written records.
+ */
+public final class EventSpool implements Closeable {
+    /** What to do with new records when the spool has no room left */
+    public enum DropPolicy {
+        /** Drop the record being appended */
+        DROP_NEWEST,
+        /** Delete the oldest segment, dropping its unread records, to make room */
+        DROP_OLDEST;
+    }
+
+    private static final int MAGIC = 0x75505370; //uPSp
+    private static final int READ_POSITION_OFFSET = 4;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String LOCK_FILE = "spool.lock";
+
+    private static final Logger logger = LoggerFactory.getLogger(EventSpool.class);
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final DropPolicy dropPolicy;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    //All MUST only be accessed while synchronized on this
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private Segment spareSegment;
+    private boolean allocatingSegment;
+    private long nextSequence;
+    private long headIndex;
+    private long recordCount;
+    private long droppedCount;
+    private boolean closed;
+
+    /**
+     * Opens the spool in the directory, recovering any unread records left by a previous instance.
+     *
+     * @param directory Directory to store segment files in, created if needed
+     * @param segmentSize Size in bytes of each segment file
+     * @param maxSegments Maximum number of segment files, must be at least 2
+     * @param dropPolicy What to do when the spool is full
+     * @throws IOException If the directory can't be used or is locked by another process
+     */
+    public EventSpool(File directory, int segmentSize, int maxSegments, DropPolicy dropPolicy)
+            throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments must be at least 2: " + maxSegments);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.dropPolicy = dropPolicy;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create spool directory " + directory);
+        }
+
+        //Two JVMs sharing a spool would corrupt it
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        final FileLock fileLock = this.lockFile.getChannel().tryLock();
+        if (fileLock == null) {
+            this.lockFile.close();
+            throw new IOException("Spool directory " + directory + " is in use by another process");
+        }
+        this.lock = fileLock;
+
+        this.recover();
+        this.allocateSpareSegment();
+    }
+
+    /** @return true if the record was spooled, false if it was dropped */
+    public boolean append(byte[] record) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+
+        final boolean appended = this.appendRecord(record, (int) crc.getValue());
+        this.allocateSpareSegment();
+        return appended;
+    }
+
+    private synchronized boolean appendRecord(byte[] record, int checksum) throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("EventSpool " + this.directory + " is closed");
+        }
+
+        final int recordSize = RECORD_HEADER_SIZE + record.length;
+        if (HEADER_SIZE + recordSize > this.segmentSize) {
+            logger.warn(
+                    "Dropping {} byte record, it does not fit in a {} byte spool segment",
+                    record.length,
+                    this.segmentSize);
+            this.droppedCount++;
+            return false;
+        }
+
+        Segment segment = this.segments.peekLast();
+        if (segment == null || segment.writePosition + recordSize > segment.capacity()) {
+            if (this.segments.size() >= this.maxSegments) {
+                if (this.dropPolicy == DropPolicy.DROP_NEWEST) {
+                    this.droppedCount++;
+                    return false;
+                }
+
+                final Segment oldest = this.segments.removeFirst();
+                logger.warn(
+                        "Event spool {} is full, dropping {} unread records",
+                        this.directory,
+                        oldest.recordCount);
+                this.droppedCount += oldest.recordCount;
+                this.recordCount -= oldest.recordCount;
+                this.headIndex += oldest.recordCount;
+                oldest.delete();
+            }
+
+            segment = this.spareSegment;
+            if (segment != null) {
+                this.spareSegment = null;
+            } else {
+                segment = Segment.create(this.nextSegmentFile(), this.segmentSize);
+            }
+            this.segments.add(segment);
+        }
+
+        //Length is written last so a partially written record is never seen as complete
+        final int position = segment.writePosition;
+        final MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(position + 4, checksum);
+        segment.copyIn(position + RECORD_HEADER_SIZE, record);
+        buffer.putInt(position, record.length);
+
+        segment.writePosition += recordSize;
+        segment.recordCount++;
+        this.recordCount++;
+        return true;
+    }
+
+    /**
+     * Read up to max of the oldest unread records without consuming them. Pass the returned records
+     * to {@link #advance(SpooledRecords)} to consume them.
+     */
+    public SpooledRecords read(int max) {
+        //Capture the written ranges while locked, the records are copied after releasing the lock
+        final long startIndex;
+        final Segment[] readSegments;
+        final int[] readPositions;
+        final int[] writePositions;
+        int segmentCount = 0;
+        synchronized (this) {
+            startIndex = this.headIndex;
+            readSegments = new Segment[this.segments.size()];
+            readPositions = new int[readSegments.length];
+            writePositions = new int[readSegments.length];
+
+            long available = 0;
+            for (final Segment segment : this.segments) {
+                if (available >= max) {
+                    break;
+                }
+                readSegments[segmentCount] = segment;
+                readPositions[segmentCount] = segment.readPosition;
+                writePositions[segmentCount] = segment.writePosition;
+                segmentCount++;
+                available += segment.recordCount;
+            }
+        }
+
+        //A segment dropped or deleted meanwhile stays mapped, advance() accounts for the drop
+        final List<byte[]> records = new ArrayList<byte[]>(Math.min(max, 1024));
+        for (int i = 0; i < segmentCount && records.size() < max; i++) {
+            final Segment segment = readSegments[i];
+            int position = readPositions[i];
+            final int writePosition = writePositions[i];
+            while (records.size() < max && position < writePosition) {
+                final int length = segment.buffer.getInt(position);
+                records.add(segment.copyOut(position + RECORD_HEADER_SIZE, length));
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        return new SpooledRecords(startIndex, records);
+    }
+
+    /**
+     * Consume records returned by {@link #read(int)}. Records that were dropped since they were
+     * read are not counted twice.
+     */
+    public synchronized void advance(SpooledRecords records) {
+        long toConsume = records.startIndex + records.size() - this.headIndex;
+        while (toConsume > 0 && !this.segments.isEmpty()) {
+            final Segment segment = this.segments.getFirst();
+            while (toConsume > 0 && segment.recordCount > 0) {
+                final int length = segment.buffer.getInt(segment.readPosition);
+                segment.readPosition += RECORD_HEADER_SIZE + length;
+                segment.recordCount--;
+                this.recordCount--;
+                this.headIndex++;
+                toConsume--;
+            }
+            segment.buffer.putInt(READ_POSITION_OFFSET, segment.readPosition);
+
+            //Delete fully consumed segments that are no longer being written to
+            if (segment.recordCount == 0 && this.segments.size() > 1) {
+                this.segments.removeFirst();
+                segment.delete();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /** @return Number of unread records in the spool */
+    public synchronized long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /** @return Number of records dropped because the spool was full */
+    public synchronized long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /** @return Bytes of disk used by the spool segment files */
+    public synchronized long getSpoolSize() {
+        long size = 0;
+        for (final Segment segment : this.segments) {
+            size += segment.capacity();
+        }
+        if (this.spareSegment != null) {
+            size += this.spareSegment.capacity();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        for (final Segment segment : this.segments) {
+            segment.close();
+        }
+        this.segments.clear();
+
+        if (this.spareSegment != null) {
+            this.spareSegment.delete();
+            this.spareSegment = null;
+        }
+
+        this.lock.release();
+        this.lockFile.close();
+    }
+
+    private void recover() throws IOException {
+        final File[] segmentFiles =
+                this.directory.listFiles(
+                        new FilenameFilter() {
+                            @Override
+                            public boolean accept(File dir, String name) {
+                                return name.endsWith(SEGMENT_SUFFIX);
+                            }
+                        });
+        if (segmentFiles == null) {
+            throw new IOException("Failed to list spool directory " + this.directory);
+        }
+
+        //File names are zero padded sequence numbers so they sort in write order
+        Arrays.sort(segmentFiles);
+        for (final File segmentFile : segmentFiles) {
+            final long sequence;
+            try {
+                sequence =
+                        Long.parseLong(
+                                segmentFile
+                                        .getName()
+                                        .substring(
+                                                0,
+                                                segmentFile.getName().length()
+                                                        - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring unexpected file {} in event spool", segmentFile);
+                continue;
+            }
+
+            final Segment segment = Segment.open(segmentFile);
+            if (segment == null) {
+                logger.warn("Ignoring corrupt event spool segment {}", segmentFile);
+                continue;
+            }
+
+            this.nextSequence = Math.max(this.nextSequence, sequence + 1);
+            this.recordCount += segment.recordCount;
+            this.segments.add(segment);
+        }
+
+        //Keep the newest segment for appending, delete any other segments that were fully read
+        for (final Segment segment : new ArrayList<Segment>(this.segments)) {
+            if (segment.recordCount == 0 && segment != this.segments.getLast()) {
+                this.segments.remove(segment);
+                segment.delete();
+            }
+        }
+
+        if (this.recordCount > 0) {
+            logger.info(
+                    "Recovered {} unread records from event spool {}",
+                    this.recordCount,
+                    this.directory);
+        }
+    }
+
+    /** MUST be called while synchronized on this */
+    private File nextSegmentFile() {
+        final long sequence = this.nextSequence++;
+        return new File(this.directory, String.format("%019d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Create and map the next segment file without holding the lock so that appending rarely has to
+     * wait on the file system when the current segment fills up.
+     */
+    private void allocateSpareSegment() {
+        final File segmentFile;
+        final long sequence;
+        synchronized (this) {
+            if (this.closed || this.spareSegment != null || this.allocatingSegment) {
+                return;
+            }
+            this.allocatingSegment = true;
+            sequence = this.nextSequence;
+            segmentFile = this.nextSegmentFile();
+        }
+
+        Segment segment = null;
+        try {
+            segment = Segment.create(segmentFile, this.segmentSize);
+        } catch (IOException e) {
+            //Append creates the segment itself when there is no spare
+            logger.warn("Failed to pre-allocate event spool segment " + segmentFile, e);
+        } finally {
+            synchronized (this) {
+                this.allocatingSegment = false;
+
+                //Segments are used in sequence order, discard the spare if append created a segment
+                if (segment != null && !this.closed && sequence == this.nextSequence - 1) {
+                    this.spareSegment = segment;
+                } else if (segment != null) {
+                    segment.delete();
+                }
+            }
+        }
+    }
+
+    /** Records read from the spool, pass to {@link EventSpool#advance(SpooledRecords)} */
+    public static final class SpooledRecords {
+        private final long startIndex;
+        private final List<byte[]> records;
+
+        private SpooledRecords(long startIndex, List<byte[]> records) {
+            this.startIndex = startIndex;
+            this.records = Collections.unmodifiableList(records);
+        }
+
+        public List<byte[]> getRecords() {
+            return this.records;
+        }
+
+        public int size() {
+            return this.records.size();
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private long recordCount;
+
+        private Segment(File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.file = file;
+            this.raf = raf;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File file, int size) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            final MappedByteBuffer buffer =
+                    raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(READ_POSITION_OFFSET, HEADER_SIZE);
+
+            final Segment segment = new Segment(file, raf, buffer);
+            segment.readPosition = HEADER_SIZE;
+            segment.writePosition = HEADER_SIZE;
+            return segment;
+        }
+
+        /** @return The segment with read/write positions restored, null if it is corrupt */
+        static Segment open(File file) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            final long length = raf.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                raf.close();
+                return null;
+            }
+
+            final MappedByteBuffer buffer =
+                    raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            final int readPosition = buffer.getInt(READ_POSITION_OFFSET);
+            if (buffer.getInt(0) != MAGIC || readPosition < HEADER_SIZE || readPosition > length) {
+                raf.close();
+                return null;
+            }
+
+            final Segment segment = new Segment(file, raf, buffer);
+            segment.readPosition = readPosition;
+
+            //Scan forward to the last complete record
+            final CRC32 crc = new CRC32();
+            int position = readPosition;
+            while (position + RECORD_HEADER_SIZE <= length) {
+                final int recordLength = buffer.getInt(position);
+                if (recordLength <= 0 || position + RECORD_HEADER_SIZE + recordLength > length) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(segment.copyOut(position + RECORD_HEADER_SIZE, recordLength));
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    logger.warn(
+                            "Truncating event spool segment {} at corrupt record {}",
+                            file,
+                            position);
+                    break;
+                }
+
+                position += RECORD_HEADER_SIZE + recordLength;
+                segment.recordCount++;
+            }
+            segment.writePosition = position;
+
+            //Clear a partially written record so it is not mistaken for data later
+            if (position + 4 <= length) {
+                buffer.putInt(position, 0);
+            }
+
+            return segment;
+        }
+
+        void copyIn(int position, byte[] data) {
+            final ByteBuffer target = this.buffer.duplicate();
+            target.position(position);
+            target.put(data);
+        }
+
+        byte[] copyOut(int position, int length) {
+            final ByteBuffer source = this.buffer.duplicate();
+            source.position(position);
+            final byte[] data = new byte[length];
+            source.get(data);
+            return data;
+        }
+
+        int capacity() {
+            return this.buffer.capacity();
+        }
+
+        void close() throws IOException {
+            this.raf.close();
+        }
+
+        void delete() {
+            try {
+                this.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close event spool segment " + this.file, e);
+            }
+            if (!this.file.delete()) {
+                logger.warn("Failed to delete event spool segment {}", this.file);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Segment [file=" + this.file + "]";
+        }
+    }
+}
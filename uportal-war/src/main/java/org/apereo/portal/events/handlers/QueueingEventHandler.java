@@ -14,28 +14,55 @@
  */
 package org.apereo.portal.events.handlers;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang.StringUtils;
+import org.apereo.portal.events.handlers.EventSpool.DropPolicy;
+import org.apereo.portal.events.handlers.EventSpool.SpooledRecords;
 import org.apereo.portal.spring.context.FilteringApplicationListener;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationEvent;
 
 /**
- * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the
- * configured {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used
- * with some external timer that will call {@link #flush()} at regular intervals
+ * Queues PortalEvents and flushes the events to the configured {@link BatchingEventHandler} when
+ * {@link #flush()} is called. This class must be used with some external timer that will call
+ * {@link #flush()} at regular intervals
  *
+ * <p>Events are held in a local {@link ConcurrentLinkedQueue}. If a spool directory is configured
+ * the flushing thread encodes the queued events with the {@link EventSpoolCodec} and appends them
+ * to a durable {@link EventSpool} that is replayed after a restart, so the thread publishing an
+ * event never waits on encoding or the spool. Both are bounded, once full events are dropped
+ * according to the {@link DropPolicy}.
  */
 public abstract class QueueingEventHandler<E extends ApplicationEvent>
-        extends FilteringApplicationListener<E> implements DisposableBean {
+        extends FilteringApplicationListener<E>
+        implements InitializingBean, DisposableBean, QueueingEventHandlerMXBean {
 
     private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
+    private final AtomicInteger eventQueueSize = new AtomicInteger();
+    private final AtomicLong droppedEvents = new AtomicLong();
     private final Lock flushLock = new ReentrantLock();
     private int batchSize = 25;
+    private int maxQueueSize = 100000;
+    private DropPolicy dropPolicy = DropPolicy.DROP_NEWEST;
+    private String spoolDirectory;
+    private int spoolSegmentSize = 8 * 1024 * 1024;
+    private int spoolMaxSegments = 64;
+    private int maxSpoolFlushAttempts = 3;
+    private EventSpoolCodec<E> eventCodec;
+    private EventSpool eventSpool;
+
+    //Consecutive failures flushing the oldest spooled batch, MUST only be accessed within the flushLock
+    private int spoolFlushFailures = 0;
 
     //Used to hold events to flush, MUST only be read/written from within the flushLock
     private List<E> eventBuffer = new ArrayList<E>(this.batchSize);
@@ -46,12 +73,79 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
         eventBuffer = new ArrayList<E>(this.batchSize);
     }
 
+    /** The maximum number of events held in memory, waiting to be flushed or spooled */
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /** What to do with events when the queue or spool is full, defaults to DROP_NEWEST */
+    public void setDropPolicy(DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    /** Directory to spool events to, if blank events are only queued in memory */
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = StringUtils.trimToNull(spoolDirectory);
+    }
+
+    /** Encodes events for the spool, required if a spool directory is configured */
+    public void setEventCodec(EventSpoolCodec<E> eventCodec) {
+        this.eventCodec = eventCodec;
+    }
+
+    /** Size in bytes of each spool segment file */
+    public void setSpoolSegmentSize(int spoolSegmentSize) {
+        this.spoolSegmentSize = spoolSegmentSize;
+    }
+
+    /** Maximum number of spool segment files, bounds the disk used by the spool */
+    public void setSpoolMaxSegments(int spoolMaxSegments) {
+        this.spoolMaxSegments = spoolMaxSegments;
+    }
+
+    /**
+     * Number of flushes a batch of spooled events is retried for before it is discarded. Spooled
+     * events stay in the spool while the {@link BatchingEventHandler} is failing, defaults to 3.
+     */
+    public void setMaxSpoolFlushAttempts(int maxSpoolFlushAttempts) {
+        this.maxSpoolFlushAttempts = maxSpoolFlushAttempts;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (this.spoolDirectory != null) {
+            if (this.eventCodec == null) {
+                throw new IllegalStateException(
+                        "An eventCodec is required to spool events to " + this.spoolDirectory);
+            }
+
+            try {
+                this.eventSpool =
+                        new EventSpool(
+                                new File(this.spoolDirectory),
+                                this.spoolSegmentSize,
+                                this.spoolMaxSegments,
+                                this.dropPolicy);
+            } catch (IOException e) {
+                this.logger.error(
+                        "Failed to open event spool in "
+                                + this.spoolDirectory
+                                + ", events will only be queued in memory",
+                        e);
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
     @Override
     public final void destroy() throws Exception {
         this.flush();
+
+        if (this.eventSpool != null) {
+            this.eventSpool.close();
+        }
     }
 
     /* (non-Javadoc)
@@ -59,9 +153,39 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
+        if (this.eventQueueSize.incrementAndGet() > this.maxQueueSize) {
+            if (this.dropPolicy == DropPolicy.DROP_NEWEST) {
+                this.eventQueueSize.decrementAndGet();
+                this.droppedEvents.incrementAndGet();
+                return;
+            }
+
+            if (this.eventQueue.poll() != null) {
+                this.eventQueueSize.decrementAndGet();
+                this.droppedEvents.incrementAndGet();
+            }
+        }
         this.eventQueue.offer(event);
     }
 
+    @Override
+    public long getQueuedEventCount() {
+        final EventSpool spool = this.eventSpool;
+        return this.eventQueueSize.get() + (spool != null ? spool.getRecordCount() : 0);
+    }
+
+    @Override
+    public long getDroppedEventCount() {
+        final EventSpool spool = this.eventSpool;
+        return this.droppedEvents.get() + (spool != null ? spool.getDroppedCount() : 0);
+    }
+
+    @Override
+    public long getSpoolSize() {
+        final EventSpool spool = this.eventSpool;
+        return spool != null ? spool.getSpoolSize() : 0;
+    }
+
     /**
      * Handle a batch of application events, these events have been filtered by the parent {@link
      * FilteringApplicationListener}
@@ -81,7 +205,8 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      *     fewer than <code>flushCount</code> PortalEvents in the queue.
      */
     public final void flush() {
-        if (eventQueue.isEmpty()) {
+        final EventSpool spool = this.eventSpool;
+        if (eventQueue.isEmpty() && (spool == null || spool.getRecordCount() == 0)) {
             //No events to flush
             logger.trace("No events to flush, returning.");
             return;
@@ -94,6 +219,21 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             return;
         }
         try {
+            if (spool != null) {
+                final List<E> unspooledEvents = new ArrayList<E>(0);
+                this.flushSpool(spool, unspooledEvents);
+
+                //Events that could not be spooled are flushed directly
+                for (int i = 0; i < unspooledEvents.size(); i += this.batchSize) {
+                    eventBuffer.clear();
+                    eventBuffer.addAll(
+                            unspooledEvents.subList(
+                                    i, Math.min(i + this.batchSize, unspooledEvents.size())));
+                    this.flushEventBuffer(true);
+                }
+                return;
+            }
+
             while (!this.eventQueue.isEmpty()) {
                 //Clear the buffer for re-use
                 eventBuffer.clear();
@@ -101,44 +241,14 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
                 //Pop events off the queue into the buffer
                 while (!this.eventQueue.isEmpty() && eventBuffer.size() < this.batchSize) {
                     final E event = eventQueue.poll();
-                    eventBuffer.add(event);
-                }
-
-                if (this.logger.isDebugEnabled()) {
-                    this.logger.debug("Flushing " + eventBuffer.size() + " events");
-                }
-
-                //Write events out to batching listener
-                try {
-                    this.onApplicationEvents(eventBuffer);
-                } catch (Throwable t) {
-                    this.logger.error(
-                            "An exception was thrown while trying to flush "
-                                    + eventBuffer.size()
-                                    + " events",
-                            t);
-
-                    final StringBuilder failedEvents = new StringBuilder();
-                    failedEvents.append(
-                            "The following events that were being flushed, some may have been persisted correctly");
-
-                    for (final E portalEvent : eventBuffer) {
-                        failedEvents.append("\n\t");
-                        try {
-                            failedEvents.append(portalEvent.toString());
-                        } catch (Exception e) {
-                            failedEvents
-                                    .append("toString failed on a PortalEvent of type '")
-                                    .append(portalEvent.getClass())
-                                    .append("': ")
-                                    .append(e);
-                        }
+                    if (event != null) {
+                        this.eventQueueSize.decrementAndGet();
+                        eventBuffer.add(event);
                     }
-
-                    this.logger.error(failedEvents.toString(), t);
                 }
-            }
 
+                this.flushEventBuffer(true);
+            }
         } finally {
             //Clear the buffer to avoid memory leaks
             eventBuffer.clear();
@@ -146,4 +256,102 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             this.flushLock.unlock();
         }
     }
+
+    /**
+     * Drain the spool in batches. A batch is only removed from the spool once it is handled or it
+     * has failed {@link #setMaxSpoolFlushAttempts(int)} times. Queued events are moved to the spool
+     * before each batch so they keep moving out of memory while a slow batch is handled.
+     *
+     * @param unspooledEvents Queued events that could not be spooled are added to the list
+     */
+    private void flushSpool(EventSpool spool, List<E> unspooledEvents) {
+        while (true) {
+            this.spoolQueuedEvents(spool, unspooledEvents);
+
+            final SpooledRecords records = spool.read(this.batchSize);
+            if (records.size() == 0) {
+                return;
+            }
+
+            eventBuffer.clear();
+            for (final byte[] data : records.getRecords()) {
+                try {
+                    eventBuffer.add(this.eventCodec.decode(data));
+                } catch (Exception e) {
+                    this.logger.warn("Discarding spooled event that could not be decoded", e);
+                }
+            }
+
+            final boolean lastAttempt = this.spoolFlushFailures + 1 >= this.maxSpoolFlushAttempts;
+            if (this.flushEventBuffer(lastAttempt) || lastAttempt) {
+                this.spoolFlushFailures = 0;
+                spool.advance(records);
+            } else {
+                //Leave the events in the spool and try again on the next flush
+                this.spoolFlushFailures++;
+                return;
+            }
+        }
+    }
+
+    /** Encode the queued events and append them to the spool */
+    private void spoolQueuedEvents(EventSpool spool, List<E> unspooledEvents) {
+        E event;
+        while ((event = this.eventQueue.poll()) != null) {
+            this.eventQueueSize.decrementAndGet();
+            try {
+                spool.append(this.eventCodec.encode(event));
+            } catch (Exception e) {
+                this.logger.warn("Failed to spool event, flushing it directly: " + event, e);
+                unspooledEvents.add(event);
+            }
+        }
+    }
+
+    /**
+     * Write the events in the buffer out to the batching listener
+     *
+     * @param logFailedEvents If the events should be logged when handling them fails
+     * @return true if the events were handled without error
+     */
+    private boolean flushEventBuffer(boolean logFailedEvents) {
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Flushing " + eventBuffer.size() + " events");
+        }
+
+        try {
+            this.onApplicationEvents(eventBuffer);
+            return true;
+        } catch (Throwable t) {
+            this.logger.error(
+                    "An exception was thrown while trying to flush "
+                            + eventBuffer.size()
+                            + " events",
+                    t);
+
+            if (!logFailedEvents) {
+                return false;
+            }
+
+            final StringBuilder failedEvents = new StringBuilder();
+            failedEvents.append(
+                    "The following events that were being flushed, some may have been persisted correctly");
+
+            for (final E portalEvent : eventBuffer) {
+                failedEvents.append("\n\t");
+                try {
+                    failedEvents.append(portalEvent.toString());
+                } catch (Exception e) {
+                    failedEvents
+                            .append("toString failed on a PortalEvent of type '")
+                            .append(portalEvent.getClass())
+                            .append("': ")
+                            .append(e);
+                }
+            }
+
+            this.logger.error(failedEvents.toString(), t);
+            return false;
+        }
+    }
 }
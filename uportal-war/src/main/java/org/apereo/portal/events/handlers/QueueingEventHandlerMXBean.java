@@ -0,0 +1,28 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+/** JMX stats for a {@link QueueingEventHandler} */
+public interface QueueingEventHandlerMXBean {
+
+    /** @return Number of events waiting to be flushed, in memory or in the spool */
+    long getQueuedEventCount();
+
+    /** @return Number of events dropped because the queue or spool was full */
+    long getDroppedEventCount();
+
+    /** @return Bytes of disk used by the event spool, 0 if events are only queued in memory */
+    long getSpoolSize();
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apereo.portal.events.PortalEvent;
+
+/**
+ * Compressed encoding of {@link PortalEvent} data for the raw event table. The event is written as
+ * JSON by the Jackson {@link ObjectMapper}, exactly as it would be stored uncompressed, and then
+ * deflated with a preset dictionary of the property names, event type ids and values shared by most
+ * events. Individual events are far too small to compress well on their own, the dictionary is what
+ * makes the repeated parts of every event nearly free.
+ *
+ * <p>The compressed data is stored Base64 encoded behind a {@link #PREFIX} that can never start a
+ * JSON document, which lets the event data column hold both formats and existing JSON rows to be
+ * read without migration.
+ *
+ * <p>The saving is in storage only. Decoding Base64 decodes and inflates the data and then parses
+ * the same JSON in full, so reading compressed events, as aggregation does for every raw event, is
+ * always somewhat slower than reading plain JSON.
+ *
+ * <p>Instances are thread safe.
+ *
+ * @see EventDataFormat
+ */
+public final class DeflatedPortalEventCodec {
+    /** Marks event data written by this codec, JSON documents always start with '{' */
+    public static final char PREFIX = '#';
+
+    private static final byte VERSION_1 = 1;
+
+    /**
+     * Preset dictionary for {@link #VERSION_1} data. It must never be changed, a new dictionary
+     * needs a new version. Deflate prefers the closest match so the most common strings are last.
+     */
+    private static final byte[] DICTIONARY_V1 =
+            ("\"targetedLayoutNodeId\":null,\"executionTimeNano\":-1}"
+                            + "{\"@c\":\".PortletMovedInLayoutPortalEvent\","
+                            + "\"layoutId\":1,\"layoutOwner\":\"\",\"oldParentFolderId\":\"\","
+                            + "\"newParentFolderId\":\"\",\"fname\":\"\"}"
+                            + "{\"@c\":\".PortletHungEvent\"}{\"@c\":\".PortletHungCompleteEvent\"}"
+                            + "{\"@c\":\".PortletRenderHeaderExecutionEvent\"}"
+                            + "{\"@c\":\".PortletEventExecutionEvent\",\"eventName\":\"{}\"}"
+                            + "{\"@c\":\".PortletActionExecutionEvent\"}"
+                            + "{\"@c\":\".PortletResourceExecutionEvent\",\"resourceId\":\"\","
+                            + "\"usedBrowserCache\":false,\"usedPortalCache\":false}"
+                            + "{\"@c\":\".LoginEvent\",\"groups\":[\"\"],"
+                            + "\"attributes\":{\"\":[\"\"]}}"
+                            + "{\"@c\":\".LogoutEvent\"}"
+                            + "{\"@c\":\".PortalRenderEvent\",\"requestPathInfo\":\"/f/\","
+                            + "\"urlState\":\"NORMAL\",\"urlType\":\"RENDER\",\"parameters\":{},"
+                            + "\"windowState\":\"normal\",\"windowState\":\"minimized\","
+                            + "\"portletMode\":\"edit\",\"portletMode\":\"help\","
+                            + "{\"@c\":\".PortletRenderExecutionEvent\",\"timestamp\":1,"
+                            + "\"serverId\":\"\",\"eventSessionId\":\"\",\"userName\":\"\","
+                            + "\"fname\":\"\",\"windowState\":\"maximized\","
+                            + "\"portletMode\":\"view\","
+                            + "\"executionTimeNano\":1,\"parameters\":{},"
+                            + "\"targeted\":true,\"usedPortalCache\":false}")
+                    .getBytes(Charsets.UTF_8);
+
+    private final ThreadLocal<Deflater> deflater =
+            new ThreadLocal<Deflater>() {
+                @Override
+                protected Deflater initialValue() {
+                    return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                }
+            };
+
+    private final ThreadLocal<Inflater> inflater =
+            new ThreadLocal<Inflater>() {
+                @Override
+                protected Inflater initialValue() {
+                    return new Inflater(true);
+                }
+            };
+
+    private final ObjectMapper mapper;
+
+    public DeflatedPortalEventCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /** @return true if the event data was written by this codec */
+    public static boolean isEncoded(String eventData) {
+        return eventData != null && !eventData.isEmpty() && eventData.charAt(0) == PREFIX;
+    }
+
+    /** Encode the event, the result always starts with {@link #PREFIX} */
+    public String encode(PortalEvent event) throws IOException {
+        final byte[] json = mapper.writeValueAsBytes(event);
+
+        final Deflater deflater = this.deflater.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY_V1);
+        deflater.setInput(json);
+        deflater.finish();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 2 + 16);
+        out.write(VERSION_1);
+        final byte[] buffer = new byte[json.length + 16];
+        while (!deflater.finished()) {
+            final int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+
+        return PREFIX + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    /** Decode event data written by {@link #encode(PortalEvent)} */
+    public <E> E decode(String eventData, Class<E> type) throws IOException {
+        if (!isEncoded(eventData)) {
+            throw corrupt("Event data does not start with '" + PREFIX + "'");
+        }
+
+        final byte[] data;
+        try {
+            data = Base64.getDecoder().decode(eventData.substring(1));
+        } catch (IllegalArgumentException e) {
+            throw corrupt("Event data is not valid Base64: " + e.getMessage());
+        }
+        if (data.length == 0 || data[0] != VERSION_1) {
+            throw corrupt("Unsupported event data version");
+        }
+
+        final Inflater inflater = this.inflater.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY_V1);
+        inflater.setInput(data, 1, data.length - 1);
+
+        final ByteArrayOutputStream json = new ByteArrayOutputStream(data.length * 4);
+        final byte[] buffer = new byte[data.length * 4];
+        try {
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw corrupt("Event data is truncated");
+                }
+                json.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw corrupt("Event data is not valid deflate data: " + e.getMessage());
+        }
+
+        return mapper.readValue(json.toByteArray(), type);
+    }
+
+    private static JsonParseException corrupt(String message) {
+        return new JsonParseException(message, JsonLocation.NA);
+    }
+}
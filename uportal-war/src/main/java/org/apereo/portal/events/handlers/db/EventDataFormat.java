@@ -0,0 +1,29 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+/**
+ * Format used to store the data of new raw portal events. Stored data of either format can always
+ * be read.
+ */
+public enum EventDataFormat {
+    /** Jackson JSON, readable by every portal version */
+    JSON,
+    /**
+     * JSON deflated by the {@link DeflatedPortalEventCodec}, a fraction of the size but slower to
+     * read as every row is inflated before the JSON is parsed
+     */
+    DEFLATED;
+}
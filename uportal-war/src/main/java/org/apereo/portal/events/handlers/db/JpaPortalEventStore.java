@@ -18,8 +18,19 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -35,6 +46,7 @@ import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
@@ -44,15 +56,37 @@ import org.springframework.stereotype.Repository;
  * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message
  * is logged at the WARN level and the event is ignored.
  *
+ * <p>During aggregation the raw events are read without dirty checking, deserialized in batches on
+ * the optional decode {@link ExecutorService} and handed to the aggregation handler in timestamp
+ * order on the calling thread. The aggregated and error flags are written with bulk updates over
+ * contiguous ID ranges rather than by updating each event entity.
+ *
+ * <p>Event data is stored as JSON or, if configured, as JSON deflated by the {@link
+ * DeflatedPortalEventCodec}. Events stored in either format are read.
  */
 @Repository
 public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
+    private static final String FLAG_PARAMETER = "flag";
+    private static final String START_ID_PARAMETER = "startId";
+    private static final String END_ID_PARAMETER = "endId";
+    private static final String IDS_PARAMETER = "ids";
+
+    /** Stay below the IN list limit of the most restrictive supported database (Oracle) */
+    private static final int MAX_IDS_PER_UPDATE = 500;
 
     private ObjectMapper mapper;
+    private DeflatedPortalEventCodec deflatedCodec;
+    private EventDataFormat eventDataFormat = EventDataFormat.JSON;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
+    private int decodeBatchSize = 100;
+    private ExecutorService decodeExecutor;
+    private String updateAggregatedRangeQuery;
+    private String updateAggregatedIdsQuery;
+    private String updateErrorAggregatingRangeQuery;
+    private String updateErrorAggregatingIdsQuery;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
@@ -61,6 +95,19 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Autowired
     public void setMapper(ObjectMapper mapper) {
         this.mapper = mapper;
+        this.deflatedCodec = new DeflatedPortalEventCodec(mapper);
+    }
+
+    /**
+     * Format used to store the data of new events, defaults to {@link EventDataFormat#JSON}. Events
+     * stored in either format are always readable so the format can be changed at any time, but
+     * {@link EventDataFormat#DEFLATED} should only be enabled once every portal sharing the raw
+     * event tables is able to read it. {@link EventDataFormat#DEFLATED} only saves space, reading
+     * it adds a Base64 decode and inflate to the full JSON parse of every event aggregated.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.eventDataFormat:JSON}")
+    public void setEventDataFormat(EventDataFormat eventDataFormat) {
+        this.eventDataFormat = eventDataFormat;
     }
 
     /**
@@ -73,6 +120,31 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
 
+    /**
+     * Number of raw events deserialized per task submitted to the decode {@link ExecutorService}
+     * during a call to {@link #aggregatePortalEvents(DateTime, DateTime, int, Function)}, defaults
+     * to 100.
+     */
+    @Value(
+            "${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationDecodeBatchSize:100}")
+    public void setAggregationDecodeBatchSize(int decodeBatchSize) {
+        if (decodeBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "aggregationDecodeBatchSize must be at least 1: " + decodeBatchSize);
+        }
+        this.decodeBatchSize = decodeBatchSize;
+    }
+
+    /**
+     * Thread pool used to deserialize raw event data ahead of the aggregation handler. If not set
+     * events are deserialized on the aggregating thread.
+     */
+    @Autowired(required = false)
+    @Qualifier("rawEventDecodeThreadPool")
+    public void setAggregationDecodeExecutor(ExecutorService decodeExecutor) {
+        this.decodeExecutor = decodeExecutor;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
@@ -126,6 +198,15 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                         + PersistentPortalEvent_.timestamp.getName()
                         + " ASC";
 
+        this.updateAggregatedRangeQuery =
+                createFlagUpdateQuery(PersistentPortalEvent_.aggregated.getName(), true);
+        this.updateAggregatedIdsQuery =
+                createFlagUpdateQuery(PersistentPortalEvent_.aggregated.getName(), false);
+        this.updateErrorAggregatingRangeQuery =
+                createFlagUpdateQuery(PersistentPortalEvent_.errorAggregating.getName(), true);
+        this.updateErrorAggregatingIdsQuery =
+                createFlagUpdateQuery(PersistentPortalEvent_.errorAggregating.getName(), false);
+
         this.deleteQuery =
                 "DELETE FROM "
                         + PersistentPortalEvent.class.getName()
@@ -242,67 +323,152 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         final org.hibernate.Query query = session.createQuery(this.selectUnaggregatedQuery);
         query.setParameter(this.startTimeParameter.getName(), startTime);
         query.setParameter(this.endTimeParameter.getName(), endTime);
+        //Events are only read here, flags are written by bulk update so skip dirty checking
+        query.setReadOnly(true);
         if (maxEvents > 0) {
             query.setMaxResults(maxEvents);
         }
 
-        int resultCount = 0;
-        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
-                results.next();
-                ) {
-            final PersistentPortalEvent persistentPortalEvent =
-                    (PersistentPortalEvent) results.get(0);
-            final PortalEvent portalEvent;
-            try {
-                portalEvent =
-                        this.toPortalEvent(
-                                persistentPortalEvent.getEventData(),
-                                persistentPortalEvent.getEventType());
-            } catch (RuntimeException e) {
-                this.logger.warn(
-                        "Failed to convert PersistentPortalEvent to PortalEvent: "
-                                + persistentPortalEvent,
-                        e);
-
-                //Mark the event as error and store the mark to prevent trying to reprocess the broken event data
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+        final EventFlagUpdater flagUpdater = new EventFlagUpdater(session);
+        final Deque<Future<List<DecodedPortalEvent>>> pendingBatches =
+                new ArrayDeque<Future<List<DecodedPortalEvent>>>();
+        final int maxPendingBatches = this.getMaxPendingDecodeBatches();
 
-                continue;
-            }
-
-            try {
+        final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            int resultCount = 0;
+            boolean moreResults = true;
+            while (true) {
+                //Keep the decode pipeline full while the handler works through the oldest batch
+                while (moreResults && pendingBatches.size() < maxPendingBatches) {
+                    final List<PersistentPortalEvent> batch =
+                            new ArrayList<PersistentPortalEvent>(this.decodeBatchSize);
+                    while (batch.size() < this.decodeBatchSize && (moreResults = results.next())) {
+                        final PersistentPortalEvent persistentPortalEvent =
+                                (PersistentPortalEvent) results.get(0);
+                        session.evict(persistentPortalEvent);
+                        batch.add(persistentPortalEvent);
+                    }
+                    if (!batch.isEmpty()) {
+                        pendingBatches.add(this.decode(batch));
+                    }
+                }
 
-                final Boolean eventHandled = handler.apply(portalEvent);
-                if (!eventHandled) {
-                    this.logger.debug(
-                            "Aggregation stop requested before processing event {}", portalEvent);
-                    return false;
+                final Future<List<DecodedPortalEvent>> nextBatch = pendingBatches.poll();
+                if (nextBatch == null) {
+                    break;
                 }
 
-                //Mark the event as aggregated and store the mark
-                persistentPortalEvent.setAggregated(true);
-                session.persist(persistentPortalEvent);
-
-                //periodic flush and clear of session to manage memory demands
-                if (++resultCount % this.flushPeriod == 0) {
-                    this.logger.debug(
-                            "Aggregated {} events, flush and clear {} EntityManager.",
-                            resultCount,
-                            PERSISTENCE_UNIT_NAME);
-                    session.flush();
-                    session.clear();
+                for (final DecodedPortalEvent decodedEvent : getDecodedBatch(nextBatch)) {
+                    final PersistentPortalEvent persistentPortalEvent =
+                            decodedEvent.persistentPortalEvent;
+                    final long eventId = persistentPortalEvent.getId();
+                    final PortalEvent portalEvent = decodedEvent.portalEvent;
+                    if (portalEvent == null) {
+                        this.logger.warn(
+                                "Failed to convert PersistentPortalEvent to PortalEvent: "
+                                        + persistentPortalEvent,
+                                decodedEvent.error);
+
+                        //Mark the event as error and store the mark to prevent trying to reprocess the broken event data
+                        flagUpdater.markErrorAggregating(eventId);
+                        continue;
+                    }
+
+                    try {
+                        final Boolean eventHandled = handler.apply(portalEvent);
+                        if (!eventHandled) {
+                            this.logger.debug(
+                                    "Aggregation stop requested before processing event {}",
+                                    portalEvent);
+                            flagUpdater.flush();
+                            return false;
+                        }
+
+                        //Mark the event as aggregated, the marks are stored in bulk
+                        flagUpdater.markAggregated(eventId);
+
+                        //periodic flush of the aggregated marks to manage memory demands
+                        if (++resultCount % this.flushPeriod == 0) {
+                            this.logger.debug(
+                                    "Aggregated {} events, flushing aggregated flags in {}.",
+                                    resultCount,
+                                    PERSISTENCE_UNIT_NAME);
+                            flagUpdater.flush();
+                        }
+
+                    } catch (Exception e) {
+                        this.logger.warn(
+                                "Failed to aggregate portal event: " + persistentPortalEvent, e);
+                        //mark the event as erred and move on. This will not be picked up by processing again
+                        flagUpdater.markErrorAggregating(eventId);
+                    }
                 }
+            }
 
-            } catch (Exception e) {
-                this.logger.warn("Failed to aggregate portal event: " + persistentPortalEvent, e);
-                //mark the event as erred and move on. This will not be picked up by processing again
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+            flagUpdater.flush();
+            return true;
+        } finally {
+            for (final Future<List<DecodedPortalEvent>> pendingBatch : pendingBatches) {
+                pendingBatch.cancel(false);
             }
+            results.close();
         }
+    }
+
+    /** Deserialize the batch of events, on the decode executor if one is configured */
+    private Future<List<DecodedPortalEvent>> decode(List<PersistentPortalEvent> batch) {
+        final DecodeTask decodeTask = new DecodeTask(batch);
 
-        return true;
+        final ExecutorService decodeExecutor = this.decodeExecutor;
+        if (decodeExecutor == null) {
+            return Futures.immediateFuture(decodeTask.call());
+        }
+        return decodeExecutor.submit(decodeTask);
+    }
+
+    private static List<DecodedPortalEvent> getDecodedBatch(
+            Future<List<DecodedPortalEvent>> batch) {
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for raw events to decode", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to decode raw events", e.getCause());
+        }
+    }
+
+    /**
+     * @return Number of decode batches to keep queued ahead of the handler, enough to keep every
+     *     decode thread busy
+     */
+    private int getMaxPendingDecodeBatches() {
+        final ExecutorService decodeExecutor = this.decodeExecutor;
+        if (decodeExecutor == null) {
+            return 1;
+        }
+        if (decodeExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) decodeExecutor).getMaximumPoolSize() * 2;
+        }
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    private String createFlagUpdateQuery(String flagName, boolean range) {
+        final String idName = PersistentPortalEvent_.id.getName();
+        return "UPDATE "
+                + PersistentPortalEvent.class.getName()
+                + " e "
+                + "SET e."
+                + flagName
+                + " = :"
+                + FLAG_PARAMETER
+                + " "
+                + "WHERE e."
+                + idName
+                + (range
+                        ? " BETWEEN :" + START_ID_PARAMETER + " AND :" + END_ID_PARAMETER
+                        : " IN (:" + IDS_PARAMETER + ")");
     }
 
     @Override
@@ -348,6 +514,128 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         return query.executeUpdate();
     }
 
+    /** A raw event and the result of deserializing it */
+    private static final class DecodedPortalEvent {
+        private final PersistentPortalEvent persistentPortalEvent;
+        private final PortalEvent portalEvent;
+        private final RuntimeException error;
+
+        DecodedPortalEvent(
+                PersistentPortalEvent persistentPortalEvent,
+                PortalEvent portalEvent,
+                RuntimeException error) {
+            this.persistentPortalEvent = persistentPortalEvent;
+            this.portalEvent = portalEvent;
+            this.error = error;
+        }
+    }
+
+    /** Deserializes a batch of raw events, capturing failures per event */
+    private final class DecodeTask implements Callable<List<DecodedPortalEvent>> {
+        private final List<PersistentPortalEvent> batch;
+
+        DecodeTask(List<PersistentPortalEvent> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public List<DecodedPortalEvent> call() {
+            final List<DecodedPortalEvent> decoded =
+                    new ArrayList<DecodedPortalEvent>(this.batch.size());
+            for (final PersistentPortalEvent persistentPortalEvent : this.batch) {
+                try {
+                    final PortalEvent portalEvent =
+                            toPortalEvent(
+                                    persistentPortalEvent.getEventData(),
+                                    persistentPortalEvent.getEventType());
+                    decoded.add(new DecodedPortalEvent(persistentPortalEvent, portalEvent, null));
+                } catch (RuntimeException e) {
+                    decoded.add(new DecodedPortalEvent(persistentPortalEvent, null, e));
+                }
+            }
+            return decoded;
+        }
+    }
+
+    /**
+     * Collects the IDs of events to flag and writes the flags with bulk updates. Runs of
+     * consecutive IDs are updated with a single range update, events are stored in ID blocks
+     * allocated per server so long runs are the common case.
+     */
+    private final class EventFlagUpdater {
+        private final Session session;
+        private final List<Long> aggregatedIds = new ArrayList<Long>();
+        private final List<Long> errorAggregatingIds = new ArrayList<Long>();
+
+        EventFlagUpdater(Session session) {
+            this.session = session;
+        }
+
+        void markAggregated(long eventId) {
+            this.aggregatedIds.add(eventId);
+        }
+
+        void markErrorAggregating(long eventId) {
+            this.errorAggregatingIds.add(eventId);
+        }
+
+        void flush() {
+            this.flush(aggregatedIds, updateAggregatedRangeQuery, updateAggregatedIdsQuery);
+            this.flush(
+                    errorAggregatingIds,
+                    updateErrorAggregatingRangeQuery,
+                    updateErrorAggregatingIdsQuery);
+        }
+
+        private void flush(List<Long> eventIds, String rangeQuery, String idsQuery) {
+            if (eventIds.isEmpty()) {
+                return;
+            }
+
+            Collections.sort(eventIds);
+
+            final List<Long> singleIds = new ArrayList<Long>();
+            int updatedEvents = 0;
+            int statements = 0;
+            for (int runStart = 0; runStart < eventIds.size(); ) {
+                int runEnd = runStart;
+                while (runEnd + 1 < eventIds.size()
+                        && eventIds.get(runEnd + 1) == eventIds.get(runEnd) + 1) {
+                    runEnd++;
+                }
+
+                if (runEnd > runStart) {
+                    updatedEvents +=
+                            this.session
+                                    .createQuery(rangeQuery)
+                                    .setParameter(FLAG_PARAMETER, Boolean.TRUE)
+                                    .setParameter(START_ID_PARAMETER, eventIds.get(runStart))
+                                    .setParameter(END_ID_PARAMETER, eventIds.get(runEnd))
+                                    .executeUpdate();
+                    statements++;
+                } else {
+                    singleIds.add(eventIds.get(runStart));
+                }
+
+                runStart = runEnd + 1;
+            }
+
+            for (final List<Long> ids : Lists.partition(singleIds, MAX_IDS_PER_UPDATE)) {
+                updatedEvents +=
+                        this.session
+                                .createQuery(idsQuery)
+                                .setParameter(FLAG_PARAMETER, Boolean.TRUE)
+                                .setParameterList(IDS_PARAMETER, ids)
+                                .executeUpdate();
+                statements++;
+            }
+
+            logger.debug("Flagged {} events using {} update statements", updatedEvents, statements);
+
+            eventIds.clear();
+        }
+    }
+
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
         final String portalEventData = this.toString(event);
         return new PersistentPortalEvent(event, portalEventData);
@@ -355,6 +643,9 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
         try {
+            if (DeflatedPortalEventCodec.isEncoded(eventData)) {
+                return deflatedCodec.decode(eventData, eventType);
+            }
             return mapper.readValue(eventData, eventType);
         } catch (JsonParseException e) {
             throw new RuntimeException("Failed to deserialize PortalEvent data", e);
@@ -367,6 +658,9 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     protected String toString(PortalEvent event) {
         try {
+            if (eventDataFormat == EventDataFormat.DEFLATED) {
+                return deflatedCodec.encode(event);
+            }
             return mapper.writeValueAsString(event);
         } catch (JsonParseException e) {
             throw new RuntimeException("Failed to serialize PortalEvent data", e);
@@ -53,7 +53,6 @@ public class PersistentPortalEvent implements Serializable {
     @Id
     @GeneratedValue(generator = "UP_RAW_EVENTS_GEN")
     @Column(name = "EVENT_ID")
-    @SuppressWarnings("unused")
     private final long id;
 
     @Index(name = "IDX_UP_RAW_EVENTS_TIMESTAMP")
@@ -116,6 +115,10 @@ public class PersistentPortalEvent implements Serializable {
         this.eventType = (Class<PortalEvent>) portalEvent.getClass();
     }
 
+    public long getId() {
+        return this.id;
+    }
+
     public Class<PortalEvent> getEventType() {
         return this.eventType;
     }
@@ -19,8 +19,8 @@ import org.apereo.portal.events.handlers.QueueingEventHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
- * Hands off queued portal events for storage by the IPortalEventDao
- *
+ * Hands off queued portal events for storage by the IPortalEventDao. Events are spooled using a
+ * {@link PortalEventSpoolCodec}.
  */
 public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent> {
     private IPortalEventDao portalEventDao;
@@ -0,0 +1,67 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.handlers.EventSpoolCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Spools portal events as the event class name followed by the same JSON representation used for
+ * raw event storage.
+ */
+public class PortalEventSpoolCodec implements EventSpoolCodec<PortalEvent> {
+    private ObjectMapper mapper;
+
+    @Autowired
+    public void setMapper(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public byte[] encode(PortalEvent event) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream(512);
+        final DataOutputStream out = new DataOutputStream(data);
+        out.writeUTF(event.getClass().getName());
+        out.flush();
+        this.mapper.writeValue(data, event);
+        return data.toByteArray();
+    }
+
+    @Override
+    public PortalEvent decode(byte[] data) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(data);
+        final String eventClassName = new DataInputStream(in).readUTF();
+
+        final Class<? extends PortalEvent> eventType;
+        try {
+            eventType =
+                    Class.forName(eventClassName, true, PortalEvent.class.getClassLoader())
+                            .asSubclass(PortalEvent.class);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown spooled event type: " + eventClassName, e);
+        } catch (ClassCastException e) {
+            throw new IOException("Spooled event type is not a PortalEvent: " + eventClassName, e);
+        }
+
+        return this.mapper.readValue(in, eventType);
+    }
+}
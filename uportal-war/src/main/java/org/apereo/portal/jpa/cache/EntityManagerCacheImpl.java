@@ -31,8 +31,6 @@ import org.apereo.portal.jpa.AbstractEntityManagerEvent;
 import org.apereo.portal.jpa.EntityManagerClosingEvent;
 import org.apereo.portal.jpa.EntityManagerCreatedEvent;
 import org.apereo.portal.utils.cache.CacheKey;
-import org.apereo.portal.utils.cache.SimpleCacheEntryTag;
-import org.apereo.portal.utils.cache.TaggedCacheEntryPurger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
@@ -50,7 +48,6 @@ public class EntityManagerCacheImpl
         implements ApplicationListener<AbstractEntityManagerEvent>,
                 DisposableBean,
                 EntityManagerCache {
-    private static final String CACHE_TAG = "entityManagerId";
     private static final String CACHE_KEY_SOURCE = EntityManagerCacheImpl.class.getName();
 
     //Thread local map of PersistenceUnit name to the Stack of EntityManagerIds
@@ -71,7 +68,6 @@ public class EntityManagerCacheImpl
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private Ehcache contentCache;
-    private TaggedCacheEntryPurger taggedCacheEntryPurger;
 
     @Autowired
     @Qualifier("org.apereo.portal.jpa.cache.EntityManagerCache")
@@ -79,11 +75,6 @@ public class EntityManagerCacheImpl
         this.contentCache = contentCache;
     }
 
-    @Autowired
-    public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
-        this.taggedCacheEntryPurger = taggedCacheEntryPurger;
-    }
-
     @Override
     public void put(String persistenceUnitName, Serializable key, Object value) {
         final Map<String, Deque<String>> currentEntityManagers =
@@ -110,10 +101,7 @@ public class EntityManagerCacheImpl
         }
 
         final String entityManagerId = entityManagerIds.getFirst();
-        final SimpleCacheEntryTag entityManagerIdTag =
-                new SimpleCacheEntryTag(CACHE_TAG, entityManagerId);
-        final CacheKey cacheKey =
-                CacheKey.buildTagged(CACHE_KEY_SOURCE, entityManagerIdTag, entityManagerId, key);
+        final CacheKey cacheKey = CacheKey.build(CACHE_KEY_SOURCE, entityManagerId, key);
         this.contentCache.put(new Element(cacheKey, value));
     }
 
@@ -143,10 +131,7 @@ public class EntityManagerCacheImpl
         }
 
         final String entityManagerId = entityManagerIds.getFirst();
-        final SimpleCacheEntryTag entityManagerIdTag =
-                new SimpleCacheEntryTag(CACHE_TAG, entityManagerId);
-        final CacheKey cacheKey =
-                CacheKey.buildTagged(CACHE_KEY_SOURCE, entityManagerIdTag, entityManagerId, key);
+        final CacheKey cacheKey = CacheKey.build(CACHE_KEY_SOURCE, entityManagerId, key);
         final Element element = this.contentCache.get(cacheKey);
 
         if (element == null) {
@@ -203,9 +188,7 @@ public class EntityManagerCacheImpl
                                 + Thread.currentThread().getName());
             }
 
-            //Purge any cached data related to this entity manager
-            taggedCacheEntryPurger.purgeCacheEntries(
-                    new SimpleCacheEntryTag(CACHE_TAG, entityManagerId));
+            //Cached data for this entity manager is keyed by its id and simply ages out of the cache
 
             //Get the currentEntityManagers Map
             final Map<String, Deque<String>> currentEntityManagers =
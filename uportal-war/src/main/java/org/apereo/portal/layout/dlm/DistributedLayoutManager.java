@@ -27,11 +27,6 @@ import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
 import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.xpath.XPathConstants;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -58,7 +53,7 @@ import org.apereo.portal.security.IAuthorizationService;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.PersonFactory;
 import org.apereo.portal.spring.locator.PortletDefinitionRegistryLocator;
-import org.apereo.portal.xml.XmlUtilities;
+import org.apereo.portal.xml.stream.DomXMLEventReader;
 import org.apereo.portal.xml.xpath.XPathOperations;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -77,7 +72,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     private static final Log LOG = LogFactory.getLog(DistributedLayoutManager.class);
 
-    private XmlUtilities xmlUtilities;
     private ILayoutCachingService layoutCachingService;
     private IUserLayoutStore distributedLayoutStore;
     private XPathOperations xpathOperations;
@@ -135,11 +129,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         this.xpathOperations = xpathOperations;
     }
 
-    @Autowired
-    public void setXmlUtilities(XmlUtilities xmlUtilities) {
-        this.xmlUtilities = xmlUtilities;
-    }
-
     @Autowired
     public void setLayoutCachingService(ILayoutCachingService layoutCachingService) {
         this.layoutCachingService = layoutCachingService;
@@ -278,17 +267,8 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                             + owner.getAttribute(IPerson.USERNAME));
         }
 
-        final XMLInputFactory xmlInputFactory = this.xmlUtilities.getXmlInputFactory();
-
-        final DOMSource layoutSoure = new DOMSource(ul);
-        try {
-            return xmlInputFactory.createXMLEventReader(layoutSoure);
-        } catch (XMLStreamException e) {
-            throw new RuntimeException(
-                    "Failed to create Layout XMLStreamReader for user: "
-                            + owner.getAttribute(IPerson.USERNAME),
-                    e);
-        }
+        //Walk the cached DOM directly rather than bridging it through the XMLInputFactory
+        return new DomXMLEventReader(ul);
     }
 
     public synchronized void loadUserLayout() throws PortalException {
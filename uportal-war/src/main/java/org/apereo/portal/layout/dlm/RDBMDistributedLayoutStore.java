@@ -15,9 +15,9 @@
 package org.apereo.portal.layout.dlm;
 
 import com.google.common.cache.Cache;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -46,6 +46,7 @@ import org.apereo.portal.layout.StylesheetUserPreferencesImpl;
 import org.apereo.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.apereo.portal.layout.om.IStylesheetDescriptor;
 import org.apereo.portal.layout.om.IStylesheetUserPreferences;
+import org.apereo.portal.layout.simple.LayoutStructureRows;
 import org.apereo.portal.layout.simple.RDBMUserLayoutStore;
 import org.apereo.portal.portlet.dao.IPortletEntityDao;
 import org.apereo.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -95,6 +96,11 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
 
     private static final Pattern VALID_PATHREF_PATTERN = Pattern.compile(".+\\:/.+");
     private static final String BAD_PATHREF_MESSAGE = "## DLM: ORPHANED DATA ##";
+
+    //Weak so strings are released once no layout references them. Only the strings are shared, each
+    //user's ILF is still a full DOM copy of the applicable fragments. DLM edits the ILF in place
+    //and Xerces nodes have a single owner document, so subtrees cannot be shared between users.
+    private static final Interner<String> LAYOUT_STRINGS = Interners.newWeakInterner();
     public static final String DEFAULT_LAYOUT_OWNER_PROPERTY = "org.apereo.portal.layout.dlm.defaultLayoutOwner";
 
     private String systemDefaultUser = null;
@@ -1223,6 +1229,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             key = new Tuple<String, String>(person.getUserName(), profile.getProfileFname());
             layoutDoc = layoutCache.getIfPresent(key);
             if (layoutDoc != null) {
+                //The cache only exists for the duration of an import or export on this thread and
+                //callers modify the returned layout, rendering never reaches this copy
                 return (Document) layoutDoc.cloneNode(true);
             }
         }
@@ -1606,15 +1614,15 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             } else {
                 structure = doc.createElement("folder");
             }
-            structure.setAttribute("name", ls.getName());
-            structure.setAttribute("type", (type != null ? type : "regular"));
+            structure.setAttribute("name", intern(ls.getName()));
+            structure.setAttribute("type", (type != null ? intern(type) : "regular"));
         }
 
         structure.setAttribute("hidden", (ls.isHidden() ? "true" : "false"));
         structure.setAttribute("immutable", (ls.isImmutable() ? "true" : "false"));
         structure.setAttribute("unremovable", (ls.isUnremovable() ? "true" : "false"));
         if (localeAware) {
-            structure.setAttribute("locale", ls.getLocale()); // for i18n by Shoji
+            structure.setAttribute("locale", intern(ls.getLocale())); // for i18n by Shoji
         }
 
         /*
@@ -1631,15 +1639,15 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
 
                 if (!ls.isChannel()) { // Folder
                     if (pName.startsWith(Constants.NS)) {
-                        structure.setAttributeNS(Constants.NS_URI, pName, sp.getValue());
+                        structure.setAttributeNS(Constants.NS_URI, pName, intern(sp.getValue()));
                     } else {
-                        structure.setAttribute(pName, sp.getValue());
+                        structure.setAttribute(pName, intern(sp.getValue()));
                     }
                 } else // Channel
                 {
                     // if dealing with a dlm namespace param add as attribute
                     if (pName.startsWith(Constants.NS)) {
-                        structure.setAttributeNS(Constants.NS_URI, pName, sp.getValue());
+                        structure.setAttributeNS(Constants.NS_URI, pName, intern(sp.getValue()));
                         itr.remove();
                     } else {
                         /*
@@ -1667,7 +1675,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                                 final Node override = nm.getNamedItem("override");
                                 if (override != null && override.getNodeValue().equals("yes")) {
                                     final Node valueNode = nm.getNamedItem("value");
-                                    valueNode.setNodeValue(sp.getValue());
+                                    valueNode.setNodeValue(intern(sp.getValue()));
                                 }
                                 itr.remove();
                                 break; // found the corresponding one so skip the rest
@@ -1682,8 +1690,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                 for (final Iterator itr = ls.getParameters().iterator(); itr.hasNext(); ) {
                     final StructureParameter sp = (StructureParameter) itr.next();
                     final Element parameter = doc.createElement("parameter");
-                    parameter.setAttribute("name", sp.getName());
-                    parameter.setAttribute("value", sp.getValue());
+                    parameter.setAttribute("name", intern(sp.getName()));
+                    parameter.setAttribute("value", intern(sp.getValue()));
                     parameter.setAttribute("override", "yes");
                     structure.appendChild(parameter);
                 }
@@ -1698,7 +1706,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         // id swapping.
         if (!origin.equals("")) {
             structure.setAttributeNS(
-                    Constants.NS_URI, Constants.ATT_PLF_ID, prefix + ls.getStructId());
+                    Constants.NS_URI, Constants.ATT_PLF_ID, intern(prefix + ls.getStructId()));
             structure.setAttribute("ID", origin);
         } else if (!ls.isChannel())
         // regular folder owned by this user, need to check if this is a
@@ -1706,27 +1714,26 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         // structure
         {
             if (type != null && type.startsWith(Constants.NS)) {
-                structure.setAttribute("ID", Constants.DIRECTIVE_PREFIX + ls.getStructId());
+                structure.setAttribute("ID", intern(Constants.DIRECTIVE_PREFIX + ls.getStructId()));
             } else {
-                structure.setAttribute("ID", folderPrefix + ls.getStructId());
+                structure.setAttribute("ID", intern(folderPrefix + ls.getStructId()));
             }
         } else {
             logger.debug("Adding identifier {}{}", folderPrefix, ls.getStructId());
-            structure.setAttribute("ID", channelPrefix + ls.getStructId());
+            structure.setAttribute("ID", intern(channelPrefix + ls.getStructId()));
         }
         structure.setIdAttribute(Constants.ATT_ID, true);
         return structure;
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutStructureRows layoutRows) {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             //parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1768,36 +1775,28 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
 
-        final String externalId = structure.getAttribute("external_id");
+        String externalId = structure.getAttribute("external_id");
         if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
+            externalId = Integer.valueOf(externalId).toString();
         } else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-        }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
-        } else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
-        }
-        final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(
-                10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
-        logger.debug(structStmt.toString());
-        structStmt.executeUpdate();
+            externalId = null;
+        }
+        layoutRows.addStructure(
+                saveStructId,
+                new LayoutStructureRows.Structure(
+                        nextStructId,
+                        childStructId,
+                        externalId,
+                        isChannel ? chanId : null,
+                        isChannel ? null : structure.getAttribute("name"),
+                        structure.getAttribute("type"),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))),
+                        RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable")))));
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1810,12 +1809,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     && !name.equals(Constants.ATT_FRAGMENT)
                     && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                logger.debug(parmStmt.toString());
-                parmStmt.executeUpdate();
+                layoutRows.addParameter(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1835,12 +1829,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            logger.debug(parmStmt.toString());
-                            parmStmt.executeUpdate();
+                            layoutRows.addParameter(saveStructId, parmName, parmValue);
                         }
                     }
                 }
@@ -1862,37 +1851,49 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         final Element channel = doc.createElement("channel");
 
         // the ID attribute is the identifier for the Channel element
-        channel.setAttribute("ID", chanId);
+        channel.setAttribute("ID", intern(chanId));
         channel.setIdAttribute("ID", true);
 
-        channel.setAttribute("chanID", def.getPortletDefinitionId().getStringId());
-        channel.setAttribute("timeout", String.valueOf(def.getTimeout()));
+        channel.setAttribute("chanID", intern(def.getPortletDefinitionId().getStringId()));
+        channel.setAttribute("timeout", intern(String.valueOf(def.getTimeout())));
         if (locale != null) {
-            channel.setAttribute("name", def.getName(locale));
-            channel.setAttribute("title", def.getTitle(locale));
-            channel.setAttribute("description", def.getDescription(locale));
-            channel.setAttribute("locale", locale);
+            channel.setAttribute("name", intern(def.getName(locale)));
+            channel.setAttribute("title", intern(def.getTitle(locale)));
+            channel.setAttribute("description", intern(def.getDescription(locale)));
+            channel.setAttribute("locale", intern(locale));
         } else {
-            channel.setAttribute("name", def.getName());
-            channel.setAttribute("title", def.getTitle());
-            channel.setAttribute("description", def.getDescription());
+            channel.setAttribute("name", intern(def.getName()));
+            channel.setAttribute("title", intern(def.getTitle()));
+            channel.setAttribute("description", intern(def.getDescription()));
         }
-        channel.setAttribute("fname", def.getFName());
+        channel.setAttribute("fname", intern(def.getFName()));
 
         // chanClassArg is so named to highlight that we are using the argument
         // to the method rather than the instance variable chanClass
-        channel.setAttribute("typeID", String.valueOf(def.getType().getId()));
+        channel.setAttribute("typeID", intern(String.valueOf(def.getType().getId())));
 
         for (final IPortletDefinitionParameter param : def.getParameters()) {
             final Element parameter = doc.createElement("parameter");
-            parameter.setAttribute("name", param.getName());
-            parameter.setAttribute("value", param.getValue());
+            parameter.setAttribute("name", intern(param.getName()));
+            parameter.setAttribute("value", intern(param.getValue()));
             channel.appendChild(parameter);
         }
 
         return channel;
     }
 
+    /**
+     * Personal layouts are loaded per user, the same ids, names and parameter values repeat across
+     * all of them. Share a single instance of each string to keep layout memory proportional to the
+     * number of distinct values rather than the number of users.
+     */
+    private static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        return LAYOUT_STRINGS.intern(value);
+    }
+
     private interface FormOfLayoutCorruption {
         boolean detect(org.dom4j.Document layout);
 
@@ -0,0 +1,475 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a single user layout. Saving a layout compares
+ * the rows generated from the new layout document with the rows already in the database and only
+ * deletes, updates and inserts the rows that differ, using one JDBC batch per statement.
+ *
+ * @since 5.0
+ */
+public final class LayoutStructureRows {
+    private static final Logger logger = LoggerFactory.getLogger(LayoutStructureRows.class);
+
+    private final Map<Integer, Structure> structures = new LinkedHashMap<Integer, Structure>();
+    private final Map<Integer, Map<String, String>> parameters =
+            new LinkedHashMap<Integer, Map<String, String>>();
+
+    /** Add the UP_LAYOUT_STRUCT row for a layout node */
+    public void addStructure(int structId, Structure structure) {
+        if (this.structures.put(structId, structure) != null) {
+            throw new IllegalArgumentException("Duplicate layout struct id: " + structId);
+        }
+    }
+
+    /** Add an UP_LAYOUT_PARAM row for a layout node */
+    public void addParameter(int structId, String name, String value) {
+        Map<String, String> structParameters = this.parameters.get(structId);
+        if (structParameters == null) {
+            structParameters = new LinkedHashMap<String, String>();
+            this.parameters.put(structId, structParameters);
+        }
+        if (structParameters.put(name, value) != null) {
+            throw new IllegalArgumentException(
+                    "Duplicate layout parameter " + name + " for struct id: " + structId);
+        }
+    }
+
+    /** Load the rows currently stored for the layout */
+    public static LayoutStructureRows load(Connection con, int userId, int layoutId)
+            throws SQLException {
+        final LayoutStructureRows rows = new LayoutStructureRows();
+
+        String sql =
+                "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+                        + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+        PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    int chanId = rs.getInt("CHAN_ID");
+                    final Integer chanIdValue = rs.wasNull() ? null : chanId;
+                    rows.structures.put(
+                            rs.getInt("STRUCT_ID"),
+                            new Structure(
+                                    rs.getInt("NEXT_STRUCT_ID"),
+                                    rs.getInt("CHLD_STRUCT_ID"),
+                                    rs.getString("EXTERNAL_ID"),
+                                    chanIdValue,
+                                    rs.getString("NAME"),
+                                    rs.getString("TYPE"),
+                                    rs.getString("HIDDEN"),
+                                    rs.getString("IMMUTABLE"),
+                                    rs.getString("UNREMOVABLE")));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        sql =
+                "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+        pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    rows.addParameter(
+                            rs.getInt("STRUCT_ID"),
+                            rs.getString("STRUCT_PARM_NM"),
+                            rs.getString("STRUCT_PARM_VAL"));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Update the database so the stored layout matches these rows.
+     *
+     * @param existingRows The rows currently stored for the layout, as returned by {@link
+     *     #load(Connection, int, int)}
+     */
+    public void save(Connection con, int userId, int layoutId, LayoutStructureRows existingRows)
+            throws SQLException {
+        final List<Integer> deletedStructures = new ArrayList<Integer>();
+        for (final Integer structId : existingRows.structures.keySet()) {
+            if (!this.structures.containsKey(structId)) {
+                deletedStructures.add(structId);
+            }
+        }
+
+        final Map<Integer, Structure> updatedStructures = new LinkedHashMap<Integer, Structure>();
+        final Map<Integer, Structure> insertedStructures = new LinkedHashMap<Integer, Structure>();
+        for (final Entry<Integer, Structure> structureEntry : this.structures.entrySet()) {
+            final Integer structId = structureEntry.getKey();
+            final Structure structure = structureEntry.getValue();
+            final Structure existingStructure = existingRows.structures.get(structId);
+            if (existingStructure == null) {
+                insertedStructures.put(structId, structure);
+            } else if (!structure.equals(existingStructure)) {
+                updatedStructures.put(structId, structure);
+            }
+        }
+
+        final List<Parameter> deletedParameters = new ArrayList<Parameter>();
+        for (final Entry<Integer, Map<String, String>> parametersEntry :
+                existingRows.parameters.entrySet()) {
+            final Map<String, String> structParameters =
+                    this.parameters.get(parametersEntry.getKey());
+            for (final String name : parametersEntry.getValue().keySet()) {
+                if (structParameters == null || !structParameters.containsKey(name)) {
+                    deletedParameters.add(new Parameter(parametersEntry.getKey(), name, null));
+                }
+            }
+        }
+
+        final List<Parameter> updatedParameters = new ArrayList<Parameter>();
+        final List<Parameter> insertedParameters = new ArrayList<Parameter>();
+        for (final Entry<Integer, Map<String, String>> parametersEntry :
+                this.parameters.entrySet()) {
+            final Map<String, String> existingParameters =
+                    existingRows.parameters.get(parametersEntry.getKey());
+            for (final Entry<String, String> parameterEntry :
+                    parametersEntry.getValue().entrySet()) {
+                final String name = parameterEntry.getKey();
+                final String value = parameterEntry.getValue();
+                final Parameter row = new Parameter(parametersEntry.getKey(), name, value);
+                if (existingParameters == null || !existingParameters.containsKey(name)) {
+                    insertedParameters.add(row);
+                } else if (!equalsColumn(value, existingParameters.get(name))) {
+                    updatedParameters.add(row);
+                }
+            }
+        }
+
+        //Parameters are removed before their structure and added after it
+        deleteParameters(con, userId, layoutId, deletedParameters);
+        deleteStructures(con, userId, layoutId, deletedStructures);
+        updateStructures(con, userId, layoutId, updatedStructures);
+        insertStructures(con, userId, layoutId, insertedStructures);
+        updateParameters(con, userId, layoutId, updatedParameters);
+        insertParameters(con, userId, layoutId, insertedParameters);
+
+        logger.debug(
+                "Saved layout {} for user {}: structures deleted={}, updated={}, inserted={}; parameters deleted={}, updated={}, inserted={}",
+                layoutId,
+                userId,
+                deletedStructures.size(),
+                updatedStructures.size(),
+                insertedStructures.size(),
+                deletedParameters.size(),
+                updatedParameters.size(),
+                insertedParameters.size());
+    }
+
+    private static void deleteStructures(
+            Connection con, int userId, int layoutId, List<Integer> structIds) throws SQLException {
+        if (structIds.isEmpty()) {
+            return;
+        }
+
+        final String sql =
+                "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final Integer structId : structIds) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, structId);
+                pstmt.addBatch();
+            }
+            logger.debug("{} [batch of {}]", sql, structIds.size());
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private static void updateStructures(
+            Connection con, int userId, int layoutId, Map<Integer, Structure> structures)
+            throws SQLException {
+        if (structures.isEmpty()) {
+            return;
+        }
+
+        final String sql =
+                "UPDATE UP_LAYOUT_STRUCT SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? "
+                        + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final Entry<Integer, Structure> structureEntry : structures.entrySet()) {
+                structureEntry.getValue().setColumns(pstmt, 1);
+                pstmt.setInt(10, userId);
+                pstmt.setInt(11, layoutId);
+                pstmt.setInt(12, structureEntry.getKey());
+                pstmt.addBatch();
+            }
+            logger.debug("{} [batch of {}]", sql, structures.size());
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private static void insertStructures(
+            Connection con, int userId, int layoutId, Map<Integer, Structure> structures)
+            throws SQLException {
+        if (structures.isEmpty()) {
+            return;
+        }
+
+        final String sql =
+                "INSERT INTO UP_LAYOUT_STRUCT "
+                        + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE) "
+                        + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final Entry<Integer, Structure> structureEntry : structures.entrySet()) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, structureEntry.getKey());
+                structureEntry.getValue().setColumns(pstmt, 4);
+                pstmt.addBatch();
+            }
+            logger.debug("{} [batch of {}]", sql, structures.size());
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private static void deleteParameters(
+            Connection con, int userId, int layoutId, List<Parameter> parameters)
+            throws SQLException {
+        if (parameters.isEmpty()) {
+            return;
+        }
+
+        final String sql =
+                "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final Parameter parameter : parameters) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, parameter.structId);
+                pstmt.setString(4, parameter.name);
+                pstmt.addBatch();
+            }
+            logger.debug("{} [batch of {}]", sql, parameters.size());
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private static void updateParameters(
+            Connection con, int userId, int layoutId, List<Parameter> parameters)
+            throws SQLException {
+        if (parameters.isEmpty()) {
+            return;
+        }
+
+        final String sql =
+                "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final Parameter parameter : parameters) {
+                pstmt.setString(1, parameter.value);
+                pstmt.setInt(2, userId);
+                pstmt.setInt(3, layoutId);
+                pstmt.setInt(4, parameter.structId);
+                pstmt.setString(5, parameter.name);
+                pstmt.addBatch();
+            }
+            logger.debug("{} [batch of {}]", sql, parameters.size());
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    private static void insertParameters(
+            Connection con, int userId, int layoutId, List<Parameter> parameters)
+            throws SQLException {
+        if (parameters.isEmpty()) {
+            return;
+        }
+
+        final String sql =
+                "INSERT INTO UP_LAYOUT_PARAM (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) "
+                        + "VALUES (?,?,?,?,?)";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            for (final Parameter parameter : parameters) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, parameter.structId);
+                pstmt.setString(4, parameter.name);
+                pstmt.setString(5, parameter.value);
+                pstmt.addBatch();
+            }
+            logger.debug("{} [batch of {}]", sql, parameters.size());
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    /** Some databases (Oracle) store empty strings as NULL, treat the two as equal */
+    private static boolean equalsColumn(String value, String existingValue) {
+        return StringUtils.defaultString(value).equals(StringUtils.defaultString(existingValue));
+    }
+
+    /** An UP_LAYOUT_PARAM row of the layout */
+    private static final class Parameter {
+        private final int structId;
+        private final String name;
+        private final String value;
+
+        public Parameter(int structId, String name, String value) {
+            this.structId = structId;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /** The columns of an UP_LAYOUT_STRUCT row other than the key */
+    public static final class Structure {
+        private final int nextStructId;
+        private final int childStructId;
+        private final String externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+
+        public Structure(
+                int nextStructId,
+                int childStructId,
+                String externalId,
+                Integer chanId,
+                String name,
+                String type,
+                String hidden,
+                String immutable,
+                String unremovable) {
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = externalId;
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        /** Set the nine structure columns starting at the specified statement parameter index */
+        void setColumns(PreparedStatement pstmt, int index) throws SQLException {
+            pstmt.setInt(index, this.nextStructId);
+            pstmt.setInt(index + 1, this.childStructId);
+            if (this.externalId != null) {
+                pstmt.setString(index + 2, this.externalId);
+            } else {
+                pstmt.setNull(index + 2, Types.VARCHAR);
+            }
+            if (this.chanId != null) {
+                pstmt.setInt(index + 3, this.chanId);
+            } else {
+                pstmt.setNull(index + 3, Types.NUMERIC);
+            }
+            if (this.name != null) {
+                pstmt.setString(index + 4, this.name);
+            } else {
+                pstmt.setNull(index + 4, Types.VARCHAR);
+            }
+            pstmt.setString(index + 5, this.type);
+            pstmt.setString(index + 6, this.hidden);
+            pstmt.setString(index + 7, this.immutable);
+            pstmt.setString(index + 8, this.unremovable);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.nextStructId * 31 + this.childStructId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Structure)) return false;
+            final Structure other = (Structure) obj;
+            return this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && equalsColumn(this.externalId, other.externalId)
+                    && (this.chanId == null
+                            ? other.chanId == null
+                            : this.chanId.equals(other.chanId))
+                    && equalsColumn(this.name, other.name)
+                    && equalsColumn(this.type, other.type)
+                    && equalsColumn(this.hidden, other.hidden)
+                    && equalsColumn(this.immutable, other.immutable)
+                    && equalsColumn(this.unremovable, other.unremovable);
+        }
+
+        @Override
+        public String toString() {
+            return "Structure [nextStructId="
+                    + this.nextStructId
+                    + ", childStructId="
+                    + this.childStructId
+                    + ", chanId="
+                    + this.chanId
+                    + ", name="
+                    + this.name
+                    + ", type="
+                    + this.type
+                    + "]";
+        }
+    }
+}
@@ -1098,9 +1098,12 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-    protected abstract int saveStructure(
-            Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException;
+    /**
+     * Add the rows for the node, its children and its following siblings to the layout rows.
+     *
+     * @return The struct id of the node, 0 if no rows were added for it
+     */
+    protected abstract int saveStructure(Node node, LayoutStructureRows layoutRows);
 
     /**
      * Save the user layout.
@@ -1152,70 +1155,21 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                             firstLayout = true;
                                         }
 
-                                        String sql =
-                                                "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        PreparedStatement pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        sql =
-                                                "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
-                                        try {
-                                            pstmt.clearParameters();
-                                            pstmt.setInt(1, userId);
-                                            pstmt.setInt(2, layoutId);
-                                            logger.debug(sql);
-                                            pstmt.executeUpdate();
-                                        } finally {
-                                            pstmt.close();
-                                        }
-
-                                        PreparedStatement structStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_STRUCT "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?,?,?,?,?,?,?,?)");
-
-                                        PreparedStatement parmStmt =
-                                                con.prepareStatement(
-                                                        "INSERT INTO UP_LAYOUT_PARAM "
-                                                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) "
-                                                                + "VALUES ("
-                                                                + userId
-                                                                + ","
-                                                                + layoutId
-                                                                + ",?,?,?)");
-
-                                        int firstStructId;
-                                        try {
-                                            firstStructId =
-                                                    saveStructure(
-                                                            layoutXML
-                                                                    .getFirstChild()
-                                                                    .getFirstChild(),
-                                                            structStmt,
-                                                            parmStmt);
-                                        } finally {
-                                            structStmt.close();
-                                            parmStmt.close();
-                                        }
+                                        //Only write the rows that differ from the stored layout
+                                        final LayoutStructureRows existingRows =
+                                                LayoutStructureRows.load(con, userId, layoutId);
+                                        final LayoutStructureRows layoutRows =
+                                                new LayoutStructureRows();
+                                        final int firstStructId =
+                                                saveStructure(
+                                                        layoutXML.getFirstChild().getFirstChild(),
+                                                        layoutRows);
+                                        layoutRows.save(con, userId, layoutId, existingRows);
 
                                         //Check to see if the user has a matching layout
-                                        sql =
+                                        String sql =
                                                 "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                        pstmt = con.prepareStatement(sql);
+                                        PreparedStatement pstmt = con.prepareStatement(sql);
                                         try {
                                             pstmt.clearParameters();
                                             pstmt.setInt(1, userId);
@@ -27,6 +27,7 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     private boolean browserSetEtag = false;
     private PublicPortletCacheKey publicPortletCacheKey;
     private PrivatePortletCacheKey privatePortletCacheKey;
+    private PortletCacheControlServiceImpl.RefreshLease refreshLease;
 
     protected CacheState() {}
 
@@ -102,4 +103,12 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     protected void setPrivatePortletCacheKey(PrivatePortletCacheKey privatePortletCacheKey) {
         this.privatePortletCacheKey = privatePortletCacheKey;
     }
+
+    PortletCacheControlServiceImpl.RefreshLease getRefreshLease() {
+        return refreshLease;
+    }
+
+    void setRefreshLease(PortletCacheControlServiceImpl.RefreshLease refreshLease) {
+        this.refreshLease = refreshLease;
+    }
 }
@@ -14,25 +14,32 @@
  */
 package org.apereo.portal.portlet.container.cache;
 
+import com.google.common.base.Charsets;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
 import javax.portlet.CacheControl;
+import org.apache.commons.io.IOUtils;
 import org.apereo.portal.portlet.rendering.PortletOutputHandler;
 
 /**
  * Java bean to represent the data cached for a portlet request via {@link CacheControl}s.
+ *
+ * <p>Writer output is stored as UTF-8 bytes rather than a String, see {@link #compact(int, int)}
+ * for compressing and moving the output off-heap before it is cached.
  */
 public class CachedPortletData<T extends Serializable>
         implements CachedPortletResultHolder<T>, Serializable {
-    private static final long serialVersionUID = 5509299103587289000L;
+    private static final long serialVersionUID = 2L;
 
     private final T portletResult;
 
-    private final String cachedWriterOutput;
-    private final byte[] cachedStreamOutput;
+    private volatile CachedPortletOutput cachedWriterOutput;
+    private volatile CachedPortletOutput cachedStreamOutput;
 
     private final String contentType;
 
@@ -50,6 +57,30 @@ public class CachedPortletData<T extends Serializable>
             boolean publicScope,
             String etag,
             int expirationTime) {
+        this(
+                portletResult,
+                cachedWriterOutput != null
+                        ? CachedPortletOutput.create(cachedWriterOutput.getBytes(Charsets.UTF_8))
+                        : null,
+                cachedStreamOutput != null ? CachedPortletOutput.create(cachedStreamOutput) : null,
+                contentType,
+                publicScope,
+                etag,
+                expirationTime);
+    }
+
+    /**
+     * @param cachedWriterOutput Writer output encoded as UTF-8
+     * @param expirationTime Time in seconds the content is valid for (from now)
+     */
+    CachedPortletData(
+            T portletResult,
+            CachedPortletOutput cachedWriterOutput,
+            CachedPortletOutput cachedStreamOutput,
+            String contentType,
+            boolean publicScope,
+            String etag,
+            int expirationTime) {
 
         if (cachedWriterOutput != null && cachedStreamOutput != null) {
             throw new IllegalArgumentException(
@@ -73,15 +104,51 @@ public class CachedPortletData<T extends Serializable>
             portletOutputHandler.setContentType(contentType);
         }
 
-        if (this.cachedWriterOutput != null) {
+        final CachedPortletOutput writerOutput = this.cachedWriterOutput;
+        final CachedPortletOutput streamOutput = this.cachedStreamOutput;
+        if (writerOutput != null) {
             final PrintWriter printWriter = portletOutputHandler.getPrintWriter();
-            printWriter.write(this.cachedWriterOutput);
-        } else if (this.cachedStreamOutput != null) {
+            final Reader reader = new InputStreamReader(writerOutput.openStream(), Charsets.UTF_8);
+            try {
+                IOUtils.copy(reader, printWriter);
+            } finally {
+                reader.close();
+            }
+        } else if (streamOutput != null) {
             final OutputStream outputStream = portletOutputHandler.getOutputStream();
-            outputStream.write(cachedStreamOutput);
+            streamOutput.writeTo(outputStream);
         }
     }
 
+    /**
+     * Compress the cached output and move it off-heap, called before the data is stored in a cache.
+     *
+     * @param compressionThreshold Outputs of at least this many bytes are Deflate compressed, 0 or
+     *     less disables compression
+     * @param offHeapThreshold Outputs of at least this many bytes after compression are stored in a
+     *     direct buffer, 0 or less disables off-heap storage
+     */
+    void compact(int compressionThreshold, int offHeapThreshold) {
+        if (this.cachedWriterOutput != null) {
+            this.cachedWriterOutput =
+                    this.cachedWriterOutput.compact(compressionThreshold, offHeapThreshold);
+        }
+        if (this.cachedStreamOutput != null) {
+            this.cachedStreamOutput =
+                    this.cachedStreamOutput.compact(compressionThreshold, offHeapThreshold);
+        }
+    }
+
+    /** @return Number of bytes used to store the output */
+    public int getStoredLength() {
+        final CachedPortletOutput writerOutput = this.cachedWriterOutput;
+        if (writerOutput != null) {
+            return writerOutput.getStoredLength();
+        }
+        final CachedPortletOutput streamOutput = this.cachedStreamOutput;
+        return streamOutput != null ? streamOutput.getStoredLength() : 0;
+    }
+
     /**
      * The time since the epoch in milliseconds that this content expires. -1 if it never expires
      */
@@ -103,12 +170,22 @@ public class CachedPortletData<T extends Serializable>
         return portletResult;
     }
 
+    /** @return A copy of the writer output, prefer {@link #replay(PortletOutputHandler)} */
     public String getCachedWriterOutput() {
-        return cachedWriterOutput;
+        final CachedPortletOutput writerOutput = this.cachedWriterOutput;
+        if (writerOutput == null) {
+            return null;
+        }
+        return new String(writerOutput.toByteArray(), Charsets.UTF_8);
     }
 
+    /** @return A copy of the stream output, prefer {@link #replay(PortletOutputHandler)} */
     public byte[] getCachedStreamOutput() {
-        return cachedStreamOutput;
+        final CachedPortletOutput streamOutput = this.cachedStreamOutput;
+        if (streamOutput == null) {
+            return null;
+        }
+        return streamOutput.toByteArray();
     }
 
     public String getContentType() {
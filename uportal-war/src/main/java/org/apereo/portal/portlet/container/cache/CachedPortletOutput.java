@@ -0,0 +1,221 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Immutable byte payload of cached portlet output. The payload may be Deflate compressed and may be
+ * held in a direct {@link ByteBuffer} outside of the GC managed heap. Serialization always writes
+ * the compressed bytes and reads them back on to the heap.
+ */
+final class CachedPortletOutput implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int length;
+    private final boolean compressed;
+    private transient byte[] heapPayload;
+    private transient ByteBuffer offHeapPayload;
+
+    private CachedPortletOutput(
+            int length, boolean compressed, byte[] heapPayload, ByteBuffer offHeapPayload) {
+        this.length = length;
+        this.compressed = compressed;
+        this.heapPayload = heapPayload;
+        this.offHeapPayload = offHeapPayload;
+    }
+
+    /** Create uncompressed on-heap output */
+    static CachedPortletOutput create(byte[] bytes) {
+        return new CachedPortletOutput(bytes.length, false, bytes, null);
+    }
+
+    /**
+     * Create on-heap output from an already captured payload
+     *
+     * @param length Size of the uncompressed output in bytes
+     * @param compressed If the payload is Deflate compressed
+     */
+    static CachedPortletOutput create(int length, boolean compressed, byte[] payload) {
+        return new CachedPortletOutput(length, compressed, payload, null);
+    }
+
+    /**
+     * Create a more compact copy of this output
+     *
+     * @param compressionThreshold Outputs of at least this many bytes are compressed, compressed
+     *     data is only kept if it is smaller. 0 or less disables compression.
+     * @param offHeapThreshold Outputs that are at least this many bytes after compression are
+     *     stored off-heap. 0 or less disables off-heap storage.
+     * @return The compacted output, this if nothing changed
+     */
+    CachedPortletOutput compact(int compressionThreshold, int offHeapThreshold) {
+        boolean compress = this.compressed;
+        byte[] payload = this.getPayload();
+
+        if (!compress && compressionThreshold > 0 && this.length >= compressionThreshold) {
+            final byte[] deflated = deflate(payload);
+            if (deflated.length < payload.length) {
+                payload = deflated;
+                compress = true;
+            }
+        }
+
+        if (offHeapThreshold > 0 && payload.length >= offHeapThreshold) {
+            if (this.offHeapPayload != null && compress == this.compressed) {
+                return this;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length);
+            buffer.put(payload);
+            buffer.flip();
+            return new CachedPortletOutput(this.length, compress, null, buffer.asReadOnlyBuffer());
+        }
+
+        if (compress == this.compressed && this.heapPayload != null) {
+            return this;
+        }
+        return new CachedPortletOutput(this.length, compress, payload, null);
+    }
+
+    /** @return Size of the uncompressed output in bytes */
+    int getLength() {
+        return this.length;
+    }
+
+    /** @return Number of bytes used to store the output */
+    int getStoredLength() {
+        return this.heapPayload != null ? this.heapPayload.length : this.offHeapPayload.capacity();
+    }
+
+    boolean isCompressed() {
+        return this.compressed;
+    }
+
+    boolean isOffHeap() {
+        return this.offHeapPayload != null;
+    }
+
+    /** @return A stream of the uncompressed output */
+    InputStream openStream() {
+        final InputStream payloadStream = new PayloadInputStream();
+        if (this.compressed) {
+            return new InflaterInputStream(payloadStream);
+        }
+        return payloadStream;
+    }
+
+    /** Write the uncompressed output to the stream */
+    void writeTo(OutputStream outputStream) throws IOException {
+        if (!this.compressed && this.heapPayload != null) {
+            outputStream.write(this.heapPayload);
+            return;
+        }
+
+        final InputStream inputStream = this.openStream();
+        try {
+            IOUtils.copy(inputStream, outputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /** @return A copy of the uncompressed output */
+    byte[] toByteArray() {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(this.length);
+        try {
+            this.writeTo(outputStream);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read cached portlet output", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private byte[] getPayload() {
+        if (this.heapPayload != null) {
+            return this.heapPayload;
+        }
+
+        final byte[] payload = new byte[this.offHeapPayload.capacity()];
+        this.offHeapPayload.duplicate().get(payload);
+        return payload;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 4);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DeflaterOutputStream deflaterStream =
+                    new DeflaterOutputStream(outputStream, deflater);
+            deflaterStream.write(bytes);
+            deflaterStream.close();
+        } catch (IOException e) {
+            //ByteArrayOutputStream does not throw IOException
+            throw new IllegalStateException("Failed to compress cached portlet output", e);
+        } finally {
+            deflater.end();
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        final byte[] payload = this.getPayload();
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.heapPayload = new byte[in.readInt()];
+        in.readFully(this.heapPayload);
+    }
+
+    /** Reads the payload without copying it, each stream has its own position */
+    private final class PayloadInputStream extends InputStream {
+        private final ByteBuffer buffer =
+                heapPayload != null ? ByteBuffer.wrap(heapPayload) : offHeapPayload.duplicate();
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+}
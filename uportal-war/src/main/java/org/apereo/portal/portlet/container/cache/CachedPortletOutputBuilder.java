@@ -0,0 +1,163 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Captures portlet output in the form it is cached in. Output is buffered as written and only
+ * Deflate compressed by {@link #build()}, so output that ends up not being cached is never
+ * compressed. The maximum size applies to the stored bytes: output that outgrows it uncompressed is
+ * compressed as it is written from then on, as it can only be cached if it compresses below the
+ * limit. Once the stored bytes exceed the limit the captured output is discarded and further writes
+ * are ignored until {@link #reset()} is called.
+ *
+ * <p>{@link #discard()} must be called if the output is not built, it releases the compressor of
+ * output that outgrew the maximum size.
+ */
+final class CachedPortletOutputBuilder extends OutputStream {
+    private final int maximumSize;
+    private final int compressionThreshold;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private Deflater deflater;
+    private DeflaterOutputStream deflaterStream;
+    private int length = 0;
+    private boolean limitReached = false;
+    private CachedPortletOutput output;
+
+    /**
+     * @param maximumSize Maximum number of stored bytes, 0 or less for no limit
+     * @param compressionThreshold Output of at least this many bytes is compressed, 0 or less
+     *     disables compression
+     */
+    CachedPortletOutputBuilder(int maximumSize, int compressionThreshold) {
+        this.maximumSize = maximumSize;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.output != null) {
+            throw new IllegalStateException("The captured output has already been built");
+        }
+        if (this.limitReached) {
+            return;
+        }
+
+        this.length += len;
+        if (this.deflaterStream != null) {
+            this.deflaterStream.write(b, off, len);
+        } else {
+            this.buffer.write(b, off, len);
+            if (this.maximumSize > 0
+                    && this.buffer.size() > this.maximumSize
+                    && this.compressionThreshold > 0
+                    && this.length >= this.compressionThreshold) {
+                //Too large to store as-is, compress from here on to see if it fits
+                this.startCompression();
+            }
+        }
+
+        if (this.maximumSize > 0 && this.buffer.size() > this.maximumSize) {
+            //Hit the limit, drop what has been captured
+            this.limitReached = true;
+            this.discard();
+        }
+    }
+
+    /** @return true if the stored output exceeded the maximum size */
+    boolean isLimitReached() {
+        return this.limitReached;
+    }
+
+    /** Discard the captured output and start over */
+    void reset() {
+        if (this.output != null) {
+            throw new IllegalStateException("The captured output has already been built");
+        }
+        this.discard();
+        this.limitReached = false;
+    }
+
+    /**
+     * Finish capturing the output, no more output can be written once this is called.
+     *
+     * @return The captured output, null if the maximum size was exceeded
+     */
+    CachedPortletOutput build() {
+        if (this.limitReached) {
+            return null;
+        }
+        if (this.output == null) {
+            if (this.deflaterStream != null) {
+                try {
+                    this.deflaterStream.finish();
+                } catch (IOException e) {
+                    //ByteArrayOutputStream does not throw IOException
+                    throw new IllegalStateException("Failed to compress portlet output", e);
+                } finally {
+                    this.deflater.end();
+                    this.deflater = null;
+                    this.deflaterStream = null;
+                }
+
+                //The deflater holds back output until it is finished, check the final size
+                if (this.maximumSize > 0 && this.buffer.size() > this.maximumSize) {
+                    this.limitReached = true;
+                    this.discard();
+                    return null;
+                }
+                this.output =
+                        CachedPortletOutput.create(this.length, true, this.buffer.toByteArray());
+            } else {
+                //Compresses output of at least the threshold, if that makes it smaller
+                this.output =
+                        CachedPortletOutput.create(this.buffer.toByteArray())
+                                .compact(this.compressionThreshold, 0);
+            }
+            this.buffer.reset();
+        }
+        return this.output;
+    }
+
+    private void startCompression() throws IOException {
+        final byte[] bytes = this.buffer.toByteArray();
+        this.buffer.reset();
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.deflaterStream = new DeflaterOutputStream(this.buffer, this.deflater);
+        this.deflaterStream.write(bytes);
+    }
+
+    /** Drop the captured output and release the compressor, if any */
+    void discard() {
+        if (this.deflater != null) {
+            this.deflater.end();
+            this.deflater = null;
+            this.deflaterStream = null;
+        }
+        this.buffer.reset();
+        this.length = 0;
+    }
+}
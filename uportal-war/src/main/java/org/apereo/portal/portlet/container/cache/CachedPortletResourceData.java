@@ -17,22 +17,39 @@ package org.apereo.portal.portlet.container.cache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 import javax.portlet.CacheControl;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang.StringUtils;
 import org.apereo.portal.portlet.rendering.PortletResourceOutputHandler;
 
 /**
  * Java bean to represent the data cached for a portlet resource request via {@link CacheControl}s.
  *
+ * <p>Textual responses may also carry a gzip encoded variant of the output, see {@link
+ * #createGzipVariant(int, int)}, which is replayed to clients that accept gzip.
  */
 public class CachedPortletResourceData<T extends Serializable>
         implements CachedPortletResultHolder<T>, Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String VARY = "Vary";
+    private static final Pattern CHARSET_PATTERN =
+            Pattern.compile("charset=\"?([^\";\\s]+)", Pattern.CASE_INSENSITIVE);
 
     private final CachedPortletData<T> cachedPortletData;
 
@@ -42,6 +59,8 @@ public class CachedPortletResourceData<T extends Serializable>
     private final Integer contentLength;
     private final Locale locale;
 
+    private volatile CachedPortletOutput gzipOutput;
+
     public CachedPortletResourceData(
             CachedPortletData<T> cachedPortletData,
             Map<String, List<Serializable>> headers,
@@ -67,6 +86,19 @@ public class CachedPortletResourceData<T extends Serializable>
     }
 
     public final void replay(PortletResourceOutputHandler portletOutputHandler) throws IOException {
+        this.replay(portletOutputHandler, false);
+    }
+
+    /**
+     * @param portletOutputHandler The handler to replay the response to
+     * @param gzipAccepted If the client accepts gzip encoded content, the gzip variant is replayed
+     *     if one exists
+     */
+    public final void replay(
+            PortletResourceOutputHandler portletOutputHandler, boolean gzipAccepted)
+            throws IOException {
+        final CachedPortletOutput gzipOutput = this.gzipOutput;
+
         //Write status
         if (status != null) {
             portletOutputHandler.setStatus(status);
@@ -90,9 +122,6 @@ public class CachedPortletResourceData<T extends Serializable>
         if (characterEncoding != null) {
             portletOutputHandler.setCharacterEncoding(characterEncoding);
         }
-        if (contentLength != null) {
-            portletOutputHandler.setContentLength(contentLength);
-        }
         if (locale != null) {
             portletOutputHandler.setLocale(locale);
         }
@@ -100,7 +129,133 @@ public class CachedPortletResourceData<T extends Serializable>
         //Set the caching related headers
         PortletCachingHeaderUtils.setCachingHeaders(cachedPortletData, portletOutputHandler);
 
-        this.cachedPortletData.replay(portletOutputHandler);
+        if (gzipOutput == null) {
+            if (contentLength != null) {
+                portletOutputHandler.setContentLength(contentLength);
+            }
+            this.cachedPortletData.replay(portletOutputHandler);
+            return;
+        }
+
+        //The response differs by encoding, let downstream caches know
+        portletOutputHandler.addHeader(VARY, "Accept-Encoding");
+        if (!gzipAccepted) {
+            if (contentLength != null) {
+                portletOutputHandler.setContentLength(contentLength);
+            }
+            this.cachedPortletData.replay(portletOutputHandler);
+            return;
+        }
+
+        final String contentType = this.cachedPortletData.getContentType();
+        if (contentType != null) {
+            portletOutputHandler.setContentType(contentType);
+        }
+        portletOutputHandler.setHeader(CONTENT_ENCODING, "gzip");
+        portletOutputHandler.setContentLength(gzipOutput.getLength());
+        gzipOutput.writeTo(portletOutputHandler.getOutputStream());
+    }
+
+    /**
+     * Store a gzip encoded copy of the output so it doesn't need to be compressed on every replay.
+     * Only successful, textual responses that are not already encoded get a gzip variant.
+     *
+     * @param gzipThreshold Outputs of at least this many bytes get a gzip variant, 0 or less
+     *     disables gzip variants
+     * @param offHeapThreshold Gzip variants of at least this many bytes are stored off-heap, 0 or
+     *     less disables off-heap storage
+     */
+    void createGzipVariant(int gzipThreshold, int offHeapThreshold) {
+        if (gzipThreshold <= 0 || this.gzipOutput != null) {
+            return;
+        }
+        if (this.status != null && this.status != HttpServletResponse.SC_OK) {
+            return;
+        }
+        if (this.headers.containsKey(CONTENT_ENCODING)
+                || !isCompressibleContentType(this.cachedPortletData.getContentType())) {
+            return;
+        }
+
+        final byte[] content = this.getContentBytes();
+        if (content == null || content.length < gzipThreshold) {
+            return;
+        }
+
+        final byte[] gzipped = gzip(content);
+        if (gzipped.length >= content.length) {
+            //Not worth sending the encoded variant
+            return;
+        }
+
+        this.gzipOutput = CachedPortletOutput.create(gzipped).compact(0, offHeapThreshold);
+    }
+
+    /** @return true if a gzip encoded variant of the output is stored */
+    public boolean hasGzipVariant() {
+        return this.gzipOutput != null;
+    }
+
+    /** @return The output as it is written to the client, null if the charset is unknown */
+    private byte[] getContentBytes() {
+        final byte[] streamOutput = this.cachedPortletData.getCachedStreamOutput();
+        if (streamOutput != null) {
+            return streamOutput;
+        }
+
+        final String writerOutput = this.cachedPortletData.getCachedWriterOutput();
+        if (writerOutput == null) {
+            return null;
+        }
+
+        //Writer output has to be encoded the same way the response writer would encode it
+        String charsetName = this.characterEncoding;
+        if (charsetName == null) {
+            final String contentType = this.cachedPortletData.getContentType();
+            if (contentType != null) {
+                final Matcher charsetMatcher = CHARSET_PATTERN.matcher(contentType);
+                if (charsetMatcher.find()) {
+                    charsetName = charsetMatcher.group(1);
+                }
+            }
+        }
+        if (charsetName == null) {
+            return null;
+        }
+
+        final Charset charset;
+        try {
+            charset = Charset.forName(charsetName);
+        } catch (IllegalCharsetNameException e) {
+            return null;
+        } catch (UnsupportedCharsetException e) {
+            return null;
+        }
+        return writerOutput.getBytes(charset);
+    }
+
+    private static boolean isCompressibleContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        final String mimeType = StringUtils.substringBefore(contentType, ";").trim().toLowerCase();
+        return mimeType.startsWith("text/")
+                || mimeType.endsWith("json")
+                || mimeType.endsWith("javascript")
+                || mimeType.endsWith("xml");
+    }
+
+    private static byte[] gzip(byte[] content) {
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream(content.length / 4);
+        try {
+            final OutputStream gzipStream = new GZIPOutputStream(byteStream);
+            gzipStream.write(content);
+            gzipStream.close();
+        } catch (IOException e) {
+            //ByteArrayOutputStream does not throw IOException
+            throw new IllegalStateException("Failed to gzip cached portlet resource output", e);
+        }
+        return byteStream.toByteArray();
     }
 
     @Override
@@ -14,51 +14,66 @@
  */
 package org.apereo.portal.portlet.container.cache;
 
-import com.google.common.base.Function;
-import java.io.ByteArrayOutputStream;
+import com.google.common.base.Charsets;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import javax.portlet.CacheControl;
-import org.apache.commons.io.output.StringBuilderWriter;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apereo.portal.portlet.rendering.PortletOutputHandler;
+import org.apereo.portal.utils.TeeWriter;
 
 /**
- * Captures the output of a portlet for later re-use. The maximumSize field allows for setting a max
- * number of bytes/chars to cache before giving up on the caching.
- *
+ * Captures the output of a portlet for later re-use. Output is captured as the bytes that are
+ * cached, writer output is encoded as UTF-8 and output larger than the compression threshold is
+ * compressed when the cached data is built. The maximumSize field allows for setting a max number
+ * of stored bytes to cache before giving up on the caching. {@link #discardCachedOutput()} must be
+ * called once the handler is no longer used.
  */
 public class CachingPortletOutputHandler implements PortletOutputHandler {
     private final PortletOutputHandler portletOutputHandler;
     private final int maximumSize;
+    private final int compressionThreshold;
 
-    private LimitingTeeWriter teeWriter;
     private PrintWriter printWriter;
-    private LimitingTeeOutputStream teeStream;
+    private OutputStream teeStream;
 
-    private StringBuilderWriter cachingWriter;
-    private ByteArrayOutputStream cachingOutputStream;
+    private Writer cachingWriter;
+    private CachedPortletOutputBuilder cachedOutputBuilder;
 
     private String contentType;
 
     public CachingPortletOutputHandler(PortletOutputHandler portletOutputHandler, int maximumSize) {
+        this(portletOutputHandler, maximumSize, 0);
+    }
+
+    /**
+     * @param maximumSize Maximum number of bytes, after compression, to capture
+     * @param compressionThreshold Output of at least this many bytes is compressed when it is
+     *     cached, 0 or less disables compression
+     */
+    public CachingPortletOutputHandler(
+            PortletOutputHandler portletOutputHandler, int maximumSize, int compressionThreshold) {
         this.portletOutputHandler = portletOutputHandler;
         this.maximumSize = maximumSize;
+        this.compressionThreshold = compressionThreshold;
     }
 
     public <T extends Serializable> CachedPortletData<T> getCachedPortletData(
             T portletResult, CacheControl cacheControl) {
-        if ((this.teeWriter != null && this.teeWriter.isLimitReached())
-                || (this.teeStream != null && this.teeStream.isLimitReached())) {
+        final CachedPortletOutput cachedOutput = this.buildCachedOutput();
+        if (this.cachedOutputBuilder != null && cachedOutput == null) {
             //Hit the caching limit, nothing to return
             return null;
         }
 
         return new CachedPortletData<T>(
                 portletResult,
-                this.cachingWriter != null ? this.cachingWriter.toString() : null,
-                this.cachingOutputStream != null ? this.cachingOutputStream.toByteArray() : null,
+                this.cachingWriter != null ? cachedOutput : null,
+                this.teeStream != null ? cachedOutput : null,
                 contentType,
                 cacheControl.isPublicScope(),
                 cacheControl.getETag(),
@@ -70,15 +85,28 @@ public class CachingPortletOutputHandler implements PortletOutputHandler {
             return null;
         }
 
-        return cachingWriter.toString();
+        final CachedPortletOutput cachedOutput = this.buildCachedOutput();
+        return cachedOutput != null ? new String(cachedOutput.toByteArray(), Charsets.UTF_8) : null;
     }
 
     public byte[] getCachedStreamOutput() {
-        if (cachingOutputStream == null) {
+        if (teeStream == null) {
             return null;
         }
 
-        return cachingOutputStream.toByteArray();
+        final CachedPortletOutput cachedOutput = this.buildCachedOutput();
+        return cachedOutput != null ? cachedOutput.toByteArray() : null;
+    }
+
+    /**
+     * Drop the captured output and release any resources held to capture it, the output can no
+     * longer be built once this is called. Data already returned by {@link
+     * #getCachedPortletData(Serializable, CacheControl)} is not affected.
+     */
+    public void discardCachedOutput() {
+        if (this.cachedOutputBuilder != null) {
+            this.cachedOutputBuilder.discard();
+        }
     }
 
     @Override
@@ -94,25 +122,12 @@ public class CachingPortletOutputHandler implements PortletOutputHandler {
 
         if (this.printWriter == null) {
             final PrintWriter delegateWriter = this.portletOutputHandler.getPrintWriter();
-            this.cachingWriter = new StringBuilderWriter();
-
-            //Create the limiting tee writer to write to the actual PrintWriter and the cachingWriter
-            this.teeWriter =
-                    new LimitingTeeWriter(
-                            this.maximumSize,
-                            delegateWriter,
-                            this.cachingWriter,
-                            new Function<LimitingTeeWriter, Object>() {
-                                @Override
-                                public Object apply(LimitingTeeWriter input) {
-                                    //Limit hit, clear the cache
-                                    clearCachedWriter();
-                                    return null;
-                                }
-                            });
-
-            //Wrap the limiting tee writer in a PrintWriter to return to the caller
-            this.printWriter = new PrintWriter(this.teeWriter);
+            this.cachedOutputBuilder =
+                    new CachedPortletOutputBuilder(this.maximumSize, this.compressionThreshold);
+            this.cachingWriter = new OutputStreamWriter(this.cachedOutputBuilder, Charsets.UTF_8);
+
+            //Wrap the tee writer to the actual PrintWriter and the cachingWriter in a PrintWriter to return to the caller
+            this.printWriter = new PrintWriter(new TeeWriter(delegateWriter, this.cachingWriter));
         }
 
         return this.printWriter;
@@ -126,22 +141,11 @@ public class CachingPortletOutputHandler implements PortletOutputHandler {
 
         if (this.teeStream == null) {
             final OutputStream delegateOutputStream = this.portletOutputHandler.getOutputStream();
-            this.cachingOutputStream = new ByteArrayOutputStream();
-
-            //Create the limiting tee output stream to the actual OutputStream and the cachingOutputStream
-            this.teeStream =
-                    new LimitingTeeOutputStream(
-                            this.maximumSize,
-                            delegateOutputStream,
-                            this.cachingOutputStream,
-                            new Function<LimitingTeeOutputStream, Object>() {
-                                @Override
-                                public Object apply(LimitingTeeOutputStream input) {
-                                    //Limit hit, clear the cache
-                                    clearCachedStream();
-                                    return null;
-                                }
-                            });
+            this.cachedOutputBuilder =
+                    new CachedPortletOutputBuilder(this.maximumSize, this.compressionThreshold);
+
+            //Create the tee output stream to the actual OutputStream and the cached output
+            this.teeStream = new TeeOutputStream(delegateOutputStream, this.cachedOutputBuilder);
         }
 
         return teeStream;
@@ -179,39 +183,31 @@ public class CachingPortletOutputHandler implements PortletOutputHandler {
     }
 
     private void resetCached() {
-        resetCachedWriter();
-        resetCachedStream();
+        if (this.cachedOutputBuilder != null) {
+            flushCachingWriter();
+            this.cachedOutputBuilder.reset();
+        }
     }
 
-    private void resetCachedWriter() {
-        if (this.cachingWriter != null) {
-            this.teeWriter.resetByteCount();
-            this.clearCachedWriter();
+    private CachedPortletOutput buildCachedOutput() {
+        if (this.cachedOutputBuilder == null) {
+            return null;
         }
+        flushCachingWriter();
+        return this.cachedOutputBuilder.build();
     }
 
-    private void clearCachedWriter() {
+    /** Push any characters buffered by the UTF-8 encoder to the cached output */
+    private void flushCachingWriter() {
         if (this.cachingWriter != null) {
-            final StringBuilder builder = this.cachingWriter.getBuilder();
-            if (builder.length() > 0) {
-                builder.delete(0, builder.length());
+            try {
+                this.cachingWriter.flush();
+            } catch (IOException e) {
+                //The portlet closed the writer, closing it already flushed the encoder
             }
         }
     }
 
-    private void resetCachedStream() {
-        if (this.cachingOutputStream != null) {
-            this.teeStream.resetByteCount();
-            this.clearCachedStream();
-        }
-    }
-
-    private void clearCachedStream() {
-        if (this.cachingOutputStream != null) {
-            this.cachingOutputStream.reset();
-        }
-    }
-
     @Override
     public void setBufferSize(int size) {
         this.portletOutputHandler.setBufferSize(size);
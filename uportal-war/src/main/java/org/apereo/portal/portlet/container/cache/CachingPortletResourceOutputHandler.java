@@ -42,7 +42,19 @@ public class CachingPortletResourceOutputHandler extends CachingPortletOutputHan
 
     public CachingPortletResourceOutputHandler(
             PortletResourceOutputHandler portletResourceOutputHandler, int maximumSize) {
-        super(portletResourceOutputHandler, maximumSize);
+        this(portletResourceOutputHandler, maximumSize, 0);
+    }
+
+    /**
+     * @param maximumSize Maximum number of bytes, after compression, to capture
+     * @param compressionThreshold Output of at least this many bytes is compressed when it is
+     *     cached, 0 or less disables compression
+     */
+    public CachingPortletResourceOutputHandler(
+            PortletResourceOutputHandler portletResourceOutputHandler,
+            int maximumSize,
+            int compressionThreshold) {
+        super(portletResourceOutputHandler, maximumSize, compressionThreshold);
         this.portletResourceOutputHandler = portletResourceOutputHandler;
     }
 
@@ -24,9 +24,12 @@ import org.apereo.portal.portlet.rendering.PortletRenderResult;
  */
 public interface IPortletCacheControlService {
 
-    /** @return the maximum size of cached portlet output, in bytes */
+    /** @return the maximum size of cached portlet output, in bytes after compression */
     int getCacheSizeThreshold();
 
+    /** @return the size in bytes from which cached portlet output is compressed, 0 for never */
+    int getCompressionThreshold();
+
     /** Get the resource request cache state for the specified portlet */
     CacheState<CachedPortletResourceData<Long>, Long> getPortletResourceState(
             HttpServletRequest request, IPortletWindowId portletWindowId);
@@ -88,4 +91,12 @@ public interface IPortletCacheControlService {
      */
     boolean purgeCachedPortletData(
             IPortletWindowId portletWindowId, HttpServletRequest httpRequest);
+
+    /**
+     * Release the lease to refresh public output if the request that created the {@link CacheState}
+     * holds it, letting other requests waiting on the output stop waiting.
+     *
+     * <p>Must be called once the portlet request is complete, whether or not the output was cached.
+     */
+    void releaseRefreshLease(CacheState<?, ?> cacheState);
 }
@@ -15,8 +15,13 @@
 package org.apereo.portal.portlet.container.cache;
 
 import java.io.Serializable;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
 import javax.servlet.http.HttpServletRequest;
@@ -35,12 +40,14 @@ import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.PortletRenderResult;
 import org.apereo.portal.url.IPortalRequestInfo;
 import org.apereo.portal.url.IUrlSyntaxProvider;
+import org.apereo.portal.utils.Tuple;
 import org.apereo.portal.utils.cache.TaggedCacheEntryPurger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.support.RequestContextUtils;
 
@@ -48,11 +55,17 @@ import org.springframework.web.servlet.support.RequestContextUtils;
  * Default implementation of {@link IPortletCacheControlService}. {@link CacheControl}s are stored
  * in a {@link Map} stored as a {@link HttpServletRequest} attribute.
  *
+ * <p>Refreshing publicly scoped output is single-flight: only the request that acquires the refresh
+ * lease for a {@link PublicPortletCacheKey} executes the portlet, other requests are served the
+ * expired output for up to {@link #setStaleWhileRevalidate(int)} seconds or, when there is no
+ * cached output at all, wait up to {@link #setPublicRefreshWaitTime(long)} milliseconds for the
+ * refreshing request to cache its output.
  */
 @Service
 public class PortletCacheControlServiceImpl implements IPortletCacheControlService {
     private static final String IF_NONE_MATCH = "If-None-Match";
     private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final long REFRESH_LEASE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
 
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -71,9 +84,19 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     private Ehcache privateScopePortletResourceOutputCache;
     private Ehcache publicScopePortletResourceOutputCache;
 
+    /** Outstanding refreshes of public output, keyed by cache name and public key */
+    private final ConcurrentMap<Tuple<String, PublicPortletCacheKey>, RefreshLease> refreshLeases =
+            new ConcurrentHashMap<Tuple<String, PublicPortletCacheKey>, RefreshLease>();
+
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
 
+    private int compressionThreshold = 1024;
+    private int offHeapThreshold = 0;
+    private int gzipThreshold = 1024;
+    private int staleWhileRevalidate = 60;
+    private long publicRefreshWaitTime = 1000;
+
     @Autowired
     public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
         this.taggedCacheEntryPurger = taggedCacheEntryPurger;
@@ -128,7 +151,10 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         this.publicScopePortletResourceOutputCache = publicScopePortletResourceOutputCache;
     }
 
-    /** @param cacheSizeThreshold the cacheSizeThreshold to set in bytes */
+    /**
+     * @param cacheSizeThreshold the cacheSizeThreshold to set in bytes, applies to the output after
+     *     it is compressed
+     */
     @Value(
             "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.cacheSizeThreshold:102400}")
     public void setCacheSizeThreshold(int cacheSizeThreshold) {
@@ -140,6 +166,61 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheSizeThreshold;
     }
 
+    /**
+     * @param compressionThreshold Cached output of at least this many bytes is Deflate compressed,
+     *     0 disables compression
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.compressionThreshold:1024}")
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param offHeapThreshold Cached output of at least this many bytes, after compression, is
+     *     stored in direct memory outside of the heap, 0 disables off-heap storage
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.offHeapThreshold:0}")
+    public void setOffHeapThreshold(int offHeapThreshold) {
+        this.offHeapThreshold = offHeapThreshold;
+    }
+
+    /**
+     * @param gzipThreshold Cached resource output of at least this many bytes also stores a gzip
+     *     encoded variant for clients that accept it, 0 disables gzip variants
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.gzipThreshold:1024}")
+    public void setGzipThreshold(int gzipThreshold) {
+        this.gzipThreshold = gzipThreshold;
+    }
+
+    /**
+     * @param staleWhileRevalidate Seconds expired public output may be served while another request
+     *     refreshes it, 0 disables serving expired output
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.staleWhileRevalidate:60}")
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * @param publicRefreshWaitTime Milliseconds to wait for another request rendering public output
+     *     that is not yet cached, 0 disables waiting
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.publicRefreshWaitTime:1000}")
+    public void setPublicRefreshWaitTime(long publicRefreshWaitTime) {
+        this.publicRefreshWaitTime = publicRefreshWaitTime;
+    }
+
     @Autowired
     public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
         this.portletWindowRegistry = portletWindowRegistry;
@@ -271,13 +352,17 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 //Browser headers being used, check ETag and Last Modified
 
                 etagHeader = request.getHeader(IF_NONE_MATCH);
-                if (etagHeader != null && etagHeader.equals(cachedPortletData.getEtag())) {
-                    //ETag is valid, mark the browser data as matching
-                    cacheState.setBrowserDataMatches(true);
+                if (etagHeader != null) {
+                    //If-Modified-Since is ignored when If-None-Match is sent, RFC 7232 3.3
+                    if (etagMatches(etagHeader, cachedPortletData.getEtag())) {
+                        //ETag is valid, mark the browser data as matching
+                        cacheState.setBrowserDataMatches(true);
+                    }
                 } else {
                     long ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE);
+                    //HTTP dates have second precision, truncate the stored time to match
                     if (ifModifiedSince >= 0
-                            && cachedPortletData.getTimeStored() <= ifModifiedSince) {
+                            && cachedPortletData.getTimeStored() / 1000 * 1000 <= ifModifiedSince) {
                         //Cached content hasn't been modified since header date, mark the browser data as matching
                         cacheState.setBrowserDataMatches(true);
                     }
@@ -296,6 +381,20 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 //No browser side data to be used, return the cached data for replay
                 return cacheState;
             }
+
+            //Expired public data, serve it if another request is already refreshing it
+            if (cacheState.getPrivatePortletCacheKey() == null
+                    && System.currentTimeMillis() - expirationTime
+                            <= TimeUnit.SECONDS.toMillis(this.staleWhileRevalidate)
+                    && this.acquireRefreshLease(publicOutputCache, publicCacheKey, cacheState)
+                            != null) {
+                logger.debug(
+                        "Serving expired output for {} while another request refreshes it",
+                        publicCacheKey);
+                cacheState.setUseCachedData(true);
+                cacheState.setUseBrowserData(cacheState.isBrowserDataMatches());
+                return cacheState;
+            }
         }
 
         //Build CacheControl structure
@@ -311,6 +410,18 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         final String cacheScopeValue = portletDescriptor.getCacheScope();
         if (MimeResponse.PUBLIC_SCOPE.equalsIgnoreCase(cacheScopeValue)) {
             cacheControl.setPublicScope(true);
+
+            //Nothing cached for a public portlet, wait for any other request that is rendering it
+            if (cachedPortletData == null && portletDescriptor.getExpirationCache() != 0) {
+                final D refreshedPortletData =
+                        this.<D, T>waitForPublicRefresh(
+                                publicCacheKey, publicOutputCache, portletWindow, cacheState);
+                if (refreshedPortletData != null) {
+                    cacheState.setCachedPortletData(refreshedPortletData);
+                    cacheState.setUseCachedData(true);
+                    return cacheState;
+                }
+            }
         }
 
         //Set the default expiration time
@@ -332,6 +443,115 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheState;
     }
 
+    /**
+     * Acquire the lease to refresh the public output for the key. A lease that has been held for
+     * longer than {@link #REFRESH_LEASE_TIMEOUT} is considered abandoned and is taken over. A lease
+     * that is acquired is recorded on the cache state so it can be released once the request is
+     * complete.
+     *
+     * @return null if the caller now holds the lease, otherwise the lease held by another request
+     */
+    protected RefreshLease acquireRefreshLease(
+            Ehcache publicOutputCache,
+            PublicPortletCacheKey publicCacheKey,
+            CacheState<?, ?> cacheState) {
+        final RefreshLease heldLease = cacheState.getRefreshLease();
+        if (heldLease != null) {
+            return null;
+        }
+
+        final Tuple<String, PublicPortletCacheKey> leaseKey =
+                new Tuple<String, PublicPortletCacheKey>(
+                        publicOutputCache.getName(), publicCacheKey);
+        final RefreshLease lease = new RefreshLease(leaseKey);
+        while (true) {
+            final RefreshLease existingLease = this.refreshLeases.putIfAbsent(leaseKey, lease);
+            if (existingLease == null) {
+                cacheState.setRefreshLease(lease);
+                return null;
+            }
+            if (!existingLease.isAbandoned(lease.created)) {
+                return existingLease;
+            }
+            if (this.refreshLeases.replace(leaseKey, existingLease, lease)) {
+                existingLease.release();
+                cacheState.setRefreshLease(lease);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void releaseRefreshLease(CacheState<?, ?> cacheState) {
+        final RefreshLease lease = cacheState.getRefreshLease();
+        if (lease == null) {
+            return;
+        }
+
+        //Only remove the lease if it was not taken over after being abandoned
+        cacheState.setRefreshLease(null);
+        this.refreshLeases.remove(lease.key, lease);
+        lease.release();
+    }
+
+    /**
+     * If another request is rendering the public output wait for it to be cached, otherwise take
+     * the refresh lease so other requests wait on this one.
+     *
+     * @return The cached data if it was cached while waiting, null if the portlet must be executed
+     */
+    @SuppressWarnings("unchecked")
+    protected <D extends CachedPortletResultHolder<T>, T extends Serializable>
+            D waitForPublicRefresh(
+                    PublicPortletCacheKey publicCacheKey,
+                    Ehcache publicOutputCache,
+                    IPortletWindow portletWindow,
+                    CacheState<D, T> cacheState) {
+        final RefreshLease lease =
+                this.acquireRefreshLease(publicOutputCache, publicCacheKey, cacheState);
+        if (lease == null || lease.isWaitTimedOut() || this.publicRefreshWaitTime <= 0) {
+            return null;
+        }
+
+        try {
+            if (!lease.await(this.publicRefreshWaitTime)) {
+                //The refreshing request failed or did not cache its output, stop waiting on it
+                logger.debug("Timed out waiting for public output refresh of {}", publicCacheKey);
+                lease.setWaitTimedOut();
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        final D cachedPortletData =
+                (D) this.getCachedPortletData(publicCacheKey, publicOutputCache, portletWindow);
+        if (cachedPortletData != null) {
+            final long expirationTime = cachedPortletData.getExpirationTime();
+            if (expirationTime == -1 || expirationTime > System.currentTimeMillis()) {
+                return cachedPortletData;
+            }
+        }
+        return null;
+    }
+
+    /** Remove refresh leases abandoned by requests that never cached their output */
+    @Scheduled(fixedRate = 60000)
+    public void purgeAbandonedRefreshLeases() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<RefreshLease> leaseItr = this.refreshLeases.values().iterator();
+                leaseItr.hasNext();
+                ) {
+            final RefreshLease lease = leaseItr.next();
+            if (lease.isAbandoned(now)) {
+                //The lease stays recorded on the holder's cache state, its release is a no-op
+                leaseItr.remove();
+                lease.release();
+            }
+        }
+    }
+
     /**
      * Get the cached portlet data looking in both the public and then private caches returning the
      * first found
@@ -485,9 +705,16 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 this.portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId);
         final CacheControl cacheControl = cacheState.getCacheControl();
 
+        this.compactCachedPortletData(cachedPortletData);
+
         if (cacheControl.isPublicScope()) {
             final PublicPortletCacheKey publicCacheKey = cacheState.getPublicPortletCacheKey();
-            this.cacheElement(publicOutputCache, publicCacheKey, cachedPortletData, cacheControl);
+            this.cacheElement(
+                    publicOutputCache,
+                    publicCacheKey,
+                    cachedPortletData,
+                    cacheControl,
+                    this.staleWhileRevalidate);
             logger.debug("Cached public data under key {} for {}", publicCacheKey, portletWindow);
         } else {
             PrivatePortletCacheKey privateCacheKey = cacheState.getPrivatePortletCacheKey();
@@ -506,6 +733,54 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             this.cacheElement(privateOutputCache, privateCacheKey, cachedPortletData, cacheControl);
             logger.debug("Cached private data under key {} for {}", privateCacheKey, portletWindow);
         }
+
+        //The refresh is done, let any waiting requests check the cache
+        this.releaseRefreshLease(cacheState);
+    }
+
+    /**
+     * Check an If-None-Match header against the ETag of the cached data. The header may be a comma
+     * separated list of quoted or weak tags or "*".
+     */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (etag == null) {
+            return false;
+        }
+        final String cachedTag = stripETag(etag);
+        for (final String tag : ifNoneMatch.split(",")) {
+            final String trimmedTag = tag.trim();
+            if ("*".equals(trimmedTag) || cachedTag.equals(stripETag(trimmedTag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Remove the weak indicator and quotes from an ETag, weak comparison is used */
+    private static String stripETag(String etag) {
+        String tag = etag.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        return tag;
+    }
+
+    /**
+     * Compress and, if configured, move the output off-heap before it is cached. Resource output
+     * also gets a gzip variant.
+     */
+    protected void compactCachedPortletData(CachedPortletResultHolder<?> data) {
+        if (data instanceof CachedPortletResourceData) {
+            final CachedPortletResourceData<?> resourceData = (CachedPortletResourceData<?>) data;
+            resourceData.createGzipVariant(this.gzipThreshold, this.offHeapThreshold);
+            data = resourceData.getCachedPortletData();
+        }
+        if (data instanceof CachedPortletData) {
+            ((CachedPortletData<?>) data).compact(this.compressionThreshold, this.offHeapThreshold);
+        }
     }
 
     /**
@@ -518,6 +793,20 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             Serializable cacheKey,
             CachedPortletResultHolder<?> data,
             CacheControl cacheControl) {
+        this.cacheElement(cache, cacheKey, data, cacheControl, 0);
+    }
+
+    /**
+     * Same as {@link #cacheElement(Ehcache, Serializable, CachedPortletResultHolder, CacheControl)}
+     * but keeps the element in the cache for an additional staleTime seconds after it expires so it
+     * can be served while being refreshed.
+     */
+    protected void cacheElement(
+            Ehcache cache,
+            Serializable cacheKey,
+            CachedPortletResultHolder<?> data,
+            CacheControl cacheControl,
+            int staleTime) {
         // using validation method, ignore expirationTime and defer to cache configuration
         if (cacheControl.getETag() != null) {
             final Element element = new Element(cacheKey, data);
@@ -537,8 +826,9 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
         final Element element = new Element(cacheKey, data);
         final long cacheTTL = cacheConfiguration.getTimeToLiveSeconds();
-        if (expirationTime < cacheTTL) {
-            element.setTimeToLive(expirationTime);
+        final long elementTTL = (long) expirationTime + Math.max(0, staleTime);
+        if (elementTTL < cacheTTL) {
+            element.setTimeToLive((int) elementTTL);
         }
         cache.put(element);
     }
@@ -568,4 +858,36 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 
         return purgeCount != 0;
     }
+
+    /** Refresh of public output being done by a single request */
+    protected static final class RefreshLease {
+        private final Tuple<String, PublicPortletCacheKey> key;
+        private final CountDownLatch refreshed = new CountDownLatch(1);
+        private final long created = System.currentTimeMillis();
+        private volatile boolean waitTimedOut = false;
+
+        RefreshLease(Tuple<String, PublicPortletCacheKey> key) {
+            this.key = key;
+        }
+
+        boolean isAbandoned(long now) {
+            return now - this.created > REFRESH_LEASE_TIMEOUT;
+        }
+
+        boolean await(long waitTime) throws InterruptedException {
+            return this.refreshed.await(waitTime, TimeUnit.MILLISECONDS);
+        }
+
+        void release() {
+            this.refreshed.countDown();
+        }
+
+        boolean isWaitTimedOut() {
+            return this.waitTimedOut;
+        }
+
+        void setWaitTimedOut() {
+            this.waitTimedOut = true;
+        }
+    }
 }
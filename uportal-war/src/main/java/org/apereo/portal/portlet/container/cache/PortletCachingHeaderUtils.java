@@ -83,6 +83,39 @@ public final class PortletCachingHeaderUtils {
         }
     }
 
+    /**
+     * @param acceptEncoding Value of the Accept-Encoding request header, may be null
+     * @return true if the client accepts gzip encoded content
+     */
+    public static boolean isGzipAccepted(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.split(";");
+            final String name = parts[0].trim();
+            if (!"gzip".equalsIgnoreCase(name) && !"x-gzip".equalsIgnoreCase(name)) {
+                continue;
+            }
+
+            //gzip is accepted unless it has a quality of 0
+            for (int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Float.parseFloat(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
     /**
      * Set the ETag header based on the specified token
      *
@@ -50,5 +50,11 @@ public interface IPortletDefinitionDao {
 
     public List<IPortletDefinition> getPortletDefinitions();
 
+    /**
+     * @return A number that changes after each committed save or delete of a portlet definition,
+     *     used to tell if data loaded by {@link #getPortletDefinitions()} is out of date
+     */
+    public long getPortletDefinitionsVersion();
+
     public List<IPortletDefinition> searchForPortlets(String term, boolean allowPartial);
 }
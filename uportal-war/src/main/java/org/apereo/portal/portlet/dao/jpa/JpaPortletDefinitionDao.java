@@ -18,6 +18,7 @@ import com.google.common.base.Function;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -35,6 +36,8 @@ import org.apereo.portal.spring.tx.DialectAwareTransactional;
 import org.hibernate.dialect.PostgreSQL81Dialect;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * JPA implementation of the portlet definition DAO
@@ -48,6 +51,7 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
     private CriteriaQuery<PortletDefinitionImpl> searchDefinitionByNameOrTitleQuery;
     private ParameterExpression<String> nameParameter;
     private ParameterExpression<String> titleParameter;
+    private final AtomicLong portletDefinitionsVersion = new AtomicLong();
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -247,6 +251,7 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         }
 
         entityManager.remove(persistentPortletDefinition);
+        this.incrementPortletDefinitionsVersion();
     }
 
     @Override
@@ -272,9 +277,34 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         Validate.notEmpty(portletDefinition.getName(), "portletDefinition name can not be null");
         Validate.notEmpty(portletDefinition.getTitle(), "portletDefinition title can not be null");
         this.getEntityManager().persist(portletDefinition);
+        this.incrementPortletDefinitionsVersion();
         return portletDefinition;
     }
 
+    @Override
+    public long getPortletDefinitionsVersion() {
+        return this.portletDefinitionsVersion.get();
+    }
+
+    /**
+     * Change the version once the transaction completes so that data reloaded because of the new
+     * version includes the change.
+     */
+    protected void incrementPortletDefinitionsVersion() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            this.portletDefinitionsVersion.incrementAndGet();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        portletDefinitionsVersion.incrementAndGet();
+                    }
+                });
+    }
+
     protected long getNativePortletDefinitionId(IPortletDefinitionId portletDefinitionId) {
         return Long.parseLong(portletDefinitionId.getStringId());
     }
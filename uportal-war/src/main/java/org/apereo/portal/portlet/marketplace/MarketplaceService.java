@@ -30,7 +30,9 @@ import org.apereo.portal.events.LoginEvent;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.PortletCategory;
 import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
+import org.apereo.portal.portlet.registry.IPortletDefinitionCatalogListener;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionCatalog;
 import org.apereo.portal.rest.layout.MarketplaceEntry;
 import org.apereo.portal.security.AuthorizationPrincipalHelper;
 import org.apereo.portal.security.IAuthorizationPrincipal;
@@ -54,7 +56,10 @@ import org.springframework.stereotype.Service;
  * @since 4.1
  */
 @Service
-public class MarketplaceService implements IMarketplaceService, ApplicationListener<LoginEvent> {
+public class MarketplaceService
+        implements IMarketplaceService,
+                ApplicationListener<LoginEvent>,
+                IPortletDefinitionCatalogListener {
 
     public static String FEATURED_CATEGORY_NAME = "Featured";
     protected final Logger logger = LoggerFactory.getLogger(getClass());
@@ -409,6 +414,18 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
         Validate.notNull(
                 portletDefinitionRegistry, "Portlet definition registry must not be null.");
         this.portletDefinitionRegistry = portletDefinitionRegistry;
+        this.portletDefinitionRegistry.addPortletDefinitionCatalogListener(this);
+    }
+
+    /** Portlets were published, changed or removed, drop the cached marketplace entries */
+    @Override
+    public void portletDefinitionCatalogChanged(PortletDefinitionCatalog catalog) {
+        if (this.marketplaceCategoryCache != null) {
+            this.marketplaceCategoryCache.removeAll();
+        }
+        if (this.marketplaceUserPortletDefinitionCache != null) {
+            this.marketplaceUserPortletDefinitionCache.removeAll();
+        }
     }
 
     @Autowired
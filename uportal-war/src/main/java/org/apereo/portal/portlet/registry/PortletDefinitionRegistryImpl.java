@@ -14,14 +14,28 @@
  */
 package org.apereo.portal.portlet.registry;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletContext;
+import javax.xml.namespace.QName;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.driver.PortalDriverContainerServices;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
 import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.apereo.portal.concurrency.caching.RequestCache;
@@ -29,7 +43,9 @@ import org.apereo.portal.portlet.dao.IPortletDefinitionDao;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionId;
 import org.apereo.portal.utils.Tuple;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.ServletContextAware;
 
@@ -37,15 +53,25 @@ import org.springframework.web.context.ServletContextAware;
  * Implementation of the definition registry, pulls together the related parts of the framework for
  * creation and access of {@link IPortletDefinition}s.
  *
+ * <p>The {@link PortletDefinitionCatalog} is rebuilt on first use after a portlet definition is
+ * saved or deleted, after a portlet application is (re)deployed, or once it is older than the
+ * configured max age. The max age picks up changes made by other servers in a cluster.
  */
 @Service("portletDefinitionRegistry")
 public class PortletDefinitionRegistryImpl
-        implements IPortletDefinitionRegistry, ServletContextAware {
+        implements IPortletDefinitionRegistry, ServletContextAware, InitializingBean {
     protected final Log logger = LogFactory.getLog(this.getClass());
 
+    private final List<IPortletDefinitionCatalogListener> catalogListeners =
+            new CopyOnWriteArrayList<IPortletDefinitionCatalogListener>();
+    private final AtomicLong portletDescriptorsVersion = new AtomicLong();
+    private final Object catalogLock = new Object();
+    private volatile CatalogState catalogState;
+
     private IPortletDefinitionDao portletDefinitionDao;
     private PortalDriverContainerServices portalDriverContainerServices;
     private ServletContext servletContext;
+    private long catalogMaxAge = 60000;
 
     /** @return the portletDefinitionDao */
     public IPortletDefinitionDao getPortletDefinitionDao() {
@@ -67,6 +93,35 @@ public class PortletDefinitionRegistryImpl
         this.portalDriverContainerServices = portalDriverContainerServices;
     }
 
+    /**
+     * @param catalogMaxAge Milliseconds the portlet definition catalog is used before it is
+     *     rebuilt, changes made on this server rebuild it immediately
+     */
+    @Value(
+            "${org.apereo.portal.portlet.registry.PortletDefinitionRegistryImpl.catalogMaxAge:60000}")
+    public void setCatalogMaxAge(long catalogMaxAge) {
+        this.catalogMaxAge = catalogMaxAge;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        //Supported events come from the portlet descriptors, rebuild when they change
+        this.portalDriverContainerServices
+                .getPortletRegistryService()
+                .addPortletRegistryListener(
+                        new PortletRegistryListener() {
+                            @Override
+                            public void portletApplicationRegistered(PortletRegistryEvent event) {
+                                portletDescriptorsVersion.incrementAndGet();
+                            }
+
+                            @Override
+                            public void portletApplicationRemoved(PortletRegistryEvent event) {
+                                portletDescriptorsVersion.incrementAndGet();
+                            }
+                        });
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
      */
@@ -114,7 +169,164 @@ public class PortletDefinitionRegistryImpl
 
     @Override
     public List<IPortletDefinition> getAllPortletDefinitions() {
-        return this.portletDefinitionDao.getPortletDefinitions();
+        return this.getPortletDefinitionCatalog().getPortletDefinitions();
+    }
+
+    @Override
+    public PortletDefinitionCatalog getPortletDefinitionCatalog() {
+        CatalogState state = this.catalogState;
+        if (state != null && state.isCurrent()) {
+            return state.catalog;
+        }
+
+        final PortletDefinitionCatalog catalog;
+        final boolean changed;
+        synchronized (this.catalogLock) {
+            state = this.catalogState;
+            if (state != null && state.isCurrent()) {
+                return state.catalog;
+            }
+
+            //Read the versions before loading so a concurrent change triggers another rebuild
+            final long definitionsVersion =
+                    this.portletDefinitionDao.getPortletDefinitionsVersion();
+            final long descriptorsVersion = this.portletDescriptorsVersion.get();
+            final long catalogVersion = state != null ? state.catalog.getVersion() + 1 : 1;
+
+            final List<IPortletDefinition> portletDefinitions =
+                    this.portletDefinitionDao.getPortletDefinitions();
+            final Set<String> registeredApplications = this.getRegisteredPortletApplications();
+            catalog =
+                    new PortletDefinitionCatalog(
+                            catalogVersion,
+                            portletDefinitions,
+                            new Function<IPortletDefinition, Collection<QName>>() {
+                                @Override
+                                public Collection<QName> apply(IPortletDefinition definition) {
+                                    return getSupportedProcessingEvents(
+                                            definition, registeredApplications);
+                                }
+                            });
+
+            this.catalogState = new CatalogState(catalog, definitionsVersion, descriptorsVersion);
+            changed =
+                    state == null
+                            || state.definitionsVersion != definitionsVersion
+                            || state.descriptorsVersion != descriptorsVersion
+                            || !isSameContent(state.catalog, catalog);
+        }
+
+        this.logger.debug("Built " + catalog);
+        if (!changed) {
+            //Rebuilt due to age with nothing new, don't bother the listeners
+            return catalog;
+        }
+        for (final IPortletDefinitionCatalogListener listener : this.catalogListeners) {
+            try {
+                listener.portletDefinitionCatalogChanged(catalog);
+            } catch (RuntimeException e) {
+                this.logger.warn("Portlet definition catalog listener failed: " + listener, e);
+            }
+        }
+
+        return catalog;
+    }
+
+    @Override
+    public void addPortletDefinitionCatalogListener(IPortletDefinitionCatalogListener listener) {
+        this.catalogListeners.add(listener);
+    }
+
+    @Override
+    public void removePortletDefinitionCatalogListener(IPortletDefinitionCatalogListener listener) {
+        this.catalogListeners.remove(listener);
+    }
+
+    /**
+     * Compare the definitions, their fnames and lifecycle states and the supported events of two
+     * catalogs. Used to notice changes made by other servers and time based lifecycle changes.
+     */
+    private static boolean isSameContent(
+            PortletDefinitionCatalog oldCatalog, PortletDefinitionCatalog newCatalog) {
+        final List<IPortletDefinition> oldDefinitions = oldCatalog.getPortletDefinitions();
+        final List<IPortletDefinition> newDefinitions = newCatalog.getPortletDefinitions();
+        if (oldDefinitions.size() != newDefinitions.size()
+                || !oldCatalog.getSupportedEvents().equals(newCatalog.getSupportedEvents())) {
+            return false;
+        }
+
+        for (final IPortletDefinition newDefinition : newDefinitions) {
+            final IPortletDefinition oldDefinition =
+                    oldCatalog.getPortletDefinition(
+                            newDefinition.getPortletDefinitionId().getStringId());
+            if (oldDefinition == null
+                    || !oldDefinition.getFName().equals(newDefinition.getFName())
+                    || oldDefinition.getLifecycleState() != newDefinition.getLifecycleState()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Set<String> getRegisteredPortletApplications() {
+        final PortletRegistryService portletRegistryService =
+                this.portalDriverContainerServices.getPortletRegistryService();
+
+        final ImmutableSet.Builder<String> applications = ImmutableSet.builder();
+        for (final Iterator<String> applicationNames =
+                        portletRegistryService.getRegisteredPortletApplicationNames();
+                applicationNames.hasNext();
+                ) {
+            applications.add(applicationNames.next());
+        }
+        return applications.build();
+    }
+
+    /**
+     * Get the fully qualified names of the events the portlet definition supports processing, an
+     * empty collection if the portlet application is not deployed.
+     */
+    protected Collection<QName> getSupportedProcessingEvents(
+            IPortletDefinition portletDefinition, Set<String> registeredApplications) {
+        final Tuple<String, String> portletDescriptorKeys =
+                this.getPortletDescriptorKeys(portletDefinition);
+
+        //Avoid the registry warning about applications that are not deployed
+        if (!registeredApplications.contains(portletDescriptorKeys.first)) {
+            return Collections.emptySet();
+        }
+
+        final PortletRegistryService portletRegistryService =
+                this.portalDriverContainerServices.getPortletRegistryService();
+        final PortletApplicationDefinition portletApplicationDescriptor;
+        final PortletDefinition portletDescriptor;
+        try {
+            portletApplicationDescriptor =
+                    portletRegistryService.getPortletApplication(portletDescriptorKeys.first);
+            portletDescriptor =
+                    portletRegistryService.getPortlet(
+                            portletDescriptorKeys.first, portletDescriptorKeys.second);
+        } catch (PortletContainerException e) {
+            return Collections.emptySet();
+        }
+        if (portletApplicationDescriptor == null || portletDescriptor == null) {
+            return Collections.emptySet();
+        }
+
+        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
+        final List<QName> eventNames = new ArrayList<QName>();
+        for (final EventDefinitionReference eventDefinitionReference :
+                portletDescriptor.getSupportedProcessingEvents()) {
+            QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
+            if (qualifiedName == null) {
+                continue;
+            }
+            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI()) && defaultNamespace != null) {
+                qualifiedName = new QName(defaultNamespace, qualifiedName.getLocalPart());
+            }
+            eventNames.add(qualifiedName);
+        }
+        return eventNames;
     }
 
     /* (non-Javadoc)
@@ -206,4 +418,26 @@ public class PortletDefinitionRegistryImpl
 
         return new Tuple<String, String>(portletApplicationId, portletName);
     }
+
+    /** The catalog and the versions of the data it was built from */
+    private final class CatalogState {
+        private final PortletDefinitionCatalog catalog;
+        private final long definitionsVersion;
+        private final long descriptorsVersion;
+
+        CatalogState(
+                PortletDefinitionCatalog catalog,
+                long definitionsVersion,
+                long descriptorsVersion) {
+            this.catalog = catalog;
+            this.definitionsVersion = definitionsVersion;
+            this.descriptorsVersion = descriptorsVersion;
+        }
+
+        boolean isCurrent() {
+            return this.definitionsVersion == portletDefinitionDao.getPortletDefinitionsVersion()
+                    && this.descriptorsVersion == portletDescriptorsVersion.get()
+                    && System.currentTimeMillis() - this.catalog.getTimeCreated() < catalogMaxAge;
+        }
+    }
 }
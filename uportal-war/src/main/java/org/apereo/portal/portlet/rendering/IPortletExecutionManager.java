@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.portlet.rendering;
 
+import java.util.Collection;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apereo.portal.portlet.om.IPortletWindowId;
@@ -95,6 +96,30 @@ public interface IPortletExecutionManager {
             HttpServletRequest request,
             HttpServletResponse response);
 
+    /**
+     * @return true if the specified portlet has been requested to render it's output for the BODY
+     *     during this request and that render has completed, calls to {@link
+     *     #getPortletOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)} will not
+     *     block.
+     */
+    boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
+    /**
+     * Blocks until one of the specified portlets completes rendering it's BODY output or until the
+     * render timeout of one of them expires, whichever happens first. Any of the portlets that has
+     * not yet been started will be started.
+     *
+     * @param portletWindowIds The portlets to wait on, must not be empty
+     * @return The id of the portlet whose output should be incorporated next, never null
+     */
+    IPortletWindowId waitForNextPortletRender(
+            Collection<IPortletWindowId> portletWindowIds,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
     /**
      * @param portletWindowId
      * @param request
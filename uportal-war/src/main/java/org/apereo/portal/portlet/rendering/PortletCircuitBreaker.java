@@ -0,0 +1,155 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per fname execution guard used by {@link PortletExecutionManager}. Combines a bulkhead that
+ * limits the number of concurrent executions of a portlet with a circuit breaker that stops
+ * submitting work to a portlet after it repeatedly times out.
+ *
+ * <p>Once open the breaker rejects executions until the open duration has passed, after which a
+ * single half-open probe execution is allowed through. A successful probe closes the breaker, a
+ * probe that times out or fails opens it again.
+ *
+ * <p>This class is thread safe
+ */
+class PortletCircuitBreaker {
+    private final AtomicInteger concurrentExecutions = new AtomicInteger();
+    private final AtomicInteger consecutiveTimeouts = new AtomicInteger();
+    private final AtomicInteger rejections = new AtomicInteger();
+    private final AtomicLong openedTime = new AtomicLong();
+    private final AtomicLong probeStartedTime = new AtomicLong();
+
+    /**
+     * Reserve an execution slot for the portlet
+     *
+     * @param maxConcurrentExecutions Maximum number of concurrent executions, 0 or less for no
+     *     limit
+     * @return true if the slot was reserved, if so {@link #release()} must be called once the
+     *     execution completes
+     */
+    public boolean tryAcquire(int maxConcurrentExecutions) {
+        while (true) {
+            final int current = this.concurrentExecutions.get();
+            if (maxConcurrentExecutions > 0 && current >= maxConcurrentExecutions) {
+                this.rejections.incrementAndGet();
+                return false;
+            }
+            if (this.concurrentExecutions.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Release an execution slot reserved by {@link #tryAcquire(int)} */
+    public void release() {
+        this.concurrentExecutions.decrementAndGet();
+    }
+
+    /**
+     * @param now The current time in milliseconds
+     * @param openDuration Time in milliseconds the breaker stays open before a probe is permitted
+     * @return {@link State#CLOSED} if the execution can proceed normally, {@link State#HALF_OPEN}
+     *     if the execution is the probe for an open breaker or {@link State#OPEN} if the execution
+     *     must be rejected
+     */
+    public State allowExecution(long now, long openDuration) {
+        final long opened = this.openedTime.get();
+        if (opened == 0) {
+            return State.CLOSED;
+        }
+
+        if (now - opened >= openDuration) {
+            //Only one probe at a time, a probe that never reported back is replaced after openDuration
+            final long probeStarted = this.probeStartedTime.get();
+            if ((probeStarted == 0 || now - probeStarted >= openDuration)
+                    && this.probeStartedTime.compareAndSet(probeStarted, now)) {
+                return State.HALF_OPEN;
+            }
+        }
+
+        this.rejections.incrementAndGet();
+        return State.OPEN;
+    }
+
+    /**
+     * Record an execution that completed within its timeout
+     *
+     * @param probe If the execution was the half-open probe, a successful probe closes the breaker
+     */
+    public void recordSuccess(boolean probe) {
+        if (probe) {
+            this.consecutiveTimeouts.set(0);
+            this.probeStartedTime.set(0);
+            this.openedTime.set(0);
+        } else if (!this.isOpen()) {
+            this.consecutiveTimeouts.set(0);
+        }
+    }
+
+    /**
+     * Record an execution that did not complete within its timeout
+     *
+     * @param now The current time in milliseconds
+     * @param failureThreshold Number of consecutive timeouts that open the breaker
+     * @return true if this timeout opened the breaker
+     */
+    public boolean recordTimeout(long now, int failureThreshold) {
+        final int timeouts = this.consecutiveTimeouts.incrementAndGet();
+        if (this.probeStartedTime.get() != 0 || timeouts >= failureThreshold) {
+            return this.open(now);
+        }
+        return false;
+    }
+
+    /**
+     * Record a failed half-open probe, re-opens the breaker
+     *
+     * @param now The current time in milliseconds
+     */
+    public void recordProbeFailure(long now) {
+        this.open(now);
+    }
+
+    private boolean open(long now) {
+        this.probeStartedTime.set(0);
+        final long opened = this.openedTime.getAndSet(now);
+        return opened == 0;
+    }
+
+    /** @return true if the breaker is open or half-open */
+    public boolean isOpen() {
+        return this.openedTime.get() != 0;
+    }
+
+    /** @return Number of executions currently holding a slot */
+    public int getConcurrentExecutions() {
+        return this.concurrentExecutions.get();
+    }
+
+    /** @return Number of executions rejected by the bulkhead or the open breaker */
+    public int getRejections() {
+        return this.rejections.get();
+    }
+
+    public enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN;
+    }
+}
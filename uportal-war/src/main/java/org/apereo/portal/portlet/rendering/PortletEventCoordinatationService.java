@@ -15,11 +15,14 @@
 package org.apereo.portal.portlet.rendering;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -29,6 +32,7 @@ import java.util.Set;
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -37,12 +41,11 @@ import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
 import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.PortletContainer;
 import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.DriverPortletContext;
 import org.apache.pluto.container.driver.PortletContextService;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.EventDefinition;
@@ -52,6 +55,8 @@ import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.IUserPreferencesManager;
 import org.apereo.portal.layout.IUserLayoutManager;
+import org.apereo.portal.layout.node.IUserLayoutChannelDescription;
+import org.apereo.portal.layout.node.IUserLayoutNodeDescription;
 import org.apereo.portal.portlet.container.EventImpl;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionId;
@@ -63,6 +68,7 @@ import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.apereo.portal.portlet.registry.IPortletEntityRegistry;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionCatalog;
 import org.apereo.portal.security.IAuthorizationPrincipal;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.services.AuthorizationService;
@@ -75,7 +81,6 @@ import org.apereo.portal.xml.XmlUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -94,6 +99,8 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
 
     private static final String PORTLET_EVENT_QUEUE =
             PortletEventCoordinatationService.class.getName() + ".PORTLET_EVENT_QUEUE";
+    private static final String LAYOUT_NODE_INDEX =
+            PortletEventCoordinatationService.class.getName() + ".LAYOUT_NODE_INDEX";
 
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -101,10 +108,10 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
     private IPortletEntityRegistry portletEntityRegistry;
     private IPortletDefinitionRegistry portletDefinitionRegistry;
     private IUserInstanceManager userInstanceManager;
-    private Ehcache supportedEventCache;
     private IPortalRequestUtils portalRequestUtils;
     private XmlUtilities xmlUtilities;
     private PortletContextService portletContextService;
+    private volatile PortletEventRoutingTable portletEventRoutingTable;
 
     @Autowired
     public void setPortletContextService(PortletContextService portletContextService) {
@@ -121,13 +128,6 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         this.portalRequestUtils = portalRequestUtils;
     }
 
-    @Autowired
-    public void setSupportedEventCache(
-            @Qualifier("org.apereo.portal.portlet.rendering.SupportedEventCache")
-                    Ehcache supportedEventCache) {
-        this.supportedEventCache = supportedEventCache;
-    }
-
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -213,12 +213,13 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
 
-        //Make a local copy so we can remove data from it
-        final Set<String> allLayoutNodeIds =
-                new LinkedHashSet<String>(userLayoutManager.getAllSubscribedChannels());
+        final PortletEventRoutingTable routingTable = this.getPortletEventRoutingTable();
+        final ListMultimap<String, String> layoutNodeIndex =
+                this.getLayoutNodeIndex(request, userLayoutManager);
 
         final Map<String, IPortletEntity> portletEntityCache =
                 new LinkedHashMap<String, IPortletEntity>();
+        IAuthorizationPrincipal ap = null;
 
         while (!events.isEmpty()) {
             final QueuedEvent queuedEvent = events.poll();
@@ -232,150 +233,241 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
 
             final boolean globalEvent = isGlobalEvent(request, sourceWindowId, event);
 
-            final Set<IPortletDefinition> portletDefinitions =
-                    new LinkedHashSet<IPortletDefinition>();
-            if (globalEvent) {
-                portletDefinitions.addAll(
-                        this.portletDefinitionRegistry.getAllPortletDefinitions());
-            }
-
-            //Check each subscription to see what events it is registered to see
-            for (final Iterator<String> layoutNodeIdItr = allLayoutNodeIds.iterator();
-                    layoutNodeIdItr.hasNext();
-                    ) {
-                final String layoutNodeId = layoutNodeIdItr.next();
+            //Only look at the portlets that process the event
+            for (final IPortletDefinition portletDefinition :
+                    routingTable.getSubscribers(event.getQName())) {
+
+                // Is this portlet permitted to receive events?  (Or is it disablePortletEvents=true?)
+                IPortletDefinitionParameter disablePortletEvents =
+                        portletDefinition.getParameter(
+                                PortletExecutionManager.DISABLE_PORTLET_EVENTS_PARAMETER);
+                if (disablePortletEvents != null
+                        && Boolean.parseBoolean(disablePortletEvents.getValue())) {
+                    logger.info(
+                            "Ignoring portlet events for portlet '{}' because they have been disabled.",
+                            portletDefinition.getFName());
+                    continue;
+                }
 
-                IPortletEntity portletEntity = portletEntityCache.get(layoutNodeId);
-                if (portletEntity == null) {
-                    portletEntity =
-                            this.portletEntityRegistry.getOrCreatePortletEntity(
-                                    request, userInstance, layoutNodeId);
+                final IPortletDefinitionId portletDefinitionId =
+                        portletDefinition.getPortletDefinitionId();
 
-                    // if portlet entity registry returned null, then portlet has been deleted - remove it (see UP-3378)
+                //Target each instance of the portlet in the user's layout
+                boolean defaultEntityTargeted = false;
+                for (final String layoutNodeId :
+                        layoutNodeIndex.get(portletDefinitionId.getStringId())) {
+                    IPortletEntity portletEntity = portletEntityCache.get(layoutNodeId);
                     if (portletEntity == null) {
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
+                        portletEntity =
+                                this.portletEntityRegistry.getOrCreatePortletEntity(
+                                        request, userInstance, layoutNodeId);
 
-                    final IPortletDefinitionId portletDefinitionId =
-                            portletEntity.getPortletDefinitionId();
-                    final PortletDefinition portletDescriptor =
-                            this.portletDefinitionRegistry.getParentPortletDescriptor(
-                                    portletDefinitionId);
-                    if (portletDescriptor == null) {
-                        //Missconfigured portlet, remove it from the list so we don't check again and ignore it
-                        layoutNodeIdItr.remove();
-                        continue;
+                        // if portlet entity registry returned null, then portlet has been deleted (see UP-3378)
+                        if (portletEntity == null) {
+                            continue;
+                        }
+                        portletEntityCache.put(layoutNodeId, portletEntity);
                     }
 
-                    final List<? extends EventDefinitionReference> supportedProcessingEvents =
-                            portletDescriptor.getSupportedProcessingEvents();
-                    //Skip portlets that don't handle any events and remove them from the set so they are not checked again
-                    if (supportedProcessingEvents == null
-                            || supportedProcessingEvents.size() == 0) {
-                        layoutNodeIdItr.remove();
-                        continue;
+                    this.logger.debug("{} supports event {}", portletDefinition, event);
+
+                    //If this is the default portlet entity the global event handling below would be a duplicate
+                    if (globalEvent && !defaultEntityTargeted) {
+                        final IPortletEntity defaultPortletEntity =
+                                this.portletEntityRegistry.getOrCreateDefaultPortletEntity(
+                                        request, portletDefinitionId);
+                        defaultEntityTargeted = defaultPortletEntity.equals(portletEntity);
                     }
 
-                    portletEntityCache.put(layoutNodeId, portletEntity);
+                    this.offerEvent(
+                            request, portletEventQueue, portletEntity, sourceWindowId, event);
                 }
 
-                final IPortletDefinition portletDefinition = portletEntity.getPortletDefinition();
-                final IPortletDefinitionId portletDefinitionId =
-                        portletDefinition.getPortletDefinitionId();
-                if (this.supportsEvent(event, portletDefinitionId)) {
-                    this.logger.debug("{} supports event {}", portletDefinition, event);
-
-                    //If this is the default portlet entity remove the definition from the all defs set to avoid duplicate processing
-                    final IPortletEntity defaultPortletEntity =
-                            this.portletEntityRegistry.getOrCreateDefaultPortletEntity(
-                                    request, portletDefinitionId);
-                    if (defaultPortletEntity.equals(portletEntity)) {
-                        portletDefinitions.remove(portletDefinition);
+                //If the event is global the portlet is targeted even if it isn't in the layout
+                if (globalEvent && !defaultEntityTargeted) {
+                    if (ap == null) {
+                        final IPerson user = userInstance.getPerson();
+                        final EntityIdentifier ei = user.getEntityIdentifier();
+                        ap =
+                                AuthorizationService.instance()
+                                        .newPrincipal(ei.getKey(), ei.getType());
                     }
 
-                    // Is this portlet permitted to receive events?  (Or is it disablePortletEvents=true?)
-                    IPortletDefinitionParameter disablePortletEvents =
-                            portletDefinition.getParameter(
-                                    PortletExecutionManager.DISABLE_PORTLET_EVENTS_PARAMETER);
-                    if (disablePortletEvents != null
-                            && Boolean.parseBoolean(disablePortletEvents.getValue())) {
-                        logger.info(
-                                "Ignoring portlet events for portlet '{}' because they have been disabled.",
-                                portletDefinition.getFName());
-                        continue;
-                    }
+                    //Check if the user can render the portlet definition before targeting it
+                    if (ap.canRender(portletDefinitionId.getStringId())) {
+                        this.logger.debug("{} supports event {}", portletDefinition, event);
 
-                    final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
-                    final Set<IPortletWindow> portletWindows =
-                            this.portletWindowRegistry.getAllPortletWindowsForEntity(
-                                    request, portletEntityId);
-
-                    for (final IPortletWindow portletWindow : portletWindows) {
-                        this.logger.debug("{} resolved target {}", event, portletWindow);
-                        final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
-                        final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
-                        portletEventQueue.offerEvent(
-                                portletWindowId,
-                                new QueuedEvent(sourceWindowId, unmarshalledEvent));
+                        final IPortletEntity portletEntity =
+                                this.portletEntityRegistry.getOrCreateDefaultPortletEntity(
+                                        request, portletDefinitionId);
+                        this.offerEvent(
+                                request, portletEventQueue, portletEntity, sourceWindowId, event);
                     }
-                } else {
-                    portletDefinitions.remove(portletDefinition);
                 }
             }
+        }
+    }
 
-            if (!portletDefinitions.isEmpty()) {
-                final IPerson user = userInstance.getPerson();
-                final EntityIdentifier ei = user.getEntityIdentifier();
-                final IAuthorizationPrincipal ap =
-                        AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
-
-                //If the event is global there might still be portlet definitions that need targeting
-                for (final IPortletDefinition portletDefinition : portletDefinitions) {
-
-                    // Is this portlet permitted to receive events?  (Or is it disablePortletEvents=true?)
-                    IPortletDefinitionParameter disablePortletEvents =
-                            portletDefinition.getParameter(
-                                    PortletExecutionManager.DISABLE_PORTLET_EVENTS_PARAMETER);
-                    if (disablePortletEvents != null
-                            && Boolean.parseBoolean(disablePortletEvents.getValue())) {
-                        logger.info(
-                                "Ignoring portlet events for portlet '{}' because they have been disabled.",
-                                portletDefinition.getFName());
-                        continue;
-                    }
+    /** Queue the event for all of the windows of the portlet entity */
+    protected void offerEvent(
+            HttpServletRequest request,
+            PortletEventQueue portletEventQueue,
+            IPortletEntity portletEntity,
+            IPortletWindowId sourceWindowId,
+            Event event) {
+        final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
+        final Set<IPortletWindow> portletWindows =
+                this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId);
+
+        for (final IPortletWindow portletWindow : portletWindows) {
+            this.logger.debug("{} resolved target {}", event, portletWindow);
+            final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
+            final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
+            portletEventQueue.offerEvent(
+                    portletWindowId, new QueuedEvent(sourceWindowId, unmarshalledEvent));
+        }
+    }
 
-                    final IPortletDefinitionId portletDefinitionId =
-                            portletDefinition.getPortletDefinitionId();
-                    //Check if the user can render the portlet definition before doing event tests
-                    if (ap.canRender(portletDefinitionId.getStringId())) {
-                        if (this.supportsEvent(event, portletDefinitionId)) {
-                            this.logger.debug("{} supports event {}", portletDefinition, event);
-
-                            final IPortletEntity portletEntity =
-                                    this.portletEntityRegistry.getOrCreateDefaultPortletEntity(
-                                            request, portletDefinitionId);
-                            final IPortletEntityId portletEntityId =
-                                    portletEntity.getPortletEntityId();
-                            final Set<IPortletWindow> portletWindows =
-                                    this.portletWindowRegistry.getAllPortletWindowsForEntity(
-                                            request, portletEntityId);
-
-                            for (final IPortletWindow portletWindow : portletWindows) {
-                                this.logger.debug("{} resolved target {}", event, portletWindow);
-                                final IPortletWindowId portletWindowId =
-                                        portletWindow.getPortletWindowId();
-                                final Event unmarshalledEvent =
-                                        this.unmarshall(portletWindow, event);
-                                portletEventQueue.offerEvent(
-                                        portletWindowId,
-                                        new QueuedEvent(sourceWindowId, unmarshalledEvent));
-                            }
-                        }
-                    }
+    /**
+     * Get the subscribed layout node ids of the user's layout by portlet definition id. The index
+     * is kept in the session until the layout changes.
+     */
+    protected ListMultimap<String, String> getLayoutNodeIndex(
+            HttpServletRequest request, IUserLayoutManager userLayoutManager) {
+        final String layoutCacheKey = userLayoutManager.getCacheKey();
+        final HttpSession session = request.getSession(false);
+        if (session != null && layoutCacheKey != null) {
+            @SuppressWarnings("unchecked")
+            final Tuple<String, ListMultimap<String, String>> layoutNodeIndex =
+                    (Tuple<String, ListMultimap<String, String>>)
+                            session.getAttribute(LAYOUT_NODE_INDEX);
+            if (layoutNodeIndex != null && layoutCacheKey.equals(layoutNodeIndex.first)) {
+                return layoutNodeIndex.second;
+            }
+        }
+
+        final ImmutableListMultimap.Builder<String, String> layoutNodeIndexBuilder =
+                ImmutableListMultimap.builder();
+        for (final String layoutNodeId : userLayoutManager.getAllSubscribedChannels()) {
+            final IUserLayoutNodeDescription node = userLayoutManager.getNode(layoutNodeId);
+            if (node instanceof IUserLayoutChannelDescription) {
+                final String portletDefinitionId =
+                        ((IUserLayoutChannelDescription) node).getChannelPublishId();
+                if (portletDefinitionId != null) {
+                    layoutNodeIndexBuilder.put(portletDefinitionId, layoutNodeId);
                 }
             }
         }
+        final ListMultimap<String, String> layoutNodeIndex = layoutNodeIndexBuilder.build();
+
+        if (session != null && layoutCacheKey != null) {
+            session.setAttribute(
+                    LAYOUT_NODE_INDEX,
+                    new Tuple<String, ListMultimap<String, String>>(
+                            layoutCacheKey, layoutNodeIndex));
+        }
+        return layoutNodeIndex;
+    }
+
+    /** Get the routing table for the current portlet definition catalog, rebuilding if needed */
+    protected PortletEventRoutingTable getPortletEventRoutingTable() {
+        final PortletDefinitionCatalog catalog =
+                this.portletDefinitionRegistry.getPortletDefinitionCatalog();
+
+        PortletEventRoutingTable routingTable = this.portletEventRoutingTable;
+        if (routingTable == null || routingTable.getCatalogVersion() != catalog.getVersion()) {
+            routingTable = this.buildPortletEventRoutingTable(catalog);
+            this.portletEventRoutingTable = routingTable;
+        }
+        return routingTable;
+    }
+
+    /**
+     * Map each event name to the portlet definitions that declare it, or an alias of it, as a
+     * supported processing event. Definitions whose portlet application is not deployed are
+     * skipped.
+     */
+    protected PortletEventRoutingTable buildPortletEventRoutingTable(
+            PortletDefinitionCatalog catalog) {
+        final SetMultimap<QName, IPortletDefinition> subscribers = LinkedHashMultimap.create();
+        final SetMultimap<QName, IPortletDefinition> wildcardSubscribers =
+                LinkedHashMultimap.create();
+
+        for (final IPortletDefinition portletDefinition : catalog.getPortletDefinitions()) {
+            final Tuple<String, String> portletDescriptorKeys =
+                    this.portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinition);
+            final DriverPortletContext portletContext;
+            try {
+                portletContext =
+                        this.portletContextService.getPortletContext(portletDescriptorKeys.first);
+            } catch (PortletContainerException e) {
+                this.logger.debug("No portlet context for {}", portletDefinition, e);
+                continue;
+            }
+            if (portletContext == null) {
+                continue;
+            }
+            final PortletApplicationDefinition portletApplicationDescriptor =
+                    portletContext.getPortletApplicationDefinition();
+            final PortletDefinition portletDescriptor =
+                    portletApplicationDescriptor.getPortlet(portletDescriptorKeys.second);
+            if (portletDescriptor == null) {
+                continue;
+            }
+
+            final List<? extends EventDefinitionReference> supportedProcessingEvents =
+                    portletDescriptor.getSupportedProcessingEvents();
+            if (supportedProcessingEvents == null || supportedProcessingEvents.isEmpty()) {
+                continue;
+            }
+
+            final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
+            final Set<QName> supportedNames = new LinkedHashSet<QName>();
+            for (final EventDefinitionReference eventDefinitionReference :
+                    supportedProcessingEvents) {
+                final QName qualifiedName =
+                        eventDefinitionReference.getQualifiedName(defaultNamespace);
+                if (qualifiedName == null) {
+                    continue;
+                }
+                supportedNames.add(qualifiedName);
+
+                //Look for namespaced events
+                if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
+                    supportedNames.add(new QName(defaultNamespace, qualifiedName.getLocalPart()));
+                }
+            }
+
+            for (final QName supportedName : supportedNames) {
+                if (PortletEventRoutingTable.isWildcard(supportedName)) {
+                    wildcardSubscribers.put(supportedName, portletDefinition);
+                } else {
+                    subscribers.put(supportedName, portletDefinition);
+                }
+            }
+
+            //Events that the portlet application declares as aliases of a supported event
+            final List<? extends EventDefinition> eventDefinitions =
+                    portletApplicationDescriptor.getEventDefinitions();
+            if (eventDefinitions == null) {
+                continue;
+            }
+            for (final EventDefinition eventDefinition : eventDefinitions) {
+                final QName eventName = eventDefinition.getQualifiedName(defaultNamespace);
+                final List<QName> aliases = eventDefinition.getAliases();
+                if (eventName != null
+                        && aliases != null
+                        && !Collections.disjoint(aliases, supportedNames)) {
+                    subscribers.put(eventName, portletDefinition);
+                }
+            }
+        }
+
+        final PortletEventRoutingTable routingTable =
+                new PortletEventRoutingTable(
+                        catalog.getVersion(), subscribers, wildcardSubscribers);
+        this.logger.debug("Built {}", routingTable);
+        return routingTable;
     }
 
     protected boolean isGlobalEvent(
@@ -481,93 +573,4 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         }
         throw new IllegalStateException();
     }
-
-    protected Set<QName> getAllAliases(
-            QName eventName, PortletApplicationDefinition portletApplicationDefinition) {
-        final List<? extends EventDefinition> eventDefinitions =
-                portletApplicationDefinition.getEventDefinitions();
-        if (eventDefinitions == null || eventDefinitions.isEmpty()) {
-            return Collections.emptySet();
-        }
-
-        final String defaultNamespace = portletApplicationDefinition.getDefaultNamespace();
-
-        for (final EventDefinition eventDefinition : eventDefinitions) {
-            final QName defQName = eventDefinition.getQualifiedName(defaultNamespace);
-            if (defQName != null && defQName.equals(eventName)) {
-                final List<QName> aliases = eventDefinition.getAliases();
-                if (aliases == null || aliases.isEmpty()) {
-                    return Collections.emptySet();
-                }
-
-                return new LinkedHashSet<QName>(aliases);
-            }
-        }
-
-        return Collections.emptySet();
-    }
-
-    protected boolean supportsEvent(Event event, IPortletDefinitionId portletDefinitionId) {
-        final QName eventName = event.getQName();
-
-        //The cache key to use
-        final Tuple<IPortletDefinitionId, QName> key =
-                new Tuple<IPortletDefinitionId, QName>(portletDefinitionId, eventName);
-
-        //Check in the cache if the portlet definition supports this event
-        final Element element = this.supportedEventCache.get(key);
-        if (element != null) {
-            final Boolean supported = (Boolean) element.getObjectValue();
-            if (supported != null) {
-                return supported;
-            }
-        }
-
-        final PortletApplicationDefinition portletApplicationDescriptor =
-                this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(
-                        portletDefinitionId);
-        if (portletApplicationDescriptor == null) {
-            return false;
-        }
-
-        final Set<QName> aliases = this.getAllAliases(eventName, portletApplicationDescriptor);
-
-        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
-
-        //No support found so far, do more complex namespace matching
-        final PortletDefinition portletDescriptor =
-                this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
-        if (portletDescriptor == null) {
-            return false;
-        }
-
-        final List<? extends EventDefinitionReference> supportedProcessingEvents =
-                portletDescriptor.getSupportedProcessingEvents();
-        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
-            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
-            if (qualifiedName == null) {
-                continue;
-            }
-
-            //See if the supported qname and event qname match explicitly
-            //Look for alias names
-            if (qualifiedName.equals(eventName) || aliases.contains(qualifiedName)) {
-                this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                return true;
-            }
-
-            //Look for namespaced events
-            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
-                final QName namespacedName =
-                        new QName(defaultNamespace, qualifiedName.getLocalPart());
-                if (eventName.equals(namespacedName)) {
-                    this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                    return true;
-                }
-            }
-        }
-
-        this.supportedEventCache.put(new Element(key, Boolean.FALSE));
-        return false;
-    }
 }
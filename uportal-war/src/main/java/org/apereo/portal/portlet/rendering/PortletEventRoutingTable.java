@@ -0,0 +1,95 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+
+/**
+ * Immutable mapping of event names to the portlet definitions that process them, built from a
+ * {@link org.apereo.portal.portlet.registry.PortletDefinitionCatalog}. Aliases declared by the
+ * receiving portlet application are resolved when the table is built.
+ *
+ * <p>A supported processing event whose local part ends with a '.' is a wildcard that matches all
+ * events in the same namespace whose local part starts with it, for example <code>search.</code>
+ * matches <code>search.Request</code> and <code>search.Results</code>.
+ */
+final class PortletEventRoutingTable {
+    private final long catalogVersion;
+    private final ImmutableSetMultimap<QName, IPortletDefinition> subscribers;
+    private final ImmutableSetMultimap<QName, IPortletDefinition> wildcardSubscribers;
+
+    PortletEventRoutingTable(
+            long catalogVersion,
+            SetMultimap<QName, IPortletDefinition> subscribers,
+            SetMultimap<QName, IPortletDefinition> wildcardSubscribers) {
+        this.catalogVersion = catalogVersion;
+        this.subscribers = ImmutableSetMultimap.copyOf(subscribers);
+        this.wildcardSubscribers = ImmutableSetMultimap.copyOf(wildcardSubscribers);
+    }
+
+    /** @return Version of the catalog the table was built from */
+    long getCatalogVersion() {
+        return this.catalogVersion;
+    }
+
+    /** @return The definitions that process the event, never null */
+    Set<IPortletDefinition> getSubscribers(QName eventName) {
+        final Set<IPortletDefinition> exactSubscribers = this.subscribers.get(eventName);
+        if (this.wildcardSubscribers.isEmpty()) {
+            return exactSubscribers;
+        }
+
+        Set<IPortletDefinition> allSubscribers = exactSubscribers;
+        for (final Entry<QName, Collection<IPortletDefinition>> wildcardEntry :
+                this.wildcardSubscribers.asMap().entrySet()) {
+            if (matchesWildcard(wildcardEntry.getKey(), eventName)) {
+                if (allSubscribers == exactSubscribers) {
+                    allSubscribers = new LinkedHashSet<IPortletDefinition>(exactSubscribers);
+                }
+                allSubscribers.addAll(wildcardEntry.getValue());
+            }
+        }
+        return allSubscribers;
+    }
+
+    /** @return true if the name is a wildcard supported processing event */
+    static boolean isWildcard(QName name) {
+        return name.getLocalPart().endsWith(".");
+    }
+
+    /** @return true if the wildcard name matches the event name */
+    static boolean matchesWildcard(QName wildcard, QName eventName) {
+        return wildcard.getNamespaceURI().equals(eventName.getNamespaceURI())
+                && eventName.getLocalPart().startsWith(wildcard.getLocalPart());
+    }
+
+    @Override
+    public String toString() {
+        return "PortletEventRoutingTable [catalogVersion="
+                + this.catalogVersion
+                + ", events="
+                + this.subscribers.keySet().size()
+                + ", wildcards="
+                + this.wildcardSubscribers.keySet().size()
+                + "]";
+    }
+}
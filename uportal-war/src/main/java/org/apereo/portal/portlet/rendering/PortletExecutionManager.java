@@ -16,6 +16,7 @@ package org.apereo.portal.portlet.rendering;
 
 import com.google.common.base.Function;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -23,9 +24,12 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.portlet.Event;
@@ -36,6 +40,10 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.events.PortletRenderExecutionEvent;
+import org.apereo.portal.portlet.container.cache.CacheState;
+import org.apereo.portal.portlet.container.cache.CachedPortletData;
+import org.apereo.portal.portlet.container.cache.IPortletCacheControlService;
 import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionParameter;
 import org.apereo.portal.portlet.om.IPortletDescriptorKey;
@@ -45,6 +53,7 @@ import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.om.PortletLifecycleState;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionInterceptor;
 import org.apereo.portal.portlet.rendering.worker.IPortletExecutionWorker;
 import org.apereo.portal.portlet.rendering.worker.IPortletFailureExecutionWorker;
@@ -57,22 +66,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 import org.springframework.web.util.WebUtils;
 
 /**
  * Handles the asynchronous execution of portlets, handling execution errors and publishing events
  * about the execution.
- *
  */
 @ManagedResource("uPortal:section=Framework,name=PortletExecutionManager")
 @Service("portletExecutionManager")
 public class PortletExecutionManager extends HandlerInterceptorAdapter
         implements IPortletExecutionManager,
                 IPortletExecutionInterceptor,
+                ApplicationListener<PortletRenderExecutionEvent>,
                 PortletExecutionManagerMXBean {
 
     /**
@@ -82,10 +93,17 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     public static final String DISABLE_PORTLET_EVENTS_PARAMETER = "disablePortletEvents";
 
     private static final long DEBUG_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+    private static final long RENDER_LATENCY_WINDOW = TimeUnit.MINUTES.toMillis(5);
+    private static final int RENDER_LATENCY_WINDOW_SLOTS = 10;
     private static final String PORTLET_HEADER_RENDERING_MAP =
             PortletExecutionManager.class.getName() + ".PORTLET_HEADER_RENDERING_MAP";
     private static final String PORTLET_RENDERING_MAP =
             PortletExecutionManager.class.getName() + ".PORTLET_RENDERING_MAP";
+    private static final String PORTLET_RENDER_COMPLETION_QUEUE =
+            PortletExecutionManager.class.getName() + ".PORTLET_RENDER_COMPLETION_QUEUE";
+
+    private static final String EXECUTION_ATTRIBUTE__CIRCUIT_STATE =
+            PortletExecutionManager.class.getName() + ".CIRCUIT_STATE";
 
     protected static final String SESSION_ATTRIBUTE__PORTLET_FAILURE_CAUSE_MAP =
             PortletExecutionManager.class.getName() + ".PORTLET_FAILURE_CAUSE_MAP";
@@ -110,11 +128,38 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                         }
                     });
 
+    /** Bulkhead and circuit breaker state for each portlet fname */
+    private final ConcurrentMap<String, PortletCircuitBreaker> circuitBreakers =
+            ConcurrentMapUtils.makeDefaultsMap(
+                    new Function<String, PortletCircuitBreaker>() {
+                        public PortletCircuitBreaker apply(String fname) {
+                            return new PortletCircuitBreaker();
+                        }
+                    });
+
+    /** Sliding window render latency histogram for each portlet fname */
+    private final ConcurrentMap<String, PortletLatencyHistogram> renderLatencies =
+            ConcurrentMapUtils.makeDefaultsMap(
+                    new Function<String, PortletLatencyHistogram>() {
+                        public PortletLatencyHistogram apply(String fname) {
+                            return new PortletLatencyHistogram(
+                                    RENDER_LATENCY_WINDOW, RENDER_LATENCY_WINDOW_SLOTS);
+                        }
+                    });
+
     private boolean ignoreTimeouts = false;
     private int extendedTimeoutExecutions = 5;
     private long extendedTimeoutMultiplier = 20;
     private int maxEventIterations = 100;
+    private int maxConcurrentExecutionsByFname = 0;
+    private int circuitBreakerFailureThreshold = 5;
+    private long circuitBreakerOpenDuration = TimeUnit.SECONDS.toMillis(30);
+    private double adaptiveTimeoutMultiplier = 2;
+    private int adaptiveTimeoutMinSamples = 50;
+    private long adaptiveTimeoutFloor = 1000;
+    private long adaptiveTimeoutCeiling = TimeUnit.SECONDS.toMillis(30);
     private IPortletWindowRegistry portletWindowRegistry;
+    private IPortletCacheControlService portletCacheControlService;
     private IPortletEventCoordinationService eventCoordinationService;
     private IPortletWorkerFactory portletWorkerFactory;
     private IPortletExecutionEventFactory portletExecutionEventFactory;
@@ -181,6 +226,137 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return counts;
     }
 
+    @Override
+    @Value("${org.apereo.portal.portlet.maxConcurrentExecutionsByFname:0}")
+    public void setMaxConcurrentExecutionsByFname(int maxConcurrentExecutionsByFname) {
+        this.maxConcurrentExecutionsByFname = maxConcurrentExecutionsByFname;
+    }
+
+    @Override
+    public int getMaxConcurrentExecutionsByFname() {
+        return this.maxConcurrentExecutionsByFname;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.circuitBreakerFailureThreshold:5}")
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    @Override
+    public int getCircuitBreakerFailureThreshold() {
+        return this.circuitBreakerFailureThreshold;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.circuitBreakerOpenDuration:30000}")
+    public void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    @Override
+    public long getCircuitBreakerOpenDuration() {
+        return this.circuitBreakerOpenDuration;
+    }
+
+    @Override
+    public Set<String> getOpenCircuitBreakers() {
+        final Set<String> fnames = new TreeSet<String>();
+
+        for (final Map.Entry<String, PortletCircuitBreaker> entry :
+                this.circuitBreakers.entrySet()) {
+            if (entry.getValue().isOpen()) {
+                fnames.add(entry.getKey());
+            }
+        }
+
+        return fnames;
+    }
+
+    @Override
+    public Map<String, Integer> getPortletExecutionRejections() {
+        final Map<String, Integer> rejections = new TreeMap<String, Integer>();
+
+        for (final Map.Entry<String, PortletCircuitBreaker> entry :
+                this.circuitBreakers.entrySet()) {
+            final int count = entry.getValue().getRejections();
+            if (count > 0) {
+                rejections.put(entry.getKey(), count);
+            }
+        }
+
+        return rejections;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutMultiplier:2}")
+    public void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    @Override
+    public double getAdaptiveTimeoutMultiplier() {
+        return this.adaptiveTimeoutMultiplier;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutMinSamples:50}")
+    public void setAdaptiveTimeoutMinSamples(int adaptiveTimeoutMinSamples) {
+        this.adaptiveTimeoutMinSamples = adaptiveTimeoutMinSamples;
+    }
+
+    @Override
+    public int getAdaptiveTimeoutMinSamples() {
+        return this.adaptiveTimeoutMinSamples;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutFloor:1000}")
+    public void setAdaptiveTimeoutFloor(long adaptiveTimeoutFloor) {
+        this.adaptiveTimeoutFloor = adaptiveTimeoutFloor;
+    }
+
+    @Override
+    public long getAdaptiveTimeoutFloor() {
+        return this.adaptiveTimeoutFloor;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutCeiling:30000}")
+    public void setAdaptiveTimeoutCeiling(long adaptiveTimeoutCeiling) {
+        this.adaptiveTimeoutCeiling = adaptiveTimeoutCeiling;
+    }
+
+    @Override
+    public long getAdaptiveTimeoutCeiling() {
+        return this.adaptiveTimeoutCeiling;
+    }
+
+    @Override
+    public Map<String, String> getPortletRenderLatencies() {
+        final Map<String, String> latencies = new TreeMap<String, String>();
+
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, PortletLatencyHistogram> entry :
+                this.renderLatencies.entrySet()) {
+            final PortletLatencyHistogram.Snapshot snapshot = entry.getValue().getSnapshot(now);
+            if (snapshot.getCount() > 0) {
+                latencies.put(
+                        entry.getKey(),
+                        "count="
+                                + snapshot.getCount()
+                                + ", p50="
+                                + snapshot.getPercentile(50)
+                                + ", p95="
+                                + snapshot.getPercentile(95)
+                                + ", p99="
+                                + snapshot.getPercentile(99));
+            }
+        }
+
+        return latencies;
+    }
+
     @Autowired
     public void setPortletWorkerFactory(IPortletWorkerFactory portletWorkerFactory) {
         this.portletWorkerFactory = portletWorkerFactory;
@@ -197,12 +373,31 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         this.portletWindowRegistry = portletWindowRegistry;
     }
 
+    @Autowired
+    public void setPortletCacheControlService(
+            IPortletCacheControlService portletCacheControlService) {
+        this.portletCacheControlService = portletCacheControlService;
+    }
+
     @Autowired
     public void setPortletExecutionEventFactory(
             IPortletExecutionEventFactory portletExecutionEventFactory) {
         this.portletExecutionEventFactory = portletExecutionEventFactory;
     }
 
+    /**
+     * Tracks the render latency of each portlet, renders replayed from the portal cache are ignored
+     */
+    @Override
+    public void onApplicationEvent(PortletRenderExecutionEvent event) {
+        if (event.isUsedPortalCache()) {
+            return;
+        }
+
+        final PortletLatencyHistogram histogram = this.renderLatencies.get(event.getFname());
+        histogram.record(event.getExecutionTime(), System.currentTimeMillis());
+    }
+
     @Override
     public void afterCompletion(
             HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
@@ -267,6 +462,8 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
         portletExecutionWorker.cancel();
 
+        this.recordTimeout(portletExecutionWorker);
+
         this.portletExecutionEventFactory.publishPortletHungEvent(
                 request, this, portletExecutionWorker);
         hungWorkers.offer(portletExecutionWorker);
@@ -314,11 +511,80 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     }
 
+    /** Count a timed out worker against the circuit breaker for its portlet */
+    protected void recordTimeout(IPortletExecutionWorker<?> portletExecutionWorker) {
+        if (this.circuitBreakerFailureThreshold <= 0
+                || portletExecutionWorker.getExecutionType() == ExecutionType.FAILURE) {
+            return;
+        }
+
+        final String portletFname = portletExecutionWorker.getPortletFname();
+        final PortletCircuitBreaker circuitBreaker = this.circuitBreakers.get(portletFname);
+        if (circuitBreaker.recordTimeout(
+                System.currentTimeMillis(), this.circuitBreakerFailureThreshold)) {
+            this.logger.warn(
+                    "Opening circuit breaker for portlet '{}' after {} consecutive timeouts, executions will be rejected for {}ms",
+                    portletFname,
+                    this.circuitBreakerFailureThreshold,
+                    this.circuitBreakerOpenDuration);
+        }
+    }
+
+    /**
+     * Rejects the execution if the portlet's circuit breaker is open or if the portlet already has
+     * {@link #getMaxConcurrentExecutionsByFname()} executions in progress. Failure executions are
+     * always allowed so the error portlet can render.
+     */
     @Override
     public void preSubmit(
             HttpServletRequest request,
             HttpServletResponse response,
-            IPortletExecutionContext context) {}
+            IPortletExecutionContext context) {
+        if (context.getExecutionType() == ExecutionType.FAILURE) {
+            return;
+        }
+
+        final String portletFname = context.getPortletFname();
+        final PortletCircuitBreaker circuitBreaker = this.circuitBreakers.get(portletFname);
+
+        PortletCircuitBreaker.State state = PortletCircuitBreaker.State.CLOSED;
+        if (this.circuitBreakerFailureThreshold > 0) {
+            state =
+                    circuitBreaker.allowExecution(
+                            System.currentTimeMillis(), this.circuitBreakerOpenDuration);
+            if (state == PortletCircuitBreaker.State.OPEN) {
+                final String msg =
+                        "Denying worker execution for "
+                                + portletFname
+                                + ", the circuit breaker is open after repeated timeouts";
+                this.logger.debug(msg);
+                throw new PortletExecutionRejectedException(portletFname, msg);
+            }
+        }
+
+        if (!circuitBreaker.tryAcquire(this.maxConcurrentExecutionsByFname)) {
+            if (state == PortletCircuitBreaker.State.HALF_OPEN) {
+                //Give up the probe, another execution can try once a slot frees up
+                circuitBreaker.recordProbeFailure(System.currentTimeMillis());
+            }
+
+            final String msg =
+                    "Denying worker execution for "
+                            + portletFname
+                            + " that has reached the limit of "
+                            + this.maxConcurrentExecutionsByFname
+                            + " concurrent executions";
+            this.logger.info(msg);
+            throw new PortletExecutionRejectedException(portletFname, msg);
+        }
+
+        if (state == PortletCircuitBreaker.State.HALF_OPEN) {
+            this.logger.info("Probing portlet '{}' with open circuit breaker", portletFname);
+        }
+
+        //Tracks that a slot was acquired, other interceptors may still reject the execution
+        context.setExecutionAttribute(EXECUTION_ATTRIBUTE__CIRCUIT_STATE, state);
+    }
 
     @Override
     public void preExecution(
@@ -332,6 +598,29 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             HttpServletResponse response,
             IPortletExecutionContext context,
             Exception e) {
+        final PortletCircuitBreaker.State state =
+                (PortletCircuitBreaker.State)
+                        context.setExecutionAttribute(EXECUTION_ATTRIBUTE__CIRCUIT_STATE, null);
+        if (state != null) {
+            final PortletCircuitBreaker circuitBreaker =
+                    this.circuitBreakers.get(context.getPortletFname());
+            circuitBreaker.release();
+
+            final boolean probe = state == PortletCircuitBreaker.State.HALF_OPEN;
+            final long now = System.currentTimeMillis();
+            final long timeout = context.getApplicableTimeout();
+            if (e == null && (timeout < 0 || now - context.getStartedTime() <= timeout)) {
+                circuitBreaker.recordSuccess(probe);
+                if (probe) {
+                    this.logger.info(
+                            "Closing circuit breaker for portlet '{}' after successful probe",
+                            context.getPortletFname());
+                }
+            } else if (probe) {
+                circuitBreaker.recordProbeFailure(now);
+            }
+        }
+
         final IPortletWindowId portletWindowId = context.getPortletWindowId();
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
@@ -342,6 +631,12 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
         final AtomicInteger counter = this.executionCount.get(portletDescriptorKey);
         counter.incrementAndGet();
+
+        //Signal any thread waiting in waitForNextPortletRender that a body render is done
+        final ExecutionType executionType = context.getExecutionType();
+        if (executionType == ExecutionType.RENDER || executionType == ExecutionType.FAILURE) {
+            this.getPortletRenderCompletionQueue(request).offer(portletWindowId);
+        }
     }
 
     /* (non-Javadoc)
@@ -635,6 +930,79 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
 
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderComplete(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+
+        //isComplete() is also true for workers that have not started yet, check the timestamp instead
+        return tracker != null && tracker.getCompleteTime() > 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#waitForNextPortletRender(java.util.Collection, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public IPortletWindowId waitForNextPortletRender(
+            Collection<IPortletWindowId> portletWindowIds,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        Assert.notEmpty(portletWindowIds, "portletWindowIds must not be empty");
+
+        final BlockingQueue<IPortletWindowId> completionQueue =
+                this.getPortletRenderCompletionQueue(request);
+
+        while (true) {
+            IPortletWindowId firstExpiringWindowId = null;
+            long firstExpiration = Long.MAX_VALUE;
+
+            for (final IPortletWindowId portletWindowId : portletWindowIds) {
+                final IPortletRenderExecutionWorker tracker =
+                        getRenderedPortletBodyWorker(portletWindowId, request, response);
+                if (tracker.getCompleteTime() > 0) {
+                    return portletWindowId;
+                }
+
+                final long expiration =
+                        tracker.getSubmittedTime()
+                                + getPortletRenderTimeout(portletWindowId, request);
+                if (expiration < firstExpiration) {
+                    firstExpiration = expiration;
+                    firstExpiringWindowId = portletWindowId;
+                }
+            }
+
+            final long waitTime = firstExpiration - System.currentTimeMillis();
+            if (waitTime <= 0) {
+                //Let the caller handle the timeout via getPortletOutput
+                return firstExpiringWindowId;
+            }
+
+            try {
+                final IPortletWindowId completedWindowId =
+                        completionQueue.poll(waitTime, TimeUnit.MILLISECONDS);
+
+                /*
+                 * The completion signal is sent just before the worker records its complete time,
+                 * trust the signal instead of looping back to check the worker again
+                 */
+                if (completedWindowId != null && portletWindowIds.contains(completedWindowId)) {
+                    return completedWindowId;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return firstExpiringWindowId;
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -676,6 +1044,15 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             final String output = tracker.getOutput(timeout);
             return output == null ? "" : output;
         } catch (Exception e) {
+            if (isExecutionRejected(e)) {
+                //Portlet is being protected by its bulkhead or circuit breaker, replay any cached output
+                final String cachedOutput =
+                        getCachedPortletOutput(portletWindowId, request, response);
+                if (cachedOutput != null) {
+                    return cachedOutput;
+                }
+            }
+
             final IPortletFailureExecutionWorker failureWorker =
                     this.portletWorkerFactory.createFailureWorker(
                             request, response, portletWindowId, e);
@@ -770,6 +1147,46 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return defaultPortletUrl;
     }
 
+    /** @return true if the exception or one of its causes is a rejected execution */
+    protected boolean isExecutionRejected(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PortletExecutionRejectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The cached, possibly expired, render output for the portlet or null if there is no
+     *     cached output
+     */
+    protected String getCachedPortletOutput(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        try {
+            final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                    cacheState =
+                            this.portletCacheControlService.getPortletRenderState(
+                                    request, portletWindowId);
+            final CachedPortletData<PortletRenderResult> cachedPortletData =
+                    cacheState.getCachedPortletData();
+            if (cachedPortletData == null) {
+                return null;
+            }
+
+            final RenderPortletOutputHandler renderPortletOutputHandler =
+                    new RenderPortletOutputHandler(response.getCharacterEncoding());
+            cachedPortletData.replay(renderPortletOutputHandler);
+            logger.debug("Serving cached output for rejected portlet {}", portletWindowId);
+            return renderPortletOutputHandler.getOutput();
+        } catch (Exception e) {
+            logger.warn("Failed to replay cached output for " + portletWindowId, e);
+            return null;
+        }
+    }
+
     /**
      * This method handles portlets that are slow to warm up. The default config multiplies the
      * portlet's configured timeout by 20 the first 5 times it executes. The key is the portlet
@@ -804,6 +1221,39 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return timeout * extendedTimeoutMultiplier;
     }
 
+    /**
+     * Derives the timeout from the portlet's observed render latencies. Once enough renders have
+     * been seen in the sliding window the timeout is the p99 latency times the {@link
+     * #getAdaptiveTimeoutMultiplier()}, bounded by {@link #getAdaptiveTimeoutFloor()} and the
+     * larger of {@link #getAdaptiveTimeoutCeiling()} and the configured timeout. Without enough
+     * samples the configured timeout is used via {@link #getModifiedTimeout(IPortletDefinition,
+     * HttpServletRequest, long)}.
+     *
+     * @param portletDefinition
+     * @param request
+     * @param timeout The configured timeout
+     * @return
+     */
+    protected final long getAdaptiveTimeout(
+            IPortletDefinition portletDefinition, HttpServletRequest request, long timeout) {
+        if (this.adaptiveTimeoutMultiplier <= 0) {
+            return getModifiedTimeout(portletDefinition, request, timeout);
+        }
+
+        final PortletLatencyHistogram histogram =
+                this.renderLatencies.get(portletDefinition.getFName());
+        final PortletLatencyHistogram.Snapshot snapshot =
+                histogram.getSnapshot(System.currentTimeMillis());
+        if (snapshot.getCount() < Math.max(1, this.adaptiveTimeoutMinSamples)) {
+            return getModifiedTimeout(portletDefinition, request, timeout);
+        }
+
+        final long ceiling = Math.max(this.adaptiveTimeoutCeiling, timeout);
+        final long adaptiveTimeout =
+                (long) (snapshot.getPercentile(99) * this.adaptiveTimeoutMultiplier);
+        return Math.min(ceiling, Math.max(this.adaptiveTimeoutFloor, adaptiveTimeout));
+    }
+
     protected long getPortletActionTimeout(
             IPortletWindowId portletWindowId, HttpServletRequest request) {
         if (this.ignoreTimeouts) {
@@ -843,10 +1293,10 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer renderTimeout = portletDefinition.getRenderTimeout();
         if (renderTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, renderTimeout);
+            return getAdaptiveTimeout(portletDefinition, request, renderTimeout);
         }
 
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getAdaptiveTimeout(portletDefinition, request, portletDefinition.getTimeout());
     }
 
     protected long getPortletResourceTimeout(
@@ -1022,6 +1472,25 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     }
 
+    /**
+     * Returns a request attribute scoped queue that the ids of portlets are added to as they
+     * complete rendering their BODY output.
+     */
+    @SuppressWarnings("unchecked")
+    protected BlockingQueue<IPortletWindowId> getPortletRenderCompletionQueue(
+            HttpServletRequest request) {
+        synchronized (PortalWebUtils.getRequestAttributeMutex(request)) {
+            BlockingQueue<IPortletWindowId> completionQueue =
+                    (BlockingQueue<IPortletWindowId>)
+                            request.getAttribute(PORTLET_RENDER_COMPLETION_QUEUE);
+            if (completionQueue == null) {
+                completionQueue = new LinkedBlockingQueue<IPortletWindowId>();
+                request.setAttribute(PORTLET_RENDER_COMPLETION_QUEUE, completionQueue);
+            }
+            return completionQueue;
+        }
+    }
+
     /**
      * Null safe means for retrieving the {@link Map} from the specified session keyed by {@link
      * #SESSION_ATTRIBUTE__PORTLET_FAILURE_CAUSE_MAP}.
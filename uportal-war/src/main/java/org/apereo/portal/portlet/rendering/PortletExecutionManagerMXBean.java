@@ -15,6 +15,7 @@
 package org.apereo.portal.portlet.rendering;
 
 import java.util.Map;
+import java.util.Set;
 
 public interface PortletExecutionManagerMXBean {
 
@@ -53,4 +54,88 @@ public interface PortletExecutionManagerMXBean {
 
     /** @return Number of times each portlet has been executed */
     Map<String, Integer> getPortletExecutionCounts();
+
+    /**
+     * @param maxConcurrentExecutionsByFname Maximum number of concurrent executions for each
+     *     portlet fname, 0 for no limit
+     */
+    void setMaxConcurrentExecutionsByFname(int maxConcurrentExecutionsByFname);
+
+    /** @return Maximum number of concurrent executions for each portlet fname, 0 for no limit */
+    int getMaxConcurrentExecutionsByFname();
+
+    /**
+     * @param circuitBreakerFailureThreshold Number of consecutive timeouts that open a portlet's
+     *     circuit breaker, 0 to disable circuit breakers
+     */
+    void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold);
+
+    /**
+     * @return Number of consecutive timeouts that open a portlet's circuit breaker, 0 to disable
+     *     circuit breakers
+     */
+    int getCircuitBreakerFailureThreshold();
+
+    /**
+     * @param circuitBreakerOpenDuration Milliseconds an open circuit breaker rejects executions
+     *     before allowing a probe execution
+     */
+    void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration);
+
+    /**
+     * @return Milliseconds an open circuit breaker rejects executions before allowing a probe
+     *     execution
+     */
+    long getCircuitBreakerOpenDuration();
+
+    /** @return fnames of the portlets with an open circuit breaker */
+    Set<String> getOpenCircuitBreakers();
+
+    /** @return Number of rejected executions for each portlet */
+    Map<String, Integer> getPortletExecutionRejections();
+
+    /**
+     * @param adaptiveTimeoutMultiplier Multiplier applied to a portlet's p99 render latency to get
+     *     its render timeout, 0 to disable adaptive render timeouts
+     */
+    void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier);
+
+    /**
+     * @return Multiplier applied to a portlet's p99 render latency to get its render timeout, 0 to
+     *     disable adaptive render timeouts
+     */
+    double getAdaptiveTimeoutMultiplier();
+
+    /**
+     * @param adaptiveTimeoutMinSamples Number of renders in the latency window needed before the
+     *     adaptive render timeout is used
+     */
+    void setAdaptiveTimeoutMinSamples(int adaptiveTimeoutMinSamples);
+
+    /**
+     * @return Number of renders in the latency window needed before the adaptive render timeout is
+     *     used
+     */
+    int getAdaptiveTimeoutMinSamples();
+
+    /** @param adaptiveTimeoutFloor Smallest adaptive render timeout in milliseconds */
+    void setAdaptiveTimeoutFloor(long adaptiveTimeoutFloor);
+
+    /** @return Smallest adaptive render timeout in milliseconds */
+    long getAdaptiveTimeoutFloor();
+
+    /**
+     * @param adaptiveTimeoutCeiling Largest adaptive render timeout in milliseconds, portlets with
+     *     a larger configured timeout use that timeout as the ceiling
+     */
+    void setAdaptiveTimeoutCeiling(long adaptiveTimeoutCeiling);
+
+    /**
+     * @return Largest adaptive render timeout in milliseconds, portlets with a larger configured
+     *     timeout use that timeout as the ceiling
+     */
+    long getAdaptiveTimeoutCeiling();
+
+    /** @return Render latency percentiles over the sliding window for each portlet */
+    Map<String, String> getPortletRenderLatencies();
 }
@@ -0,0 +1,35 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+/**
+ * Thrown when a portlet execution is not submitted because the portlet's concurrent execution limit
+ * has been reached or its circuit breaker is open.
+ */
+public class PortletExecutionRejectedException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final String portletFname;
+
+    public PortletExecutionRejectedException(String portletFname, String message) {
+        super(message);
+        this.portletFname = portletFname;
+    }
+
+    /** @return The fname of the rejected portlet */
+    public String getPortletFname() {
+        return this.portletFname;
+    }
+}
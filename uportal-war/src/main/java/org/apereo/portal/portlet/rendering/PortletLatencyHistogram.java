@@ -0,0 +1,167 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Streaming latency histogram over a sliding time window. Latencies are counted in exponentially
+ * sized buckets so percentiles are accurate to within the bucket growth factor, the sliding window
+ * is made up of a ring of slots that are cleared as they are reused.
+ *
+ * <p>This class is thread safe, concurrent records racing with a slot rollover may be dropped which
+ * is acceptable for timeout estimation.
+ */
+class PortletLatencyHistogram {
+    private static final double BUCKET_GROWTH = 1.2;
+    private static final long MAX_LATENCY = 60 * 60 * 1000;
+    private static final long[] BUCKET_BOUNDS;
+
+    static {
+        //Upper bound of each bucket in ms: 1, 2, 3, 4, 5, 6, 8, 10, 12 ... up to MAX_LATENCY
+        final long[] bounds = new long[128];
+        int count = 0;
+        double bound = 1;
+        while ((long) bound < MAX_LATENCY) {
+            final long value = (long) Math.ceil(bound);
+            if (count == 0 || value > bounds[count - 1]) {
+                bounds[count++] = value;
+            }
+            bound *= BUCKET_GROWTH;
+        }
+        bounds[count++] = Long.MAX_VALUE;
+
+        BUCKET_BOUNDS = new long[count];
+        System.arraycopy(bounds, 0, BUCKET_BOUNDS, 0, count);
+    }
+
+    private final long slotDuration;
+    private final Slot[] slots;
+
+    /**
+     * @param windowDuration Length of the sliding window in milliseconds
+     * @param slotCount Number of slots the window is divided in to, more slots means the window
+     *     slides more smoothly
+     */
+    public PortletLatencyHistogram(long windowDuration, int slotCount) {
+        this.slotDuration = Math.max(1, windowDuration / slotCount);
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            this.slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param latency The latency in milliseconds
+     * @param now The current time in milliseconds
+     */
+    public void record(long latency, long now) {
+        final long epoch = now / this.slotDuration;
+        final Slot slot = this.slots[(int) (epoch % this.slots.length)];
+        if (slot.epoch != epoch) {
+            synchronized (slot) {
+                if (slot.epoch != epoch) {
+                    for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                        slot.counts.set(i, 0);
+                    }
+                    slot.epoch = epoch;
+                }
+            }
+        }
+
+        slot.counts.incrementAndGet(getBucket(latency));
+    }
+
+    /**
+     * @param now The current time in milliseconds
+     * @return Snapshot of the latencies recorded within the window
+     */
+    public Snapshot getSnapshot(long now) {
+        final long currentEpoch = now / this.slotDuration;
+        final long[] counts = new long[BUCKET_BOUNDS.length];
+        long total = 0;
+        for (final Slot slot : this.slots) {
+            final long epoch = slot.epoch;
+            if (epoch <= currentEpoch - this.slots.length || epoch > currentEpoch) {
+                //Slot is outside of the window
+                continue;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                final long count = slot.counts.get(i);
+                counts[i] += count;
+                total += count;
+            }
+        }
+        return new Snapshot(counts, total);
+    }
+
+    static int getBucket(long latency) {
+        int low = 0;
+        int high = BUCKET_BOUNDS.length - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (BUCKET_BOUNDS[mid] < latency) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class Slot {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS.length);
+        private volatile long epoch = Long.MIN_VALUE;
+    }
+
+    /** Point in time view of the histogram */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts, long count) {
+            this.counts = counts;
+            this.count = count;
+        }
+
+        /** @return Number of latencies recorded within the window */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @param percentile Percentile to return, between 0 and 100
+         * @return The upper bound of the bucket containing the percentile, -1 if no latencies have
+         *     been recorded
+         */
+        public long getPercentile(double percentile) {
+            if (this.count == 0) {
+                return -1;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(this.count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS[i], MAX_LATENCY);
+                }
+            }
+            return MAX_LATENCY;
+        }
+    }
+}
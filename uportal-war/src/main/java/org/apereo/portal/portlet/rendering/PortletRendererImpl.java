@@ -409,141 +409,157 @@ public class PortletRendererImpl implements IPortletRenderer {
                 renderPart.getCacheState(
                         this.portletCacheControlService, httpServletRequest, portletWindowId);
 
-        final IPortletWindow portletWindow =
-                this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
-
-        enforceConfigPermission(httpServletRequest, portletWindow);
-
-        /*
-         * If the portlet is rendering in EXCLUSIVE WindowState ignore the provided PortletOutputHandler and
-         * write directly to the response.
-         *
-         * THIS IS VERY BAD AND SHOULD BE DEPRECATED ALONG WITH EXCLUSIVE WINDOW STATE
-         */
-        if (EXCLUSIVE.equals(portletWindow.getWindowState())) {
-            portletOutputHandler = new ResourcePortletOutputHandler(httpServletResponse);
-        }
-
-        if (cacheState.isUseCachedData()) {
-            return doRenderReplayCachedContent(
-                    portletWindow,
-                    httpServletRequest,
-                    cacheState,
-                    portletOutputHandler,
-                    renderPart,
-                    0);
-        }
-
-        final int cacheSizeThreshold = this.portletCacheControlService.getCacheSizeThreshold();
-        final CachingPortletOutputHandler cachingPortletOutputHandler =
-                new CachingPortletOutputHandler(portletOutputHandler, cacheSizeThreshold);
+        CachingPortletOutputHandler cachingPortletOutputHandler = null;
+        try {
+            final IPortletWindow portletWindow =
+                    this.portletWindowRegistry.getPortletWindow(
+                            httpServletRequest, portletWindowId);
+
+            enforceConfigPermission(httpServletRequest, portletWindow);
+
+            /*
+             * If the portlet is rendering in EXCLUSIVE WindowState ignore the provided PortletOutputHandler and
+             * write directly to the response.
+             *
+             * THIS IS VERY BAD AND SHOULD BE DEPRECATED ALONG WITH EXCLUSIVE WINDOW STATE
+             */
+            if (EXCLUSIVE.equals(portletWindow.getWindowState())) {
+                portletOutputHandler = new ResourcePortletOutputHandler(httpServletResponse);
+            }
 
-        final CacheControl cacheControl = cacheState.getCacheControl();
+            if (cacheState.isUseCachedData()) {
+                return doRenderReplayCachedContent(
+                        portletWindow,
+                        httpServletRequest,
+                        cacheState,
+                        portletOutputHandler,
+                        renderPart,
+                        0);
+            }
 
-        //Setup the request and response
-        httpServletRequest = this.setupPortletRequest(httpServletRequest);
-        httpServletResponse =
-                new PortletMimeHttpServletResponseWrapper(
-                        httpServletResponse, portletWindow, portletOutputHandler, cacheControl);
+            final int cacheSizeThreshold = this.portletCacheControlService.getCacheSizeThreshold();
+            final int compressionThreshold =
+                    this.portletCacheControlService.getCompressionThreshold();
+            cachingPortletOutputHandler =
+                    new CachingPortletOutputHandler(
+                            portletOutputHandler, cacheSizeThreshold, compressionThreshold);
 
-        httpServletRequest.setAttribute(ATTRIBUTE__PORTLET_CACHE_CONTROL, cacheControl);
-        httpServletRequest.setAttribute(
-                ATTRIBUTE__PORTLET_OUTPUT_HANDLER, cachingPortletOutputHandler);
+            final CacheControl cacheControl = cacheState.getCacheControl();
 
-        logger.debug("Rendering portlet {} for window {}", renderPart.name(), portletWindow);
+            //Setup the request and response
+            httpServletRequest = this.setupPortletRequest(httpServletRequest);
+            httpServletResponse =
+                    new PortletMimeHttpServletResponseWrapper(
+                            httpServletResponse, portletWindow, portletOutputHandler, cacheControl);
 
-        final long renderStartTime = System.nanoTime();
-        try {
-            httpServletRequest.setAttribute(PortletRequest.RENDER_PART, renderPart.getRenderPart());
-            this.portletContainer.doRender(
-                    portletWindow.getPlutoPortletWindow(), httpServletRequest, httpServletResponse);
-        } catch (PortletException pe) {
-            throw new PortletDispatchException(
-                    "The portlet window '"
-                            + portletWindow
-                            + "' threw an exception while executing renderMarkup.",
-                    portletWindow,
-                    pe);
-        } catch (PortletContainerException pce) {
-            throw new PortletDispatchException(
-                    "The portlet container threw an exception while executing renderMarkup on portlet window '"
-                            + portletWindow
-                            + "'.",
-                    portletWindow,
-                    pce);
-        } catch (IOException ioe) {
-            throw new PortletDispatchException(
-                    "The portlet window '"
-                            + portletWindow
-                            + "' threw an exception while executing renderMarkup.",
-                    portletWindow,
-                    ioe);
-        }
+            httpServletRequest.setAttribute(ATTRIBUTE__PORTLET_CACHE_CONTROL, cacheControl);
+            httpServletRequest.setAttribute(
+                    ATTRIBUTE__PORTLET_OUTPUT_HANDLER, cachingPortletOutputHandler);
 
-        final long executionTime = System.nanoTime() - renderStartTime;
+            logger.debug("Rendering portlet {} for window {}", renderPart.name(), portletWindow);
 
-        //See if the portlet signaled to use the cached content
-        final boolean useCachedContent = cacheControl.useCachedContent();
-        if (useCachedContent) {
-            final CachedPortletData<PortletRenderResult> cachedPortletData =
-                    cacheState.getCachedPortletData();
-            if (cachedPortletData == null) {
+            final long renderStartTime = System.nanoTime();
+            try {
+                httpServletRequest.setAttribute(
+                        PortletRequest.RENDER_PART, renderPart.getRenderPart());
+                this.portletContainer.doRender(
+                        portletWindow.getPlutoPortletWindow(),
+                        httpServletRequest,
+                        httpServletResponse);
+            } catch (PortletException pe) {
+                throw new PortletDispatchException(
+                        "The portlet window '"
+                                + portletWindow
+                                + "' threw an exception while executing renderMarkup.",
+                        portletWindow,
+                        pe);
+            } catch (PortletContainerException pce) {
+                throw new PortletDispatchException(
+                        "The portlet container threw an exception while executing renderMarkup on portlet window '"
+                                + portletWindow
+                                + "'.",
+                        portletWindow,
+                        pce);
+            } catch (IOException ioe) {
                 throw new PortletDispatchException(
                         "The portlet window '"
                                 + portletWindow
-                                + "' indicated via CacheControl#useCachedContent "
-                                + "that the portal should render cached content, however there is no cached content to return. "
-                                + "This is a portlet bug.",
-                        portletWindow);
+                                + "' threw an exception while executing renderMarkup.",
+                        portletWindow,
+                        ioe);
             }
 
-            //Update the expiration time and re-store in the cache
-            cachedPortletData.updateExpirationTime(cacheControl.getExpirationTime());
+            final long executionTime = System.nanoTime() - renderStartTime;
 
-            renderPart.cachePortletOutput(
-                    portletCacheControlService,
-                    portletWindowId,
-                    httpServletRequest,
-                    cacheState,
-                    cachedPortletData);
-
-            return doRenderReplayCachedContent(
-                    portletWindow,
-                    httpServletRequest,
-                    cacheState,
-                    portletOutputHandler,
-                    renderPart,
-                    executionTime);
-        }
-
-        publishRenderEvent(portletWindow, httpServletRequest, renderPart, executionTime, false);
+            //See if the portlet signaled to use the cached content
+            final boolean useCachedContent = cacheControl.useCachedContent();
+            if (useCachedContent) {
+                final CachedPortletData<PortletRenderResult> cachedPortletData =
+                        cacheState.getCachedPortletData();
+                if (cachedPortletData == null) {
+                    throw new PortletDispatchException(
+                            "The portlet window '"
+                                    + portletWindow
+                                    + "' indicated via CacheControl#useCachedContent "
+                                    + "that the portal should render cached content, however there is no cached content to return. "
+                                    + "This is a portlet bug.",
+                            portletWindow);
+                }
 
-        //Build the render result
-        final PortletRenderResult portletRenderResult =
-                constructPortletRenderResult(httpServletRequest, executionTime);
+                //Update the expiration time and re-store in the cache
+                cachedPortletData.updateExpirationTime(cacheControl.getExpirationTime());
 
-        //Check if the portlet's output should be cached
-        if (cacheState != null) {
-            boolean shouldCache =
-                    this.portletCacheControlService.shouldOutputBeCached(cacheControl);
+                renderPart.cachePortletOutput(
+                        portletCacheControlService,
+                        portletWindowId,
+                        httpServletRequest,
+                        cacheState,
+                        cachedPortletData);
 
-            if (shouldCache) {
-                final CachedPortletData<PortletRenderResult> cachedPortletData =
-                        cachingPortletOutputHandler.getCachedPortletData(
-                                portletRenderResult, cacheControl);
+                return doRenderReplayCachedContent(
+                        portletWindow,
+                        httpServletRequest,
+                        cacheState,
+                        portletOutputHandler,
+                        renderPart,
+                        executionTime);
+            }
 
-                if (cachedPortletData != null) {
-                    renderPart.cachePortletOutput(
-                            portletCacheControlService,
-                            portletWindowId,
-                            httpServletRequest,
-                            cacheState,
-                            cachedPortletData);
+            publishRenderEvent(portletWindow, httpServletRequest, renderPart, executionTime, false);
+
+            //Build the render result
+            final PortletRenderResult portletRenderResult =
+                    constructPortletRenderResult(httpServletRequest, executionTime);
+
+            //Check if the portlet's output should be cached
+            if (cacheState != null) {
+                boolean shouldCache =
+                        this.portletCacheControlService.shouldOutputBeCached(cacheControl);
+
+                if (shouldCache) {
+                    final CachedPortletData<PortletRenderResult> cachedPortletData =
+                            cachingPortletOutputHandler.getCachedPortletData(
+                                    portletRenderResult, cacheControl);
+
+                    if (cachedPortletData != null) {
+                        renderPart.cachePortletOutput(
+                                portletCacheControlService,
+                                portletWindowId,
+                                httpServletRequest,
+                                cacheState,
+                                cachedPortletData);
+                    }
                 }
             }
-        }
 
-        return portletRenderResult;
+            return portletRenderResult;
+        } finally {
+            //Stop other requests from waiting on public output this request did not cache
+            this.portletCacheControlService.releaseRefreshLease(cacheState);
+            if (cachingPortletOutputHandler != null) {
+                cachingPortletOutputHandler.discardCachedOutput();
+            }
+        }
     }
 
     /**
@@ -643,124 +659,142 @@ public class PortletRendererImpl implements IPortletRenderer {
                 this.portletCacheControlService.getPortletResourceState(
                         httpServletRequest, portletWindowId);
 
-        final IPortletWindow portletWindow =
-                this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
-
-        enforceConfigPermission(httpServletRequest, portletWindow);
-
-        if (cacheState.isUseBrowserData()) {
-            logger.trace("doServeResource-Reusing browser data");
-            return doResourceReplayBrowserContent(
-                    portletWindow, httpServletRequest, cacheState, portletOutputHandler);
-        }
-
-        if (cacheState.isUseCachedData()) {
-            logger.trace("doServeResource-Reusing cached data");
-            return doResourceReplayCachedContent(
-                    portletWindow, httpServletRequest, cacheState, portletOutputHandler, 0);
-        }
+        CachingPortletResourceOutputHandler cachingPortletOutputHandler = null;
+        try {
+            final IPortletWindow portletWindow =
+                    this.portletWindowRegistry.getPortletWindow(
+                            httpServletRequest, portletWindowId);
 
-        final int cacheSizeThreshold = this.portletCacheControlService.getCacheSizeThreshold();
-        final CachingPortletResourceOutputHandler cachingPortletOutputHandler =
-                new CachingPortletResourceOutputHandler(portletOutputHandler, cacheSizeThreshold);
+            enforceConfigPermission(httpServletRequest, portletWindow);
 
-        CacheControl cacheControl = cacheState.getCacheControl();
-        //Wrap the cache control so it immediately sets the caching related response headers
-        cacheControl = new HeaderSettingCacheControl(cacheControl, cachingPortletOutputHandler);
+            if (cacheState.isUseBrowserData()) {
+                logger.trace("doServeResource-Reusing browser data");
+                return doResourceReplayBrowserContent(
+                        portletWindow, httpServletRequest, cacheState, portletOutputHandler);
+            }
 
-        //Setup the request and response
-        httpServletRequest = this.setupPortletRequest(httpServletRequest);
-        httpServletResponse =
-                new PortletResourceHttpServletResponseWrapper(
-                        httpServletResponse, portletWindow, portletOutputHandler, cacheControl);
+            if (cacheState.isUseCachedData()) {
+                logger.trace("doServeResource-Reusing cached data");
+                return doResourceReplayCachedContent(
+                        portletWindow, httpServletRequest, cacheState, portletOutputHandler, 0);
+            }
 
-        httpServletRequest.setAttribute(ATTRIBUTE__PORTLET_CACHE_CONTROL, cacheControl);
-        httpServletRequest.setAttribute(
-                ATTRIBUTE__PORTLET_OUTPUT_HANDLER, cachingPortletOutputHandler);
+            final int cacheSizeThreshold = this.portletCacheControlService.getCacheSizeThreshold();
+            final int compressionThreshold =
+                    this.portletCacheControlService.getCompressionThreshold();
+            cachingPortletOutputHandler =
+                    new CachingPortletResourceOutputHandler(
+                            portletOutputHandler, cacheSizeThreshold, compressionThreshold);
 
-        this.logger.debug("Executing resource request for window {}", portletWindow);
+            CacheControl cacheControl = cacheState.getCacheControl();
+            //Wrap the cache control so it immediately sets the caching related response headers
+            cacheControl = new HeaderSettingCacheControl(cacheControl, cachingPortletOutputHandler);
 
-        final long start = System.nanoTime();
-        try {
-            this.portletContainer.doServeResource(
-                    portletWindow.getPlutoPortletWindow(), httpServletRequest, httpServletResponse);
-        } catch (PortletException pe) {
-            throw new PortletDispatchException(
-                    "The portlet window '"
-                            + portletWindow
-                            + "' threw an exception while executing serveResource.",
-                    portletWindow,
-                    pe);
-        } catch (PortletContainerException pce) {
-            throw new PortletDispatchException(
-                    "The portlet container threw an exception while executing serveResource on portlet window '"
-                            + portletWindow
-                            + "'.",
-                    portletWindow,
-                    pce);
-        } catch (IOException ioe) {
-            throw new PortletDispatchException(
-                    "The portlet window '"
-                            + portletWindow
-                            + "' threw an exception while executing serveResource.",
-                    portletWindow,
-                    ioe);
-        }
-        final long executionTime = System.nanoTime() - start;
+            //Setup the request and response
+            httpServletRequest = this.setupPortletRequest(httpServletRequest);
+            httpServletResponse =
+                    new PortletResourceHttpServletResponseWrapper(
+                            httpServletResponse, portletWindow, portletOutputHandler, cacheControl);
 
-        //See if the portlet signaled to use the cached content
-        final boolean useCachedContent = cacheControl.useCachedContent();
-        if (useCachedContent) {
-            final CachedPortletResourceData<Long> cachedPortletResourceData =
-                    cacheState.getCachedPortletData();
+            httpServletRequest.setAttribute(ATTRIBUTE__PORTLET_CACHE_CONTROL, cacheControl);
+            httpServletRequest.setAttribute(
+                    ATTRIBUTE__PORTLET_OUTPUT_HANDLER, cachingPortletOutputHandler);
 
-            if (cachedPortletResourceData != null) {
-                //Update the expiration time and re-store in the cache
-                final CachedPortletData<Long> cachedPortletData =
-                        cachedPortletResourceData.getCachedPortletData();
-                cachedPortletData.updateExpirationTime(cacheControl.getExpirationTime());
-                this.portletCacheControlService.cachePortletResourceOutput(
-                        portletWindowId, httpServletRequest, cacheState, cachedPortletResourceData);
-            }
+            this.logger.debug("Executing resource request for window {}", portletWindow);
 
-            if (cacheState.isBrowserSetEtag()) {
-                logger.trace("doServeResource-useCachedContent, Reusing browser data");
-                //Browser-side content matches, send a 304
-                return doResourceReplayBrowserContent(
-                        portletWindow, httpServletRequest, cacheState, portletOutputHandler);
+            final long start = System.nanoTime();
+            try {
+                this.portletContainer.doServeResource(
+                        portletWindow.getPlutoPortletWindow(),
+                        httpServletRequest,
+                        httpServletResponse);
+            } catch (PortletException pe) {
+                throw new PortletDispatchException(
+                        "The portlet window '"
+                                + portletWindow
+                                + "' threw an exception while executing serveResource.",
+                        portletWindow,
+                        pe);
+            } catch (PortletContainerException pce) {
+                throw new PortletDispatchException(
+                        "The portlet container threw an exception while executing serveResource on portlet window '"
+                                + portletWindow
+                                + "'.",
+                        portletWindow,
+                        pce);
+            } catch (IOException ioe) {
+                throw new PortletDispatchException(
+                        "The portlet window '"
+                                + portletWindow
+                                + "' threw an exception while executing serveResource.",
+                        portletWindow,
+                        ioe);
             }
-            logger.trace("doServeResource-useCachedContent, Reusing cached data");
+            final long executionTime = System.nanoTime() - start;
 
-            return doResourceReplayCachedContent(
-                    portletWindow,
-                    httpServletRequest,
-                    cacheState,
-                    cachingPortletOutputHandler,
-                    executionTime);
-        }
-
-        publishResourceEvent(portletWindow, httpServletRequest, executionTime, false, false);
-
-        if (cacheState != null) {
-            boolean shouldCache =
-                    this.portletCacheControlService.shouldOutputBeCached(cacheControl);
-
-            if (shouldCache) {
+            //See if the portlet signaled to use the cached content
+            final boolean useCachedContent = cacheControl.useCachedContent();
+            if (useCachedContent) {
                 final CachedPortletResourceData<Long> cachedPortletResourceData =
-                        cachingPortletOutputHandler.getCachedPortletResourceData(
-                                executionTime, cacheControl);
+                        cacheState.getCachedPortletData();
 
                 if (cachedPortletResourceData != null) {
+                    //Update the expiration time and re-store in the cache
+                    final CachedPortletData<Long> cachedPortletData =
+                            cachedPortletResourceData.getCachedPortletData();
+                    cachedPortletData.updateExpirationTime(cacheControl.getExpirationTime());
                     this.portletCacheControlService.cachePortletResourceOutput(
                             portletWindowId,
                             httpServletRequest,
                             cacheState,
                             cachedPortletResourceData);
                 }
+
+                if (cacheState.isBrowserSetEtag()) {
+                    logger.trace("doServeResource-useCachedContent, Reusing browser data");
+                    //Browser-side content matches, send a 304
+                    return doResourceReplayBrowserContent(
+                            portletWindow, httpServletRequest, cacheState, portletOutputHandler);
+                }
+                logger.trace("doServeResource-useCachedContent, Reusing cached data");
+
+                return doResourceReplayCachedContent(
+                        portletWindow,
+                        httpServletRequest,
+                        cacheState,
+                        cachingPortletOutputHandler,
+                        executionTime);
             }
-        }
 
-        return executionTime;
+            publishResourceEvent(portletWindow, httpServletRequest, executionTime, false, false);
+
+            if (cacheState != null) {
+                boolean shouldCache =
+                        this.portletCacheControlService.shouldOutputBeCached(cacheControl);
+
+                if (shouldCache) {
+                    final CachedPortletResourceData<Long> cachedPortletResourceData =
+                            cachingPortletOutputHandler.getCachedPortletResourceData(
+                                    executionTime, cacheControl);
+
+                    if (cachedPortletResourceData != null) {
+                        this.portletCacheControlService.cachePortletResourceOutput(
+                                portletWindowId,
+                                httpServletRequest,
+                                cacheState,
+                                cachedPortletResourceData);
+                    }
+                }
+            }
+
+            return executionTime;
+        } finally {
+            //Stop other requests from waiting on public output this request did not cache
+            this.portletCacheControlService.releaseRefreshLease(cacheState);
+            if (cachingPortletOutputHandler != null) {
+                cachingPortletOutputHandler.discardCachedOutput();
+            }
+        }
     }
 
     protected long doResourceReplayBrowserContent(
@@ -828,7 +862,11 @@ public class PortletRendererImpl implements IPortletRenderer {
                     portletWindow);
         }
 
-        cachedPortletResourceData.replay(portletOutputHandler);
+        //Send the pre-compressed variant to clients that accept it
+        final boolean gzipAccepted =
+                PortletCachingHeaderUtils.isGzipAccepted(
+                        httpServletRequest.getHeader("Accept-Encoding"));
+        cachedPortletResourceData.replay(portletOutputHandler, gzipAccepted);
 
         final long executionTime = baseExecutionTime + (System.nanoTime() - renderStartTime);
 
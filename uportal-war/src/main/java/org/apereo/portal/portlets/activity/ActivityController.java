@@ -27,16 +27,11 @@ import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.action.SearchRequestAggregation;
 import org.apereo.portal.events.aggr.action.SearchRequestAggregationDao;
 import org.apereo.portal.events.aggr.action.SearchRequestAggregationImpl;
-import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregation;
-import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregationDao;
-import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregationKey;
-import org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregationKeyImpl;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupLookupDao;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
-import org.apereo.portal.events.aggr.login.LoginAggregation;
-import org.apereo.portal.events.aggr.login.LoginAggregationDao;
-import org.apereo.portal.events.aggr.login.LoginAggregationKey;
-import org.apereo.portal.events.aggr.login.LoginAggregationKeyImpl;
+import org.apereo.portal.events.aggr.rollup.AggregationRollupStore;
+import org.apereo.portal.events.aggr.rollup.RollupKey;
+import org.apereo.portal.events.aggr.rollup.RollupMetric;
 import org.apereo.portal.groups.IEntityGroup;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.services.GroupService;
@@ -70,8 +65,7 @@ public class ActivityController {
 
     private AggregatedGroupLookupDao aggregatedGroupLookupDao;
     private SearchRequestAggregationDao<SearchRequestAggregation> searchRequestAggregationDao;
-    private ConcurrentUserAggregationDao<ConcurrentUserAggregation> concurrentUserAggregationDao;
-    private LoginAggregationDao<LoginAggregation> loginAggregationDao;
+    private AggregationRollupStore aggregationRollupStore;
 
     @Autowired
     public void setAggregatedGroupLookupDao(AggregatedGroupLookupDao aggregatedGroupLookupDao) {
@@ -85,14 +79,8 @@ public class ActivityController {
     }
 
     @Autowired
-    public void setConcurrentUserAggregationDao(
-            ConcurrentUserAggregationDao<ConcurrentUserAggregation> concurrentUserAggregationDao) {
-        this.concurrentUserAggregationDao = concurrentUserAggregationDao;
-    }
-
-    @Autowired
-    public void setLoginAggregationDao(LoginAggregationDao<LoginAggregation> loginAggregationDao) {
-        this.loginAggregationDao = loginAggregationDao;
+    public void setAggregationRollupStore(AggregationRollupStore aggregationRollupStore) {
+        this.aggregationRollupStore = aggregationRollupStore;
     }
 
     @RenderMapping
@@ -170,72 +158,45 @@ public class ActivityController {
         int absTotal = 0;
         int subTotal = 0;
 
+        // NB:  We only care about the most recent entry (??)
+        final Map<RollupKey, Long> groupValues;
         switch (timeframe) {
             case NOW:
-                for (AggregatedGroupMapping group :
-                        concurrentUserAggregationDao.getAggregatedGroupMappings()) {
-
-                    ConcurrentUserAggregationKey key =
-                            new ConcurrentUserAggregationKeyImpl(interval, group);
-                    final List<ConcurrentUserAggregation> aggregations =
-                            concurrentUserAggregationDao.getAggregations(begin, end, key);
-
-                    // NB:  We only care about the most recent entry (??)
-                    if (aggregations.size() != 0) {
-                        final ConcurrentUserAggregation aggregation = aggregations.get(0);
-                        int groupTotal = aggregation.getConcurrentUsers();
-                        absTotal += aggregation.getConcurrentUsers();
-                        if (group.getGroupName().equalsIgnoreCase(masterGroup)) {
-                            masterTotal = groupTotal;
-                        } else {
-                            subTotal += groupTotal;
-                        }
-
-                        if (!group.getGroupName().equals(masterGroup)) {
-                            if (displayGroups.isEmpty()
-                                    || displayGroups.contains(group.getGroupName())) {
-                                final PortalGroupActivity groupActivity =
-                                        new PortalGroupActivity(group.getGroupName(), groupTotal);
-                                groupActivities.add(groupActivity);
-                            }
-                        }
-                    }
-                }
+                groupValues =
+                        aggregationRollupStore.getLatestValues(
+                                RollupMetric.CONCURRENT_USERS, interval, begin, end);
                 break;
             default:
                 String uniqueLoginsPref =
                         prefs.getValue(PREFERENCE_UNIQUE_LOGINS, DEFAULT_PREFERENCE_UNIQUE_LOGINS);
                 Boolean uniqueLogins = Boolean.valueOf(uniqueLoginsPref);
 
-                for (AggregatedGroupMapping group :
-                        loginAggregationDao.getAggregatedGroupMappings()) {
-
-                    final LoginAggregationKey key = new LoginAggregationKeyImpl(interval, group);
-                    final List<LoginAggregation> aggregations =
-                            loginAggregationDao.getAggregations(begin, end, key);
+                groupValues =
+                        aggregationRollupStore.getLatestValues(
+                                uniqueLogins ? RollupMetric.UNIQUE_LOGINS : RollupMetric.LOGINS,
+                                interval,
+                                begin,
+                                end);
+                break;
+        }
 
-                    // NB:  We only care about the most recent entry (??)
-                    if (aggregations.size() != 0) {
-                        final LoginAggregation aggregation = aggregations.get(0);
-                        int groupTotal = getAggregationLoginCount(aggregation, uniqueLogins);
-                        absTotal += groupTotal;
-                        if (group.getGroupName().equalsIgnoreCase(masterGroup)) {
-                            masterTotal = groupTotal;
-                        } else {
-                            subTotal += groupTotal;
-                        }
+        for (final Map.Entry<RollupKey, Long> groupValue : groupValues.entrySet()) {
+            final AggregatedGroupMapping group = groupValue.getKey().getAggregatedGroup();
+            final int groupTotal = groupValue.getValue().intValue();
+            absTotal += groupTotal;
+            if (group.getGroupName().equalsIgnoreCase(masterGroup)) {
+                masterTotal = groupTotal;
+            } else {
+                subTotal += groupTotal;
+            }
 
-                        if (!group.getGroupName().equals(masterGroup)) {
-                            if (displayGroups.isEmpty()
-                                    || displayGroups.contains(group.getGroupName())) {
-                                PortalGroupActivity groupActivity =
-                                        new PortalGroupActivity(group.getGroupName(), groupTotal);
-                                groupActivities.add(groupActivity);
-                            }
-                        }
-                    }
+            if (!group.getGroupName().equals(masterGroup)) {
+                if (displayGroups.isEmpty() || displayGroups.contains(group.getGroupName())) {
+                    final PortalGroupActivity groupActivity =
+                            new PortalGroupActivity(group.getGroupName(), groupTotal);
+                    groupActivities.add(groupActivity);
                 }
-                break;
+            }
         }
 
         if (displayOther) {
@@ -277,8 +238,4 @@ public class ActivityController {
         Collections.reverse(results);
         return results.size() > 10 ? results.subList(0, 9) : results;
     }
-
-    private int getAggregationLoginCount(LoginAggregation aggregation, boolean unique) {
-        return unique ? aggregation.getUniqueLoginCount() : aggregation.getLoginCount();
-    }
 }
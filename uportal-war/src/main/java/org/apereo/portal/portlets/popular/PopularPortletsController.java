@@ -27,9 +27,9 @@ import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupLookupDao;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
-import org.apereo.portal.events.aggr.portletlayout.PortletLayoutAggregation;
-import org.apereo.portal.events.aggr.portletlayout.PortletLayoutAggregationDao;
-import org.apereo.portal.events.aggr.portlets.AggregatedPortletMapping;
+import org.apereo.portal.events.aggr.rollup.AggregationRollupStore;
+import org.apereo.portal.events.aggr.rollup.RollupKey;
+import org.apereo.portal.events.aggr.rollup.RollupMetric;
 import org.apereo.portal.groups.IEntityGroup;
 import org.apereo.portal.portlet.dao.IPortletDefinitionDao;
 import org.apereo.portal.portlet.om.IPortletDefinition;
@@ -68,7 +68,7 @@ public class PopularPortletsController {
 
     private IPersonManager personManager;
     private IPortalRequestUtils portalRequestUtils;
-    private PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutDao;
+    private AggregationRollupStore aggregationRollupStore;
     private AggregatedGroupLookupDao aggregatedGroupLookupDao;
     private IPortletDefinitionDao portletDefinitionDao;
 
@@ -93,9 +93,8 @@ public class PopularPortletsController {
     }
 
     @Autowired
-    public void setPortletLayoutDao(
-            PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutDao) {
-        this.portletLayoutDao = portletLayoutDao;
+    public void setAggregationRollupStore(AggregationRollupStore aggregationRollupStore) {
+        this.aggregationRollupStore = aggregationRollupStore;
     }
 
     @RenderMapping
@@ -128,9 +127,9 @@ public class PopularPortletsController {
         final IEntityGroup everyone = GroupService.getRootGroup(IPerson.class);
         final AggregatedGroupMapping group =
                 aggregatedGroupLookupDao.getGroupMapping(everyone.getKey());
-        final List<PortletLayoutAggregation> aggregations =
-                portletLayoutDao.getAggregationsForAllPortlets(
-                        begin, end, AGGREGATION_INTERVAL, group);
+        final Map<RollupKey, Long> addCounts =
+                aggregationRollupStore.getTotals(
+                        RollupMetric.PORTLET_ADDS, AGGREGATION_INTERVAL, begin, end);
 
         final EntityIdentifier ei = user.getEntityIdentifier();
         final AuthorizationService authService = AuthorizationService.instance();
@@ -138,9 +137,13 @@ public class PopularPortletsController {
 
         final Map<String, PortletUsage> resultBuilder = new HashMap<String, PortletUsage>();
 
-        for (final PortletLayoutAggregation aggregation : aggregations) {
-            final AggregatedPortletMapping portlet = aggregation.getPortletMapping();
-            final String fname = portlet.getFname();
+        for (final Map.Entry<RollupKey, Long> addCount : addCounts.entrySet()) {
+            final RollupKey key = addCount.getKey();
+            if (!group.equals(key.getAggregatedGroup())) {
+                continue;
+            }
+
+            final String fname = key.getFname();
             PortletUsage portletUsage = resultBuilder.get(fname);
             if (portletUsage == null) {
                 final IPortletDefinition portletDefinition =
@@ -163,7 +166,7 @@ public class PopularPortletsController {
                 resultBuilder.put(fname, portletUsage);
             }
 
-            portletUsage.incrementCount(aggregation.getAddCount());
+            portletUsage.incrementCount(addCount.getValue().intValue());
         }
 
         final ArrayList<PortletUsage> results = new ArrayList<PortletUsage>(resultBuilder.values());
@@ -0,0 +1,38 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.statistics;
+
+/** Report form for aggregations that track timing, selects the count and/or percentile columns */
+public abstract class BaseTimedReportForm extends BaseReportForm {
+
+    private boolean totalCount = true;
+    private boolean percentiles = false;
+
+    public final boolean isTotalCount() {
+        return totalCount;
+    }
+
+    public final void setTotalCount(boolean totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public final boolean isPercentiles() {
+        return percentiles;
+    }
+
+    public final void setPercentiles(boolean percentiles) {
+        this.percentiles = percentiles;
+    }
+}
@@ -16,9 +16,7 @@ package org.apereo.portal.portlets.statistics;
 
 import com.google.visualization.datasource.base.TypeMismatchException;
 import com.google.visualization.datasource.datatable.ColumnDescription;
-import com.google.visualization.datasource.datatable.value.NumberValue;
 import com.google.visualization.datasource.datatable.value.Value;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -223,13 +221,15 @@ public class TabRenderStatisticsController
                             groupName, form.getGroups().size())
                 };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(
-                items, showFullColumnHeaderDescriptions(form), form);
+        return TimedReportColumns.getColumnDescriptions(
+                titleAndColumnDescriptionStrategy.getColumnDescriptions(
+                        items, showFullColumnHeaderDescriptions(form), form),
+                form);
     }
 
     @Override
     protected List<Value> createRowValues(TabRenderAggregation aggr, TabRenderReportForm form) {
         int count = aggr != null ? aggr.getRenderCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        return TimedReportColumns.createRowValues(count, aggr, form);
     }
 }
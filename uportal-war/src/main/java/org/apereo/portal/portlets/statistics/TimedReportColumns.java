@@ -0,0 +1,86 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlets.statistics;
+
+import com.google.visualization.datasource.datatable.ColumnDescription;
+import com.google.visualization.datasource.datatable.value.NumberValue;
+import com.google.visualization.datasource.datatable.value.Value;
+import com.google.visualization.datasource.datatable.value.ValueType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.events.aggr.TimedAggregationPercentiles;
+
+/**
+ * Builds the count and percentile columns for reports on timed aggregations. Percentiles are
+ * reported in milliseconds.
+ */
+final class TimedReportColumns {
+    /** Percentiles charted when {@link BaseTimedReportForm#isPercentiles()} is selected */
+    static final double[] PERCENTILES = {50, 95, 99};
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private TimedReportColumns() {}
+
+    /**
+     * @param countColumns The column(s) for the count of the report column discriminator
+     * @return The columns to include for the report column discriminator, in the same order as
+     *     {@link #createRowValues(int, TimedAggregationPercentiles, BaseTimedReportForm)}
+     */
+    static List<ColumnDescription> getColumnDescriptions(
+            List<ColumnDescription> countColumns, BaseTimedReportForm form) {
+        if (!form.isPercentiles()) {
+            return countColumns;
+        }
+
+        final List<ColumnDescription> columns = new ArrayList<ColumnDescription>();
+        if (form.isTotalCount()) {
+            columns.addAll(countColumns);
+        }
+        for (final ColumnDescription countColumn : countColumns) {
+            for (final double percentile : PERCENTILES) {
+                final String name = "p" + (int) percentile;
+                columns.add(
+                        new ColumnDescription(
+                                countColumn.getId() + "-" + name,
+                                ValueType.NUMBER,
+                                countColumn.getLabel() + " - " + name + " (ms)"));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param count The count for the aggregation
+     * @param aggr The aggregation, null if there is no data for the row
+     * @return The values for the columns returned by {@link #getColumnDescriptions(List,
+     *     BaseTimedReportForm)}
+     */
+    static List<Value> createRowValues(
+            int count, TimedAggregationPercentiles aggr, BaseTimedReportForm form) {
+        final List<Value> values = new ArrayList<Value>(1 + PERCENTILES.length);
+        if (form.isTotalCount() || !form.isPercentiles()) {
+            values.add(new NumberValue(count));
+        }
+        if (form.isPercentiles()) {
+            for (final double percentile : PERCENTILES) {
+                final double value = aggr != null ? aggr.getPercentile(percentile) : Double.NaN;
+                values.add(new NumberValue(Double.isNaN(value) ? 0 : value / NANOS_PER_MILLI));
+            }
+        }
+        return values;
+    }
+}
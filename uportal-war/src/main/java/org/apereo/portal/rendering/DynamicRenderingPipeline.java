@@ -17,6 +17,7 @@ package org.apereo.portal.rendering;
 import java.io.IOException;
 import java.io.PrintWriter;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.OutputKeys;
@@ -81,7 +82,10 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         final String contentType = mediaType + "; charset=" + CHARACTER_SET;
         res.setContentType(contentType);
 
-        final PrintWriter writer = res.getWriter();
+        //Writes are coalesced by the response buffer, the incorporation of portlet content flushes
+        //the response before blocking on a portlet that has not finished rendering
+        final ServletOutputStream outputStream = getUtf8OutputStream(res);
+        final PrintWriter writer = outputStream == null ? res.getWriter() : null;
 
         for (final CharacterEvent event : pipelineEventReader) {
             if (CharacterEventTypes.CHARACTER != event.getEventType()) {
@@ -93,11 +97,17 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
                                 + " is not supported.");
             }
 
-            final String data = ((CharacterDataEvent) event).getData();
-            writer.print(data);
+            final CharacterDataEvent dataEvent = (CharacterDataEvent) event;
+            if (outputStream != null) {
+                outputStream.write(dataEvent.getUtf8Data());
+            } else {
+                writer.write(dataEvent.getData());
+            }
+        }
+        if (writer != null) {
             writer.flush();
-            res.flushBuffer();
         }
+        res.flushBuffer();
 
         final long executionTime = System.nanoTime() - startTime;
         final IPortalRequestInfo portalRequestInfo =
@@ -106,6 +116,29 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
                 req, this, req.getPathInfo(), executionTime, portalRequestInfo);
     }
 
+    /**
+     * The pre-encoded character data can only be written to the output stream if the response
+     * actually uses UTF-8 and nothing has obtained the response writer yet.
+     *
+     * @return The response output stream, null if the response writer must be used
+     */
+    protected ServletOutputStream getUtf8OutputStream(HttpServletResponse res) throws IOException {
+        if (!CHARACTER_SET.equalsIgnoreCase(res.getCharacterEncoding())) {
+            this.logger.debug(
+                    "Response character encoding is {}, writing character data to the response writer",
+                    res.getCharacterEncoding());
+            return null;
+        }
+
+        try {
+            return res.getOutputStream();
+        } catch (IllegalStateException e) {
+            this.logger.debug(
+                    "The response writer is already in use, writing character data to it", e);
+            return null;
+        }
+    }
+
     /** Determine the media type to use for the response */
     protected String getMediaType(
             HttpServletRequest req,
@@ -130,7 +130,7 @@ public class PortletDefinitionAttributeSource implements AttributeSource, BeanNa
         for (final IPortletWindow portletWindow : portletWindows) {
             if (portletWindow != null) {
                 final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
-                cacheKeyBuilder.add(portletWindowId);
+                cacheKeyBuilder.add(portletWindowId.getStringId());
             } else {
                 this.logger.warn(
                         "portletWindowRegistry#getAllLayoutPortletWindows() returned a null portletWindow");
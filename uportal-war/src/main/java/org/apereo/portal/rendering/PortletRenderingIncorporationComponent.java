@@ -14,19 +14,33 @@
  */
 package org.apereo.portal.rendering;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.CharacterEventReaderDelegate;
 import org.apereo.portal.character.stream.FilteringCharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
 import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
 import org.apereo.portal.character.stream.events.PortletContentPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletHeaderPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletLinkPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletNewItemCountPlaceholderEvent;
+import org.apereo.portal.character.stream.events.PortletPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletTitlePlaceholderEvent;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletWindow;
 import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,15 +48,40 @@ import org.springframework.beans.factory.annotation.Autowired;
 /**
  * Inserts the results of portlet's rendering into the character stream
  *
+ * <p>If {@link #setStreamPortletContent(boolean)} is enabled portlet content that is not yet
+ * available when its placeholder is reached is not waited on. An empty slot element is written in
+ * its place and the content is written, in the order the portlets complete, just before the closing
+ * body tag along with a small script that moves it into the slot. This lets the page skeleton and
+ * all fast portlets reach the browser without waiting for the slowest portlet on the page.
  */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    private static final String BODY_END_TAG = "</body>";
+    private static final String SLOT_ID_PREFIX = "up-portlet-slot-";
+    private static final String STREAMED_CONTENT_ID_PREFIX = "up-portlet-stream-";
+
     private IPortletExecutionManager portletExecutionManager;
+    private IPortletWindowRegistry portletWindowRegistry;
+    private boolean streamPortletContent = false;
 
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
     }
 
+    @Autowired
+    public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
+        this.portletWindowRegistry = portletWindowRegistry;
+    }
+
+    /**
+     * @param streamPortletContent If portlet content that has not completed rendering should be
+     *     written out of order once it completes instead of blocking the rest of the page. Defaults
+     *     to false.
+     */
+    public void setStreamPortletContent(boolean streamPortletContent) {
+        this.streamPortletContent = streamPortletContent;
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -65,14 +104,190 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                 this.wrappedComponent.getEventReader(request, response);
 
         final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
-        final PortletIncorporatingEventReader portletIncorporatingEventReader =
-                new PortletIncorporatingEventReader(eventReader, request, response);
+        final CharacterEventReader portletIncorporatingEventReader;
+        if (this.streamPortletContent) {
+            portletIncorporatingEventReader =
+                    new StreamingPortletIncorporatingEventReader(eventReader, request, response);
+        } else {
+            portletIncorporatingEventReader =
+                    new PortletIncorporatingEventReader(eventReader, request, response);
+        }
 
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
         return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
                 portletIncorporatingEventReader, outputProperties);
     }
 
+    /**
+     * Replaces a portlet placeholder event with the corresponding portlet output, blocking until
+     * the output is available. Non-placeholder events are returned as-is.
+     */
+    protected CharacterEvent incorporatePortletEvent(
+            CharacterEvent event, HttpServletRequest request, HttpServletResponse response) {
+        switch (event.getEventType()) {
+            case PORTLET_HEADER:
+                {
+                    final PortletHeaderPlaceholderEvent headerPlaceholderEvent =
+                            (PortletHeaderPlaceholderEvent) event;
+                    final IPortletWindowId portletWindowId =
+                            headerPlaceholderEvent.getPortletWindowId();
+
+                    final String output =
+                            portletExecutionManager.getPortletHeadOutput(
+                                    portletWindowId, request, response);
+
+                    return CharacterDataEventImpl.create(output);
+                }
+            case PORTLET_CONTENT:
+                {
+                    final PortletContentPlaceholderEvent contentPlaceholderEvent =
+                            (PortletContentPlaceholderEvent) event;
+                    final IPortletWindowId portletWindowId =
+                            contentPlaceholderEvent.getPortletWindowId();
+
+                    flushBeforeWaiting(Collections.singleton(portletWindowId), request, response);
+                    final String output =
+                            portletExecutionManager.getPortletOutput(
+                                    portletWindowId, request, response);
+
+                    return CharacterDataEventImpl.create(output);
+                }
+            case PORTLET_TITLE:
+                {
+                    final PortletTitlePlaceholderEvent titlePlaceholderEvent =
+                            (PortletTitlePlaceholderEvent) event;
+                    final IPortletWindowId portletWindowId =
+                            titlePlaceholderEvent.getPortletWindowId();
+
+                    final String title =
+                            portletExecutionManager.getPortletTitle(
+                                    portletWindowId, request, response);
+
+                    return CharacterDataEventImpl.create(title);
+                }
+            case PORTLET_NEW_ITEM_COUNT:
+                {
+                    final PortletNewItemCountPlaceholderEvent newItemCountPlaceholderEvent =
+                            (PortletNewItemCountPlaceholderEvent) event;
+                    final IPortletWindowId portletWindowId =
+                            newItemCountPlaceholderEvent.getPortletWindowId();
+
+                    final int newItemCount =
+                            portletExecutionManager.getPortletNewItemCount(
+                                    portletWindowId, request, response);
+
+                    return CharacterDataEventImpl.create(String.valueOf(newItemCount));
+                }
+            case PORTLET_LINK:
+                {
+                    final PortletLinkPlaceholderEvent linkPlaceholderEvent =
+                            (PortletLinkPlaceholderEvent) event;
+                    final IPortletWindowId portletWindowId =
+                            linkPlaceholderEvent.getPortletWindowId();
+                    final String defaultPortletUrl = linkPlaceholderEvent.getDefaultPortletUrl();
+
+                    final String link =
+                            portletExecutionManager.getPortletLink(
+                                    portletWindowId, defaultPortletUrl, request, response);
+
+                    return CharacterDataEventImpl.create(link);
+                }
+            default:
+                {
+                    return event;
+                }
+        }
+    }
+
+    /**
+     * Same as {@link #incorporatePortletEvent(CharacterEvent, HttpServletRequest,
+     * HttpServletResponse)} except that values which depend on the portlet's render result (title,
+     * new item count and link) fall back to their static values if the render has not completed.
+     */
+    protected CharacterEvent incorporatePortletEventWithoutWaiting(
+            CharacterEvent event, HttpServletRequest request, HttpServletResponse response) {
+        switch (event.getEventType()) {
+            case PORTLET_TITLE:
+            case PORTLET_NEW_ITEM_COUNT:
+            case PORTLET_LINK:
+                {
+                    final IPortletWindowId portletWindowId =
+                            ((PortletPlaceholderEvent) event).getPortletWindowId();
+                    if (portletExecutionManager.isPortletRenderComplete(
+                            portletWindowId, request, response)) {
+                        return incorporatePortletEvent(event, request, response);
+                    }
+
+                    return getStaticPortletEvent(event, portletWindowId, request, response);
+                }
+            default:
+                {
+                    return incorporatePortletEvent(event, request, response);
+                }
+        }
+    }
+
+    private CharacterEvent getStaticPortletEvent(
+            CharacterEvent event,
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        switch (event.getEventType()) {
+            case PORTLET_TITLE:
+                {
+                    final IPortletWindow portletWindow =
+                            portletWindowRegistry.getPortletWindow(request, portletWindowId);
+                    final IPortletDefinition portletDefinition =
+                            portletWindow.getPortletEntity().getPortletDefinition();
+
+                    // we assume that response locale has been set to correct value
+                    final String locale = response.getLocale().toString();
+                    return CharacterDataEventImpl.create(portletDefinition.getTitle(locale));
+                }
+            case PORTLET_NEW_ITEM_COUNT:
+                {
+                    return CharacterDataEventImpl.create("0");
+                }
+            case PORTLET_LINK:
+                {
+                    final PortletLinkPlaceholderEvent linkPlaceholderEvent =
+                            (PortletLinkPlaceholderEvent) event;
+                    return CharacterDataEventImpl.create(
+                            linkPlaceholderEvent.getDefaultPortletUrl());
+                }
+            default:
+                {
+                    throw new IllegalArgumentException(
+                            "No static value exists for event type " + event.getEventType());
+                }
+        }
+    }
+
+    /**
+     * Flushes the markup written so far to the client if none of the portlets has completed
+     * rendering, so the browser can work on the page while the portal waits for portlet output. All
+     * events before the portlet's placeholder have already been written to the response since the
+     * events are pulled one at a time by the renderer.
+     */
+    private void flushBeforeWaiting(
+            Collection<IPortletWindowId> portletWindowIds,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        for (final IPortletWindowId portletWindowId : portletWindowIds) {
+            if (portletExecutionManager.isPortletRenderComplete(
+                    portletWindowId, request, response)) {
+                return;
+            }
+        }
+
+        try {
+            response.flushBuffer();
+        } catch (IOException e) {
+            //Most likely the client went away, the next write to the response will fail as well
+            logger.debug("Failed to flush response before waiting on portlet output", e);
+        }
+    }
+
     private class PortletIncorporatingEventReader extends FilteringCharacterEventReader {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
@@ -88,82 +303,167 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
 
         @Override
         protected CharacterEvent filterEvent(CharacterEvent event, boolean peek) {
-            switch (event.getEventType()) {
-                case PORTLET_HEADER:
-                    {
-                        final PortletHeaderPlaceholderEvent headerPlaceholderEvent =
-                                (PortletHeaderPlaceholderEvent) event;
-                        final IPortletWindowId portletWindowId =
-                                headerPlaceholderEvent.getPortletWindowId();
+            return incorporatePortletEvent(event, this.request, this.response);
+        }
+    }
 
-                        final String output =
-                                portletExecutionManager.getPortletHeadOutput(
-                                        portletWindowId, this.request, this.response);
+    /**
+     * Event reader that writes a slot for each portlet that has not completed rendering and then
+     * streams the deferred portlet content, in completion order, before the closing body tag.
+     */
+    private class StreamingPortletIncorporatingEventReader extends CharacterEventReaderDelegate {
+        private final Deque<CharacterEvent> eventBuffer = new LinkedList<CharacterEvent>();
+        private final Set<IPortletWindowId> deferredPortlets =
+                new LinkedHashSet<IPortletWindowId>();
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
 
-                        return CharacterDataEventImpl.create(output);
-                    }
-                case PORTLET_CONTENT:
-                    {
-                        final PortletContentPlaceholderEvent contentPlaceholderEvent =
-                                (PortletContentPlaceholderEvent) event;
-                        final IPortletWindowId portletWindowId =
-                                contentPlaceholderEvent.getPortletWindowId();
+        /** The closing body tag and everything after it, held back while portlets are deferred */
+        private CharacterEvent bodyEndEvent;
+
+        public StreamingPortletIncorporatingEventReader(
+                CharacterEventReader delegate,
+                HttpServletRequest request,
+                HttpServletResponse response) {
+            super(delegate);
+            this.request = request;
+            this.response = response;
+        }
 
-                        final String output =
-                                portletExecutionManager.getPortletOutput(
-                                        portletWindowId, this.request, this.response);
+        @Override
+        public boolean hasNext() {
+            return this.fillBuffer();
+        }
 
-                        return CharacterDataEventImpl.create(output);
-                    }
-                case PORTLET_TITLE:
-                    {
-                        final PortletTitlePlaceholderEvent titlePlaceholderEvent =
-                                (PortletTitlePlaceholderEvent) event;
-                        final IPortletWindowId portletWindowId =
-                                titlePlaceholderEvent.getPortletWindowId();
+        @Override
+        public CharacterEvent next() {
+            if (!this.fillBuffer()) {
+                throw new NoSuchElementException();
+            }
+            return this.eventBuffer.removeFirst();
+        }
 
-                        final String title =
-                                portletExecutionManager.getPortletTitle(
-                                        portletWindowId, this.request, this.response);
+        @Override
+        public CharacterEvent peek() {
+            if (!this.fillBuffer()) {
+                return null;
+            }
+            return this.eventBuffer.getFirst();
+        }
 
-                        return CharacterDataEventImpl.create(title);
-                    }
-                case PORTLET_NEW_ITEM_COUNT:
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** @return true if there is at least one event in the buffer */
+        private boolean fillBuffer() {
+            while (this.eventBuffer.isEmpty()) {
+                if (this.bodyEndEvent == null && super.hasNext()) {
+                    this.bufferEvent(super.next());
+                } else if (!this.deferredPortlets.isEmpty()) {
+                    this.bufferNextDeferredPortlet();
+                } else if (this.bodyEndEvent != null) {
+                    this.eventBuffer.add(this.bodyEndEvent);
+                    this.bodyEndEvent = null;
+                } else {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private void bufferEvent(CharacterEvent event) {
+            switch (event.getEventType()) {
+                case PORTLET_CONTENT:
                     {
-                        final PortletNewItemCountPlaceholderEvent newItemCountPlaceholderEvent =
-                                (PortletNewItemCountPlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
-                                newItemCountPlaceholderEvent.getPortletWindowId();
+                                ((PortletContentPlaceholderEvent) event).getPortletWindowId();
 
-                        final int newItemCount =
-                                portletExecutionManager.getPortletNewItemCount(
-                                        portletWindowId, this.request, this.response);
-
-                        return CharacterDataEventImpl.create(String.valueOf(newItemCount));
+                        //Only the first occurrence of a portlet can be deferred, slot ids must be unique
+                        if (this.deferredPortlets.contains(portletWindowId)
+                                || portletExecutionManager.isPortletRenderComplete(
+                                        portletWindowId, this.request, this.response)) {
+                            this.eventBuffer.add(
+                                    incorporatePortletEvent(event, this.request, this.response));
+                        } else {
+                            this.deferredPortlets.add(portletWindowId);
+                            this.eventBuffer.add(
+                                    CharacterDataEventImpl.create(
+                                            "<div id=\""
+                                                    + SLOT_ID_PREFIX
+                                                    + portletWindowId.getStringId()
+                                                    + "\"></div>"));
+                        }
+                        break;
                     }
-                case PORTLET_LINK:
+                case CHARACTER:
                     {
-                        final PortletLinkPlaceholderEvent linkPlaceholderEvent =
-                                (PortletLinkPlaceholderEvent) event;
-                        final IPortletWindowId portletWindowId =
-                                linkPlaceholderEvent.getPortletWindowId();
-                        final String defaultPortletUrl =
-                                linkPlaceholderEvent.getDefaultPortletUrl();
-
-                        final String link =
-                                portletExecutionManager.getPortletLink(
-                                        portletWindowId,
-                                        defaultPortletUrl,
-                                        this.request,
-                                        this.response);
-
-                        return CharacterDataEventImpl.create(link);
+                        if (!this.deferredPortlets.isEmpty()) {
+                            final String data = ((CharacterDataEvent) event).getData();
+                            final int bodyEndIndex = data.indexOf(BODY_END_TAG);
+                            if (bodyEndIndex >= 0) {
+                                if (bodyEndIndex > 0) {
+                                    this.eventBuffer.add(
+                                            CharacterDataEventImpl.create(
+                                                    data.substring(0, bodyEndIndex)));
+                                }
+                                this.bodyEndEvent =
+                                        CharacterDataEventImpl.create(data.substring(bodyEndIndex));
+                                break;
+                            }
+                        }
+
+                        this.eventBuffer.add(event);
+                        break;
                     }
                 default:
                     {
-                        return event;
+                        this.eventBuffer.add(
+                                incorporatePortletEventWithoutWaiting(
+                                        event, this.request, this.response));
                     }
             }
         }
+
+        private void bufferNextDeferredPortlet() {
+            flushBeforeWaiting(this.deferredPortlets, this.request, this.response);
+            final IPortletWindowId portletWindowId =
+                    portletExecutionManager.waitForNextPortletRender(
+                            this.deferredPortlets, this.request, this.response);
+            this.deferredPortlets.remove(portletWindowId);
+
+            final String output =
+                    portletExecutionManager.getPortletOutput(
+                            portletWindowId, this.request, this.response);
+
+            final String windowId = portletWindowId.getStringId();
+            final StringBuilder builder = new StringBuilder(output.length() + 512);
+            builder.append("<div id=\"")
+                    .append(STREAMED_CONTENT_ID_PREFIX)
+                    .append(windowId)
+                    .append("\" style=\"display:none\">")
+                    .append(output)
+                    .append("</div>");
+            builder.append("<script type=\"text/javascript\">(function() {")
+                    .append("var slot = document.getElementById('")
+                    .append(SLOT_ID_PREFIX)
+                    .append(windowId)
+                    .append("'), content = document.getElementById('")
+                    .append(STREAMED_CONTENT_ID_PREFIX)
+                    .append(windowId)
+                    .append("');")
+                    .append("if (slot && content) {")
+                    .append("while (content.firstChild) {")
+                    .append("slot.parentNode.insertBefore(content.firstChild, slot);")
+                    .append("}")
+                    .append("slot.parentNode.removeChild(slot);")
+                    .append("content.parentNode.removeChild(content);")
+                    .append("}")
+                    .append("})();</script>");
+
+            this.eventBuffer.add(CharacterDataEventImpl.create(builder.toString()));
+        }
     }
 }
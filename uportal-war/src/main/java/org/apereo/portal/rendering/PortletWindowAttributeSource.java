@@ -110,8 +110,11 @@ public class PortletWindowAttributeSource implements AttributeSource, BeanNameAw
                 final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
                 final WindowState windowState = portletWindow.getWindowState();
                 final PortletMode portletMode = portletWindow.getPortletMode();
+                //The string id keeps the key fingerprintable, see CacheKeyFingerprint
                 cacheKeyBuilder.addAll(
-                        portletWindowId, windowState.toString(), portletMode.toString());
+                        portletWindowId.getStringId(),
+                        windowState.toString(),
+                        portletMode.toString());
             } else {
                 this.logger.warn(
                         "portletWindowRegistry#getAllLayoutPortletWindows() returned a null portletWindow");
@@ -18,19 +18,27 @@ import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import org.apereo.portal.utils.cache.CacheKey;
 
-/** Holder class for an event cache and output properties */
+/** Holder class for an event cache, output properties and the full key they were cached for */
 class CachedEventReader<E> implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    private final CacheKey cacheKey;
     private final List<E> eventCache;
     private final Map<String, String> outputProperties;
 
-    public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
+    public CachedEventReader(
+            CacheKey cacheKey, List<E> eventCache, Map<String, String> outputProperties) {
+        this.cacheKey = cacheKey;
         this.eventCache = Collections.unmodifiableList(eventCache);
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
     }
 
+    public CacheKey getCacheKey() {
+        return this.cacheKey;
+    }
+
     public List<E> getEventCache() {
         return this.eventCache;
     }
@@ -17,7 +17,10 @@ package org.apereo.portal.rendering.cache;
 import java.util.ListIterator;
 import org.apereo.portal.character.stream.CharacterEventBufferReader;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
 
 /**
@@ -32,4 +35,17 @@ public class CachingCharacterPipelineComponent
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
     }
+
+    @Override
+    protected String getCharacterData(CharacterEvent event) {
+        if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+            return ((CharacterDataEvent) event).getData();
+        }
+        return null;
+    }
+
+    @Override
+    protected CharacterEvent createCharacterDataEvent(String data) {
+        return CharacterDataEventImpl.create(data);
+    }
 }
@@ -14,11 +14,19 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import net.sf.ehcache.Ehcache;
@@ -27,24 +35,45 @@ import org.apereo.portal.rendering.PipelineComponentWrapper;
 import org.apereo.portal.rendering.PipelineEventReader;
 import org.apereo.portal.rendering.PipelineEventReaderImpl;
 import org.apereo.portal.utils.cache.CacheKey;
+import org.apereo.portal.utils.cache.CacheKeyFingerprint;
 import org.jasig.resourceserver.aggr.om.Included;
 import org.jasig.resourceserver.utils.aggr.ResourcesElementsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
- * Component that caches events from a wrapped component
+ * Component that caches events from a wrapped component. Concurrent cache misses for the same key
+ * are coalesced so that only one request calls the wrapped component while the others wait for its
+ * result.
  *
+ * <p>The cache key of the wrapped component is computed once per request and the cache is keyed by
+ * the {@link CacheKeyFingerprint} of that key rather than the full nested {@link CacheKey} when the
+ * key can be fingerprinted. The full key is stored with the cached events and a cached entry is
+ * only used if it is equal to the requested key, so a fingerprint collision is a cache miss rather
+ * than output cached for a different key.
  */
 public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWrapper<R, E>
-        implements BeanNameAware {
+        implements BeanNameAware, CachingPipelineComponentMXBean {
+    private static final String CACHE_KEY_ATTRIBUTE_PREFIX =
+            CachingPipelineComponent.class.getName() + ".CACHE_KEY.";
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    /** Loaders of keys that are currently being populated by calling the wrapped component */
+    private final ConcurrentMap<CacheKey, FutureTask<CachedEventReader<E>>> inFlightLoaders =
+            new ConcurrentHashMap<CacheKey, FutureTask<CachedEventReader<E>>>();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong coalescedWaits = new AtomicLong();
+
     private ResourcesElementsProvider resourcesElementsProvider;
     private Ehcache cache;
     private String beanName;
+    private long loaderWaitTime = 30000;
 
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -55,20 +84,58 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         this.cache = cache;
     }
 
+    /**
+     * Maximum time in ms a request waits for another request loading the same key before calling
+     * the wrapped component itself, defaults to 30000.
+     */
+    @Value("${org.apereo.portal.rendering.cache.CachingPipelineComponent.loaderWaitTime:30000}")
+    public void setLoaderWaitTime(long loaderWaitTime) {
+        this.loaderWaitTime = loaderWaitTime;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
     }
 
+    @Override
+    public long getCacheHits() {
+        return this.cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return this.cacheMisses.get();
+    }
+
+    @Override
+    public long getCoalescedWaits() {
+        return this.coalescedWaits.get();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return this.inFlightLoaders.size();
+    }
+
+    /**
+     * The key is memoized in a request attribute, every caching component further along the
+     * pipeline asks for it again while building its own key.
+     */
     @Override
     public final CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
-        return this.wrappedComponent.getCacheKey(request, response);
+        final String cacheKeyAttribute = CACHE_KEY_ATTRIBUTE_PREFIX + this.beanName;
+        CacheKey cacheKey = (CacheKey) request.getAttribute(cacheKeyAttribute);
+        if (cacheKey == null) {
+            cacheKey = this.wrappedComponent.getCacheKey(request, response);
+            request.setAttribute(cacheKeyAttribute, cacheKey);
+        }
+        return cacheKey;
     }
 
     /* (non-Javadoc)
      * @see org.apereo.portal.rendering.PipelineComponent#getEventReader(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public final PipelineEventReader<R, E> getEventReader(
             HttpServletRequest request, HttpServletResponse response) {
@@ -80,50 +147,206 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         }
 
         //Get the key for this request from the target component and see if there is a cache entry
-        final CacheKey cacheKey = this.wrappedComponent.getCacheKey(request, response);
-        Element element = this.cache.get(cacheKey);
-        CachedEventReader<E> cachedEventReader = null;
-        if (element != null) {
-            cachedEventReader = (CachedEventReader<E>) element.getObjectValue();
-        }
+        final CacheKey cacheKey = this.getCacheKey(request, response);
+        CachedEventReader<E> cachedEventReader = this.getCachedEventReader(cacheKey);
 
         //If there was a cached reader return it immediately
         if (cachedEventReader == null) {
+            cachedEventReader = this.loadCachedEventReader(cacheKey, request, response);
+        } else {
+            this.cacheHits.incrementAndGet();
+            logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
+        }
+
+        final List<E> eventCache = cachedEventReader.getEventCache();
+        final Map<String, String> outputProperties = cachedEventReader.getOutputProperties();
+
+        final R eventReader = this.createEventReader(eventCache.listIterator());
+        return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
+    }
+
+    /**
+     * Populates the cache for the key by calling the wrapped component. Only one request per key
+     * calls the wrapped component at a time, concurrent requests for the same key wait for and
+     * share its result.
+     */
+    private CachedEventReader<E> loadCachedEventReader(
+            CacheKey cacheKey, HttpServletRequest request, HttpServletResponse response) {
+        final FutureTask<CachedEventReader<E>> loader =
+                new FutureTask<CachedEventReader<E>>(
+                        new CachedEventReaderLoader(cacheKey, request, response));
+
+        final FutureTask<CachedEventReader<E>> inFlightLoader =
+                this.inFlightLoaders.putIfAbsent(cacheKey, loader);
+        if (inFlightLoader == null) {
+            try {
+                loader.run();
+                return this.getLoaderResult(loader, cacheKey, request, response);
+            } finally {
+                this.inFlightLoaders.remove(cacheKey, loader);
+            }
+        }
+
+        this.coalescedWaits.incrementAndGet();
+        logger.debug(
+                "{} - Events for key {} are already being loaded, waiting for them",
+                this.beanName,
+                cacheKey);
+        return this.getLoaderResult(inFlightLoader, cacheKey, request, response);
+    }
+
+    /**
+     * Waits up to the loader wait time for the loader. If the loader takes longer the events are
+     * loaded by this request instead so a hung loader can't hold up every request for the key.
+     */
+    private CachedEventReader<E> getLoaderResult(
+            FutureTask<CachedEventReader<E>> loader,
+            CacheKey cacheKey,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        try {
+            return loader.get(this.loaderWaitTime, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn(
+                    "{} - Timed out after {}ms waiting for events for key {} to be loaded by another request, loading them directly",
+                    this.beanName,
+                    this.loaderWaitTime,
+                    cacheKey);
+            return new CachedEventReaderLoader(cacheKey, request, response).call();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    this.beanName + " - Interrupted while waiting for events for key " + cacheKey,
+                    e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(
+                    this.beanName + " - Failed to load events from wrapped component", cause);
+        }
+    }
+
+    /**
+     * Copies the events into an array backed buffer. Runs of adjacent character data events are
+     * merged into a single event and every character data event is replaced with a shared instance
+     * so equal text is only held in memory once across all of the cached buffers.
+     */
+    private List<E> bufferEvents(Iterable<E> events) {
+        final ArrayList<E> eventCache = new ArrayList<E>();
+        final StringBuilder characterData = new StringBuilder();
+
+        for (final E event : events) {
+            final String data = this.getCharacterData(event);
+            if (data != null) {
+                characterData.append(data);
+                continue;
+            }
+
+            this.addCharacterData(eventCache, characterData);
+            eventCache.add(event);
+        }
+        this.addCharacterData(eventCache, characterData);
+
+        eventCache.trimToSize();
+        return eventCache;
+    }
+
+    private void addCharacterData(List<E> eventCache, StringBuilder characterData) {
+        //Empty character data has no effect on the output, just drop it
+        if (characterData.length() > 0) {
+            eventCache.add(this.createCharacterDataEvent(characterData.toString()));
+            characterData.setLength(0);
+        }
+    }
+
+    /** @return The cached events for the key, null if there are none or they are for another key */
+    @SuppressWarnings("unchecked")
+    private CachedEventReader<E> getCachedEventReader(CacheKey cacheKey) {
+        final Element element = this.cache.get(cacheKey.getLookupKey());
+        if (element == null) {
+            return null;
+        }
+
+        final CachedEventReader<E> cachedEventReader =
+                (CachedEventReader<E>) element.getObjectValue();
+        if (!cacheKey.equals(cachedEventReader.getCacheKey())) {
+            logger.warn(
+                    "{} - Cache key {} has the same fingerprint as cached key {}, ignoring the cached events",
+                    this.beanName,
+                    cacheKey,
+                    cachedEventReader.getCacheKey());
+            return null;
+        }
+        return cachedEventReader;
+    }
+
+    /** Calls the wrapped component and caches the resulting events */
+    private final class CachedEventReaderLoader implements Callable<CachedEventReader<E>> {
+        private final CacheKey cacheKey;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+
+        public CachedEventReaderLoader(
+                CacheKey cacheKey, HttpServletRequest request, HttpServletResponse response) {
+            this.cacheKey = cacheKey;
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public CachedEventReader<E> call() {
+            //Another request may have populated the cache between the cache check and this load
+            final CachedEventReader<E> cachedEventReader = getCachedEventReader(this.cacheKey);
+            if (cachedEventReader != null) {
+                cacheHits.incrementAndGet();
+                logger.debug("{} - Found cached events for key {}", beanName, this.cacheKey);
+                return cachedEventReader;
+            }
+
+            cacheMisses.incrementAndGet();
+
             //No cached data for key, call target component to get events and an updated cache key
             logger.debug(
                     "{} - No cached events found for key {}, calling parent",
-                    this.beanName,
-                    cacheKey);
+                    beanName,
+                    this.cacheKey);
             final PipelineEventReader<R, E> pipelineEventReader =
-                    this.wrappedComponent.getEventReader(request, response);
+                    wrappedComponent.getEventReader(this.request, this.response);
 
-            //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
-            for (final E event : pipelineEventReader) {
-                //TODO add de-duplication logic here
-                eventCache.add(event);
-            }
+            //Copy the events from the reader into a compact buffer to be cached
+            final List<E> eventCache = bufferEvents(pipelineEventReader);
 
             final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-            cachedEventReader =
+            final CachedEventReader<E> loadedEventReader =
                     new CachedEventReader<E>(
-                            eventCache, new LinkedHashMap<String, String>(outputProperties));
+                            this.cacheKey,
+                            eventCache,
+                            new LinkedHashMap<String, String>(outputProperties));
 
             //Cache the buffer
-            element = new Element(cacheKey, cachedEventReader);
-            this.cache.put(element);
+            cache.put(new Element(this.cacheKey.getLookupKey(), loadedEventReader));
             logger.debug(
-                    "{} - Cached {} events for key {}", this.beanName, eventCache.size(), cacheKey);
-        } else {
-            logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
+                    "{} - Cached {} events for key {}", beanName, eventCache.size(), this.cacheKey);
+
+            return loadedEventReader;
         }
+    }
 
-        final List<E> eventCache = cachedEventReader.getEventCache();
-        final Map<String, String> outputProperties = cachedEventReader.getOutputProperties();
+    /**
+     * @return The character data of the event if it can be merged with adjacent character data
+     *     events, null if the event must be cached as-is
+     */
+    protected abstract String getCharacterData(E event);
 
-        final R eventReader = this.createEventReader(eventCache.listIterator());
-        return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
-    }
+    /**
+     * @return An event for the character data, equal data should result in a shared event instance
+     */
+    protected abstract E createCharacterDataEvent(String data);
 
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
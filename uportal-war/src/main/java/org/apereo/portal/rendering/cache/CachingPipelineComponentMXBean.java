@@ -0,0 +1,34 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+/** JMX stats for a {@link CachingPipelineComponent} */
+public interface CachingPipelineComponentMXBean {
+
+    /** @return Number of requests served from the cache */
+    long getCacheHits();
+
+    /** @return Number of requests that had to call the wrapped component to populate the cache */
+    long getCacheMisses();
+
+    /**
+     * @return Number of requests that missed the cache but waited for another request that was
+     *     already calling the wrapped component for the same key instead of calling it themselves
+     */
+    long getCoalescedWaits();
+
+    /** @return Number of keys currently being populated by calling the wrapped component */
+    int getInFlightCount();
+}
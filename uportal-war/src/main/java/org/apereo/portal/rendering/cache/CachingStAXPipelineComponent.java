@@ -14,8 +14,14 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import java.util.ListIterator;
+import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.XMLEvent;
 import org.apereo.portal.rendering.StAXPipelineComponent;
 import org.apereo.portal.xml.stream.XMLEventBufferReader;
@@ -26,9 +32,39 @@ import org.apereo.portal.xml.stream.XMLEventBufferReader;
  */
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent>
         implements StAXPipelineComponent {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    //Since the cache using weak refs for the events it should never be a cause for object retention therefor no max-size is needed
+    private static final LoadingCache<String, Characters> WEAK_CHARACTERS_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(
+                            new CacheLoader<String, Characters>() {
+                                @Override
+                                public Characters load(String data) throws Exception {
+                                    return EVENT_FACTORY.createCharacters(data);
+                                }
+                            });
 
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
         return new XMLEventBufferReader(eventCache);
     }
+
+    @Override
+    protected String getCharacterData(XMLEvent event) {
+        //Only plain text is merged, CDATA sections and whitespace events are left as-is
+        if (event.getEventType() == XMLStreamConstants.CHARACTERS) {
+            final Characters characters = event.asCharacters();
+            if (!characters.isCData() && !characters.isIgnorableWhiteSpace()) {
+                return characters.getData();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected XMLEvent createCharacterDataEvent(String data) {
+        return WEAK_CHARACTERS_CACHE.getUnchecked(data);
+    }
 }
@@ -14,8 +14,10 @@
  */
 package org.apereo.portal.security.provider;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
@@ -32,6 +34,7 @@ import org.apereo.portal.security.IAuthorizationPrincipal;
 import org.apereo.portal.security.IAuthorizationService;
 import org.apereo.portal.security.IPermission;
 import org.apereo.portal.security.IPermissionPolicy;
+import org.apereo.portal.utils.Tuple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -62,6 +65,11 @@ import org.springframework.stereotype.Service;
  * <p>Principal -- Small group (DENY) -- Bigger group -- Huge group Principal -- Some other group --
  * Bigger other group (GRANT) -- Huge group Results in GRANT because there is an unblocked path to a
  * GRANT.
+ *
+ * <p>For each owner and activity this policy indexes which principals hold a GRANT and which hold a
+ * DENY. When no DENY is held anywhere on the principal's path up the groups tree, the decision only
+ * requires checking the few GRANT holders among the principal and its ancestors; the tree is walked
+ * only when a DENY could block the path.
  */
 @Service("anyUnblockedGrantPermissionPolicy")
 public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
@@ -79,6 +87,17 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
     )
     private Cache hasUnblockedGrantCache;
 
+    @Autowired
+    @Qualifier(value = PERMISSION_HOLDERS_CACHE)
+    private Cache permissionHoldersCache;
+
+    /**
+     * Name of the cache of {@link PermissionHolders} by owner and activity; entries must be removed
+     * whenever permissions for that owner and activity change.
+     */
+    public static final String PERMISSION_HOLDERS_CACHE =
+            "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.PERMISSION_HOLDERS";
+
     public boolean doesPrincipalHavePermission(
             IAuthorizationService service,
             IAuthorizationPrincipal principal,
@@ -181,11 +200,17 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         // Search ourselves and all ancestors for an unblocked GRANT.
         boolean rslt;
         try {
-            // Track groups we've already explored to avoid infinite loop
-            final Set<IGroupMember> seenGroups = new HashSet<>();
-            rslt =
-                    hasUnblockedPathToGrantWithCache(
-                            service, principal, owner, activity, target, seenGroups);
+            final Boolean answer =
+                    hasGrantWithoutDenyOnPath(service, principal, owner, activity, target);
+            if (answer != null) {
+                rslt = answer;
+            } else {
+                // Track groups we've already explored to avoid infinite loop
+                final Set<IGroupMember> seenGroups = new HashSet<>();
+                rslt =
+                        hasUnblockedPathToGrantWithCache(
+                                service, principal, owner, activity, target, seenGroups);
+            }
         } catch (Exception e) {
             log.error(
                     "Error searching for unblocked path to grant for principal [" + principal + "]",
@@ -247,6 +272,72 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         hasUnblockedGrantCache.put(element);
     }
 
+    /**
+     * Answers the question using the index of GRANT and DENY holders for the owner and activity. If
+     * none of the principal and its ancestor groups holds a DENY, no path can be blocked and the
+     * principal has permission exactly when one of them holds an active GRANT for the target.
+     *
+     * @return the decision, or null if a DENY may block a path and the groups tree must be walked
+     */
+    private Boolean hasGrantWithoutDenyOnPath(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            IPermissionTarget target)
+            throws GroupsException {
+
+        final PermissionHolders holders = getPermissionHolders(service, owner, activity);
+        if (holders.isEmpty()) {
+            return false;
+        }
+
+        final List<IAuthorizationPrincipal> grantHolders = new ArrayList<>();
+        if (holders.holdsDeny(principal.getPrincipalString())) {
+            return null;
+        }
+        if (holders.holdsGrant(principal.getPrincipalString())) {
+            grantHolders.add(principal);
+        }
+
+        final IGroupMember principalAsGroupMember = service.getGroupMember(principal);
+        for (IEntityGroup ancestor : principalAsGroupMember.getAncestorGroups()) {
+            final IAuthorizationPrincipal ancestorPrincipal = service.newPrincipal(ancestor);
+            if (holders.holdsDeny(ancestorPrincipal.getPrincipalString())) {
+                return null;
+            }
+            if (holders.holdsGrant(ancestorPrincipal.getPrincipalString())) {
+                grantHolders.add(ancestorPrincipal);
+            }
+        }
+
+        for (IAuthorizationPrincipal grantHolder : grantHolders) {
+            final IPermission[] permissions =
+                    service.getPermissionsForPrincipal(
+                            grantHolder, owner.getFname(), activity.getFname(), target.getKey());
+            if (containsType(
+                    removeInactivePermissions(permissions), IPermission.PERMISSION_TYPE_GRANT)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private PermissionHolders getPermissionHolders(
+            IAuthorizationService service, IPermissionOwner owner, IPermissionActivity activity) {
+
+        final Tuple<String, String> cacheKey = new Tuple<>(owner.getFname(), activity.getFname());
+        Element element = permissionHoldersCache.get(cacheKey);
+        if (element == null) {
+            final IPermission[] permissions =
+                    service.getPermissionsForOwner(owner.getFname(), activity.getFname(), null);
+            element = new Element(cacheKey, new PermissionHolders(permissions));
+            permissionHoldersCache.put(element);
+        }
+        return (PermissionHolders) element.getObjectValue();
+    }
+
     private boolean hasUnblockedPathToGrantWithCache(
             IAuthorizationService service,
             IAuthorizationPrincipal principal,
@@ -436,6 +527,38 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
      * Nested Types
      */
 
+    /**
+     * The principals holding a GRANT or a DENY for one owner and activity, over any target and
+     * regardless of effective and expiration dates. Membership is therefore necessary, but not
+     * sufficient, for a principal to be granted or denied a particular target.
+     */
+    private static final class PermissionHolders {
+        private final Set<String> grantHolders = new HashSet<>();
+        private final Set<String> denyHolders = new HashSet<>();
+
+        public PermissionHolders(IPermission[] permissions) {
+            for (IPermission permission : permissions) {
+                if (IPermission.PERMISSION_TYPE_GRANT.equals(permission.getType())) {
+                    grantHolders.add(permission.getPrincipal());
+                } else if (IPermission.PERMISSION_TYPE_DENY.equals(permission.getType())) {
+                    denyHolders.add(permission.getPrincipal());
+                }
+            }
+        }
+
+        public boolean isEmpty() {
+            return grantHolders.isEmpty();
+        }
+
+        public boolean holdsGrant(String principalString) {
+            return grantHolders.contains(principalString);
+        }
+
+        public boolean holdsDeny(String principalString) {
+            return denyHolders.contains(principalString);
+        }
+    }
+
     private static final class CacheTuple {
         private final String principalName;
         private final String owner;
@@ -101,6 +101,11 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /**
+     * Indexes of permission holders by owner and activity, see AnyUnblockedGrantPermissionPolicy
+     */
+    private Ehcache permissionHoldersCache;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
@@ -157,6 +162,13 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
 
+    @Autowired
+    public void setPermissionHoldersCache(
+            @Qualifier(AnyUnblockedGrantPermissionPolicy.PERMISSION_HOLDERS_CACHE)
+                    Ehcache permissionHoldersCache) {
+        this.permissionHoldersCache = permissionHoldersCache;
+    }
+
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -184,6 +196,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            removeFromPermissionHoldersCache(permissions);
         }
     }
 
@@ -1113,6 +1126,19 @@ public class AuthorizationImpl implements IAuthorizationService {
         removeFromPermissionsCache(principals);
     }
 
+    /**
+     * Removes the permission holders indexed for the owners and activities of the <code>
+     * IPermissions</code>.
+     *
+     * @param permissions IPermission[]
+     */
+    private void removeFromPermissionHoldersCache(IPermission[] permissions) {
+        for (IPermission permission : permissions) {
+            this.permissionHoldersCache.remove(
+                    new Tuple<>(permission.getOwner(), permission.getActivity()));
+        }
+    }
+
     /**
      * Removes <code>IPermissions</code> from the back end store.
      *
@@ -1125,6 +1151,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            removeFromPermissionHoldersCache(permissions);
         }
     }
 
@@ -1140,6 +1167,7 @@ public class AuthorizationImpl implements IAuthorizationService {
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
             }
+            removeFromPermissionHoldersCache(permissions);
         }
     }
 }
@@ -0,0 +1,239 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.constructs.CacheDecoratorFactory;
+import net.sf.ehcache.constructs.EhcacheDecoratorAdapter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Decorates {@link Ehcache} instances that hold keys or values which implement {@link
+ * TaggedCacheEntry} so that entries purged through the {@link TagGenerationCacheEntryPurger} are no
+ * longer returned. Each tagged entry is stamped with the generations of its tags when it is stored
+ * (using {@link Element#getVersion()}) and the stamp is compared on every read.
+ *
+ * <p>The decorated cache keeps the name of the underlying cache so it replaces it in the {@link
+ * net.sf.ehcache.CacheManager}.
+ */
+@Service
+public class TagGenerationCacheDecoratorFactory extends CacheDecoratorFactory
+        implements DisposableBean {
+    private static volatile TagGenerationCacheEntryPurger tagGenerationCacheEntryPurger;
+
+    @Autowired
+    public void setTagGenerationCacheEntryPurger(
+            TagGenerationCacheEntryPurger tagGenerationCacheEntryPurger) {
+        TagGenerationCacheDecoratorFactory.tagGenerationCacheEntryPurger =
+                tagGenerationCacheEntryPurger;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        tagGenerationCacheEntryPurger = null;
+    }
+
+    @Override
+    public Ehcache createDecoratedEhcache(Ehcache cache, Properties properties) {
+        return new TagGenerationCacheDecorator(cache);
+    }
+
+    @Override
+    public Ehcache createDefaultDecoratedEhcache(Ehcache cache, Properties properties) {
+        return new TagGenerationCacheDecorator(cache);
+    }
+
+    /** Get the tags associated with the element */
+    static Set<CacheEntryTag> getTags(Element element) {
+        final Object key = element.getObjectKey();
+        if (key instanceof TaggedCacheEntry) {
+            return ((TaggedCacheEntry) key).getTags();
+        }
+
+        final Object value = element.getObjectValue();
+        if (value instanceof TaggedCacheEntry) {
+            return ((TaggedCacheEntry) value).getTags();
+        }
+
+        return null;
+    }
+
+    static class TagGenerationCacheDecorator extends EhcacheDecoratorAdapter {
+        public TagGenerationCacheDecorator(Ehcache underlyingCache) {
+            super(underlyingCache);
+        }
+
+        /** Record the current generations of the element's tags on the element */
+        private Element stamp(Element element) {
+            //Either pre-init or post-destroy, nothing to stamp against
+            final TagGenerationCacheEntryPurger purger = tagGenerationCacheEntryPurger;
+            if (purger == null || element == null) {
+                return element;
+            }
+
+            final Set<CacheEntryTag> tags = getTags(element);
+            if (tags != null && !tags.isEmpty()) {
+                element.setVersion(purger.getGenerationStamp(tags));
+            }
+            return element;
+        }
+
+        /**
+         * @return The element if none of its tags have been purged since it was stored, null if it
+         *     has been invalidated
+         */
+        private Element verify(Element element) {
+            final TagGenerationCacheEntryPurger purger = tagGenerationCacheEntryPurger;
+            if (purger == null || element == null) {
+                return element;
+            }
+
+            final Set<CacheEntryTag> tags = getTags(element);
+            if (tags == null || tags.isEmpty()) {
+                return element;
+            }
+            if (!purger.isStampExpired(element.getCreationTime())
+                    && purger.getGenerationStamp(tags) == element.getVersion()) {
+                return element;
+            }
+
+            //Other nodes do the same check against the replicated generations, only remove locally
+            this.underlyingCache.remove(element.getObjectKey(), true);
+            return null;
+        }
+
+        @Override
+        public Element get(Object key) throws IllegalStateException, CacheException {
+            return verify(super.get(key));
+        }
+
+        @Override
+        public Element get(Serializable key) throws IllegalStateException, CacheException {
+            return verify(super.get(key));
+        }
+
+        @Override
+        public Element getQuiet(Object key) throws IllegalStateException, CacheException {
+            return verify(super.getQuiet(key));
+        }
+
+        @Override
+        public Element getQuiet(Serializable key) throws IllegalStateException, CacheException {
+            return verify(super.getQuiet(key));
+        }
+
+        @Override
+        public Map<Object, Element> getAll(Collection<?> keys)
+                throws IllegalStateException, CacheException {
+            final Map<Object, Element> elements = super.getAll(keys);
+            for (final Iterator<Map.Entry<Object, Element>> entryItr =
+                            elements.entrySet().iterator();
+                    entryItr.hasNext();
+                    ) {
+                final Map.Entry<Object, Element> entry = entryItr.next();
+                if (entry.getValue() != null && verify(entry.getValue()) == null) {
+                    entry.setValue(null);
+                }
+            }
+            return elements;
+        }
+
+        @Override
+        public boolean isKeyInCache(Object key) {
+            return super.isKeyInCache(key) && verify(super.getQuiet(key)) != null;
+        }
+
+        @Override
+        public void put(Element element)
+                throws IllegalArgumentException, IllegalStateException, CacheException {
+            super.put(stamp(element));
+        }
+
+        @Override
+        public void put(Element element, boolean doNotNotifyCacheReplicators)
+                throws IllegalArgumentException, IllegalStateException, CacheException {
+            //Elements put by a cache replicator keep the stamp from the node that created them
+            if (!doNotNotifyCacheReplicators) {
+                stamp(element);
+            }
+            super.put(element, doNotNotifyCacheReplicators);
+        }
+
+        @Override
+        public void putQuiet(Element element)
+                throws IllegalArgumentException, IllegalStateException, CacheException {
+            super.putQuiet(stamp(element));
+        }
+
+        @Override
+        public void putWithWriter(Element element)
+                throws IllegalArgumentException, IllegalStateException, CacheException {
+            super.putWithWriter(stamp(element));
+        }
+
+        @Override
+        public void putAll(Collection<Element> elements)
+                throws IllegalArgumentException, IllegalStateException, CacheException {
+            for (final Element element : elements) {
+                stamp(element);
+            }
+            super.putAll(elements);
+        }
+
+        @Override
+        public Element putIfAbsent(Element element) throws NullPointerException {
+            final Element existing = super.putIfAbsent(stamp(element));
+            if (existing != null && verify(existing) == null) {
+                //The existing element was stale and has been removed, try again
+                return super.putIfAbsent(element);
+            }
+            return existing;
+        }
+
+        @Override
+        public Element putIfAbsent(Element element, boolean doNotNotifyCacheReplicators)
+                throws NullPointerException {
+            if (!doNotNotifyCacheReplicators) {
+                stamp(element);
+            }
+            final Element existing = super.putIfAbsent(element, doNotNotifyCacheReplicators);
+            if (existing != null && verify(existing) == null) {
+                return super.putIfAbsent(element, doNotNotifyCacheReplicators);
+            }
+            return existing;
+        }
+
+        @Override
+        public Element replace(Element element) throws NullPointerException {
+            return super.replace(stamp(element));
+        }
+
+        @Override
+        public boolean replace(Element old, Element element)
+                throws NullPointerException, IllegalArgumentException {
+            return super.replace(old, stamp(element));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Purges tagged cache entries by advancing a generation counter for the tag instead of tracking and
+ * removing every tagged key. Caches decorated by {@link TagGenerationCacheDecoratorFactory} stamp
+ * each tagged entry with the generations of its tags when it is stored and treat the entry as a
+ * miss once any of those generations has moved on.
+ *
+ * <p>The generations live in a JGroups replicated cache so a purge is a single put that is
+ * broadcast to every node in the cluster. That cache must never evict generations by size or idle
+ * time, once a generation is gone the tag reads as never purged again. Generations are only allowed
+ * to age out after the cache's time to live and entries stored before that window are treated as
+ * stale, see {@link #isStampExpired(long)}.
+ */
+@Service("tagGenerationCacheEntryPurger")
+public class TagGenerationCacheEntryPurger implements TaggedCacheEntryPurger {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Ehcache tagGenerationCache;
+
+    @Autowired
+    @Qualifier("org.apereo.portal.utils.cache.TagGenerationCacheEntryPurger.TAG_GENERATIONS")
+    public void setTagGenerationCache(Ehcache tagGenerationCache) {
+        this.tagGenerationCache = tagGenerationCache;
+    }
+
+    /**
+     * @return The current generation of the tag, 0 if the tag has not been purged within the
+     *     generations' time to live
+     */
+    public long getGeneration(CacheEntryTag tag) {
+        final Element element = this.tagGenerationCache.get(tag);
+        if (element == null) {
+            return 0;
+        }
+
+        return (Long) element.getObjectValue();
+    }
+
+    /**
+     * A generation that ages out of the generations cache takes the record of its purge with it and
+     * the tag reads as never purged again. An entry stored before that purge could then match its
+     * stamp once more, so entries older than the generations' time to live are not trusted.
+     *
+     * @param storedTime When the stamped entry was stored
+     * @return true if the stamp of an entry stored at the time can no longer be checked
+     */
+    public boolean isStampExpired(long storedTime) {
+        final CacheConfiguration cacheConfiguration =
+                this.tagGenerationCache.getCacheConfiguration();
+        final long timeToLiveSeconds = cacheConfiguration.getTimeToLiveSeconds();
+        if (cacheConfiguration.isEternal() || timeToLiveSeconds <= 0) {
+            return false;
+        }
+
+        return storedTime
+                <= System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+    }
+
+    /**
+     * @return A stamp summarizing the current generations of all of the tags. Generations only ever
+     *     move forward so the stamp changes whenever any one of the tags is purged.
+     */
+    public long getGenerationStamp(Set<CacheEntryTag> tags) {
+        long stamp = 0;
+        for (final CacheEntryTag tag : tags) {
+            stamp += this.getGeneration(tag);
+        }
+        return stamp;
+    }
+
+    /**
+     * Invalidate all cache entries tagged with the specified tag on every node in the cluster.
+     * Entries are not removed eagerly, they are discarded when next read or age out on their own.
+     *
+     * @return Always 1, the number of tag generations that were advanced
+     */
+    @Override
+    public int purgeCacheEntries(CacheEntryTag tag) {
+        final long generation = Math.max(this.getGeneration(tag) + 1, System.currentTimeMillis());
+        this.tagGenerationCache.put(new Element(tag, generation));
+
+        logger.debug("Advanced generation of tag {} to {}", tag, generation);
+        return 1;
+    }
+}
@@ -17,9 +17,9 @@ package org.apereo.portal.utils.cache;
 public interface TaggedCacheEntryPurger {
 
     /**
-     * Remove all cache entries with keys that have the specified tag
+     * Invalidate all cache entries with keys that have the specified tag
      *
-     * @return The number of cache entries that were purged
+     * @return The number of cache entries or tags that were purged, implementation specific
      */
     int purgeCacheEntries(CacheEntryTag tag);
 }
@@ -17,6 +17,7 @@ package org.apereo.portal.utils.cache.resource;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import net.sf.ehcache.Ehcache;
@@ -205,8 +206,21 @@ public class CachingResourceLoaderImpl implements CachingResourceLoader {
         //Build the resource using the callback
         final LoadedResource<T> loadedResource = builder.loadResource(resource);
 
+        //Additional resources are keyed by description, Resources are not all Serializable and the
+        //key needs to be fingerprintable when nested in rendering pipeline cache keys
+        final Map<Resource, Long> additionalResources = loadedResource.getAdditionalResources();
+        final HashMap<String, Long> additionalResourcesKey = new HashMap<String, Long>();
+        if (additionalResources != null) {
+            for (final Map.Entry<Resource, Long> additionalResource :
+                    additionalResources.entrySet()) {
+                additionalResourcesKey.put(
+                        additionalResource.getKey().getDescription(),
+                        additionalResource.getValue());
+            }
+        }
+
         final Serializable cacheKey =
-                (Serializable) Arrays.asList(lastModified, loadedResource.getAdditionalResources());
+                (Serializable) Arrays.asList(lastModified, additionalResourcesKey);
 
         //Create the CachedResource based on if digesting was enabled
         return new CachedResourceImpl<T>(resource, loadedResource, lastLoadTime, cacheKey);
@@ -0,0 +1,256 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * XMLEventReader that walks a DOM {@link Node} directly, creating events as it goes. Avoids going
+ * through the {@link javax.xml.transform.dom.DOMSource} support of the XMLInputFactory and holds no
+ * state beyond the current position in the tree so an arbitrarily large DOM can be streamed without
+ * any copying. The DOM must not be modified while it is being read.
+ *
+ * <p>Document type declarations and entity references are not reported.
+ */
+public class DomXMLEventReader extends BaseXMLEventReader {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    private final Node rootNode;
+
+    //The node and side of the node the next event will be created for, null once the walk is done
+    private Node node;
+    private boolean endOfNode = false;
+
+    private XMLEvent peekedEvent;
+
+    public DomXMLEventReader(Node rootNode) {
+        super(null);
+        this.rootNode = rootNode;
+        this.node = rootNode;
+    }
+
+    @Override
+    protected XMLEvent internalNextEvent() throws XMLStreamException {
+        final XMLEvent event = this.peek();
+        if (event == null) {
+            throw new NoSuchElementException();
+        }
+
+        this.peekedEvent = null;
+        return event;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.peek() != null;
+    }
+
+    @Override
+    public XMLEvent peek() {
+        while (this.peekedEvent == null && this.node != null) {
+            final Node currentNode = this.node;
+            final boolean currentEndOfNode = this.endOfNode;
+            this.advance();
+
+            if (currentEndOfNode) {
+                this.peekedEvent = this.createEndEvent(currentNode);
+            } else {
+                this.peekedEvent = this.createStartEvent(currentNode);
+            }
+        }
+
+        return this.peekedEvent;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        throw new IllegalArgumentException("Property " + name + " is not supported");
+    }
+
+    @Override
+    public void close() {
+        this.node = null;
+        this.peekedEvent = null;
+    }
+
+    /** Move to the position of the next event in a depth first walk of the tree */
+    private void advance() {
+        final short nodeType = this.node.getNodeType();
+        if (!this.endOfNode && (nodeType == Node.ELEMENT_NODE || nodeType == Node.DOCUMENT_NODE)) {
+            final Node firstChild = this.node.getFirstChild();
+            if (firstChild != null) {
+                this.node = firstChild;
+            } else {
+                this.endOfNode = true;
+            }
+            return;
+        }
+
+        if (this.node == this.rootNode) {
+            this.node = null;
+            return;
+        }
+
+        final Node nextSibling = this.node.getNextSibling();
+        if (nextSibling != null) {
+            this.node = nextSibling;
+            this.endOfNode = false;
+        } else {
+            this.node = this.node.getParentNode();
+            this.endOfNode = true;
+        }
+    }
+
+    /** @return The event for the start of the node, null if the node is not reported */
+    private XMLEvent createStartEvent(Node node) {
+        switch (node.getNodeType()) {
+            case Node.DOCUMENT_NODE:
+                {
+                    //The DOM is already decoded, the original encoding is meaningless to consumers
+                    return EVENT_FACTORY.createStartDocument();
+                }
+            case Node.ELEMENT_NODE:
+                {
+                    final List<Attribute> attributes = new ArrayList<Attribute>();
+                    final List<Namespace> namespaces = new ArrayList<Namespace>();
+                    this.addAttributes(node, attributes, namespaces);
+
+                    return EVENT_FACTORY.createStartElement(
+                            this.getName(node), attributes.iterator(), namespaces.iterator());
+                }
+            case Node.TEXT_NODE:
+                {
+                    return EVENT_FACTORY.createCharacters(node.getNodeValue());
+                }
+            case Node.CDATA_SECTION_NODE:
+                {
+                    return EVENT_FACTORY.createCData(node.getNodeValue());
+                }
+            case Node.COMMENT_NODE:
+                {
+                    return EVENT_FACTORY.createComment(node.getNodeValue());
+                }
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                {
+                    final ProcessingInstruction processingInstruction =
+                            (ProcessingInstruction) node;
+                    return EVENT_FACTORY.createProcessingInstruction(
+                            processingInstruction.getTarget(), processingInstruction.getData());
+                }
+            default:
+                {
+                    return null;
+                }
+        }
+    }
+
+    /** @return The event for the end of the node, null if the node has no end event */
+    private XMLEvent createEndEvent(Node node) {
+        switch (node.getNodeType()) {
+            case Node.DOCUMENT_NODE:
+                {
+                    return EVENT_FACTORY.createEndDocument();
+                }
+            case Node.ELEMENT_NODE:
+                {
+                    final List<Namespace> namespaces = new ArrayList<Namespace>();
+                    this.addAttributes(node, null, namespaces);
+
+                    return EVENT_FACTORY.createEndElement(
+                            this.getName(node), namespaces.iterator());
+                }
+            default:
+                {
+                    return null;
+                }
+        }
+    }
+
+    /**
+     * Splits the attributes of the element into namespace declarations and regular attributes
+     *
+     * @param attributes List to add the regular attributes to, may be null if they are not needed
+     */
+    private void addAttributes(Node node, List<Attribute> attributes, List<Namespace> namespaces) {
+        final NamedNodeMap attributeMap = node.getAttributes();
+        for (int i = 0; i < attributeMap.getLength(); i++) {
+            final Attr attr = (Attr) attributeMap.item(i);
+            final String attrName = attr.getName();
+
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(attrName)) {
+                namespaces.add(EVENT_FACTORY.createNamespace(attr.getValue()));
+            } else if (attrName.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                final String prefix = attrName.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+                namespaces.add(EVENT_FACTORY.createNamespace(prefix, attr.getValue()));
+            } else if (attributes != null) {
+                final QName name = this.getName(attr);
+                attributes.add(
+                        EVENT_FACTORY.createAttribute(
+                                name.getPrefix(),
+                                name.getNamespaceURI(),
+                                name.getLocalPart(),
+                                attr.getValue()));
+            }
+        }
+    }
+
+    /** Works for DOMs built with and without namespace awareness */
+    private QName getName(Node node) {
+        final String localName = node.getLocalName();
+        if (localName != null) {
+            final String namespaceURI = node.getNamespaceURI();
+            final String prefix = node.getPrefix();
+            return new QName(
+                    namespaceURI != null ? namespaceURI : XMLConstants.NULL_NS_URI,
+                    localName,
+                    prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+        }
+
+        final String nodeName = node.getNodeName();
+        final int separator = nodeName.indexOf(':');
+        if (separator < 0) {
+            return new QName(nodeName);
+        }
+
+        final String prefix = nodeName.substring(0, separator);
+        String namespaceURI = node.lookupNamespaceURI(prefix);
+        if (namespaceURI == null) {
+            if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                namespaceURI = XMLConstants.XML_NS_URI;
+            } else {
+                namespaceURI = XMLConstants.NULL_NS_URI;
+            }
+        }
+        return new QName(namespaceURI, nodeName.substring(separator + 1), prefix);
+    }
+}
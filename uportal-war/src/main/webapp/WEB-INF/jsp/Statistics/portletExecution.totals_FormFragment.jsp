@@ -35,3 +35,11 @@
                     </c:forEach>
                 </form:select>
             </p>
+            <p>
+                <form:label path="totalCount"><spring:message code="total.count"/></form:label>
+                <form:checkbox path="totalCount" />
+            </p>
+            <p>
+                <form:label path="percentiles"><spring:message code="percentiles"/></form:label>
+                <form:checkbox path="percentiles" />
+            </p>
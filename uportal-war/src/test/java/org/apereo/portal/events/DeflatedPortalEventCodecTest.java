@@ -0,0 +1,179 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.xml.namespace.QName;
+import org.apereo.portal.events.handlers.db.DeflatedPortalEventCodec;
+import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
+import org.apereo.portal.security.SystemPerson;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.apereo.portal.url.UrlState;
+import org.apereo.portal.url.UrlType;
+import org.junit.Before;
+import org.junit.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+public class DeflatedPortalEventCodecTest {
+    private ObjectMapper mapper;
+    private DeflatedPortalEventCodec codec;
+    private PortalEvent.PortalEventBuilder eventBuilder;
+    private PortletExecutionEvent.PortletExecutionEventBuilder portletExecutionEventBuilder;
+
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+        codec = new DeflatedPortalEventCodec(mapper);
+
+        eventBuilder =
+                new PortalEvent.PortalEventBuilder(
+                        this,
+                        "example.com",
+                        "1234567890123_system_AAAAAAAAAAA",
+                        SystemPerson.INSTANCE,
+                        null);
+        portletExecutionEventBuilder =
+                new PortletExecutionEvent.PortletExecutionEventBuilder(
+                        eventBuilder,
+                        new MockPortletWindowId("pw1"),
+                        "fname",
+                        12345,
+                        ImmutableMap.<String, List<String>>of(
+                                "action", ImmutableList.of("search"),
+                                "query", ImmutableList.of("fname", "")),
+                        WindowState.MAXIMIZED,
+                        PortletMode.EDIT);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Map<String, List<String>> attributes =
+                ImmutableMap.<String, List<String>>of(
+                        "username",
+                        ImmutableList.of("system"),
+                        "roles",
+                        ImmutableList.of("student", "employee", "student"));
+
+        assertRoundTrip(
+                new LoginEvent(eventBuilder, ImmutableSet.of("Student", "Employee"), attributes));
+        assertRoundTrip(new LogoutEvent(eventBuilder));
+        assertRoundTrip(
+                new PortalRenderEvent(
+                        eventBuilder,
+                        "/f/welcome/normal/render.uP",
+                        -1,
+                        UrlState.NORMAL,
+                        UrlType.RENDER,
+                        Collections.<String, List<String>>emptyMap(),
+                        null));
+        assertRoundTrip(new PortletActionExecutionEvent(portletExecutionEventBuilder));
+        assertRoundTrip(
+                new PortletEventExecutionEvent(
+                        portletExecutionEventBuilder,
+                        new QName("http://example.com/uri", "EventName")));
+        assertRoundTrip(new PortletRenderExecutionEvent(portletExecutionEventBuilder, true, false));
+        assertRoundTrip(
+                new PortletResourceExecutionEvent(
+                        portletExecutionEventBuilder, "r\u00e9source", false, true));
+        assertRoundTrip(
+                new PortletMovedInLayoutPortalEvent(
+                        eventBuilder, SystemPerson.INSTANCE, Long.MAX_VALUE, "s1", "s2", "fname"));
+    }
+
+    @Test
+    public void testSmallerThanJson() throws Exception {
+        final PortalEvent event =
+                new PortletRenderExecutionEvent(portletExecutionEventBuilder, true, false);
+
+        final String json = mapper.writeValueAsString(event);
+        final String encoded = codec.encode(event);
+
+        assertTrue(encoded + " vs " + json, encoded.length() * 3 < json.length() * 2);
+    }
+
+    @Test
+    public void testJsonIsNotEncoded() throws Exception {
+        final String json = mapper.writeValueAsString(new LogoutEvent(eventBuilder));
+
+        assertFalse(DeflatedPortalEventCodec.isEncoded(json));
+        assertTrue(DeflatedPortalEventCodec.isEncoded(codec.encode(new LogoutEvent(eventBuilder))));
+        try {
+            codec.decode(json, PortalEvent.class);
+            fail();
+        } catch (JsonParseException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        final byte[] data =
+                Base64.getDecoder()
+                        .decode(codec.encode(new LogoutEvent(eventBuilder)).substring(1));
+
+        // unknown version
+        final byte[] version = data.clone();
+        version[0] = 99;
+        assertDecodeFails(
+                DeflatedPortalEventCodec.PREFIX + Base64.getEncoder().encodeToString(version));
+
+        // truncated
+        for (int length = 1; length < data.length; length++) {
+            final byte[] truncated = new byte[length];
+            System.arraycopy(data, 0, truncated, 0, length);
+            assertDecodeFails(
+                    DeflatedPortalEventCodec.PREFIX
+                            + Base64.getEncoder().encodeToString(truncated));
+        }
+    }
+
+    private void assertDecodeFails(String eventData) throws Exception {
+        try {
+            codec.decode(eventData, PortalEvent.class);
+            fail("Decoded corrupt event data: " + eventData);
+        } catch (JsonProcessingException e) {
+            //expected
+        }
+    }
+
+    private void assertRoundTrip(PortalEvent event) throws Exception {
+        final String json = mapper.writeValueAsString(event);
+        final String encoded = codec.encode(event);
+
+        final PortalEvent decoded = codec.decode(encoded, PortalEvent.class);
+        assertEquals(event.getClass(), decoded.getClass());
+        assertEquals(event.getTimestamp(), decoded.getTimestamp());
+        // sets are not read back in their original order
+        JSONAssert.assertEquals(json, mapper.writeValueAsString(decoded), false);
+    }
+}
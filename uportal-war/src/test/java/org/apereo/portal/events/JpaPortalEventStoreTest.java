@@ -15,8 +15,10 @@
 package org.apereo.portal.events;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
@@ -148,6 +150,77 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
     }
 
+    @Test
+    public void testAggregateStopAndError() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+
+        final List<PortalEvent> originalEvents = generateEvents();
+
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        portalEventDao.storePortalEvents(originalEvents);
+                    }
+                });
+
+        //Handle the first event, fail on the second, handle the third and stop on the fourth
+        final List<PortalEvent> firstRunEvents = new LinkedList<PortalEvent>();
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        final boolean complete =
+                                portalEventDao.aggregatePortalEvents(
+                                        startDate,
+                                        endDate,
+                                        -1,
+                                        new Function<PortalEvent, Boolean>() {
+                                            @Override
+                                            public Boolean apply(PortalEvent input) {
+                                                firstRunEvents.add(input);
+                                                if (firstRunEvents.size() == 2) {
+                                                    throw new IllegalStateException(
+                                                            "Test aggregation failure");
+                                                }
+                                                return firstRunEvents.size() < 4;
+                                            }
+                                        });
+                        assertFalse(complete);
+                    }
+                });
+        assertEquals(4, firstRunEvents.size());
+
+        //The failed and handled events are flagged, aggregation resumes with the fourth event
+        final List<PortalEvent> secondRunEvents = new LinkedList<PortalEvent>();
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        final boolean complete =
+                                portalEventDao.aggregatePortalEvents(
+                                        startDate,
+                                        endDate,
+                                        -1,
+                                        new Function<PortalEvent, Boolean>() {
+                                            @Override
+                                            public Boolean apply(PortalEvent input) {
+                                                secondRunEvents.add(input);
+                                                return Boolean.TRUE;
+                                            }
+                                        });
+                        assertTrue(complete);
+                    }
+                });
+        assertEquals(originalEvents.size() - 3, secondRunEvents.size());
+        assertEquals(
+                firstRunEvents.get(3).getTimestampAsDate(),
+                secondRunEvents.get(0).getTimestampAsDate());
+
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+    }
+
     protected void verifyGetEvents(
             final List<PortalEvent> originalEvents,
             final DateTime startDate,
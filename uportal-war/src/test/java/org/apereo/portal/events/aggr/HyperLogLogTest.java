@@ -0,0 +1,121 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testCardinalityEstimate() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        assertEquals(0, sketch.cardinality());
+
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("user" + i);
+        }
+        //Re-adding values must not change the estimate
+        final long estimate = sketch.cardinality();
+        for (int i = 0; i < 100000; i++) {
+            assertFalse(sketch.add("user" + i));
+        }
+        assertEquals(estimate, sketch.cardinality());
+
+        //Precision 12 has a ~1.6% standard error, allow for 3 standard deviations
+        assertEquals(100000, estimate, 100000 * 0.05);
+    }
+
+    @Test
+    public void testSmallCardinalityEstimate() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 10; i++) {
+            sketch.add("user" + i);
+        }
+        assertEquals(10, sketch.cardinality());
+    }
+
+    @Test
+    public void testMerge() {
+        final HyperLogLog first = new HyperLogLog(10);
+        final HyperLogLog second = new HyperLogLog(10);
+        final HyperLogLog union = new HyperLogLog(10);
+        for (int i = 0; i < 20000; i++) {
+            first.add("user" + i);
+            union.add("user" + i);
+        }
+        for (int i = 10000; i < 30000; i++) {
+            second.add("user" + i);
+            union.add("user" + i);
+        }
+
+        final HyperLogLog merged = HyperLogLog.copyOf(first);
+        assertTrue(merged.merge(second));
+        assertEquals(union, merged);
+        assertEquals(union.cardinality(), merged.cardinality());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergePrecisionMismatch() {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+
+    @Test
+    public void testSerialization() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        final byte[] empty = sketch.toBytes();
+        assertEquals(sketch, HyperLogLog.fromBytes(empty));
+
+        //Sparse format
+        for (int i = 0; i < 100; i++) {
+            sketch.add("user" + i);
+        }
+        final byte[] sparse = sketch.toBytes();
+        assertTrue(sparse.length < 1 << 12);
+        assertEquals(sketch, HyperLogLog.fromBytes(sparse));
+
+        //Dense format
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("user" + i);
+        }
+        final byte[] dense = sketch.toBytes();
+        assertEquals(3 + (1 << 12), dense.length);
+        assertEquals(sketch, HyperLogLog.fromBytes(dense));
+    }
+
+    @Test
+    public void testUniqueStringsSketch() {
+        final UniqueStringsSketch sketch = new UniqueStringsSketch(12);
+        assertTrue(sketch.isOpen());
+        assertTrue(sketch.add("user1"));
+        assertFalse(sketch.add("user1"));
+        assertTrue(sketch.add("user2"));
+        assertEquals(2, sketch.cardinality());
+
+        //Sketch data is written once when the owning entity is flushed
+        assertTrue(sketch.isModified());
+        sketch.updateSketchData();
+        assertFalse(sketch.isModified());
+        assertFalse(sketch.add("user2"));
+        assertFalse(sketch.isModified());
+
+        sketch.close();
+        assertFalse(sketch.isOpen());
+        assertEquals(2, sketch.getSketch().cardinality());
+    }
+}
@@ -48,7 +48,7 @@ public class JpaLoginAggregationDaoTest
     @Override
     protected void updateAggregation(
             AggregationIntervalInfo intervalInfo, LoginAggregationImpl aggregation, Random r) {
-        aggregation.countUser(RandomStringUtils.random(8, 0, 0, true, true, null, r));
+        aggregation.countUser(RandomStringUtils.random(8, 0, 0, true, true, null, r), 0);
     }
 
     @Override
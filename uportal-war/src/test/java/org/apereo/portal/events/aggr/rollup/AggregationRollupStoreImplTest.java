@@ -0,0 +1,208 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.apereo.portal.events.aggr.AggregationInterval;
+import org.apereo.portal.events.aggr.IEventAggregatorStatus;
+import org.apereo.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.login.LoginAggregation;
+import org.apereo.portal.events.aggr.login.LoginAggregationDao;
+import org.apereo.portal.events.aggr.login.LoginAggregationKey;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AggregationRollupStoreImplTest {
+    private static final DateTime JAN_1 = new DateTime(2026, 1, 1, 0, 0);
+
+    @InjectMocks
+    private AggregationRollupStoreImpl aggregationRollupStore = new AggregationRollupStoreImpl();
+
+    @Mock private LoginAggregationDao<LoginAggregation> loginAggregationDao;
+    @Mock private IEventAggregationManagementDao eventAggregationManagementDao;
+    @Mock private IEventAggregatorStatus eventAggregatorStatus;
+    @Mock private AggregatedGroupMapping group;
+
+    private final List<LoginAggregation> aggregations = new ArrayList<LoginAggregation>();
+    private final List<String> loadedRanges = new ArrayList<String>();
+
+    @Before
+    public void setup() {
+        aggregationRollupStore.setRetainedIntervals(5);
+
+        when(eventAggregationManagementDao.getEventAggregatorStatus(
+                        ProcessingType.AGGREGATION, false))
+                .thenReturn(eventAggregatorStatus);
+        when(loginAggregationDao.getAggregatedGroupMappings()).thenReturn(ImmutableSet.of(group));
+        when(loginAggregationDao.getAggregations(
+                        any(DateTime.class),
+                        any(DateTime.class),
+                        anySetOf(LoginAggregationKey.class)))
+                .then(
+                        new Answer<List<LoginAggregation>>() {
+                            @Override
+                            public List<LoginAggregation> answer(InvocationOnMock invocation)
+                                    throws Throwable {
+                                final DateTime start = (DateTime) invocation.getArguments()[0];
+                                final DateTime end = (DateTime) invocation.getArguments()[1];
+                                loadedRanges.add(start.getDayOfMonth() + "-" + end.getDayOfMonth());
+
+                                //Most recent first, like the JPA aggregation DAOs
+                                final List<LoginAggregation> result =
+                                        new ArrayList<LoginAggregation>();
+                                for (final LoginAggregation aggregation : aggregations) {
+                                    if (!aggregation.getDateTime().isBefore(start)
+                                            && aggregation.getDateTime().isBefore(end)) {
+                                        result.add(0, aggregation);
+                                    }
+                                }
+                                return result;
+                            }
+                        });
+
+        //One login on Jan 1st, two on Jan 2nd, ...
+        for (int day = 1; day <= 10; day++) {
+            addAggregation(day);
+        }
+        setNow(10);
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void testTotals() {
+        final RollupKey key = new RollupKey(group, null);
+
+        // 1-5 from the aggregation tables, 5-10 rolled up, 10 is still being aggregated
+        assertEquals(
+                ImmutableMap.of(key, 55L),
+                aggregationRollupStore.getTotals(
+                        RollupMetric.LOGINS, AggregationInterval.DAY, JAN_1, JAN_1.plusDays(10)));
+        assertEquals(ImmutableList.of("5-10", "1-5", "10-11"), loadedRanges);
+
+        // Entirely rolled up
+        loadedRanges.clear();
+        assertEquals(
+                ImmutableMap.of(key, 6L + 7L + 8L),
+                aggregationRollupStore.getTotals(
+                        RollupMetric.LOGINS,
+                        AggregationInterval.DAY,
+                        JAN_1.plusDays(5),
+                        JAN_1.plusDays(8)));
+        assertEquals(ImmutableList.of(), loadedRanges);
+
+        // No data
+        assertEquals(
+                ImmutableMap.of(),
+                aggregationRollupStore.getTotals(
+                        RollupMetric.LOGINS, AggregationInterval.DAY, JAN_1.minusDays(5), JAN_1));
+    }
+
+    @Test
+    public void testLatestValues() {
+        final RollupKey key = new RollupKey(group, null);
+
+        // the day still being aggregated
+        assertEquals(
+                ImmutableMap.of(key, 10L),
+                aggregationRollupStore.getLatestValues(
+                        RollupMetric.LOGINS, AggregationInterval.DAY, JAN_1, JAN_1.plusDays(10)));
+        // rolled up
+        assertEquals(
+                ImmutableMap.of(key, 7L),
+                aggregationRollupStore.getLatestValues(
+                        RollupMetric.LOGINS,
+                        AggregationInterval.DAY,
+                        JAN_1.plusDays(2),
+                        JAN_1.plusDays(7)));
+        // entirely from the aggregation tables
+        assertEquals(
+                ImmutableMap.of(key, 3L),
+                aggregationRollupStore.getLatestValues(
+                        RollupMetric.LOGINS, AggregationInterval.DAY, JAN_1, JAN_1.plusDays(3)));
+        assertEquals(
+                ImmutableMap.of(),
+                aggregationRollupStore.getLatestValues(
+                        RollupMetric.LOGINS, AggregationInterval.DAY, JAN_1.minusDays(5), JAN_1));
+    }
+
+    @Test
+    public void testIncrementalRefresh() {
+        final RollupKey key = new RollupKey(group, null);
+
+        aggregationRollupStore.getTotals(
+                RollupMetric.LOGINS, AggregationInterval.DAY, JAN_1.plusDays(5), JAN_1.plusDays(6));
+
+        //Jan 11th starts, Jan 10th is closed
+        addAggregation(11);
+        setNow(11);
+        aggregationRollupStore.aggregationsUpdated();
+
+        loadedRanges.clear();
+        assertEquals(
+                ImmutableMap.of(key, 66L),
+                aggregationRollupStore.getTotals(
+                        RollupMetric.LOGINS, AggregationInterval.DAY, JAN_1, JAN_1.plusDays(11)));
+        // only the newly closed day is read for the roll-up, the oldest day dropped out of it
+        assertEquals(ImmutableList.of("10-11", "1-6", "11-12"), loadedRanges);
+    }
+
+    @Test
+    public void testUnsupportedInterval() {
+        aggregationRollupStore.getTotals(
+                RollupMetric.LOGINS, AggregationInterval.ACADEMIC_TERM, JAN_1, JAN_1.plusDays(10));
+        assertEquals(ImmutableList.of("1-11"), loadedRanges);
+    }
+
+    private void addAggregation(int day) {
+        final LoginAggregation aggregation = mock(LoginAggregation.class);
+        when(aggregation.getDateTime()).thenReturn(JAN_1.plusDays(day - 1));
+        when(aggregation.getAggregatedGroup()).thenReturn(group);
+        when(aggregation.getLoginCount()).thenReturn(day);
+        aggregations.add(aggregation);
+    }
+
+    /** Set the current time to noon on the day, the last aggregated event 10 minutes earlier */
+    private void setNow(int day) {
+        final DateTime now = JAN_1.plusDays(day - 1).withHourOfDay(12);
+        DateTimeUtils.setCurrentMillisFixed(now.getMillis());
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(now.minusMinutes(10));
+    }
+}
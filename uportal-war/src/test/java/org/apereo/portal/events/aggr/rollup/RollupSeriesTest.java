@@ -0,0 +1,83 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class RollupSeriesTest {
+    @Test
+    public void testSumCountAndLast() {
+        final RollupSeries series = new RollupSeries();
+        for (int i = 0; i < 100; i++) {
+            series.put(i * 10, i);
+        }
+
+        assertEquals(100, series.size());
+        assertEquals(4950, series.sum(0, 1000));
+        assertEquals(4950, series.sum(-50, 5000));
+        assertEquals(1 + 2 + 3, series.sum(10, 40));
+        assertEquals(1 + 2 + 3, series.sum(5, 35));
+        assertEquals(0, series.sum(11, 19));
+        assertEquals(0, series.sum(40, 10));
+        assertEquals(3, series.count(5, 35));
+        assertEquals(0, series.count(11, 19));
+
+        assertEquals(Long.valueOf(3), series.last(15, 35));
+        assertEquals(Long.valueOf(99), series.last(-10, 5000));
+        assertNull(series.last(11, 19));
+        assertNull(series.last(-20, 0));
+    }
+
+    @Test
+    public void testPutOutOfOrderAndReplace() {
+        final RollupSeries series = new RollupSeries();
+        series.put(30, 3);
+        series.put(10, 1);
+        series.put(20, 2);
+        series.put(20, 5);
+
+        assertEquals(3, series.size());
+        assertEquals(9, series.sum(0, 100));
+        assertEquals(6, series.sum(0, 30));
+        assertEquals(Long.valueOf(5), series.last(0, 30));
+        assertEquals(Long.valueOf(3), series.last(0, 100));
+    }
+
+    @Test
+    public void testTrim() {
+        final RollupSeries series = new RollupSeries();
+        for (int i = 0; i < 20; i++) {
+            series.put(i, 1);
+        }
+
+        series.trim(5);
+        assertEquals(15, series.size());
+        assertEquals(15, series.sum(0, 100));
+        assertEquals(0, series.count(0, 5));
+
+        series.trim(0);
+        assertEquals(15, series.size());
+
+        series.put(100, 10);
+        assertEquals(25, series.sum(0, 1000));
+
+        series.trim(1000);
+        assertEquals(0, series.size());
+        assertEquals(0, series.sum(0, 1000));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class TimingHistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE}) {
+            final int index = TimingHistogram.getBucketIndex(value);
+            assertTrue(value >= TimingHistogram.getBucketLowerBound(index));
+            assertTrue(value <= TimingHistogram.getBucketUpperBound(index));
+        }
+        assertEquals(
+                TimingHistogram.getBucketUpperBound(100) + 1,
+                TimingHistogram.getBucketLowerBound(101));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final Random r = new Random(0);
+        final TimingHistogram histogram = new TimingHistogram();
+        final long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            //Log-normal-ish render times between ~1ms and ~1s
+            values[i] = (long) Math.exp(14 + r.nextGaussian() * 1.5);
+            histogram.addValue(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getN());
+        assertEquals(values[0], histogram.getMin(), 0);
+        assertEquals(values[values.length - 1], histogram.getMax(), 0);
+        assertEquals(values[values.length - 1], histogram.getPercentile(100), 0);
+        for (final double percentile : new double[] {50, 90, 95, 99, 99.9}) {
+            final long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            assertEquals(expected, histogram.getPercentile(percentile), expected * 0.04);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        final TimingHistogram histogram =
+                TimingHistogram.fromBytes(new TimingHistogram().toBytes());
+        assertEquals(0, histogram.getN());
+        assertTrue(Double.isNaN(histogram.getPercentile(95)));
+    }
+
+    @Test
+    public void testMergeAndSerialization() {
+        final TimingHistogram first = new TimingHistogram();
+        final TimingHistogram second = new TimingHistogram();
+        final TimingHistogram all = new TimingHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            first.addValue(i * 1000L);
+            all.addValue(i * 1000L);
+        }
+        for (int i = 1; i <= 500; i++) {
+            second.addValue(i * 1000000L);
+            all.addValue(i * 1000000L);
+        }
+
+        final TimingHistogram merged = TimingHistogram.copyOf(first);
+        merged.merge(second);
+        assertEquals(all.getN(), merged.getN());
+        assertEquals(all.getMin(), merged.getMin(), 0);
+        assertEquals(all.getMax(), merged.getMax(), 0);
+        assertEquals(all.getPercentile(95), merged.getPercentile(95), 0);
+        assertEquals(1000, first.getN());
+
+        final byte[] data = merged.toBytes();
+        assertTrue(data.length < 2048);
+        final TimingHistogram restored = TimingHistogram.fromBytes(data);
+        assertEquals(merged.getN(), restored.getN());
+        for (double percentile = 0; percentile <= 100; percentile += 5) {
+            assertEquals(merged.getPercentile(percentile), restored.getPercentile(percentile), 0);
+        }
+    }
+}
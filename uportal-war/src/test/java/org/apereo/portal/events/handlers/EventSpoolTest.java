@@ -0,0 +1,143 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apereo.portal.events.handlers.EventSpool.DropPolicy;
+import org.apereo.portal.events.handlers.EventSpool.SpooledRecords;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventSpoolTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadAdvanceAndReplay() throws Exception {
+        final File directory = folder.newFolder("spool");
+
+        EventSpool spool = new EventSpool(directory, 64, 10, DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spool.append(record(i)));
+        }
+        assertEquals(10, spool.getRecordCount());
+
+        SpooledRecords records = spool.read(4);
+        assertEquals(toStrings(0, 4), toStrings(records));
+
+        //Reading again without advancing returns the same records
+        assertEquals(toStrings(0, 4), toStrings(spool.read(4)));
+
+        spool.advance(records);
+        assertEquals(6, spool.getRecordCount());
+        spool.close();
+
+        //Only the unread records are replayed
+        spool = new EventSpool(directory, 64, 10, DropPolicy.DROP_NEWEST);
+        assertEquals(6, spool.getRecordCount());
+        records = spool.read(100);
+        assertEquals(toStrings(4, 10), toStrings(records));
+
+        spool.append(record(10));
+        spool.advance(records);
+        assertEquals(toStrings(10, 11), toStrings(spool.read(100)));
+        spool.close();
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        //Room for 2 records per segment
+        final EventSpool spool =
+                new EventSpool(folder.newFolder("spool"), 40, 2, DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(spool.append(record(i)));
+        }
+        assertFalse(spool.append(record(4)));
+
+        assertEquals(1, spool.getDroppedCount());
+        assertEquals(toStrings(0, 4), toStrings(spool.read(100)));
+        spool.close();
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        final EventSpool spool =
+                new EventSpool(folder.newFolder("spool"), 40, 2, DropPolicy.DROP_OLDEST);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(spool.append(record(i)));
+        }
+
+        final SpooledRecords records = spool.read(2);
+
+        assertTrue(spool.append(record(3)));
+        assertTrue(spool.append(record(4)));
+        assertEquals(2, spool.getDroppedCount());
+
+        //Records dropped after being read are not consumed twice
+        spool.advance(records);
+        assertEquals(toStrings(2, 5), toStrings(spool.read(100)));
+        spool.close();
+    }
+
+    @Test
+    public void testSegmentsArePreallocated() throws Exception {
+        final File directory = folder.newFolder("spool");
+
+        //Room for 2 records per segment, the next segment is created before it is needed
+        EventSpool spool = new EventSpool(directory, 40, 3, DropPolicy.DROP_NEWEST);
+        assertEquals(40, spool.getSpoolSize());
+        assertTrue(spool.append(record(0)));
+        assertEquals(80, spool.getSpoolSize());
+
+        for (int i = 1; i < 6; i++) {
+            assertTrue(spool.append(record(i)));
+        }
+        assertFalse(spool.append(record(6)));
+        spool.close();
+
+        //The unused spare segment is removed on close, records replay in order
+        assertEquals(3, directory.listFiles().length - 1);
+        spool = new EventSpool(directory, 40, 3, DropPolicy.DROP_NEWEST);
+        assertEquals(toStrings(0, 6), toStrings(spool.read(100)));
+        spool.close();
+    }
+
+    private static byte[] record(int i) {
+        return ("event-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> toStrings(int start, int end) {
+        final List<String> strings = new ArrayList<String>();
+        for (int i = start; i < end; i++) {
+            strings.add("event-" + i);
+        }
+        return strings;
+    }
+
+    private static List<String> toStrings(SpooledRecords records) {
+        final List<String> strings = new ArrayList<String>();
+        for (final byte[] record : records.getRecords()) {
+            strings.add(new String(record, StandardCharsets.UTF_8));
+        }
+        return strings;
+    }
+}
@@ -14,6 +14,8 @@
  */
 package org.apereo.portal.groups.pags;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.Vector;
 import junit.framework.TestCase;
@@ -526,6 +528,47 @@ public class PAGSTest extends TestCase {
         print(CR + "***** LEAVING PAGSTester.testValueMissingTester() *****" + CR);
     }
 
+    public void testSharedTesterResults() throws Exception {
+        IPerson newPerson = getIPerson("de3");
+        newPerson.setAttribute(key1, randomStrings[0]);
+
+        final int[] evaluations = new int[1];
+        final IPersonTester shared =
+                new IPersonTester() {
+                    @Override
+                    public boolean test(IPerson person) {
+                        evaluations[0]++;
+                        return true;
+                    }
+                };
+        IPersonTester tester1 =
+                new StringEqualsTester(
+                        new TestPersonAttributesGroupTestDefinition(key1, randomStrings[0]));
+        IPersonTester tester2 =
+                new ValueExistsTester(
+                        new TestPersonAttributesGroupTestDefinition(missingKey, null));
+
+        TestGroup testGroup1 = new TestGroup();
+        testGroup1.addTest(shared);
+        testGroup1.addTest(tester1);
+        PagsGroup group1 = new PagsGroup();
+        group1.addTestGroup(testGroup1);
+
+        TestGroup testGroup2 = new TestGroup();
+        testGroup2.addTest(shared);
+        testGroup2.addTest(tester2);
+        PagsGroup group2 = new PagsGroup();
+        group2.addTestGroup(testGroup2);
+
+        Map<IPersonTester, Boolean> results = new IdentityHashMap<>();
+        assertTrue(group1.contains(newPerson, results));
+        assertFalse(group2.contains(newPerson, results));
+        assertEquals(group1.contains(newPerson), group1.contains(newPerson, results));
+        assertEquals(group2.contains(newPerson), group2.contains(newPerson, results));
+        assertEquals(3, evaluations[0]);
+        assertFalse(new PagsGroup().contains(newPerson, results));
+    }
+
     /*
      * Nested Types
      */
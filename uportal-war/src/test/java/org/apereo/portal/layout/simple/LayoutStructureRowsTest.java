@@ -0,0 +1,140 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayoutStructureRowsTest {
+    private Connection con;
+
+    @Before
+    public void setup() throws Exception {
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        this.con = DriverManager.getConnection("jdbc:hsqldb:mem:LayoutStructureRowsTest", "sa", "");
+        final Statement stmt = this.con.createStatement();
+        try {
+            stmt.execute(
+                    "CREATE TABLE UP_LAYOUT_STRUCT (USER_ID INTEGER, LAYOUT_ID INTEGER, STRUCT_ID INTEGER, "
+                            + "NEXT_STRUCT_ID INTEGER, CHLD_STRUCT_ID INTEGER, EXTERNAL_ID VARCHAR(64), CHAN_ID INTEGER, "
+                            + "NAME VARCHAR(35), TYPE VARCHAR(35), HIDDEN VARCHAR(1), IMMUTABLE VARCHAR(1), UNREMOVABLE VARCHAR(1), "
+                            + "PRIMARY KEY (USER_ID, LAYOUT_ID, STRUCT_ID))");
+            stmt.execute(
+                    "CREATE TABLE UP_LAYOUT_PARAM (USER_ID INTEGER, LAYOUT_ID INTEGER, STRUCT_ID INTEGER, "
+                            + "STRUCT_PARM_NM VARCHAR(35), STRUCT_PARM_VAL VARCHAR(2000), "
+                            + "PRIMARY KEY (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM))");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final Statement stmt = this.con.createStatement();
+        try {
+            stmt.execute("DROP TABLE UP_LAYOUT_STRUCT");
+            stmt.execute("DROP TABLE UP_LAYOUT_PARAM");
+        } finally {
+            stmt.close();
+        }
+        this.con.close();
+    }
+
+    @Test
+    public void testSaveOnlyChangedRows() throws Exception {
+        final LayoutStructureRows originalRows = new LayoutStructureRows();
+        originalRows.addStructure(1, folder(0, 2, "Tab"));
+        originalRows.addStructure(2, channel(3, 0, 10));
+        originalRows.addStructure(3, channel(0, 0, 11));
+        originalRows.addParameter(2, "dlm:moveAllowed", "false");
+        originalRows.addParameter(3, "color", "red");
+        originalRows.save(this.con, 5, 1, LayoutStructureRows.load(this.con, 5, 1));
+
+        //Another user's layout must not be touched
+        final LayoutStructureRows otherRows = new LayoutStructureRows();
+        otherRows.addStructure(1, folder(0, 0, "Other"));
+        otherRows.save(this.con, 6, 1, LayoutStructureRows.load(this.con, 6, 1));
+
+        assertEquals(4, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_STRUCT"));
+        assertEquals(2, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_PARAM"));
+
+        //Swap the two channels, drop one parameter, change another and add a new channel
+        final LayoutStructureRows updatedRows = new LayoutStructureRows();
+        updatedRows.addStructure(1, folder(0, 3, "Tab"));
+        updatedRows.addStructure(3, channel(2, 0, 11));
+        updatedRows.addStructure(2, channel(4, 0, 10));
+        updatedRows.addStructure(4, channel(0, 0, 12));
+        updatedRows.addParameter(3, "color", "blue");
+        updatedRows.addParameter(4, "dlm:deleteAllowed", "false");
+        updatedRows.save(this.con, 5, 1, LayoutStructureRows.load(this.con, 5, 1));
+
+        assertEquals(5, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_STRUCT"));
+        assertEquals(
+                3,
+                queryForInt(
+                        "SELECT CHLD_STRUCT_ID FROM UP_LAYOUT_STRUCT WHERE USER_ID=5 AND STRUCT_ID=1"));
+        assertEquals(
+                4,
+                queryForInt(
+                        "SELECT NEXT_STRUCT_ID FROM UP_LAYOUT_STRUCT WHERE USER_ID=5 AND STRUCT_ID=2"));
+        assertEquals(
+                12,
+                queryForInt(
+                        "SELECT CHAN_ID FROM UP_LAYOUT_STRUCT WHERE USER_ID=5 AND STRUCT_ID=4"));
+        assertEquals(0, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_PARAM WHERE STRUCT_ID=2"));
+        assertEquals(
+                1,
+                queryForInt(
+                        "SELECT COUNT(*) FROM UP_LAYOUT_PARAM WHERE STRUCT_ID=3 AND STRUCT_PARM_VAL='blue'"));
+        assertEquals(1, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_PARAM WHERE STRUCT_ID=4"));
+        assertEquals(1, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_STRUCT WHERE USER_ID=6"));
+
+        //Remove everything but the tab
+        final LayoutStructureRows emptiedRows = new LayoutStructureRows();
+        emptiedRows.addStructure(1, folder(0, 0, "Tab"));
+        emptiedRows.save(this.con, 5, 1, LayoutStructureRows.load(this.con, 5, 1));
+
+        assertEquals(1, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_STRUCT WHERE USER_ID=5"));
+        assertEquals(0, queryForInt("SELECT COUNT(*) FROM UP_LAYOUT_PARAM WHERE USER_ID=5"));
+    }
+
+    private static LayoutStructureRows.Structure folder(int next, int child, String name) {
+        return new LayoutStructureRows.Structure(
+                next, child, null, null, name, "regular", "N", "N", "N");
+    }
+
+    private static LayoutStructureRows.Structure channel(int next, int child, int chanId) {
+        return new LayoutStructureRows.Structure(
+                next, child, null, chanId, null, null, "N", "N", "N");
+    }
+
+    private int queryForInt(String sql) throws Exception {
+        final Statement stmt = this.con.createStatement();
+        try {
+            final ResultSet rs = stmt.executeQuery(sql);
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            stmt.close();
+        }
+    }
+}
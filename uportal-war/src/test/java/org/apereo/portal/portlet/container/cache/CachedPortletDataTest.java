@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apereo.portal.portlet.rendering.PortletOutputHandler;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachedPortletDataTest {
+    private static final String OUTPUT =
+            StringUtils.repeat("<li>Caf\u00e9 \u2615 news item</li>\n", 200);
+
+    @Mock private PortletOutputHandler portletOutputHandler;
+
+    @Test
+    public void testCompressedWriterReplay() throws Exception {
+        final CachedPortletData<Long> cachedPortletData = newWriterData();
+        cachedPortletData.compact(1024, 0);
+
+        assertTrue(cachedPortletData.getStoredLength() < OUTPUT.length() / 4);
+        assertEquals(OUTPUT, cachedPortletData.getCachedWriterOutput());
+        assertEquals(OUTPUT, replayWriter(cachedPortletData));
+    }
+
+    @Test
+    public void testOffHeapStreamReplay() throws Exception {
+        final byte[] output = OUTPUT.getBytes("UTF-8");
+        final CachedPortletData<Long> cachedPortletData =
+                new CachedPortletData<Long>(1l, null, output, "text/xml", true, null, 300);
+        cachedPortletData.compact(0, 1024);
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(portletOutputHandler.getOutputStream()).thenReturn(outputStream);
+        cachedPortletData.replay(portletOutputHandler);
+        assertArrayEquals(output, outputStream.toByteArray());
+
+        //Replay must not consume the off-heap buffer
+        assertArrayEquals(output, cachedPortletData.getCachedStreamOutput());
+    }
+
+    @Test
+    public void testSmallOutputNotCompressed() throws Exception {
+        final CachedPortletData<Long> cachedPortletData =
+                new CachedPortletData<Long>(1l, "<p>hi</p>", null, null, true, null, 300);
+        cachedPortletData.compact(1024, 1024);
+
+        assertEquals(9, cachedPortletData.getStoredLength());
+        assertEquals("<p>hi</p>", replayWriter(cachedPortletData));
+    }
+
+    @Test
+    public void testSerializeCompactedData() throws Exception {
+        final CachedPortletData<Long> cachedPortletData = newWriterData();
+        cachedPortletData.compact(1024, 1024);
+
+        @SuppressWarnings("unchecked")
+        final CachedPortletData<Long> copy =
+                (CachedPortletData<Long>)
+                        SerializationUtils.deserialize(
+                                SerializationUtils.serialize(cachedPortletData));
+
+        assertEquals(cachedPortletData.getStoredLength(), copy.getStoredLength());
+        assertEquals(OUTPUT, replayWriter(copy));
+    }
+
+    private CachedPortletData<Long> newWriterData() {
+        return new CachedPortletData<Long>(1l, OUTPUT, null, "text/html", true, null, 300);
+    }
+
+    private String replayWriter(CachedPortletData<Long> cachedPortletData) throws Exception {
+        final StringWriter writer = new StringWriter();
+        when(portletOutputHandler.getPrintWriter()).thenReturn(new PrintWriter(writer));
+        cachedPortletData.replay(portletOutputHandler);
+        return writer.toString();
+    }
+}
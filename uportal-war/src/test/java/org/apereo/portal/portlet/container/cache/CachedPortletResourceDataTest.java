@@ -0,0 +1,123 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apereo.portal.portlet.rendering.PortletResourceOutputHandler;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachedPortletResourceDataTest {
+    private static final String OUTPUT = StringUtils.repeat("{\"item\":\"Caf\u00e9\"},", 200);
+
+    @Mock private PortletResourceOutputHandler portletOutputHandler;
+
+    @Test
+    public void testGzipVariantReplay() throws Exception {
+        final CachedPortletResourceData<Long> resourceData =
+                newResourceData("application/json", "UTF-8");
+        resourceData.createGzipVariant(1024, 0);
+        assertTrue(resourceData.hasGzipVariant());
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        when(portletOutputHandler.getOutputStream()).thenReturn(outputStream);
+        resourceData.replay(portletOutputHandler, true);
+
+        verify(portletOutputHandler).setHeader("Content-Encoding", "gzip");
+        verify(portletOutputHandler).addHeader("Vary", "Accept-Encoding");
+        verify(portletOutputHandler).setContentLength(outputStream.size());
+        final byte[] content =
+                IOUtils.toByteArray(
+                        new GZIPInputStream(new ByteArrayInputStream(outputStream.toByteArray())));
+        assertArrayEquals(OUTPUT.getBytes("UTF-8"), content);
+    }
+
+    @Test
+    public void testIdentityReplay() throws Exception {
+        final CachedPortletResourceData<Long> resourceData =
+                newResourceData("application/json", "UTF-8");
+        resourceData.createGzipVariant(1024, 0);
+
+        final StringWriter writer = new StringWriter();
+        when(portletOutputHandler.getPrintWriter()).thenReturn(new PrintWriter(writer));
+        resourceData.replay(portletOutputHandler, false);
+
+        verify(portletOutputHandler, never()).setHeader("Content-Encoding", "gzip");
+        verify(portletOutputHandler).addHeader("Vary", "Accept-Encoding");
+        assertEquals(OUTPUT, writer.toString());
+    }
+
+    @Test
+    public void testNoGzipVariant() throws Exception {
+        //Binary content and writer output with an unknown charset are not compressed
+        final CachedPortletResourceData<Long> imageData = newResourceData("image/png", "UTF-8");
+        imageData.createGzipVariant(1024, 0);
+        assertFalse(imageData.hasGzipVariant());
+
+        final CachedPortletResourceData<Long> unknownCharsetData =
+                newResourceData("text/plain", null);
+        unknownCharsetData.createGzipVariant(1024, 0);
+        assertFalse(unknownCharsetData.hasGzipVariant());
+
+        final CachedPortletResourceData<Long> contentTypeCharsetData =
+                newResourceData("text/plain; charset=UTF-8", null);
+        contentTypeCharsetData.createGzipVariant(1024, 0);
+        assertTrue(contentTypeCharsetData.hasGzipVariant());
+    }
+
+    @Test
+    public void testConditionalHeaderParsing() {
+        assertTrue(PortletCachingHeaderUtils.isGzipAccepted("gzip, deflate, br"));
+        assertTrue(PortletCachingHeaderUtils.isGzipAccepted("deflate;q=1.0, gzip;q=0.5"));
+        assertFalse(PortletCachingHeaderUtils.isGzipAccepted("gzip;q=0, deflate"));
+        assertFalse(PortletCachingHeaderUtils.isGzipAccepted(null));
+
+        assertTrue(PortletCacheControlServiceImpl.etagMatches("\"abc\"", "abc"));
+        assertTrue(PortletCacheControlServiceImpl.etagMatches("\"x\", W/\"abc\"", "abc"));
+        assertTrue(PortletCacheControlServiceImpl.etagMatches("*", "abc"));
+        assertFalse(PortletCacheControlServiceImpl.etagMatches("\"abcd\"", "abc"));
+        assertFalse(PortletCacheControlServiceImpl.etagMatches("*", null));
+    }
+
+    private CachedPortletResourceData<Long> newResourceData(
+            String contentType, String characterEncoding) {
+        final CachedPortletData<Long> cachedPortletData =
+                new CachedPortletData<Long>(1l, OUTPUT, null, contentType, true, "abc", 300);
+        final Map<String, List<Serializable>> headers = Collections.emptyMap();
+        return new CachedPortletResourceData<Long>(
+                cachedPortletData, headers, null, characterEncoding, null, null);
+    }
+}
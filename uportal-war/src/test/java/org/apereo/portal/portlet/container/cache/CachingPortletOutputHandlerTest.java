@@ -17,12 +17,14 @@ package org.apereo.portal.portlet.container.cache;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertArrayEquals;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.Random;
 import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.io.output.NullWriter;
 import org.apereo.portal.portlet.rendering.PortletOutputHandler;
@@ -176,4 +178,101 @@ public class CachingPortletOutputHandlerTest {
         assertNotNull(cachedPortletData);
         assertArrayEquals(output.getBytes(), cachedPortletData.getCachedStreamOutput());
     }
+
+    @Test
+    public void testCompressedWriterCaching() throws IOException {
+        final CachingPortletOutputHandler cachingOutputHandler =
+                new CachingPortletOutputHandler(portletOutputHandler, 1000, 100);
+
+        when(portletOutputHandler.getPrintWriter())
+                .thenReturn(new PrintWriter(NullWriter.NULL_WRITER));
+
+        final StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            output.append("<li>caf\u00e9 ").append(i % 10).append("</li>");
+        }
+
+        //Larger than the limit as written but not once compressed
+        final PrintWriter printWriter = cachingOutputHandler.getPrintWriter();
+        printWriter.write(output.toString());
+
+        final CachedPortletData<Long> cachedPortletData =
+                cachingOutputHandler.getCachedPortletData(1l, new CacheControlImpl());
+        assertNotNull(cachedPortletData);
+        assertTrue(cachedPortletData.getStoredLength() <= 1000);
+        assertEquals(output.toString(), cachedPortletData.getCachedWriterOutput());
+    }
+
+    @Test
+    public void testWriterOutputCompressedWhenBuilt() throws IOException {
+        final CachingPortletOutputHandler cachingOutputHandler =
+                new CachingPortletOutputHandler(portletOutputHandler, 1000, 100);
+
+        when(portletOutputHandler.getPrintWriter())
+                .thenReturn(new PrintWriter(NullWriter.NULL_WRITER));
+
+        final StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            output.append("<li>").append(i % 10).append("</li>");
+        }
+
+        //Within the limit as written, only compressed once it is cached
+        final PrintWriter printWriter = cachingOutputHandler.getPrintWriter();
+        printWriter.write(output.toString());
+
+        final CachedPortletData<Long> cachedPortletData =
+                cachingOutputHandler.getCachedPortletData(1l, new CacheControlImpl());
+        assertNotNull(cachedPortletData);
+        assertTrue(cachedPortletData.getStoredLength() < output.length());
+        assertEquals(output.toString(), cachedPortletData.getCachedWriterOutput());
+
+        cachingOutputHandler.discardCachedOutput();
+        assertEquals(output.toString(), cachedPortletData.getCachedWriterOutput());
+    }
+
+    @Test
+    public void testTooMuchCompressedStreamContent() throws IOException {
+        final CachingPortletOutputHandler cachingOutputHandler =
+                new CachingPortletOutputHandler(portletOutputHandler, 1000, 100);
+
+        when(portletOutputHandler.getOutputStream())
+                .thenReturn(NullOutputStream.NULL_OUTPUT_STREAM);
+
+        //Random data does not compress
+        final byte[] output = new byte[4000];
+        new Random(42).nextBytes(output);
+
+        final OutputStream outputStream = cachingOutputHandler.getOutputStream();
+        outputStream.write(output);
+
+        CachedPortletData<Long> cachedPortletData =
+                cachingOutputHandler.getCachedPortletData(1l, new CacheControlImpl());
+        assertNull(cachedPortletData);
+    }
+
+    @Test
+    public void testCompressedStreamContentThenReset() throws IOException {
+        final CachingPortletOutputHandler cachingOutputHandler =
+                new CachingPortletOutputHandler(portletOutputHandler, 1000, 100);
+
+        when(portletOutputHandler.getOutputStream())
+                .thenReturn(NullOutputStream.NULL_OUTPUT_STREAM);
+
+        final byte[] output = new byte[4000];
+        new Random(42).nextBytes(output);
+
+        final OutputStream outputStream = cachingOutputHandler.getOutputStream();
+        outputStream.write(output);
+
+        cachingOutputHandler.reset();
+
+        final byte[] smallOutput = new byte[500];
+        new Random(7).nextBytes(smallOutput);
+        outputStream.write(smallOutput);
+
+        final CachedPortletData<Long> cachedPortletData =
+                cachingOutputHandler.getCachedPortletData(1l, new CacheControlImpl());
+        assertNotNull(cachedPortletData);
+        assertArrayEquals(smallOutput, cachedPortletData.getCachedStreamOutput());
+    }
 }
@@ -405,4 +405,134 @@ public class PortletCacheControlServiceImplTest {
                 secondCacheState.getCachedPortletData();
         assertNotNull(actualCachedPortletData);
     }
+
+    @Test
+    public void testPublicRenderStaleWhileRevalidate() {
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        when(portletDescriptor.getExpirationCache()).thenReturn(300);
+
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId))
+                .thenReturn(portletDescriptor);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+
+        //Cache public output that has already expired
+        final MockHttpServletRequest firstRequest = newRequest(portletWindowId);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                firstCacheState =
+                        cacheControlService.getPortletRenderState(firstRequest, portletWindowId);
+        assertFalse(firstCacheState.isUseCachedData());
+        firstCacheState.getCacheControl().setExpirationTime(300);
+        cacheControlService.cachePortletRenderOutput(
+                portletWindowId, firstRequest, firstCacheState, newCachedData("stale", -5));
+
+        //First request to see the expired output refreshes it
+        final MockHttpServletRequest refreshRequest = newRequest(portletWindowId);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                refreshCacheState =
+                        cacheControlService.getPortletRenderState(refreshRequest, portletWindowId);
+        assertFalse(refreshCacheState.isUseCachedData());
+
+        //Concurrent requests are served the expired output
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                staleCacheState =
+                        cacheControlService.getPortletRenderState(
+                                newRequest(portletWindowId), portletWindowId);
+        assertTrue(staleCacheState.isUseCachedData());
+        Assert.assertEquals(
+                "stale", staleCacheState.getCachedPortletData().getCachedWriterOutput());
+
+        //Once refreshed everyone gets the new output
+        refreshCacheState.getCacheControl().setExpirationTime(300);
+        cacheControlService.cachePortletRenderOutput(
+                portletWindowId, refreshRequest, refreshCacheState, newCachedData("fresh", 300));
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                freshCacheState =
+                        cacheControlService.getPortletRenderState(
+                                newRequest(portletWindowId), portletWindowId);
+        assertTrue(freshCacheState.isUseCachedData());
+        Assert.assertEquals(
+                "fresh", freshCacheState.getCachedPortletData().getCachedWriterOutput());
+    }
+
+    @Test
+    public void testPublicRenderLeaseReleasedWithoutCaching() {
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        when(portletDescriptor.getExpirationCache()).thenReturn(300);
+
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId))
+                .thenReturn(portletDescriptor);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+
+        //Cache public output that has already expired
+        final MockHttpServletRequest firstRequest = newRequest(portletWindowId);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                firstCacheState =
+                        cacheControlService.getPortletRenderState(firstRequest, portletWindowId);
+        firstCacheState.getCacheControl().setExpirationTime(300);
+        cacheControlService.cachePortletRenderOutput(
+                portletWindowId, firstRequest, firstCacheState, newCachedData("stale", -5));
+
+        //The refreshing request fails without caching its output
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                failedCacheState =
+                        cacheControlService.getPortletRenderState(
+                                newRequest(portletWindowId), portletWindowId);
+        assertFalse(failedCacheState.isUseCachedData());
+
+        //Releasing from a request that does not hold the lease has no effect
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+                staleCacheState =
+                        cacheControlService.getPortletRenderState(
+                                newRequest(portletWindowId), portletWindowId);
+        assertTrue(staleCacheState.isUseCachedData());
+        cacheControlService.releaseRefreshLease(staleCacheState);
+        assertTrue(
+                cacheControlService
+                        .getPortletRenderState(newRequest(portletWindowId), portletWindowId)
+                        .isUseCachedData());
+
+        //Once released the next request refreshes the output instead of being served stale data
+        cacheControlService.releaseRefreshLease(failedCacheState);
+        assertFalse(
+                cacheControlService
+                        .getPortletRenderState(newRequest(portletWindowId), portletWindowId)
+                        .isUseCachedData());
+    }
+
+    private MockHttpServletRequest newRequest(MockPortletWindowId portletWindowId) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        when(portletWindowRegistry.getPortletWindow(request, portletWindowId))
+                .thenReturn(portletWindow);
+        when(urlSyntaxProvider.getPortalRequestInfo(request)).thenReturn(portalRequestInfo);
+        return request;
+    }
+
+    private CachedPortletData<PortletRenderResult> newCachedData(
+            String output, int expirationTime) {
+        return new CachedPortletData<PortletRenderResult>(
+                new PortletRenderResult("title", null, 0, 1000l),
+                output,
+                null,
+                null,
+                true,
+                null,
+                expirationTime);
+    }
 }
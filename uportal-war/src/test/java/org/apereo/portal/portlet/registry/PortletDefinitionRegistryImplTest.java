@@ -0,0 +1,169 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import javax.xml.namespace.QName;
+import org.apache.pluto.container.driver.PortalDriverContainerServices;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.portlet.dao.IPortletDefinitionDao;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletDescriptorKey;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.apereo.portal.portlet.om.PortletLifecycleState;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortletDefinitionRegistryImplTest {
+    @Mock private IPortletDefinitionDao portletDefinitionDao;
+    @Mock private PortalDriverContainerServices portalDriverContainerServices;
+    @Mock private PortletRegistryService portletRegistryService;
+    @Mock private PortletApplicationDefinition portletApplicationDescriptor;
+    @Mock private PortletDefinition portletDescriptor;
+    @Mock private EventDefinitionReference eventDefinitionReference;
+    @Mock private IPortletDefinitionCatalogListener catalogListener;
+
+    private PortletDefinitionRegistryImpl portletDefinitionRegistry;
+    private IPortletDefinition searchPortlet;
+    private IPortletDefinition weatherPortlet;
+
+    @Before
+    public void setup() throws Exception {
+        when(portalDriverContainerServices.getPortletRegistryService())
+                .thenReturn(portletRegistryService);
+        when(portletRegistryService.getRegisteredPortletApplicationNames())
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                return Collections.singleton("/search").iterator();
+                            }
+                        });
+        when(portletRegistryService.getPortletApplication("/search"))
+                .thenReturn(portletApplicationDescriptor);
+        when(portletRegistryService.getPortlet("/search", "search")).thenReturn(portletDescriptor);
+        when(portletApplicationDescriptor.getDefaultNamespace()).thenReturn("urn:search");
+        doReturn(Collections.singletonList(eventDefinitionReference))
+                .when(portletDescriptor)
+                .getSupportedProcessingEvents();
+        when(eventDefinitionReference.getQualifiedName("urn:search"))
+                .thenReturn(new QName("", "SearchRequest"));
+
+        searchPortlet = mockPortletDefinition("1", "search", "/search", "Portlet");
+        weatherPortlet = mockPortletDefinition("2", "weather", "/weather", "Portlet");
+        when(portletDefinitionDao.getPortletDefinitions())
+                .thenReturn(Arrays.asList(searchPortlet, weatherPortlet, searchPortlet));
+
+        portletDefinitionRegistry = new PortletDefinitionRegistryImpl();
+        portletDefinitionRegistry.setPortletDefinitionDao(portletDefinitionDao);
+        portletDefinitionRegistry.setPortalDriverContainerServices(portalDriverContainerServices);
+        portletDefinitionRegistry.afterPropertiesSet();
+        portletDefinitionRegistry.addPortletDefinitionCatalogListener(catalogListener);
+    }
+
+    @Test
+    public void testCatalogIndexes() {
+        final PortletDefinitionCatalog catalog =
+                portletDefinitionRegistry.getPortletDefinitionCatalog();
+
+        assertEquals(Arrays.asList(searchPortlet, weatherPortlet), catalog.getPortletDefinitions());
+        assertSame(weatherPortlet, catalog.getPortletDefinitionByFname("weather"));
+        assertSame(searchPortlet, catalog.getPortletDefinition("1"));
+        assertNull(catalog.getPortletDefinitionByFname("missing"));
+        assertEquals(2, catalog.getPortletDefinitionsByType("Portlet").size());
+        assertEquals(
+                2,
+                catalog.getPortletDefinitionsByLifecycleState(PortletLifecycleState.PUBLISHED)
+                        .size());
+        assertEquals(
+                Collections.singleton(searchPortlet),
+                catalog.getPortletDefinitionsBySupportedEvent(
+                        new QName("urn:search", "SearchRequest")));
+    }
+
+    @Test
+    public void testCatalogRebuiltOnChange() {
+        final PortletDefinitionCatalog catalog =
+                portletDefinitionRegistry.getPortletDefinitionCatalog();
+        assertSame(catalog, portletDefinitionRegistry.getPortletDefinitionCatalog());
+        verify(portletDefinitionDao, times(1)).getPortletDefinitions();
+        verify(catalogListener).portletDefinitionCatalogChanged(catalog);
+
+        //A save or delete changes the DAO version
+        when(portletDefinitionDao.getPortletDefinitionsVersion()).thenReturn(1L);
+        final PortletDefinitionCatalog rebuiltCatalog =
+                portletDefinitionRegistry.getPortletDefinitionCatalog();
+        assertEquals(catalog.getVersion() + 1, rebuiltCatalog.getVersion());
+        verify(catalogListener).portletDefinitionCatalogChanged(rebuiltCatalog);
+    }
+
+    @Test
+    public void testExpiredCatalogWithoutChanges() {
+        portletDefinitionRegistry.setCatalogMaxAge(-1);
+
+        final PortletDefinitionCatalog catalog =
+                portletDefinitionRegistry.getPortletDefinitionCatalog();
+        final PortletDefinitionCatalog rebuiltCatalog =
+                portletDefinitionRegistry.getPortletDefinitionCatalog();
+
+        verify(portletDefinitionDao, times(2)).getPortletDefinitions();
+        assertEquals(catalog.getVersion() + 1, rebuiltCatalog.getVersion());
+        //Nothing changed so listeners are only told about the first catalog
+        verify(catalogListener, times(1))
+                .portletDefinitionCatalogChanged(any(PortletDefinitionCatalog.class));
+    }
+
+    private IPortletDefinition mockPortletDefinition(
+            String id, String fname, String webAppName, String typeName) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+
+        final IPortletDescriptorKey portletDescriptorKey = mock(IPortletDescriptorKey.class);
+        when(portletDescriptorKey.getWebAppName()).thenReturn(webAppName);
+        when(portletDescriptorKey.getPortletName()).thenReturn(fname);
+
+        final IPortletType portletType = mock(IPortletType.class);
+        when(portletType.getName()).thenReturn(typeName);
+
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portletDefinition.getFName()).thenReturn(fname);
+        when(portletDefinition.getPortletDescriptorKey()).thenReturn(portletDescriptorKey);
+        when(portletDefinition.getType()).thenReturn(portletType);
+        when(portletDefinition.getLifecycleState()).thenReturn(PortletLifecycleState.PUBLISHED);
+        return portletDefinition;
+    }
+}
@@ -14,28 +14,50 @@
  */
 package org.apereo.portal.portlet.rendering;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.base.Functions;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import javax.portlet.Event;
+import javax.servlet.http.HttpServletRequest;
 import javax.xml.namespace.QName;
-import net.sf.ehcache.Ehcache;
+import org.apache.pluto.container.driver.DriverPortletContext;
+import org.apache.pluto.container.driver.PortletContextService;
 import org.apache.pluto.container.om.portlet.EventDefinition;
 import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.layout.IUserLayoutManager;
+import org.apereo.portal.layout.node.IUserLayoutChannelDescription;
 import org.apereo.portal.mock.portlet.om.MockPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletEntityId;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.portlet.registry.IPortletEntityRegistry;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.registry.PortletDefinitionCatalog;
+import org.apereo.portal.user.IUserInstance;
+import org.apereo.portal.user.IUserInstanceManager;
+import org.apereo.portal.utils.Tuple;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
 
 /**
  */
@@ -45,66 +67,153 @@ public class PortletEventCoordinatationServiceTest {
     private PortletEventCoordinatationService portletEventCoordinatationService =
             new PortletEventCoordinatationService();
 
-    @Mock private Ehcache supportedEventCache;
     @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPortletEntityRegistry portletEntityRegistry;
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private IUserInstanceManager userInstanceManager;
+    @Mock private PortletContextService portletContextService;
 
-    @Test
-    public void testSupportedEventResolution() throws Exception {
-        final QName searchRequestName =
-                new QName("https://source.jasig.org/schemas/uportal/search", "SearchRequest");
-        final QName searchResultsName =
-                new QName("https://source.jasig.org/schemas/uportal/search", "SearchResults");
+    //Events are passed through as is instead of being unmarshalled
+    @InjectMocks
+    private PortletEventCoordinatationService routingService =
+            new PortletEventCoordinatationService() {
+                @Override
+                protected Event unmarshall(IPortletWindow portletWindow, Event event) {
+                    return event;
+                }
+            };
 
-        //org.apereo.portal.search.SearchQuery
+    @Test
+    public void testResolveEventsToLayoutSubscribers() throws Exception {
+        final QName searchRequestName = new QName("urn:search", "SearchRequest");
+        final QName lookupName = new QName("urn:weather", "Lookup");
+        final QName resultsFoundName = new QName("urn:search", "results.Found");
+
+        //search portlet uses a wildcard, weather portlet an alias of SearchRequest
+        final IPortletDefinition searchDefinition =
+                mockPortletDefinition(
+                        "1", "/search", Collections.<EventDefinition>emptyList(), "results.");
+        final EventDefinition aliasedEventDefinition = mock(EventDefinition.class);
+        when(aliasedEventDefinition.getQualifiedName("urn:weather")).thenReturn(searchRequestName);
+        when(aliasedEventDefinition.getAliases()).thenReturn(Arrays.asList(lookupName));
+        final IPortletDefinition weatherDefinition =
+                mockPortletDefinition(
+                        "2", "/weather", Arrays.asList(aliasedEventDefinition), "Lookup");
+        final PortletDefinitionCatalog catalog =
+                new PortletDefinitionCatalog(
+                        1,
+                        Arrays.asList(searchDefinition, weatherDefinition),
+                        Functions.constant(Collections.<QName>emptySet()));
+        when(portletDefinitionRegistry.getPortletDefinitionCatalog()).thenReturn(catalog);
+
+        final HttpServletRequest request = new MockHttpServletRequest();
+        final IUserLayoutManager userLayoutManager = mock(IUserLayoutManager.class);
+        final IUserInstance userInstance = mock(IUserInstance.class, RETURNS_DEEP_STUBS);
+        when(userInstanceManager.getUserInstance(request)).thenReturn(userInstance);
+        when(userInstance.getPreferencesManager().getUserLayoutManager())
+                .thenReturn(userLayoutManager);
+        when(userLayoutManager.getCacheKey()).thenReturn("layout");
+        when(userLayoutManager.getAllSubscribedChannels())
+                .thenReturn(new LinkedHashSet<String>(Arrays.asList("n1", "n2", "n3")));
+        final IPortletWindowId searchWindowId = mockLayoutNode(request, userInstance, "n1", "1");
+        final IPortletWindowId weatherWindowId = mockLayoutNode(request, userInstance, "n2", "2");
+
+        //Source portlet does not declare global events
+        final IPortletWindowId sourceWindowId = mock(IPortletWindowId.class);
+        final IPortletWindow sourceWindow = mock(IPortletWindow.class, RETURNS_DEEP_STUBS);
+        when(portletWindowRegistry.getPortletWindow(request, sourceWindowId))
+                .thenReturn(sourceWindow);
+        when(portletDefinitionRegistry.getParentPortletApplicationDescriptor(
+                        sourceWindow
+                                .getPortletEntity()
+                                .getPortletDefinition()
+                                .getPortletDefinitionId()))
+                .thenReturn(mock(PortletApplicationDefinition.class));
+
+        final PortletEventQueue portletEventQueue = new PortletEventQueue();
+        portletEventQueue.addEvents(
+                Arrays.asList(
+                        new QueuedEvent(sourceWindowId, mockEvent(searchRequestName)),
+                        new QueuedEvent(sourceWindowId, mockEvent(resultsFoundName))));
+        routingService.resolvePortletEvents(request, portletEventQueue);
+
+        assertEquals(
+                searchRequestName,
+                portletEventQueue.pollEvent(weatherWindowId).getEvent().getQName());
+        assertNull(portletEventQueue.pollEvent(weatherWindowId));
+        assertEquals(
+                resultsFoundName,
+                portletEventQueue.pollEvent(searchWindowId).getEvent().getQName());
+        assertNull(portletEventQueue.pollEvent(searchWindowId));
+
+        //n3 is not a subscriber so its entity is never loaded
+        verify(portletEntityRegistry, never())
+                .getOrCreatePortletEntity(request, userInstance, "n3");
+    }
 
-        final Event event = mock(Event.class);
-        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(1);
+    private IPortletDefinition mockPortletDefinition(
+            String id,
+            String webAppName,
+            List<EventDefinition> eventDefinitions,
+            String supportedEvent)
+            throws Exception {
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId())
+                .thenReturn(new MockPortletDefinitionId(Long.parseLong(id)));
+        when(portletDefinition.getFName()).thenReturn(webAppName);
+        when(portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinition))
+                .thenReturn(new Tuple<String, String>(webAppName, "portlet"));
+
+        final DriverPortletContext portletContext = mock(DriverPortletContext.class);
         final PortletApplicationDefinition portletApplicationDefinition =
                 mock(PortletApplicationDefinition.class);
-        final PortletDefinition portletDefinition = mock(PortletDefinition.class);
-        final EventDefinitionReference searchRequestEventDefinitionReference =
-                mock(EventDefinitionReference.class);
-        final EventDefinitionReference searchResultsEventDefinitionReference =
+        final PortletDefinition portletDescriptor = mock(PortletDefinition.class);
+        final EventDefinitionReference eventDefinitionReference =
                 mock(EventDefinitionReference.class);
-        final EventDefinition searchRequestEventDefinition = mock(EventDefinition.class);
-        final EventDefinition searchResultsEventDefinition = mock(EventDefinition.class);
-
-        when(event.getQName()).thenReturn(searchRequestName);
-
-        when(searchRequestEventDefinitionReference.getQualifiedName(anyString()))
-                .thenReturn(searchRequestName);
-        when(searchRequestEventDefinitionReference.getQName()).thenReturn(searchRequestName);
-
-        when(searchResultsEventDefinitionReference.getQualifiedName(anyString()))
-                .thenReturn(searchResultsName);
-        when(searchResultsEventDefinitionReference.getQName()).thenReturn(searchResultsName);
-
-        when(searchRequestEventDefinition.getQName()).thenReturn(searchRequestName);
-        when(searchRequestEventDefinition.getQualifiedName(anyString()))
-                .thenReturn(searchRequestName);
-
-        when(searchResultsEventDefinition.getQName()).thenReturn(searchResultsName);
-        when(searchResultsEventDefinition.getQualifiedName(anyString()))
-                .thenReturn(searchResultsName);
-
-        when(this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(
-                        portletDefinitionId))
+        final String defaultNamespace = "urn" + webAppName.replace('/', ':');
+        when(portletContextService.getPortletContext(webAppName)).thenReturn(portletContext);
+        when(portletContext.getPortletApplicationDefinition())
                 .thenReturn(portletApplicationDefinition);
-        when(this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId))
-                .thenReturn(portletDefinition);
-
-        final List<? extends EventDefinition> eventDefinitions =
-                Arrays.asList(searchRequestEventDefinition, searchResultsEventDefinition);
+        when(portletApplicationDefinition.getDefaultNamespace()).thenReturn(defaultNamespace);
+        when(portletApplicationDefinition.getPortlet("portlet")).thenReturn(portletDescriptor);
         when(portletApplicationDefinition.getEventDefinitions())
                 .thenReturn((List) eventDefinitions);
+        when(portletDescriptor.getSupportedProcessingEvents())
+                .thenReturn((List) Arrays.asList(eventDefinitionReference));
+        when(eventDefinitionReference.getQualifiedName(defaultNamespace))
+                .thenReturn(new QName(defaultNamespace, supportedEvent));
+        return portletDefinition;
+    }
 
-        final List<? extends EventDefinitionReference> supportedProcessingEvents =
-                Collections.singletonList(searchRequestEventDefinitionReference);
-        when(portletDefinition.getSupportedProcessingEvents())
-                .thenReturn((List) supportedProcessingEvents);
+    private IPortletWindowId mockLayoutNode(
+            HttpServletRequest request,
+            IUserInstance userInstance,
+            String layoutNodeId,
+            String portletDefinitionId) {
+        final IUserLayoutManager userLayoutManager =
+                userInstance.getPreferencesManager().getUserLayoutManager();
+        final IUserLayoutChannelDescription channelDescription =
+                mock(IUserLayoutChannelDescription.class);
+        when(channelDescription.getChannelPublishId()).thenReturn(portletDefinitionId);
+        when(userLayoutManager.getNode(layoutNodeId)).thenReturn(channelDescription);
+
+        final IPortletEntity portletEntity = mock(IPortletEntity.class);
+        final IPortletEntityId portletEntityId = mock(IPortletEntityId.class);
+        when(portletEntity.getPortletEntityId()).thenReturn(portletEntityId);
+        when(portletEntityRegistry.getOrCreatePortletEntity(request, userInstance, layoutNodeId))
+                .thenReturn(portletEntity);
+
+        final IPortletWindow portletWindow = mock(IPortletWindow.class);
+        final IPortletWindowId portletWindowId = mock(IPortletWindowId.class);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId))
+                .thenReturn(Collections.singleton(portletWindow));
+        return portletWindowId;
+    }
 
-        final boolean supportsEvent =
-                portletEventCoordinatationService.supportsEvent(event, portletDefinitionId);
-        assertTrue(supportsEvent);
+    private Event mockEvent(QName name) {
+        final Event event = mock(Event.class);
+        when(event.getQName()).thenReturn(name);
+        return event;
     }
 }
@@ -0,0 +1,182 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDescriptorKey;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.apereo.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
+import org.apereo.portal.portlet.rendering.worker.IPortletExecutionWorker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class PortletExecutionManagerCircuitBreakerTest {
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private PortletExecutionManager portletExecutionManager;
+
+    @Before
+    public void setup() {
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDescriptorKey())
+                .thenReturn(mock(IPortletDescriptorKey.class));
+        final IPortletEntity portletEntity = mock(IPortletEntity.class);
+        when(portletEntity.getPortletDefinition()).thenReturn(portletDefinition);
+        final IPortletWindow portletWindow = mock(IPortletWindow.class);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        final IPortletWindowRegistry portletWindowRegistry = mock(IPortletWindowRegistry.class);
+        when(portletWindowRegistry.getPortletWindow(
+                        any(HttpServletRequest.class), any(IPortletWindowId.class)))
+                .thenReturn(portletWindow);
+
+        portletExecutionManager = new PortletExecutionManager();
+        portletExecutionManager.setPortletWindowRegistry(portletWindowRegistry);
+        portletExecutionManager.setCircuitBreakerFailureThreshold(2);
+        portletExecutionManager.setCircuitBreakerOpenDuration(100);
+    }
+
+    @Test
+    public void testConcurrentExecutionLimit() {
+        portletExecutionManager.setMaxConcurrentExecutionsByFname(1);
+
+        final IPortletExecutionContext first = mockContext("slow", ExecutionType.RENDER);
+        final IPortletExecutionContext second = mockContext("slow", ExecutionType.RENDER);
+
+        portletExecutionManager.preSubmit(request, null, first);
+        assertRejected(second);
+
+        //Failure executions are never rejected
+        portletExecutionManager.preSubmit(
+                request, null, mockContext("slow", ExecutionType.FAILURE));
+
+        //Other portlets have their own limit
+        portletExecutionManager.preSubmit(request, null, mockContext("fast", ExecutionType.RENDER));
+
+        portletExecutionManager.postExecution(request, null, first, null);
+        portletExecutionManager.preSubmit(request, null, second);
+
+        assertEquals(
+                Collections.singletonMap("slow", 1),
+                portletExecutionManager.getPortletExecutionRejections());
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        portletExecutionManager.setCircuitBreakerOpenDuration(60000);
+
+        portletExecutionManager.recordTimeout(mockWorker("hung"));
+        portletExecutionManager.preSubmit(request, null, mockContext("hung", ExecutionType.RENDER));
+        assertTrue(portletExecutionManager.getOpenCircuitBreakers().isEmpty());
+
+        portletExecutionManager.recordTimeout(mockWorker("hung"));
+        assertEquals(
+                Collections.singleton("hung"), portletExecutionManager.getOpenCircuitBreakers());
+
+        assertRejected(mockContext("hung", ExecutionType.RENDER));
+        assertRejected(mockContext("hung", ExecutionType.RESOURCE));
+        portletExecutionManager.preSubmit(
+                request, null, mockContext("hung", ExecutionType.FAILURE));
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws Exception {
+        portletExecutionManager.recordTimeout(mockWorker("hung"));
+        portletExecutionManager.recordTimeout(mockWorker("hung"));
+        assertEquals(
+                Collections.singleton("hung"), portletExecutionManager.getOpenCircuitBreakers());
+        assertRejected(mockContext("hung", ExecutionType.RENDER));
+
+        //Open duration has passed, only a single probe is allowed
+        Thread.sleep(150);
+        final IPortletExecutionContext probe = mockContext("hung", ExecutionType.RENDER);
+        portletExecutionManager.preSubmit(request, null, probe);
+        assertRejected(mockContext("hung", ExecutionType.RENDER));
+
+        //Failed probe re-opens the breaker
+        portletExecutionManager.postExecution(request, null, probe, new Exception());
+        assertEquals(
+                Collections.singleton("hung"), portletExecutionManager.getOpenCircuitBreakers());
+
+        assertRejected(mockContext("hung", ExecutionType.RENDER));
+
+        //Successful probe closes the breaker
+        Thread.sleep(150);
+        final IPortletExecutionContext secondProbe = mockContext("hung", ExecutionType.RENDER);
+        portletExecutionManager.preSubmit(request, null, secondProbe);
+        portletExecutionManager.postExecution(request, null, secondProbe, null);
+        assertTrue(portletExecutionManager.getOpenCircuitBreakers().isEmpty());
+
+        portletExecutionManager.preSubmit(request, null, mockContext("hung", ExecutionType.RENDER));
+        portletExecutionManager.preSubmit(request, null, mockContext("hung", ExecutionType.RENDER));
+    }
+
+    private void assertRejected(IPortletExecutionContext context) {
+        try {
+            portletExecutionManager.preSubmit(request, null, context);
+            fail("Expected PortletExecutionRejectedException");
+        } catch (PortletExecutionRejectedException e) {
+            assertEquals(context.getPortletFname(), e.getPortletFname());
+        }
+    }
+
+    private IPortletExecutionWorker<?> mockWorker(String fname) {
+        final IPortletExecutionWorker<?> worker = mock(IPortletExecutionWorker.class);
+        when(worker.getPortletFname()).thenReturn(fname);
+        when(worker.getExecutionType()).thenReturn(ExecutionType.RENDER);
+        return worker;
+    }
+
+    private IPortletExecutionContext mockContext(String fname, ExecutionType executionType) {
+        final IPortletExecutionContext context = mock(IPortletExecutionContext.class);
+        when(context.getPortletFname()).thenReturn(fname);
+        when(context.getPortletWindowId()).thenReturn(mock(IPortletWindowId.class));
+        when(context.getExecutionType()).thenReturn(executionType);
+        when(context.getApplicableTimeout()).thenReturn(-1L);
+
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        when(context.setExecutionAttribute(anyString(), any()))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                final String name = (String) invocation.getArguments()[0];
+                                final Object value = invocation.getArguments()[1];
+                                if (value == null) {
+                                    return attributes.remove(name);
+                                }
+                                return attributes.put(name, value);
+                            }
+                        });
+        return context;
+    }
+}
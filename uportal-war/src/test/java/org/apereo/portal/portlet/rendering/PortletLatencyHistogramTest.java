@@ -0,0 +1,63 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PortletLatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        final PortletLatencyHistogram histogram = new PortletLatencyHistogram(10000, 10);
+        assertEquals(-1, histogram.getSnapshot(0).getPercentile(99));
+
+        for (int latency = 1; latency <= 1000; latency++) {
+            histogram.record(latency, 0);
+        }
+
+        final PortletLatencyHistogram.Snapshot snapshot = histogram.getSnapshot(0);
+        assertEquals(1000, snapshot.getCount());
+        assertWithinBucket(500, snapshot.getPercentile(50));
+        assertWithinBucket(950, snapshot.getPercentile(95));
+        assertWithinBucket(990, snapshot.getPercentile(99));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        final PortletLatencyHistogram histogram = new PortletLatencyHistogram(10000, 10);
+
+        histogram.record(5000, 0);
+        histogram.record(10, 5000);
+        assertEquals(2, histogram.getSnapshot(9999).getCount());
+
+        //The first slot has left the window
+        final PortletLatencyHistogram.Snapshot snapshot = histogram.getSnapshot(10000);
+        assertEquals(1, snapshot.getCount());
+        assertWithinBucket(10, snapshot.getPercentile(99));
+
+        //Reusing a slot clears the old counts
+        histogram.record(20, 15000);
+        assertEquals(1, histogram.getSnapshot(15000).getCount());
+        assertEquals(0, histogram.getSnapshot(30000).getCount());
+    }
+
+    private void assertWithinBucket(long expected, long actual) {
+        assertTrue(expected + " > " + actual, actual >= expected);
+        assertTrue(expected + " * 1.2 < " + actual, actual <= Math.ceil(expected * 1.2));
+    }
+}
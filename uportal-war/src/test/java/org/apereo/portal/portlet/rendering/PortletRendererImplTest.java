@@ -17,6 +17,7 @@ package org.apereo.portal.portlet.rendering;
 import static org.junit.Assert.assertArrayEquals;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -38,6 +39,7 @@ import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.PortletWindow;
 import org.apereo.portal.api.portlet.PortletDelegationLocator;
 import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.portlet.PortletDispatchException;
 import org.apereo.portal.portlet.container.cache.CacheState;
 import org.apereo.portal.portlet.container.cache.CachedPortletData;
 import org.apereo.portal.portlet.container.cache.CachedPortletResourceData;
@@ -146,8 +148,10 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(2))
                 .getPortletRenderState(request, portletWindowId);
         verify(portletCacheControlService, times(2)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(2)).getCompressionThreshold();
         verify(portletCacheControlService, times(2)).shouldOutputBeCached(cacheControl);
 
+        verify(portletCacheControlService, times(2)).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -190,6 +194,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletRenderState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletCacheControlService, times(1)).shouldOutputBeCached(cacheControl);
         verify(portletCacheControlService, times(1))
                 .cachePortletRenderOutput(
@@ -198,6 +203,7 @@ public class PortletRendererImplTest {
                         eq(cacheState),
                         isA(CachedPortletData.class));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -241,6 +247,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletRenderState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletCacheControlService, times(1)).shouldOutputBeCached(cacheControl);
         verify(portletCacheControlService, times(1))
                 .cachePortletRenderOutput(
@@ -249,6 +256,7 @@ public class PortletRendererImplTest {
                         eq(cacheState),
                         isA(CachedPortletData.class));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -296,6 +304,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletRenderState(request, portletWindowId);
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
     /**
@@ -344,6 +353,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletRenderState(request, portletWindowId);
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -393,6 +403,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletRenderState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletContainer, times(1))
                 .doRender(
                         eq(plutoPortletWindow),
@@ -405,8 +416,45 @@ public class PortletRendererImplTest {
                         eq(cacheState),
                         isA(CachedPortletData.class));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
+    /** Verify a failing render releases any public output refresh lease it holds. */
+    @Test
+    public void doRenderMarkupFailureReleasesRefreshLease()
+            throws PortletException, IOException, PortletContainerException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState =
+                new TestingCacheState<
+                        CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        CacheControl cacheControl = cacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+
+        setupPortletExecutionMocks(request);
+
+        when(portletCacheControlService.getPortletRenderState(request, portletWindowId))
+                .thenReturn(cacheState);
+        when(portletCacheControlService.getCacheSizeThreshold()).thenReturn(102400);
+        doThrow(new PortletException("failed"))
+                .when(portletContainer)
+                .doRender(
+                        eq(plutoPortletWindow),
+                        isA(PortletHttpServletRequestWrapper.class),
+                        isA(PortletHttpServletResponseWrapper.class));
+
+        RenderPortletOutputHandler handler = new RenderPortletOutputHandler("UTF-8");
+        try {
+            portletRenderer.doRenderMarkup(portletWindowId, request, response, handler);
+            Assert.fail("Expected PortletDispatchException");
+        } catch (PortletDispatchException e) {
+            //expected
+        }
+
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
+    }
+
     /**
      * Verify invoking portletRenderer#doAction removes cached content.
      *
@@ -467,6 +515,7 @@ public class PortletRendererImplTest {
         portletRenderer.doServeResource(portletWindowId, request, response, handler);
 
         verify(portletCacheControlService, times(2)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(2)).getCompressionThreshold();
         verify(portletCacheControlService, times(2))
                 .getPortletResourceState(request, portletWindowId);
         verify(portletContainer, times(2))
@@ -476,6 +525,7 @@ public class PortletRendererImplTest {
                         isA(PortletResourceHttpServletResponseWrapper.class));
         verify(portletCacheControlService, times(2)).shouldOutputBeCached(isA(CacheControl.class));
 
+        verify(portletCacheControlService, times(2)).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -512,6 +562,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletContainer, times(1))
                 .doServeResource(
                         eq(plutoPortletWindow),
@@ -519,6 +570,7 @@ public class PortletRendererImplTest {
                         isA(PortletResourceHttpServletResponseWrapper.class));
         verify(portletCacheControlService, times(1)).shouldOutputBeCached(isA(CacheControl.class));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -557,6 +609,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletContainer, times(1))
                 .doServeResource(
                         eq(plutoPortletWindow),
@@ -564,6 +617,7 @@ public class PortletRendererImplTest {
                         isA(PortletResourceHttpServletResponseWrapper.class));
         verify(portletCacheControlService, times(1)).shouldOutputBeCached(isA(CacheControl.class));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -613,6 +667,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletContainer, times(1))
                 .doServeResource(
                         eq(plutoPortletWindow),
@@ -625,6 +680,7 @@ public class PortletRendererImplTest {
                         eq(cacheState),
                         eq(cachedPortletResourceData));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -676,6 +732,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletContainer, times(1))
                 .doServeResource(
                         eq(plutoPortletWindow),
@@ -688,6 +745,7 @@ public class PortletRendererImplTest {
                         eq(cacheState),
                         eq(cachedPortletResourceData));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -744,6 +802,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -791,6 +850,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletContainer, times(1))
                 .doServeResource(
                         eq(plutoPortletWindow),
@@ -803,6 +863,7 @@ public class PortletRendererImplTest {
                         eq(cacheState),
                         eq(cachedPortletResourceData));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -860,6 +921,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -915,6 +977,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
         verify(portletCacheControlService, times(1)).getCacheSizeThreshold();
+        verify(portletCacheControlService, times(1)).getCompressionThreshold();
         verify(portletContainer, times(1))
                 .doServeResource(
                         eq(plutoPortletWindow),
@@ -927,6 +990,7 @@ public class PortletRendererImplTest {
                         eq(cacheState),
                         eq(cachedPortletResourceData));
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 
@@ -986,6 +1050,7 @@ public class PortletRendererImplTest {
         verify(portletCacheControlService, times(1))
                 .getPortletResourceState(request, portletWindowId);
 
+        verify(portletCacheControlService).releaseRefreshLease(cacheState);
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
 }
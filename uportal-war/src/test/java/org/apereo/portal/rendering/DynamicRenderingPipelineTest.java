@@ -15,13 +15,30 @@
 package org.apereo.portal.rendering;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import com.google.common.base.Charsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.transform.OutputKeys;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
 import org.apereo.portal.url.IUrlSyntaxProvider;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 /** Unit tests for DynamicRenderingPipeline. */
 public class DynamicRenderingPipelineTest {
@@ -30,6 +47,14 @@ public class DynamicRenderingPipelineTest {
 
     @Mock CharacterPipelineComponent characterPipelineComponent;
 
+    @Mock IPortletExecutionEventFactory portalEventFactory;
+
+    @Mock IPortletExecutionManager portletExecutionManager;
+
+    @Mock IPortletWindowId fastWindowId;
+
+    @Mock IPortletWindowId slowWindowId;
+
     @Before
     public void beforeTests() {
         initMocks(this);
@@ -54,4 +79,91 @@ public class DynamicRenderingPipelineTest {
 
         assertEquals(friendlyToString, dynamicRenderingPipeline.toString());
     }
+
+    /**
+     * Test that the response is only flushed before waiting on a portlet that has not finished
+     * rendering and once the page is complete.
+     */
+    @Test
+    public void flushesAtPortletBoundaries() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final FlushRecordingResponse response = new FlushRecordingResponse();
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = createPipeline(request, response);
+        dynamicRenderingPipeline.renderState(request, response);
+
+        final String page = "<html><body>SLOW\u00e9FAST<footer/></body></html>";
+        assertEquals(Arrays.asList("<html><body>", page), response.flushes);
+        assertEquals(page, response.getContentAsString());
+        assertEquals("UTF-8", response.getCharacterEncoding());
+    }
+
+    /** Test that the response writer is used if the output stream is not available. */
+    @Test
+    public void writesToExistingWriter() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final FlushRecordingResponse response = new FlushRecordingResponse();
+        response.setOutputStreamAccessAllowed(false);
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = createPipeline(request, response);
+        dynamicRenderingPipeline.renderState(request, response);
+
+        final String page = "<html><body>SLOW\u00e9FAST<footer/></body></html>";
+        assertEquals(Arrays.asList("<html><body>", page), response.flushes);
+        assertEquals(page, response.getContentAsString());
+    }
+
+    private DynamicRenderingPipeline createPipeline(
+            MockHttpServletRequest request, MockHttpServletResponse response) {
+        when(portletExecutionManager.isPortletRenderComplete(fastWindowId, request, response))
+                .thenReturn(true);
+        when(portletExecutionManager.isPortletRenderComplete(slowWindowId, request, response))
+                .thenReturn(false);
+        when(portletExecutionManager.getPortletOutput(fastWindowId, request, response))
+                .thenReturn("FAST");
+        when(portletExecutionManager.getPortletOutput(slowWindowId, request, response))
+                .thenReturn("SLOW\u00e9");
+        when(portletExecutionManager.waitForNextPortletRender(
+                        anyCollectionOf(IPortletWindowId.class), eq(request), eq(response)))
+                .thenReturn(slowWindowId);
+
+        final List<CharacterEvent> events =
+                Arrays.<CharacterEvent>asList(
+                        CharacterDataEventImpl.create("<html><body>"),
+                        new PortletContentPlaceholderEventImpl(slowWindowId),
+                        new PortletContentPlaceholderEventImpl(fastWindowId),
+                        CharacterDataEventImpl.create("<footer/></body></html>"));
+        final PipelineEventReaderImpl<CharacterEventReader, CharacterEvent> eventReader =
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                        new CharacterEventBufferReader(events.listIterator()));
+        eventReader.setOutputProperty(OutputKeys.MEDIA_TYPE, "text/html");
+        when(characterPipelineComponent.getEventReader(request, response)).thenReturn(eventReader);
+
+        final PortletRenderingIncorporationComponent incorporationComponent =
+                new PortletRenderingIncorporationComponent();
+        incorporationComponent.setPortletExecutionManager(portletExecutionManager);
+        incorporationComponent.setWrappedComponent(characterPipelineComponent);
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+        dynamicRenderingPipeline.setUrlSyntaxProvider(urlSyntaxProvider);
+        dynamicRenderingPipeline.setPortalEventFactory(portalEventFactory);
+        dynamicRenderingPipeline.setPipeline(incorporationComponent);
+        return dynamicRenderingPipeline;
+    }
+
+    private static class FlushRecordingResponse extends MockHttpServletResponse {
+        private final List<String> flushes = new ArrayList<String>();
+        private boolean recording = false;
+
+        @Override
+        public void flushBuffer() {
+            super.flushBuffer();
+            //getContentAsByteArray() flushes the response itself
+            if (!recording) {
+                recording = true;
+                flushes.add(new String(getContentAsByteArray(), Charsets.UTF_8));
+                recording = false;
+            }
+        }
+    }
 }
@@ -0,0 +1,138 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/** Unit tests for PortletRenderingIncorporationComponent. */
+public class PortletRenderingIncorporationComponentTest {
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private CharacterPipelineComponent wrappedComponent;
+    @Mock private IPortletWindowId fastWindowId;
+    @Mock private IPortletWindowId slowWindowId;
+
+    private PortletRenderingIncorporationComponent component;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        when(fastWindowId.getStringId()).thenReturn("fast");
+        when(slowWindowId.getStringId()).thenReturn("slow");
+
+        when(portletExecutionManager.isPortletRenderComplete(fastWindowId, request, response))
+                .thenReturn(true);
+        when(portletExecutionManager.isPortletRenderComplete(slowWindowId, request, response))
+                .thenReturn(false);
+        when(portletExecutionManager.getPortletOutput(fastWindowId, request, response))
+                .thenReturn("FAST");
+        when(portletExecutionManager.getPortletOutput(slowWindowId, request, response))
+                .thenReturn("SLOW");
+        when(portletExecutionManager.waitForNextPortletRender(
+                        anyCollectionOf(IPortletWindowId.class), eq(request), eq(response)))
+                .thenReturn(slowWindowId);
+
+        final List<CharacterEvent> events =
+                Arrays.<CharacterEvent>asList(
+                        CharacterDataEventImpl.create("<html><body>"),
+                        new PortletContentPlaceholderEventImpl(slowWindowId),
+                        new PortletContentPlaceholderEventImpl(fastWindowId),
+                        CharacterDataEventImpl.create("<footer/></body></html>"));
+        when(wrappedComponent.getEventReader(request, response))
+                .thenReturn(
+                        new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                                new CharacterEventBufferReader(events.listIterator())));
+
+        component = new PortletRenderingIncorporationComponent();
+        component.setPortletExecutionManager(portletExecutionManager);
+        component.setWrappedComponent(wrappedComponent);
+    }
+
+    @Test
+    public void testInOrderIncorporation() {
+        final List<String> output = render();
+
+        assertEquals(
+                Arrays.asList("<html><body>", "SLOW", "FAST", "<footer/></body></html>"), output);
+    }
+
+    @Test
+    public void testStreamedIncorporation() {
+        component.setStreamPortletContent(true);
+
+        final List<String> output = render();
+
+        assertEquals(6, output.size());
+        assertEquals("<html><body>", output.get(0));
+        assertEquals("<div id=\"up-portlet-slot-slow\"></div>", output.get(1));
+        assertEquals("FAST", output.get(2));
+        assertEquals("<footer/>", output.get(3));
+        assertTrue(
+                output.get(4)
+                        .startsWith(
+                                "<div id=\"up-portlet-stream-slow\" style=\"display:none\">SLOW</div><script"));
+        assertEquals("</body></html>", output.get(5));
+    }
+
+    @Test
+    public void testStreamedIncorporationAllComplete() {
+        component.setStreamPortletContent(true);
+        when(portletExecutionManager.isPortletRenderComplete(slowWindowId, request, response))
+                .thenReturn(true);
+
+        final List<String> output = render();
+
+        assertEquals(
+                Arrays.asList("<html><body>", "SLOW", "FAST", "<footer/></body></html>"), output);
+    }
+
+    private List<String> render() {
+        final CharacterEventReader eventReader =
+                component.getEventReader(request, response).getEventReader();
+
+        final List<String> output = new ArrayList<String>();
+        while (eventReader.hasNext()) {
+            output.add(((CharacterDataEvent) eventReader.next()).getData());
+        }
+        assertFalse(eventReader.hasNext());
+        return output;
+    }
+}
@@ -21,13 +21,26 @@ import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import org.apereo.portal.character.stream.CharacterEventBufferReader;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
 import org.apereo.portal.rendering.PipelineEventReader;
 import org.apereo.portal.rendering.PipelineEventReaderImpl;
@@ -60,7 +73,8 @@ public class CachingCharacterPipelineComponentTest {
 
         expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
         expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
-        expect(cache.get(cacheKey)).andReturn(null);
+        //Checked once before and once after claiming the key for loading
+        expect(cache.get(cacheKey.getFingerprint())).andReturn(null).times(2);
         expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
         cache.put((Element) notNull());
         expectLastCall();
@@ -90,8 +104,8 @@ public class CachingCharacterPipelineComponentTest {
         final CacheKey cacheKey = CacheKey.build("testCacheKey");
         final CachedEventReader<CharacterEvent> eventReader =
                 new CachedEventReader<CharacterEvent>(
-                        Collections.EMPTY_LIST, Collections.EMPTY_MAP);
-        final Element cacheElement = new Element(cacheKey, eventReader);
+                        cacheKey, Collections.EMPTY_LIST, Collections.EMPTY_MAP);
+        final Element cacheElement = new Element(cacheKey.getFingerprint(), eventReader);
 
         final Ehcache cache = createMock(Ehcache.class);
         final CharacterPipelineComponent targetComponent =
@@ -101,7 +115,7 @@ public class CachingCharacterPipelineComponentTest {
 
         expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
         expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
-        expect(cache.get(cacheKey)).andReturn(cacheElement);
+        expect(cache.get(cacheKey.getFingerprint())).andReturn(cacheElement);
 
         replay(cache, targetComponent, elementsProvider);
 
@@ -120,4 +134,188 @@ public class CachingCharacterPipelineComponentTest {
 
         verify(cache, targetComponent, elementsProvider);
     }
+
+    @Test
+    public void testCachedEventsForOtherKeyAreMiss() {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+        final List<CharacterEvent> otherBuffer =
+                Arrays.<CharacterEvent>asList(CharacterDataEventImpl.create("other"));
+        //Stands in for a different key with a colliding fingerprint
+        final CachedEventReader<CharacterEvent> otherEventReader =
+                new CachedEventReader<CharacterEvent>(
+                        CacheKey.build("otherCacheKey"), otherBuffer, Collections.EMPTY_MAP);
+        final Element cacheElement = new Element(cacheKey.getFingerprint(), otherEventReader);
+        final List<CharacterEvent> eventBuffer = Collections.emptyList();
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader =
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                        new CharacterEventBufferReader(eventBuffer.listIterator()));
+
+        final Ehcache cache = createMock(Ehcache.class);
+        final CharacterPipelineComponent targetComponent =
+                createMock(CharacterPipelineComponent.class);
+        final ResourcesElementsProvider elementsProvider =
+                createMock(ResourcesElementsProvider.class);
+
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
+        expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
+        expect(cache.get(cacheKey.getFingerprint())).andReturn(cacheElement).times(2);
+        expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
+        cache.put((Element) notNull());
+        expectLastCall();
+
+        replay(cache, targetComponent, elementsProvider);
+
+        final CachingCharacterPipelineComponent cachingComponent =
+                new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> actualEventReader =
+                cachingComponent.getEventReader(mockReq, mockRes);
+
+        Assert.assertFalse(actualEventReader.getEventReader().hasNext());
+        Assert.assertEquals(1, cachingComponent.getCacheMisses());
+        Assert.assertEquals(0, cachingComponent.getCacheHits());
+
+        verify(cache, targetComponent, elementsProvider);
+    }
+
+    @Test
+    public void testCacheMissMergesCharacterData() {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+        final CharacterEvent placeholderEvent =
+                new PortletContentPlaceholderEventImpl(new MockPortletWindowId("w1"));
+        final List<CharacterEvent> eventBuffer =
+                Arrays.<CharacterEvent>asList(
+                        CharacterDataEventImpl.create("<div>"),
+                        CharacterDataEventImpl.create(""),
+                        CharacterDataEventImpl.create("text"),
+                        placeholderEvent,
+                        CharacterDataEventImpl.create("</div>"));
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader =
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                        new CharacterEventBufferReader(eventBuffer.listIterator()));
+
+        final Ehcache cache = createMock(Ehcache.class);
+        final CharacterPipelineComponent targetComponent =
+                createMock(CharacterPipelineComponent.class);
+        final ResourcesElementsProvider elementsProvider =
+                createMock(ResourcesElementsProvider.class);
+
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
+        expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
+        expect(cache.get(cacheKey.getFingerprint())).andReturn(null).times(2);
+        expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
+        cache.put((Element) notNull());
+        expectLastCall();
+
+        replay(cache, targetComponent, elementsProvider);
+
+        final CachingCharacterPipelineComponent cachingComponent =
+                new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+
+        final CharacterEventReader actualEventReader =
+                cachingComponent.getEventReader(mockReq, mockRes).getEventReader();
+
+        final CharacterEvent mergedEvent = actualEventReader.next();
+        Assert.assertEquals("<div>text", ((CharacterDataEvent) mergedEvent).getData());
+        Assert.assertSame(mergedEvent, CharacterDataEventImpl.create("<div>text"));
+        Assert.assertSame(placeholderEvent, actualEventReader.next());
+        Assert.assertEquals("</div>", ((CharacterDataEvent) actualEventReader.next()).getData());
+        Assert.assertFalse(actualEventReader.hasNext());
+
+        verify(cache, targetComponent, elementsProvider);
+    }
+
+    @Test
+    public void testConcurrentCacheMissCoalesced() throws Exception {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch loadReleased = new CountDownLatch(1);
+        final AtomicInteger loadCount = new AtomicInteger();
+
+        final Ehcache cache = createMock(Ehcache.class);
+        final ResourcesElementsProvider elementsProvider =
+                createMock(ResourcesElementsProvider.class);
+
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED).times(2);
+        expect(cache.get(cacheKey.getFingerprint())).andReturn(null).times(2, 3);
+        cache.put((Element) notNull());
+        expectLastCall();
+
+        replay(cache, elementsProvider);
+
+        final CachingCharacterPipelineComponent cachingComponent =
+                new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+        cachingComponent.setWrappedComponent(
+                new CharacterPipelineComponent() {
+                    @Override
+                    public CacheKey getCacheKey(
+                            HttpServletRequest request, HttpServletResponse response) {
+                        return cacheKey;
+                    }
+
+                    @Override
+                    public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(
+                            HttpServletRequest request, HttpServletResponse response) {
+                        loadCount.incrementAndGet();
+                        loadStarted.countDown();
+                        try {
+                            loadReleased.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+
+                        final List<CharacterEvent> eventBuffer = Collections.emptyList();
+                        return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                                new CharacterEventBufferReader(eventBuffer.listIterator()));
+                    }
+                });
+
+        final Callable<PipelineEventReader<CharacterEventReader, CharacterEvent>> render =
+                new Callable<PipelineEventReader<CharacterEventReader, CharacterEvent>>() {
+                    @Override
+                    public PipelineEventReader<CharacterEventReader, CharacterEvent> call() {
+                        return cachingComponent.getEventReader(mockReq, mockRes);
+                    }
+                };
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<PipelineEventReader<CharacterEventReader, CharacterEvent>> first =
+                    executorService.submit(render);
+            loadStarted.await();
+
+            final Future<PipelineEventReader<CharacterEventReader, CharacterEvent>> second =
+                    executorService.submit(render);
+            while (cachingComponent.getCoalescedWaits() == 0) {
+                Thread.sleep(10);
+            }
+            loadReleased.countDown();
+
+            Assert.assertNotNull(first.get().getEventReader());
+            Assert.assertNotNull(second.get().getEventReader());
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertEquals(1, cachingComponent.getCacheMisses());
+        Assert.assertEquals(1, cachingComponent.getCoalescedWaits());
+        Assert.assertEquals(0, cachingComponent.getInFlightCount());
+
+        verify(cache, elementsProvider);
+    }
 }
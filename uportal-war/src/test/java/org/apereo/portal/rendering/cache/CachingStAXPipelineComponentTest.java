@@ -15,6 +15,7 @@
 package org.apereo.portal.rendering.cache;
 
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.notNull;
@@ -23,6 +24,10 @@ import static org.easymock.EasyMock.verify;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.events.XMLEvent;
 import net.sf.ehcache.Ehcache;
@@ -59,7 +64,8 @@ public class CachingStAXPipelineComponentTest {
 
         expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
         expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
-        expect(cache.get(cacheKey)).andReturn(null);
+        //Checked once before and once after claiming the key for loading
+        expect(cache.get(cacheKey.getFingerprint())).andReturn(null).times(2);
         expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
         cache.put((Element) notNull());
         expectLastCall();
@@ -87,8 +93,9 @@ public class CachingStAXPipelineComponentTest {
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
         final CacheKey cacheKey = CacheKey.build("testCacheKey");
         final CachedEventReader<XMLEvent> eventReader =
-                new CachedEventReader<XMLEvent>(Collections.EMPTY_LIST, Collections.EMPTY_MAP);
-        final Element cacheElement = new Element(cacheKey, eventReader);
+                new CachedEventReader<XMLEvent>(
+                        cacheKey, Collections.EMPTY_LIST, Collections.EMPTY_MAP);
+        final Element cacheElement = new Element(cacheKey.getFingerprint(), eventReader);
 
         final Ehcache cache = createMock(Ehcache.class);
         final StAXPipelineComponent targetComponent = createMock(StAXPipelineComponent.class);
@@ -97,7 +104,7 @@ public class CachingStAXPipelineComponentTest {
 
         expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
         expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
-        expect(cache.get(cacheKey)).andReturn(cacheElement);
+        expect(cache.get(cacheKey.getFingerprint())).andReturn(cacheElement);
 
         replay(cache, targetComponent, elementsProvider);
 
@@ -115,4 +122,84 @@ public class CachingStAXPipelineComponentTest {
 
         verify(cache, targetComponent, elementsProvider);
     }
+
+    @Test
+    public void testHungLoader() throws Exception {
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+
+        final StAXPipelineComponent targetComponent =
+                new StAXPipelineComponent() {
+                    @Override
+                    public CacheKey getCacheKey(
+                            HttpServletRequest request, HttpServletResponse response) {
+                        return cacheKey;
+                    }
+
+                    @Override
+                    public PipelineEventReader<XMLEventReader, XMLEvent> getEventReader(
+                            HttpServletRequest request, HttpServletResponse response) {
+                        if (loads.incrementAndGet() == 1) {
+                            loading.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        final List<XMLEvent> eventBuffer = Collections.emptyList();
+                        return new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(
+                                new XMLEventBufferReader(eventBuffer.listIterator()));
+                    }
+                };
+
+        final Ehcache cache = createNiceMock(Ehcache.class);
+        final ResourcesElementsProvider elementsProvider =
+                createNiceMock(ResourcesElementsProvider.class);
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED).anyTimes();
+        replay(cache, elementsProvider);
+
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+        cachingComponent.setLoaderWaitTime(50);
+
+        final Thread loader =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        cachingComponent.getEventReader(
+                                new MockHttpServletRequest(), new MockHttpServletResponse());
+                    }
+                };
+        loader.start();
+        loading.await();
+
+        try {
+            //Waits for the hung loader then loads the events itself
+            Assert.assertNotNull(
+                    cachingComponent.getEventReader(
+                            new MockHttpServletRequest(), new MockHttpServletResponse()));
+            Assert.assertEquals(2, loads.get());
+
+            //Stops waiting when interrupted
+            cachingComponent.setLoaderWaitTime(60000);
+            Thread.currentThread().interrupt();
+            try {
+                cachingComponent.getEventReader(
+                        new MockHttpServletRequest(), new MockHttpServletResponse());
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                //expected
+            }
+            Assert.assertTrue(Thread.interrupted());
+            Assert.assertEquals(2, loads.get());
+        } finally {
+            release.countDown();
+            loader.join();
+        }
+    }
 }
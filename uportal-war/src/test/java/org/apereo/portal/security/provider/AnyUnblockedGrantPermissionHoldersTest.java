@@ -0,0 +1,221 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.dao.IPermissionOwnerDao;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.permission.target.IPermissionTarget.TargetType;
+import org.apereo.portal.permission.target.IPermissionTargetProvider;
+import org.apereo.portal.permission.target.IPermissionTargetProviderRegistry;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/** Tests the permission holders index used by {@link AnyUnblockedGrantPermissionPolicy}. */
+public class AnyUnblockedGrantPermissionHoldersTest {
+
+    private static final String OWNER = "UP_PORTLET_SUBSCRIBE";
+    private static final String ACTIVITY = "SUBSCRIBE";
+    private static final String TARGET = "PORTLET_ID_1";
+
+    private AnyUnblockedGrantPermissionPolicy policy;
+    private IAuthorizationService service;
+    private IPermissionOwner owner;
+    private IPermissionActivity activity;
+    private IPermissionTarget target;
+
+    private IAuthorizationPrincipal userPrincipal;
+    private IGroupMember userMember;
+    private IAuthorizationPrincipal groupPrincipal;
+    private IEntityGroup group;
+
+    @Before
+    public void setUp() {
+        policy = new AnyUnblockedGrantPermissionPolicy();
+        service = mock(IAuthorizationService.class);
+
+        final IPermissionOwnerDao permissionOwnerDao = mock(IPermissionOwnerDao.class);
+        final IPermissionActivity allActivity = mock(IPermissionActivity.class);
+        when(allActivity.getFname()).thenReturn(IPermission.ALL_PERMISSIONS_ACTIVITY);
+        final IPermissionOwner systemOwner = mock(IPermissionOwner.class);
+        when(systemOwner.getFname()).thenReturn(IPermission.PORTAL_SYSTEM);
+        when(permissionOwnerDao.getPermissionActivity(
+                        IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY))
+                .thenReturn(allActivity);
+        when(permissionOwnerDao.getPermissionOwner(IPermission.PORTAL_SYSTEM))
+                .thenReturn(systemOwner);
+
+        final IPermissionTargetProviderRegistry targetProviderRegistry =
+                mock(IPermissionTargetProviderRegistry.class);
+        final IPermissionTargetProvider targetProvider = mock(IPermissionTargetProvider.class);
+        when(targetProviderRegistry.getTargetProvider(anyString())).thenReturn(targetProvider);
+        final IPermissionTarget allTarget = mockTarget(IPermission.ALL_TARGET, TargetType.OTHER);
+        when(targetProvider.getTarget(IPermission.ALL_TARGET)).thenReturn(allTarget);
+        final IPermissionTarget allPortletsTarget =
+                mockTarget(IPermission.ALL_PORTLETS_TARGET, TargetType.PORTLET);
+        when(targetProvider.getTarget(IPermission.ALL_PORTLETS_TARGET))
+                .thenReturn(allPortletsTarget);
+
+        ReflectionTestUtils.setField(policy, "permissionOwnerDao", permissionOwnerDao);
+        ReflectionTestUtils.setField(policy, "targetProviderRegistry", targetProviderRegistry);
+        ReflectionTestUtils.setField(
+                policy, "hasUnblockedGrantCache", newCache("hasUnblockedGrant"));
+        ReflectionTestUtils.setField(
+                policy, "permissionHoldersCache", newCache("permissionHolders"));
+
+        owner = mock(IPermissionOwner.class);
+        when(owner.getFname()).thenReturn(OWNER);
+        activity = mock(IPermissionActivity.class);
+        when(activity.getFname()).thenReturn(ACTIVITY);
+        target = mockTarget(TARGET, TargetType.PORTLET);
+
+        userPrincipal = mock(IAuthorizationPrincipal.class);
+        when(userPrincipal.getPrincipalString()).thenReturn("3.student");
+        userMember = mock(IGroupMember.class);
+        when(service.getGroupMember(userPrincipal)).thenReturn(userMember);
+
+        groupPrincipal = mock(IAuthorizationPrincipal.class);
+        when(groupPrincipal.getPrincipalString()).thenReturn("2.local.1");
+        group = mock(IEntityGroup.class);
+        when(service.newPrincipal(group)).thenReturn(groupPrincipal);
+        when(service.getGroupMember(groupPrincipal)).thenReturn(group);
+
+        when(userMember.getAncestorGroups()).thenReturn(Collections.singleton(group));
+        when(userMember.getParentGroups()).thenReturn(Collections.singleton(group));
+        when(group.getAncestorGroups()).thenReturn(Collections.<IEntityGroup>emptySet());
+        when(group.getParentGroups()).thenReturn(Collections.<IEntityGroup>emptySet());
+
+        when(service.getPermissionsForOwner(anyString(), anyString(), (String) any()))
+                .thenReturn(new IPermission[0]);
+        when(service.getPermissionsForPrincipal(
+                        any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString()))
+                .thenReturn(new IPermission[0]);
+    }
+
+    @Test
+    public void testNoHolders() {
+        assertFalse(
+                policy.doesPrincipalHavePermission(
+                        service, userPrincipal, owner, activity, target));
+        verify(userMember, never()).getParentGroups();
+    }
+
+    @Test
+    public void testGrantToAncestor() {
+        final IPermission grant = newPermission("2.local.1", IPermission.PERMISSION_TYPE_GRANT);
+        when(service.getPermissionsForOwner(OWNER, ACTIVITY, null))
+                .thenReturn(new IPermission[] {grant});
+        when(service.getPermissionsForPrincipal(groupPrincipal, OWNER, ACTIVITY, TARGET))
+                .thenReturn(new IPermission[] {grant});
+
+        assertTrue(
+                policy.doesPrincipalHavePermission(
+                        service, userPrincipal, owner, activity, target));
+        // Answered from the index without walking the groups tree
+        verify(userMember, never()).getParentGroups();
+        verify(service, never())
+                .getPermissionsForPrincipal(
+                        eq(userPrincipal), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void testGrantForOtherTarget() {
+        final IPermission grant = newPermission("2.local.1", IPermission.PERMISSION_TYPE_GRANT);
+        when(service.getPermissionsForOwner(OWNER, ACTIVITY, null))
+                .thenReturn(new IPermission[] {grant});
+
+        assertFalse(
+                policy.doesPrincipalHavePermission(
+                        service, userPrincipal, owner, activity, target));
+        verify(userMember, never()).getParentGroups();
+    }
+
+    @Test
+    public void testDenyBlocksGrant() {
+        final IPermission grant = newPermission("2.local.1", IPermission.PERMISSION_TYPE_GRANT);
+        final IPermission deny = newPermission("3.student", IPermission.PERMISSION_TYPE_DENY);
+        when(service.getPermissionsForOwner(OWNER, ACTIVITY, null))
+                .thenReturn(new IPermission[] {grant, deny});
+        when(service.getPermissionsForPrincipal(groupPrincipal, OWNER, ACTIVITY, TARGET))
+                .thenReturn(new IPermission[] {grant});
+        when(service.getPermissionsForPrincipal(userPrincipal, OWNER, ACTIVITY, TARGET))
+                .thenReturn(new IPermission[] {deny});
+
+        assertFalse(
+                policy.doesPrincipalHavePermission(
+                        service, userPrincipal, owner, activity, target));
+    }
+
+    @Test
+    public void testDenyForOtherTarget() {
+        final IPermission grant = newPermission("2.local.1", IPermission.PERMISSION_TYPE_GRANT);
+        final IPermission deny = newPermission("3.student", IPermission.PERMISSION_TYPE_DENY);
+        when(service.getPermissionsForOwner(OWNER, ACTIVITY, null))
+                .thenReturn(new IPermission[] {grant, deny});
+        when(service.getPermissionsForPrincipal(groupPrincipal, OWNER, ACTIVITY, TARGET))
+                .thenReturn(new IPermission[] {grant});
+
+        // A DENY holder on the path falls back to walking the groups tree
+        assertTrue(
+                policy.doesPrincipalHavePermission(
+                        service, userPrincipal, owner, activity, target));
+        verify(userMember, atLeastOnce()).getParentGroups();
+    }
+
+    private static Cache newCache(String name) {
+        final CacheManager cacheManager = CacheManager.getInstance();
+        cacheManager.removeCache(name);
+        final Cache rslt = new Cache(name, 100, false, false, 0, 0);
+        cacheManager.addCache(rslt);
+        return rslt;
+    }
+
+    private static IPermissionTarget mockTarget(String key, TargetType type) {
+        final IPermissionTarget rslt = mock(IPermissionTarget.class);
+        when(rslt.getKey()).thenReturn(key);
+        when(rslt.getTargetType()).thenReturn(type);
+        return rslt;
+    }
+
+    private static IPermission newPermission(String principal, String type) {
+        final IPermission rslt = new PermissionImpl(OWNER);
+        rslt.setPrincipal(principal);
+        rslt.setActivity(ACTIVITY);
+        rslt.setTarget(TARGET);
+        rslt.setType(type);
+        return rslt;
+    }
+}
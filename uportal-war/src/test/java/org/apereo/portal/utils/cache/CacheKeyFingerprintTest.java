@@ -0,0 +1,114 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+import org.junit.Test;
+
+public class CacheKeyFingerprintTest {
+    @Test
+    public void testEqualKeysHaveEqualFingerprints() {
+        final CacheKey parent = CacheKey.build("parent", "user1", 42, Locale.US);
+        final CacheKey key = CacheKey.build("child", parent, null, new String[] {"a", "b"});
+
+        final CacheKey sameParent = CacheKey.build("parent", "user1", 42, Locale.US);
+        final CacheKey sameKey =
+                CacheKey.buildTagged(
+                        "child",
+                        UsernameTaggedCacheEntryPurger.createCacheEntryTag("user1"),
+                        sameParent,
+                        null,
+                        new String[] {"a", "b"});
+
+        assertEquals(key, sameKey);
+        assertEquals(key.getFingerprint(), sameKey.getFingerprint());
+        assertEquals(key.getFingerprint().hashCode(), sameKey.getFingerprint().hashCode());
+        assertSame(key.getFingerprint(), key.getFingerprint());
+    }
+
+    @Test
+    public void testDifferentKeysHaveDifferentFingerprints() {
+        final CacheKey key = CacheKey.build("source", "ab", "c");
+
+        assertNotEquals(key.getFingerprint(), CacheKey.build("source", "a", "bc").getFingerprint());
+        assertNotEquals(key.getFingerprint(), CacheKey.build("other", "ab", "c").getFingerprint());
+        assertNotEquals(
+                CacheKey.build("source", 1).getFingerprint(),
+                CacheKey.build("source", 1L).getFingerprint());
+        assertNotEquals(
+                CacheKey.build("source", Locale.US).getFingerprint(),
+                CacheKey.build("source", Locale.UK).getFingerprint());
+    }
+
+    @Test
+    public void testMapsAndSetsIgnoreOrder() {
+        final LinkedHashMap<String, Serializable> map = new LinkedHashMap<String, Serializable>();
+        map.put("a", 1);
+        map.put("b", new HashSet<String>(Arrays.asList("x", "y")));
+        final LinkedHashMap<String, Serializable> reversed =
+                new LinkedHashMap<String, Serializable>();
+        reversed.put("b", new TreeSet<String>(Arrays.asList("y", "x")));
+        reversed.put("a", 1);
+
+        final CacheKey key = CacheKey.build("source", "map", map);
+        final CacheKey reversedKey = CacheKey.build("source", "map", reversed);
+        assertEquals(key, reversedKey);
+        assertEquals(key.getFingerprint(), reversedKey.getFingerprint());
+
+        final Properties properties = new Properties();
+        properties.setProperty("method", "html");
+        properties.setProperty("indent", "no");
+        final Properties sameProperties = new Properties();
+        sameProperties.setProperty("indent", "no");
+        sameProperties.setProperty("method", "html");
+        assertEquals(
+                CacheKey.build("source", "properties", properties).getFingerprint(),
+                CacheKey.build("source", "properties", sameProperties).getFingerprint());
+
+        sameProperties.setProperty("indent", "yes");
+        assertNotEquals(
+                CacheKey.build("source", "properties", properties).getFingerprint(),
+                CacheKey.build("source", "properties", sameProperties).getFingerprint());
+    }
+
+    @Test
+    public void testUnsupportedComponentUsesKey() {
+        final LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("notSerializable", new Object());
+
+        final CacheKey key = CacheKey.build("source", "a", map);
+        assertNull(key.getFingerprint());
+        assertSame(key, key.getLookupKey());
+
+        //Keys nesting a key without a fingerprint have none either
+        final CacheKey parent = CacheKey.build("parent", key);
+        assertNull(parent.getFingerprint());
+        assertSame(parent, parent.getLookupKey());
+
+        final CacheKey supported = CacheKey.build("source", "a");
+        assertEquals(supported.getFingerprint(), supported.getLookupKey());
+    }
+}
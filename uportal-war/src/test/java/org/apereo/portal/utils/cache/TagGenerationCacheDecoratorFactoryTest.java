@@ -0,0 +1,122 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TagGenerationCacheDecoratorFactoryTest {
+    private TagGenerationCacheDecoratorFactory decoratorFactory;
+    private TagGenerationCacheEntryPurger purger;
+    private Ehcache tagGenerationCache;
+    private Ehcache cache;
+
+    @Before
+    public void setup() {
+        purger = new TagGenerationCacheEntryPurger();
+        tagGenerationCache = newCache("tagGenerations", 60);
+        purger.setTagGenerationCache(tagGenerationCache);
+
+        decoratorFactory = new TagGenerationCacheDecoratorFactory();
+        decoratorFactory.setTagGenerationCacheEntryPurger(purger);
+
+        cache = decoratorFactory.createDecoratedEhcache(newCache("taggedCache", 0), null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        decoratorFactory.destroy();
+    }
+
+    @Test
+    public void testPurgeInvalidatesTaggedEntries() {
+        final CacheEntryTag userTag = UsernameTaggedCacheEntryPurger.createCacheEntryTag("user1");
+        final CacheEntryTag otherTag = UsernameTaggedCacheEntryPurger.createCacheEntryTag("user2");
+
+        final CacheKey userKey = CacheKey.buildTagged("test", userTag, "a");
+        final CacheKey otherKey = CacheKey.buildTagged("test", otherTag, "b");
+        cache.put(new Element(userKey, "userValue"));
+        cache.put(new Element(otherKey, "otherValue"));
+        cache.put(new Element("untagged", "untaggedValue"));
+
+        assertNotNull(cache.get(userKey));
+
+        assertEquals(1, purger.purgeCacheEntries(userTag));
+
+        assertNull(cache.get(userKey));
+        assertEquals("otherValue", cache.get(otherKey).getObjectValue());
+        assertEquals("untaggedValue", cache.get("untagged").getObjectValue());
+
+        //Entries stored after the purge are visible again
+        cache.put(new Element(userKey, "newUserValue"));
+        assertEquals("newUserValue", cache.get(userKey).getObjectValue());
+
+        purger.purgeCacheEntries(userTag);
+        assertNull(cache.get(userKey));
+    }
+
+    @Test
+    public void testReplicatedElementKeepsStamp() {
+        final CacheEntryTag userTag = UsernameTaggedCacheEntryPurger.createCacheEntryTag("user1");
+        final CacheKey userKey = CacheKey.buildTagged("test", userTag, "a");
+
+        //Stamped on a node that has not seen any purge of the tag
+        final Element element = new Element(userKey, "userValue");
+        element.setVersion(0);
+
+        purger.purgeCacheEntries(userTag);
+        cache.put(element, true);
+
+        assertNull(cache.get(userKey));
+    }
+
+    @Test
+    public void testExpiredGenerationDoesNotRevivePurgedEntry() {
+        final CacheEntryTag userTag = UsernameTaggedCacheEntryPurger.createCacheEntryTag("user1");
+        final CacheKey userKey = CacheKey.buildTagged("test", userTag, "a");
+
+        //Stored two minutes ago, before the tag was purged
+        final long created = System.currentTimeMillis() - 120000;
+        cache.put(new Element(userKey, "userValue", 0, created, created, 0, false, 0, 0, created));
+        purger.purgeCacheEntries(userTag);
+        assertNull(cache.get(userKey));
+
+        //The generation ages out, the entry must not match its old stamp again
+        cache.put(new Element(userKey, "userValue", 0, created, created, 0, false, 0, 0, created));
+        tagGenerationCache.remove(userTag);
+        assertNull(cache.get(userKey));
+
+        //Recently stored entries are unaffected
+        cache.put(new Element(userKey, "newUserValue"));
+        assertEquals("newUserValue", cache.get(userKey).getObjectValue());
+    }
+
+    private static Cache newCache(String name, long timeToLiveSeconds) {
+        final CacheManager cacheManager = CacheManager.getInstance();
+        cacheManager.removeCache(name);
+        final Cache rslt = new Cache(name, 100, false, false, timeToLiveSeconds, 0);
+        cacheManager.addCache(rslt);
+        return rslt;
+    }
+}
@@ -15,10 +15,15 @@
 package org.apereo.portal.xml.stream;
 
 import java.io.InputStream;
+import java.io.StringWriter;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.transform.dom.DOMSource;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
@@ -50,4 +55,24 @@ public class Dom2StAXTest {
         final DOMSource source = new DOMSource(this.document);
         newFactory.createXMLStreamReader(source);
     }
+
+    @Test
+    public void testDomXMLEventReader() throws Exception {
+        final XMLInputFactory newFactory = XMLInputFactory.newFactory();
+        final DOMSource source = new DOMSource(this.document);
+        final String expected = this.write(newFactory.createXMLEventReader(source));
+
+        final String actual = this.write(new DomXMLEventReader(this.document));
+
+        Assert.assertEquals(expected, actual);
+    }
+
+    private String write(XMLEventReader reader) throws Exception {
+        final StringWriter writer = new StringWriter();
+        final XMLEventWriter eventWriter =
+                XMLOutputFactory.newFactory().createXMLEventWriter(writer);
+        eventWriter.add(reader);
+        eventWriter.close();
+        return writer.toString();
+    }
 }